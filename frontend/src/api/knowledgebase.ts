@@ -1,4 +1,5 @@
-import { request, getErrorMessage } from './request';
+import { request } from './request';
+import { streamWithResume } from './sse';
 
 const API_BASE_URL = import.meta.env.PROD ? '' : 'http://localhost:8080';
 
@@ -171,7 +172,7 @@ export const knowledgeBaseApi = {
 
   /**
    * 基于知识库回答问题（流式SSE）
-   * 注意：SSE 使用 fetch API，不走统一的 axios 封装
+   * 注意：SSE 使用 fetch API，不走统一的 axios 封装；连接中途断开时凭 Last-Event-ID 回放，不重新生成回答
    */
   async queryKnowledgeBaseStream(
     req: QueryRequest,
@@ -179,91 +180,20 @@ export const knowledgeBaseApi = {
     onComplete: () => void,
     onError: (error: Error) => void
   ): Promise<void> {
-    try {
-      const response = await fetch(`${API_BASE_URL}/api/knowledgebase/query/stream`, {
+    return streamWithResume({
+      open: () => fetch(`${API_BASE_URL}/api/knowledgebase/query/stream`, {
         method: 'POST',
         headers: {
           'Content-Type': 'application/json',
         },
         body: JSON.stringify(req),
-      });
-
-      if (!response.ok) {
-        // 尝试解析错误响应
-        try {
-          const errorData = await response.json();
-          if (errorData && errorData.message) {
-            throw new Error(errorData.message);
-          }
-        } catch {
-          // 忽略解析错误
-        }
-        throw new Error(`请求失败 (${response.status})`);
-      }
-
-      const reader = response.body?.getReader();
-      if (!reader) {
-        throw new Error('无法获取响应流');
-      }
-
-      const decoder = new TextDecoder();
-      let buffer = '';
-
-      // 辅助函数：处理 data: 行并提取内容
-      const extractContent = (line: string): string | null => {
-        if (!line.startsWith('data:')) {
-          return null;
-        }
-        let content = line.substring(5); // 移除 "data:" 前缀
-        // SSE 标准：如果 data: 后第一个字符是空格，这是协议层面的空格，应该移除
-        // 但这是可选的，有些实现可能没有这个空格
-        if (content.startsWith(' ')) {
-          content = content.substring(1);
-        }
-        // 如果内容为空（data: 或 data: ），可能表示换行，返回换行符
-        if (content.length === 0) {
-          return '\n';
-        }
-        return content;
-      };
-
-      while (true) {
-        const { done, value } = await reader.read();
-
-        if (done) {
-          // 处理剩余的 buffer
-          if (buffer) {
-            const content = extractContent(buffer);
-            if (content) {
-              onMessage(content);
-            }
-          }
-          onComplete();
-          break;
-        }
-
-        // 解码数据块并添加到 buffer
-        buffer += decoder.decode(value, { stream: true });
-
-        // 按行分割处理 SSE 格式
-        // SSE 格式：data: content\n 或 data:content\n，空行 \n\n 表示事件结束
-        const lines = buffer.split('\n');
-        // 保留最后一行（可能不完整，等待更多数据）
-        buffer = lines.pop() || '';
-
-        // 处理完整的行
-        for (const line of lines) {
-          const content = extractContent(line);
-          if (content !== null) {
-            // 发送内容（保留所有格式，包括空格、换行等，因为 Markdown 需要）
-            onMessage(content);
-          }
-          // 空行（line === ''）在 SSE 中表示事件结束，但我们不需要特殊处理
-          // 因为每个 data: 行已经是一个完整的数据块
-        }
-      }
-    } catch (error) {
-      onError(new Error(getErrorMessage(error)));
-    }
+      }),
+      resume: (lastEventId) => fetch(`${API_BASE_URL}/api/knowledgebase/query/stream`, {
+        headers: { 'Last-Event-ID': lastEventId },
+      }),
+      onMessage,
+      onComplete,
+      onError,
+    });
   },
 };
@@ -1,4 +1,5 @@
-import { request, getErrorMessage } from './request';
+import { request } from './request';
+import { streamWithResume } from './sse';
 
 const API_BASE_URL = import.meta.env.PROD ? '' : 'http://localhost:8080';
 
@@ -20,10 +21,17 @@ export interface RagChatSessionListItem {
   isPinned: boolean;
 }
 
+export interface RagChatSessionPage {
+  items: RagChatSessionListItem[];
+  nextCursor: string | null;
+  hasMore: boolean;
+}
+
 export interface RagChatMessage {
   id: number;
   type: 'user' | 'assistant';
   content: string;
+  completed: boolean;
   createdAt: string;
 }
 
@@ -46,10 +54,31 @@ export interface RagChatSessionDetail {
   messages: RagChatMessage[];
   createdAt: string;
   updatedAt: string;
+  hasMoreMessages: boolean;
+  messageCursor: number | null;
+}
+
+export interface RagChatMessagePage {
+  messages: RagChatMessage[];
+  hasMore: boolean;
+  nextCursor: number | null;
 }
 
 // ========== API 函数 ==========
 
+/**
+ * 断线重连后续传流式回答
+ * 回放缓冲仍在时服务端凭 Last-Event-ID 从 Redis 回放，否则从已写入消息的第 offset 个字符之后续传
+ */
+function resumeMessageStream(sessionId: number, lastEventId: string, offset: number): Promise<Response> {
+  // 事件ID格式为 "chat-消息ID:序号"
+  const messageId = lastEventId.substring('chat-'.length, lastEventId.lastIndexOf(':'));
+  return fetch(
+    `${API_BASE_URL}/api/rag-chat/sessions/${sessionId}/messages/${messageId}/stream?offset=${offset}`,
+    { headers: { 'Last-Event-ID': lastEventId } }
+  );
+}
+
 export const ragChatApi = {
   /**
    * 创建新会话
@@ -68,6 +97,15 @@ export const ragChatApi = {
     return request.get<RagChatSessionListItem[]>('/api/rag-chat/sessions');
   },
 
+  /**
+   * 分页获取会话列表，cursor 为上一页返回的 nextCursor
+   */
+  async listSessionPage(cursor?: string | null, limit = 20): Promise<RagChatSessionPage> {
+    return request.get<RagChatSessionPage>('/api/rag-chat/sessions/page', {
+      params: { cursor: cursor ?? undefined, limit },
+    });
+  },
+
   /**
    * 获取会话详情
    */
@@ -75,6 +113,15 @@ export const ragChatApi = {
     return request.get<RagChatSessionDetail>(`/api/rag-chat/sessions/${sessionId}`);
   },
 
+  /**
+   * 加载更早的消息，before 为上一页返回的游标
+   */
+  async listMessages(sessionId: number, before: number, limit = 20): Promise<RagChatMessagePage> {
+    return request.get<RagChatMessagePage>(`/api/rag-chat/sessions/${sessionId}/messages`, {
+      params: { before, limit },
+    });
+  },
+
   /**
    * 更新会话标题
    */
@@ -107,6 +154,7 @@ export const ragChatApi = {
 
   /**
    * 发送消息（流式SSE）
+   * 连接中途断开时凭最后收到的事件ID续传（事件ID为 "chat-消息ID:序号"），不重新提问
    */
   async sendMessageStream(
     sessionId: number,
@@ -115,103 +163,19 @@ export const ragChatApi = {
     onComplete: () => void,
     onError: (error: Error) => void
   ): Promise<void> {
-    try {
-      const response = await fetch(
+    return streamWithResume({
+      open: () => fetch(
         `${API_BASE_URL}/api/rag-chat/sessions/${sessionId}/messages/stream`,
         {
           method: 'POST',
           headers: { 'Content-Type': 'application/json' },
           body: JSON.stringify({ question }),
         }
-      );
-
-      if (!response.ok) {
-        // 尝试解析错误响应
-        try {
-          const errorData = await response.json();
-          if (errorData && errorData.message) {
-            throw new Error(errorData.message);
-          }
-        } catch {
-          // 忽略解析错误
-        }
-        throw new Error(`请求失败 (${response.status})`);
-      }
-
-      const reader = response.body?.getReader();
-      if (!reader) {
-        throw new Error('无法获取响应流');
-      }
-
-      const decoder = new TextDecoder();
-      let buffer = '';
-
-      // 从 SSE 事件中提取内容
-      const extractEventContent = (event: string): string | null => {
-        if (!event.trim()) return null;
-
-        const lines = event.split('\n');
-        const contentParts: string[] = [];
-
-        for (const line of lines) {
-          if (line.startsWith('data:')) {
-            // 提取 data: 后面的内容，保留原始格式（包括缩进空格）
-            // ServerSentEvent 不会在 data: 后添加额外空格
-            contentParts.push(line.substring(5));
-          }
-        }
-
-        if (contentParts.length === 0) return null;
-
-        // 合并内容并还原转义的换行符
-        return contentParts.join('')
-          .replace(/\\n/g, '\n')
-          .replace(/\\r/g, '\r');
-      };
-
-      while (true) {
-        const { done, value } = await reader.read();
-
-        if (done) {
-          if (buffer) {
-            const content = extractEventContent(buffer);
-            if (content) {
-              onMessage(content);
-            }
-          }
-          onComplete();
-          break;
-        }
-
-        buffer += decoder.decode(value, { stream: true });
-
-        // SSE 事件以 \n\n 分隔，但也需要处理单行的情况
-        let newlineIndex = buffer.indexOf('\n\n');
-        if (newlineIndex === -1) {
-          // 如果没有找到 \n\n，尝试处理单行 data: 格式
-          const singleLineIndex = buffer.indexOf('\n');
-          if (singleLineIndex !== -1 && buffer.substring(0, singleLineIndex).startsWith('data:')) {
-            const line = buffer.substring(0, singleLineIndex);
-            const content = extractEventContent(line);
-            if (content) {
-              onMessage(content);
-            }
-            buffer = buffer.substring(singleLineIndex + 1);
-          }
-          continue;
-        }
-
-        // 处理完整的事件块
-        const eventBlock = buffer.substring(0, newlineIndex);
-        buffer = buffer.substring(newlineIndex + 2);
-
-        const content = extractEventContent(eventBlock);
-        if (content !== null) {
-          onMessage(content);
-        }
-      }
-    } catch (error) {
-      onError(new Error(getErrorMessage(error)));
-    }
+      ),
+      resume: (lastEventId, received) => resumeMessageStream(sessionId, lastEventId, received),
+      onMessage,
+      onComplete,
+      onError,
+    });
   },
 };
@@ -0,0 +1,144 @@
+/**
+ * 基于 fetch 的 SSE 读取与断线续传
+ *
+ * 流式接口是 POST 请求，浏览器不会像 EventSource 那样自动重连，这里手动实现：
+ * 记录最后收到的事件ID（服务端格式为 "流ID:序号"）和已收到的字符数，连接中途断开时
+ * 带 Last-Event-ID 请求续传接口，服务端从 Redis 回放之后的帧并继续推送，不重新生成回答。
+ */
+
+export interface SseEvent {
+  id: string | null;
+  data: string;
+}
+
+export interface ResumableStreamOptions {
+  /** 发起流式请求 */
+  open: () => Promise<Response>;
+  /** 断线后发起续传请求，lastEventId 为最后收到的事件ID，received 为已收到的字符数（按 Unicode 码点计） */
+  resume: (lastEventId: string, received: number) => Promise<Response>;
+  onMessage: (chunk: string) => void;
+  onComplete: () => void;
+  onError: (error: Error) => void;
+  /** 最多续传次数 */
+  maxRetries?: number;
+}
+
+const RETRY_DELAY_MS = 1000;
+
+/**
+ * 响应状态码非 2xx 时抛出服务端返回的错误信息
+ */
+export async function ensureOk(response: Response): Promise<Response> {
+  if (response.ok) {
+    return response;
+  }
+  let message = `请求失败 (${response.status})`;
+  try {
+    const errorData = await response.json();
+    if (errorData && errorData.message) {
+      message = errorData.message;
+    }
+  } catch {
+    // 忽略解析错误
+  }
+  throw new Error(message);
+}
+
+/**
+ * 按行解析 SSE 事件，空行表示事件结束，以 : 开头的心跳注释忽略
+ * 服务端按帧发送，帧内换行符已转义，这里还原
+ */
+export async function readSseEvents(response: Response, onEvent: (event: SseEvent) => void): Promise<void> {
+  const reader = response.body?.getReader();
+  if (!reader) {
+    throw new Error('无法获取响应流');
+  }
+
+  const decoder = new TextDecoder();
+  let buffer = '';
+  let id: string | null = null;
+  let dataLines: string[] = [];
+
+  const dispatch = () => {
+    if (dataLines.length > 0) {
+      const data = dataLines.join('')
+        .replace(/\\n/g, '\n')
+        .replace(/\\r/g, '\r');
+      onEvent({ id, data });
+    }
+    id = null;
+    dataLines = [];
+  };
+
+  const handleLine = (rawLine: string) => {
+    const line = rawLine.endsWith('\r') ? rawLine.slice(0, -1) : rawLine;
+    if (line === '') {
+      dispatch();
+    } else if (line.startsWith('data:')) {
+      // ServerSentEvent 不会在 data: 后添加额外空格，保留原始内容（包括前导空格）
+      dataLines.push(line.substring(5));
+    } else if (line.startsWith('id:')) {
+      id = line.substring(3).trim();
+    }
+  };
+
+  while (true) {
+    const { done, value } = await reader.read();
+    if (done) {
+      buffer += decoder.decode();
+      if (buffer) {
+        handleLine(buffer);
+      }
+      dispatch();
+      return;
+    }
+
+    buffer += decoder.decode(value, { stream: true });
+    const lines = buffer.split('\n');
+    // 保留最后一行（可能不完整，等待更多数据）
+    buffer = lines.pop() || '';
+    lines.forEach(handleLine);
+  }
+}
+
+/**
+ * 读取可续传的 SSE 流：连接中途断开（网络错误）时带 Last-Event-ID 续传，直到服务端正常结束
+ * 还没收到任何带ID的事件时无法续传，直接报错
+ */
+export async function streamWithResume(options: ResumableStreamOptions): Promise<void> {
+  const { open, resume, onMessage, onComplete, onError, maxRetries = 3 } = options;
+  // 在事件回调中更新，用对象保存以免被类型收窄
+  const progress = { lastEventId: null as string | null, received: 0 };
+
+  const onEvent = (event: SseEvent) => {
+    if (event.id) {
+      progress.lastEventId = event.id;
+    }
+    progress.received += [...event.data].length;
+    onMessage(event.data);
+  };
+
+  try {
+    let response: Response | null = await ensureOk(await open());
+    let retries = 0;
+    while (true) {
+      try {
+        if (response === null) {
+          response = await ensureOk(await resume(progress.lastEventId ?? '', progress.received));
+        }
+        await readSseEvents(response, onEvent);
+        onComplete();
+        return;
+      } catch (error) {
+        if (progress.lastEventId === null || retries >= maxRetries) {
+          throw error;
+        }
+        retries++;
+        response = null;
+        await new Promise(resolve => setTimeout(resolve, RETRY_DELAY_MS * retries));
+      }
+    }
+  } catch (error) {
+    onError(error instanceof Error ? error : new Error('未知错误'));
+  }
+}
@@ -4,7 +4,7 @@ import ReactMarkdown from 'react-markdown';
 import remarkGfm from 'remark-gfm';
 import { Virtuoso, type VirtuosoHandle } from 'react-virtuoso';
 import { knowledgeBaseApi, type KnowledgeBaseItem, type SortOption } from '../api/knowledgebase';
-import { ragChatApi, type RagChatSessionListItem } from '../api/ragChat';
+import { ragChatApi, type RagChatMessage, type RagChatSessionListItem } from '../api/ragChat';
 import { formatDateOnly } from '../utils/date';
 import DeleteConfirmDialog from '../components/DeleteConfirmDialog';
 import CodeBlock from '../components/CodeBlock';
@@ -30,6 +30,16 @@ interface Message {
   timestamp: Date;
 }
 
+// 消息列表起始索引，向前加载更早消息时递减
+const MESSAGE_INDEX_BASE = 1_000_000;
+
+const toMessage = (m: RagChatMessage): Message => ({
+  id: m.id,
+  type: m.type,
+  content: m.content,
+  timestamp: new Date(m.createdAt),
+});
+
 interface CategoryGroup {
   name: string;
   items: KnowledgeBaseItem[];
@@ -55,6 +65,8 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
   const [currentSessionId, setCurrentSessionId] = useState<number | null>(null);
   const [currentSessionTitle, setCurrentSessionTitle] = useState<string>('');
   const [loadingSessions, setLoadingSessions] = useState(false);
+  const [sessionCursor, setSessionCursor] = useState<string | null>(null);
+  const [loadingMoreSessions, setLoadingMoreSessions] = useState(false);
   const [sessionDeleteConfirm, setSessionDeleteConfirm] = useState<{ id: number; title: string } | null>(null);
   const [editingSessionTitle, setEditingSessionTitle] = useState<{ id: number; title: string } | null>(null);
   const [newSessionTitle, setNewSessionTitle] = useState('');
@@ -62,6 +74,10 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
   // 消息状态
   const [question, setQuestion] = useState('');
   const [messages, setMessages] = useState<Message[]>([]);
+  const [messageCursor, setMessageCursor] = useState<number | null>(null);
+  const [loadingOlderMessages, setLoadingOlderMessages] = useState(false);
+  // Virtuoso 在列表头部插入更早消息时依赖 firstItemIndex 保持滚动位置
+  const [firstItemIndex, setFirstItemIndex] = useState(MESSAGE_INDEX_BASE);
   const [loading, setLoading] = useState(false);
 
   // refs
@@ -154,8 +170,9 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
   const loadSessions = async () => {
     setLoadingSessions(true);
     try {
-      const list = await ragChatApi.listSessions();
-      setSessions(list);
+      const page = await ragChatApi.listSessionPage();
+      setSessions(page.items);
+      setSessionCursor(page.nextCursor);
     } catch (err) {
       console.error('加载会话列表失败', err);
     } finally {
@@ -163,6 +180,20 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
     }
   };
 
+  const loadMoreSessions = async () => {
+    if (!sessionCursor || loadingMoreSessions) return;
+    setLoadingMoreSessions(true);
+    try {
+      const page = await ragChatApi.listSessionPage(sessionCursor);
+      setSessions(prev => [...prev, ...page.items]);
+      setSessionCursor(page.nextCursor);
+    } catch (err) {
+      console.error('加载更多会话失败', err);
+    } finally {
+      setLoadingMoreSessions(false);
+    }
+  };
+
   const handleToggleKb = (kbId: number) => {
     setSelectedKbIds(prev => {
       const newSet = new Set(prev);
@@ -175,6 +206,7 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
         setCurrentSessionId(null);
         setCurrentSessionTitle('');
         setMessages([]);
+        setMessageCursor(null);
       }
       return newSet;
     });
@@ -184,6 +216,7 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
     setCurrentSessionId(null);
     setCurrentSessionTitle('');
     setMessages([]);
+    setMessageCursor(null);
   };
 
   const handleLoadSession = async (sessionId: number) => {
@@ -192,17 +225,29 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
       setCurrentSessionId(detail.id);
       setCurrentSessionTitle(detail.title);
       setSelectedKbIds(new Set(detail.knowledgeBases.map(kb => kb.id)));
-      setMessages(detail.messages.map(m => ({
-        id: m.id,
-        type: m.type,
-        content: m.content,
-        timestamp: new Date(m.createdAt),
-      })));
+      setMessages(detail.messages.map(toMessage));
+      setMessageCursor(detail.messageCursor);
+      setFirstItemIndex(MESSAGE_INDEX_BASE);
     } catch (err) {
       console.error('加载会话失败', err);
     }
   };
 
+  const loadOlderMessages = async () => {
+    if (!currentSessionId || messageCursor === null || loadingOlderMessages) return;
+    setLoadingOlderMessages(true);
+    try {
+      const page = await ragChatApi.listMessages(currentSessionId, messageCursor);
+      setFirstItemIndex(prev => prev - page.messages.length);
+      setMessages(prev => [...page.messages.map(toMessage), ...prev]);
+      setMessageCursor(page.nextCursor);
+    } catch (err) {
+      console.error('加载更早消息失败', err);
+    } finally {
+      setLoadingOlderMessages(false);
+    }
+  };
+
   const handleDeleteSession = async () => {
     if (!sessionDeleteConfirm) return;
     try {
@@ -482,6 +527,15 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
                       </div>
                     </div>
                   ))}
+                  {sessionCursor && (
+                    <button
+                      onClick={loadMoreSessions}
+                      disabled={loadingMoreSessions}
+                      className="w-full py-2 text-xs text-slate-500 hover:text-primary-500 transition-colors disabled:opacity-50"
+                    >
+                      {loadingMoreSessions ? '加载中...' : '加载更多'}
+                    </button>
+                  )}
                 </div>
               )}
             </div>
@@ -523,7 +577,9 @@ export default function KnowledgeBaseQueryPage({ onBack, onUpload }: KnowledgeBa
                     <Virtuoso
                       ref={virtuosoRef}
                       data={messages}
+                      firstItemIndex={firstItemIndex}
                       initialTopMostItemIndex={messages.length - 1}
+                      startReached={loadOlderMessages}
                       followOutput="smooth"
                       className="h-full w-full"
                       itemContent={(index, msg) => (
@@ -0,0 +1,465 @@
+package interview.guide.common.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 知识库 RAG 配置属性
+ * 包括检索、Embedding、查询向量缓存、语义答案缓存、上下文组装、向量检索后端、流式问答相关参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag")
+public class RagConfigProperties {
+
+    private Search search = new Search();
+
+    private Embedding embedding = new Embedding();
+
+    private QueryCache queryCache = new QueryCache();
+
+    private AnswerCache answerCache = new AnswerCache();
+
+    private RetrievalCache retrievalCache = new RetrievalCache();
+
+    private Context context = new Context();
+
+    private VectorIndex vectorIndex = new VectorIndex();
+
+    private Stream stream = new Stream();
+
+    private Memory memory = new Memory();
+
+    /**
+     * 向量检索配置
+     */
+    @Data
+    public static class Search {
+
+        /**
+         * 相似度阈值（0~1），低于该值的结果在数据库侧直接过滤，0 表示不过滤
+         */
+        private double similarityThreshold = 0.0;
+
+        /**
+         * 检索模式，默认只做向量检索，混合检索需要显式开启
+         */
+        private SearchMode mode = SearchMode.VECTOR;
+
+        /**
+         * 混合检索时每一路召回的候选数，至少为 topK
+         */
+        private int candidates = 20;
+
+        /**
+         * 倒数排名融合（RRF）平滑常数 k，融合分数为 Σ 1 / (k + rank)
+         */
+        private int rrfK = 60;
+
+        /**
+         * 选择多个知识库时是否按知识库并行检索后合并，保证每个知识库都有结果名额
+         */
+        private boolean fanOut = true;
+
+        /**
+         * 分知识库并行检索的截止时间，超时的知识库结果被跳过
+         */
+        private Duration fanOutTimeout = Duration.ofSeconds(3);
+
+        /**
+         * 分知识库并行检索同时访问数据库的最大数量，每个检索占用一个连接，需小于连接池大小
+         */
+        private int fanOutMaxParallel = 4;
+    }
+
+    /**
+     * 检索模式
+     */
+    public enum SearchMode {
+        /**
+         * 仅向量检索
+         */
+        VECTOR,
+        /**
+         * 仅关键词检索
+         */
+        LEXICAL,
+        /**
+         * 向量与关键词并行检索，按倒数排名融合
+         */
+        HYBRID
+    }
+
+    /**
+     * Embedding 配置
+     */
+    @Data
+    public static class Embedding {
+
+        /**
+         * Embedding 模型名称，作为缓存键的一部分，切换模型后旧缓存自动失效
+         */
+        private String model = "text-embedding-v3";
+
+        /**
+         * 是否启用 chunk 向量缓存（按文本 SHA-256 复用已有向量）
+         */
+        private boolean cacheEnabled = true;
+
+        /**
+         * 是否增量向量化：按 chunk 哈希对比已有数据，只删除被移除的 chunk、只向量化新增的 chunk
+         * 关闭时每次重新写入全部 chunk，切换后替换全部旧数据
+         */
+        private boolean incremental = true;
+
+        /**
+         * 同时在途的 Embedding 批次数，1 表示顺序执行
+         */
+        private int concurrency = 4;
+
+        /**
+         * 遇到限流（429）时单个批次的最大重试次数
+         */
+        private int maxRetries = 5;
+
+        /**
+         * 限流退避初始等待时间（毫秒），每次重试翻倍
+         */
+        private long backoffInitialMs = 1000;
+
+        /**
+         * 限流退避最大等待时间（毫秒）
+         */
+        private long backoffMaxMs = 30000;
+    }
+
+    /**
+     * 查询向量缓存配置
+     */
+    @Data
+    public static class QueryCache {
+
+        /**
+         * 是否缓存问题文本的向量
+         */
+        private boolean enabled = true;
+
+        /**
+         * 进程内 LRU 缓存的最大条目数
+         */
+        private int localMaxSize = 1000;
+
+        /**
+         * Redis 缓存过期时间
+         */
+        private Duration redisTtl = Duration.ofDays(7);
+    }
+
+    /**
+     * 语义答案缓存配置
+     */
+    @Data
+    public static class AnswerCache {
+
+        /**
+         * 是否启用语义答案缓存
+         */
+        private boolean enabled = true;
+
+        /**
+         * 问题向量的余弦相似度达到该值时复用历史答案
+         */
+        private double similarityThreshold = 0.95;
+
+        /**
+         * 缓存答案的最长有效期
+         */
+        private Duration ttl = Duration.ofDays(1);
+
+        /**
+         * 缓存答案的最大条目数，超出时删除最早写入的答案
+         */
+        private int maxEntries = 10000;
+    }
+
+    /**
+     * 检索结果缓存配置
+     */
+    @Data
+    public static class RetrievalCache {
+
+        /**
+         * 是否缓存检索结果（排序后的 chunk ID）
+         */
+        private boolean enabled = true;
+
+        /**
+         * 检索结果缓存的最大条目数
+         */
+        private int maxEntries = 2000;
+
+        /**
+         * 检索结果的有效期
+         */
+        private Duration ttl = Duration.ofMinutes(10);
+
+        /**
+         * 热点 chunk 缓存的最大 chunk 数，命中检索结果后从这里取回 chunk 文本
+         */
+        private int maxChunks = 10000;
+    }
+
+    /**
+     * 上下文组装配置
+     */
+    @Data
+    public static class Context {
+
+        /**
+         * 每次问答检索的候选 chunk 数
+         */
+        private int candidates = 5;
+
+        /**
+         * 当前使用的对话模型名称，用于选择 token 预算
+         */
+        private String chatModel = "qwen-plus";
+
+        /**
+         * 默认上下文 token 预算（不含系统提示词和问题）
+         */
+        private int maxTokens = 3000;
+
+        /**
+         * 按对话模型覆盖的上下文 token 预算，未配置的模型使用 maxTokens
+         */
+        private Map<String, Integer> modelMaxTokens = new HashMap<>();
+
+        /**
+         * MMR 相关性权重（0~1），越小越偏向多样性
+         */
+        private double mmrLambda = 0.7;
+
+        /**
+         * 与已选 chunk 的文本相似度达到该值时视为重复，直接丢弃
+         */
+        private double duplicateThreshold = 0.8;
+
+        /**
+         * 当前对话模型的上下文 token 预算
+         */
+        public int resolveMaxTokens() {
+            return modelMaxTokens.getOrDefault(chatModel, maxTokens);
+        }
+    }
+
+    /**
+     * 向量检索后端配置
+     */
+    @Data
+    public static class VectorIndex {
+
+        /**
+         * 向量检索后端
+         */
+        private VectorIndexType type = VectorIndexType.PGVECTOR;
+
+        /**
+         * HNSW 每层邻居数
+         */
+        private int m = 16;
+
+        /**
+         * HNSW 构建时的候选集大小
+         */
+        private int efConstruction = 200;
+
+        /**
+         * HNSW 检索时的候选集大小，越大召回越高、越慢
+         */
+        private int efSearch = 64;
+
+        /**
+         * 限定知识库后匹配的 chunk 数不超过该值时精确扫描
+         */
+        private int exactScanThreshold = 2000;
+
+        /**
+         * pgvector 按查询调整 hnsw.ef_search 的上限（pgvector 最大支持 1000）
+         */
+        private int maxEfSearch = 400;
+
+        /**
+         * pgvector 限定知识库检索时是否开启 hnsw.iterative_scan（需要 pgvector 0.8+），
+         * 开启后索引扫描在过滤掉的行过多时继续扫描，不再按选择率放大 ef_search
+         */
+        private boolean iterativeScan = false;
+
+        /**
+         * 检索规划使用的知识库 chunk 数统计的缓存时间，本实例向量化和删除时立即失效
+         */
+        private Duration planStatsTtl = Duration.ofSeconds(60);
+
+        /**
+         * 快照文件路径，启动时从快照恢复，变更后定期写回
+         */
+        private String snapshotPath = "./data/vector-index/hnsw.snapshot";
+
+        /**
+         * 与数据库同步的间隔，多实例部署时其他实例的向量化结果在该间隔内生效
+         */
+        private Duration syncInterval = Duration.ofSeconds(30);
+
+        /**
+         * pgvector 候选检索使用的量化方式，NONE 表示直接检索原始向量
+         */
+        private VectorQuantization quantization = VectorQuantization.NONE;
+
+        /**
+         * 量化检索的候选倍数：先按量化向量取 topK × 该值个候选，再按原始向量重排
+         */
+        private int rescoreFactor = 4;
+
+        /**
+         * 向量维度，用于量化表达式索引，需与 spring.ai.vectorstore.pgvector.dimensions 一致
+         */
+        private int dimensions = 1024;
+
+        /**
+         * 量化索引就绪后是否删除原始向量的 HNSW 索引（spring_ai_vector_index）以释放内存，
+         * 开启时需同时将 spring.ai.vectorstore.pgvector.index-type 设为 NONE，否则启动时会被重建
+         */
+        private boolean dropFullPrecisionIndex = false;
+    }
+
+    /**
+     * 流式问答配置
+     */
+    @Data
+    public static class Stream {
+
+        /**
+         * 流式问答中检索、数据库读写等阻塞步骤使用的调度器线程上限
+         */
+        private int schedulerThreads = 32;
+
+        /**
+         * 线程用满后允许排队的任务数，超出时直接拒绝
+         */
+        private int schedulerQueueSize = 1000;
+
+        /**
+         * SSE 帧合并：累计字符数达到该值时立即发出一帧，不超过 1 时不合并
+         */
+        private int frameMaxChars = 64;
+
+        /**
+         * SSE 帧合并：首个片段之后，片段最多等待该时长后随同一帧发出
+         */
+        private Duration frameWindow = Duration.ofMillis(20);
+
+        /**
+         * SSE 心跳注释的发送间隔，避免空闲连接被代理断开，为 0 时不发送
+         */
+        private Duration heartbeatInterval = Duration.ofSeconds(15);
+
+        /**
+         * 流式回答分批写入：累计该数量的片段后追加写入一次
+         */
+        private int persistTokens = 32;
+
+        /**
+         * 流式回答分批写入：距上次写入超过该时长时写入一次，也是续传时的轮询间隔
+         */
+        private Duration persistInterval = Duration.ofMillis(500);
+
+        /**
+         * 续传时未完成的回答超过该时长没有写入，视为生成节点已中断，结束续传
+         */
+        private Duration resumeStaleAfter = Duration.ofSeconds(60);
+
+        /**
+         * 已发送的 SSE 帧在 Redis Stream 中的保留时间，客户端在此期间可凭 Last-Event-ID 重连回放
+         */
+        private Duration replayTtl = Duration.ofMinutes(10);
+
+        /**
+         * 每个 Redis Stream 最多保留的帧数，超出时裁剪最早的帧，落后太多的客户端不能再回放
+         */
+        private int replayMaxFrames = 10000;
+
+        /**
+         * 重连回放追赶实时帧时轮询 Redis Stream 的间隔
+         */
+        private Duration replayPollInterval = Duration.ofMillis(100);
+    }
+
+    /**
+     * RAG 聊天多轮对话记忆配置
+     */
+    @Data
+    public static class Memory {
+
+        /**
+         * 是否在提问时带上对话历史
+         */
+        private boolean enabled = true;
+
+        /**
+         * 原样保留的最近对话轮数（每轮一问一答），更早的对话折叠进滚动摘要
+         */
+        private int recentTurns = 3;
+
+        /**
+         * 对话历史（摘要 + 最近对话）的 token 预算，无论会话多长都不超过
+         */
+        private int maxTokens = 1500;
+
+        /**
+         * 滚动摘要的 token 上限，计入 maxTokens
+         */
+        private int summaryMaxTokens = 500;
+
+        /**
+         * 同时进行的摘要刷新上限，超出时跳过本次刷新（积压的消息在下次回答完成后一并折叠）
+         */
+        private int summaryConcurrency = 4;
+    }
+
+    /**
+     * 向量检索后端
+     */
+    public enum VectorIndexType {
+        /**
+         * 在 PostgreSQL 中检索（pgvector）
+         */
+        PGVECTOR,
+        /**
+         * 在进程内 HNSW 索引中检索，数据仍以 pgvector 为准
+         */
+        HNSW
+    }
+
+    /**
+     * pgvector 向量量化方式
+     */
+    public enum VectorQuantization {
+        /**
+         * 不量化，检索原始 float32 向量
+         */
+        NONE,
+        /**
+         * 半精度（halfvec），索引体积减半，召回基本不变
+         */
+        HALFVEC,
+        /**
+         * 二值量化（bit），每维 1 bit，按汉明距离取候选，依赖重排保证召回
+         */
+        BINARY
+    }
+}
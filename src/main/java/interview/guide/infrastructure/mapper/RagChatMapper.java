@@ -3,6 +3,7 @@ package interview.guide.infrastructure.mapper;
 import interview.guide.modules.knowledgebase.model.KnowledgeBaseEntity;
 import interview.guide.modules.knowledgebase.model.KnowledgeBaseListItemDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.MessageDTO;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.MessagePageDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionDetailDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionListItemDTO;
@@ -85,23 +86,23 @@ public interface RagChatMapper {
     }
     
     /**
-     * 将会话实体和消息列表转换为会话详情DTO
+     * 将会话实体和最新一页消息转换为会话详情DTO
      * 注意：这个方法需要手动实现，因为需要组合多个数据源
      * 知识库列表的转换在Service层使用KnowledgeBaseMapper完成
      */
     default SessionDetailDTO toSessionDetailDTO(
             RagChatSessionEntity session, 
-            List<RagChatMessageEntity> messages,
+            MessagePageDTO messagePage,
             List<KnowledgeBaseListItemDTO> knowledgeBases) {
-        List<MessageDTO> messageDTOs = toMessageDTOList(messages);
-        
         return new SessionDetailDTO(
             session.getId(),
             session.getTitle(),
             knowledgeBases,
-            messageDTOs,
+            messagePage.messages(),
             session.getCreatedAt(),
-            session.getUpdatedAt()
+            session.getUpdatedAt(),
+            messagePage.hasMore(),
+            messagePage.nextCursor()
         );
     }
 }
@@ -8,6 +8,7 @@ import org.redisson.api.stream.StreamAddArgs;
 import org.redisson.api.stream.StreamCreateGroupArgs;
 import org.redisson.api.stream.StreamMessageId;
 import org.redisson.api.stream.StreamReadGroupArgs;
+import org.redisson.client.codec.ByteArrayCodec;
 import org.redisson.client.codec.StringCodec;
 import org.springframework.stereotype.Service;
 
@@ -69,6 +70,21 @@ public class RedisService {
         return value;
     }
 
+    /**
+     * 设置二进制值（带过期时间），不经过对象序列化
+     */
+    public void setBytes(String key, byte[] value, Duration ttl) {
+        redissonClient.getBucket(key, ByteArrayCodec.INSTANCE).set(value, ttl);
+    }
+
+    /**
+     * 获取二进制值
+     */
+    public byte[] getBytes(String key) {
+        RBucket<byte[]> bucket = redissonClient.getBucket(key, ByteArrayCodec.INSTANCE);
+        return bucket.get();
+    }
+
     /**
      * 删除键
      */
@@ -291,6 +307,43 @@ public class RedisService {
         return messageId.toString();
     }
 
+    /**
+     * 按指定 ID 发送消息到 Stream 并设置过期时间，ID 必须大于 Stream 中已有的最大 ID
+     * <p>
+     * XADD 与 PEXPIRE 在同一个事务中执行，Stream 不会出现没有过期时间的中间状态。
+     *
+     * @param streamKey Stream 键
+     * @param id        消息ID
+     * @param message   消息内容
+     * @param maxLen    最大长度，超过时裁剪旧消息，0 表示不限制
+     * @param ttl       过期时间，每次写入都重新设置
+     */
+    public void streamAdd(String streamKey, StreamMessageId id, Map<String, String> message, int maxLen, Duration ttl) {
+        StreamAddArgs<String, String> args = StreamAddArgs.entries(message);
+        if (maxLen > 0) {
+            args.trimNonStrict().maxLen(maxLen);
+        }
+        RBatch batch = redissonClient.createBatch(
+            BatchOptions.defaults().executionMode(BatchOptions.ExecutionMode.IN_MEMORY_ATOMIC));
+        RStreamAsync<String, String> stream = batch.getStream(streamKey, StringCodec.INSTANCE);
+        stream.addAsync(id, args);
+        stream.expireAsync(ttl);
+        batch.execute();
+    }
+
+    /**
+     * 从指定 ID（含）起按顺序读取 Stream 消息（不使用消费者组）
+     *
+     * @param streamKey Stream 键
+     * @param startId   起始消息ID（含）
+     * @param count     最多读取的条数
+     * @return 消息ID到消息内容的有序映射，Stream 不存在时为空
+     */
+    public Map<StreamMessageId, Map<String, String>> streamRange(String streamKey, StreamMessageId startId, int count) {
+        RStream<String, String> stream = redissonClient.getStream(streamKey, StringCodec.INSTANCE);
+        return stream.range(count, startId, StreamMessageId.MAX);
+    }
+
     /**
      * 从 Stream 读取消息（消费者组模式）
      */
@@ -0,0 +1,517 @@
+package interview.guide.infrastructure.vector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW（Hierarchical Navigable Small World）近似最近邻索引
+ * <p>
+ * 向量按节点顺序连续存放在一个 float[] 中，邻接表为 int[]，不为每个向量创建对象。
+ * 写入时向量做 L2 归一化，距离为余弦距离（1 - 点积）。
+ * 每个节点带一个 long 类型的知识库ID，检索时可限定知识库：匹配的节点较少时直接精确扫描，
+ * 否则在图上检索时只收集匹配的节点。删除为标记删除，节点仍参与图的遍历。
+ * <p>
+ * 非线程安全，由调用方加锁。
+ */
+public class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+
+    /**
+     * 没有知识库ID的节点
+     */
+    public static final long NO_KB_ID = Long.MIN_VALUE;
+
+    private final int dimensions;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random;
+
+    private float[] vectors;
+    private long[] kbIds;
+    private int[] levels;
+    /**
+     * links[node][level]：第 0 位为邻居数量，之后为邻居节点
+     */
+    private int[][][] links;
+    private final BitSet deleted = new BitSet();
+    private final Map<Long, Integer> liveCountByKb = new HashMap<>();
+
+    private int count;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * @param dimensions     向量维度
+     * @param m              每层邻居数（第 0 层为 2m）
+     * @param efConstruction 构建时的候选集大小
+     * @param seed           层级随机数种子，相同输入得到相同的图
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction, long seed) {
+        if (dimensions <= 0 || m < 2 || efConstruction < m) {
+            throw new IllegalArgumentException("HNSW 参数无效: dimensions=" + dimensions + ", m=" + m
+                + ", efConstruction=" + efConstruction);
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new SplittableRandom(seed);
+        int initialCapacity = 1024;
+        this.vectors = new float[initialCapacity * dimensions];
+        this.kbIds = new long[initialCapacity];
+        this.levels = new int[initialCapacity];
+        this.links = new int[initialCapacity][][];
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * 节点总数（含已删除）
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 未删除的节点数
+     */
+    public int liveSize() {
+        return count - deletedCount;
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    public long kbId(int node) {
+        return kbIds[node];
+    }
+
+    /**
+     * 修正节点的知识库ID，不改变图结构
+     */
+    public void setKbId(int node, long kbId) {
+        if (!deleted.get(node)) {
+            liveCountByKb.merge(kbIds[node], -1, Integer::sum);
+            liveCountByKb.merge(kbId, 1, Integer::sum);
+        }
+        kbIds[node] = kbId;
+    }
+
+    /**
+     * 返回节点向量（归一化后）的副本
+     */
+    public float[] vector(int node) {
+        return Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+    }
+
+    /**
+     * 插入向量
+     *
+     * @param vector 向量，维度必须与索引一致
+     * @param kbId   知识库ID，没有时为 {@link #NO_KB_ID}
+     * @return 节点编号
+     */
+    public int add(float[] vector, long kbId) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不匹配: expected=" + dimensions + ", actual=" + vector.length);
+        }
+        int node = count;
+        ensureCapacity(node + 1);
+        System.arraycopy(normalize(vector), 0, vectors, node * dimensions, dimensions);
+        kbIds[node] = kbId;
+        int level = randomLevel();
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        count++;
+        liveCountByKb.merge(kbId, 1, Integer::sum);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(node, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Scored> candidates = searchLayer(vectors, node * dimensions, current, efConstruction, l, null);
+            List<Scored> neighbors = selectNeighbors(candidates, m);
+            int[] own = links[node][l];
+            for (Scored neighbor : neighbors) {
+                own[++own[0]] = neighbor.node();
+                connect(neighbor.node(), node, l);
+            }
+            current = candidates.getFirst().node();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 标记删除
+     */
+    public void delete(int node) {
+        if (node < count && !deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+            liveCountByKb.merge(kbIds[node], -1, Integer::sum);
+        }
+    }
+
+    /**
+     * 检索最近的 k 个节点
+     *
+     * @param query              查询向量
+     * @param k                  返回条数
+     * @param efSearch           检索时的候选集大小
+     * @param kbFilter           限定的知识库ID，为 null 时不限定
+     * @param exactScanThreshold 匹配节点数不超过该值时精确扫描
+     * @return 按距离升序排列的节点
+     */
+    public List<Scored> search(float[] query, int k, int efSearch, Set<Long> kbFilter, int exactScanThreshold) {
+        if (k <= 0 || liveSize() == 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+        int matching = kbFilter == null ? liveSize()
+            : kbFilter.stream().mapToInt(id -> liveCountByKb.getOrDefault(id, 0)).sum();
+        if (matching == 0) {
+            return List.of();
+        }
+        if (matching <= exactScanThreshold) {
+            return exactSearch(normalized, k, kbFilter);
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(normalized, current, l);
+        }
+        // 过滤条件较严时结果可能不足 k 个，扩大候选集重试
+        int ef = Math.max(efSearch, k);
+        while (true) {
+            List<Scored> results = searchLayer(normalized, 0, current, ef, 0,
+                node -> !deleted.get(node) && (kbFilter == null || kbFilter.contains(kbIds[node])));
+            if (results.size() >= Math.min(k, matching) || ef >= count) {
+                return results.size() > k ? results.subList(0, k) : results;
+            }
+            ef = Math.min(count, ef * 4);
+        }
+    }
+
+    /**
+     * 精确扫描
+     */
+    public List<Scored> exactSearch(float[] normalizedQuery, int k, Set<Long> kbFilter) {
+        PriorityQueue<Scored> heap = new PriorityQueue<>(Comparator.comparingDouble(Scored::distance).reversed());
+        for (int node = 0; node < count; node++) {
+            if (deleted.get(node) || (kbFilter != null && !kbFilter.contains(kbIds[node]))) {
+                continue;
+            }
+            float distance = distance(normalizedQuery, 0, node);
+            if (heap.size() < k) {
+                heap.add(new Scored(node, distance));
+            } else if (distance < heap.peek().distance()) {
+                heap.poll();
+                heap.add(new Scored(node, distance));
+            }
+        }
+        List<Scored> results = new ArrayList<>(heap);
+        results.sort(Comparator.comparingDouble(Scored::distance));
+        return results;
+    }
+
+    // ==================== 图构建与检索 ====================
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private int greedyClosest(int node, int start, int level) {
+        return greedyClosest(vectors, node * dimensions, start, level);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        return greedyClosest(query, 0, start, level);
+    }
+
+    private int greedyClosest(float[] query, int offset, int start, int level) {
+        int current = start;
+        float currentDistance = distance(query, offset, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = links[current][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float d = distance(query, offset, neighbors[i]);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = neighbors[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 在单层上做 best-first 检索
+     *
+     * @param accept 结果过滤条件，为 null 时接受所有节点；不满足条件的节点仍参与遍历
+     * @return 按距离升序排列的结果，最多 ef 个
+     */
+    private List<Scored> searchLayer(float[] query, int offset, int entry, int ef, int level,
+                                     IntPredicate accept) {
+        BitSet visited = new BitSet(count);
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(Scored::distance));
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::distance).reversed());
+
+        Scored start = new Scored(entry, distance(query, offset, entry));
+        visited.set(entry);
+        candidates.add(start);
+        if (accept == null || accept.test(entry)) {
+            results.add(start);
+        }
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.distance() > results.peek().distance()) {
+                break;
+            }
+            int[] neighbors = links[candidate.node()][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float d = distance(query, offset, neighbor);
+                if (results.size() < ef || d < results.peek().distance()) {
+                    candidates.add(new Scored(neighbor, d));
+                    if (accept == null || accept.test(neighbor)) {
+                        results.add(new Scored(neighbor, d));
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Scored::distance));
+        return sorted;
+    }
+
+    /**
+     * 启发式选择邻居：候选比已选邻居更接近查询点时才保留，使邻居分布在不同方向，
+     * 数量不足时再用被跳过的候选补齐
+     *
+     * @param candidates 按距离升序排列的候选
+     */
+    private List<Scored> selectNeighbors(List<Scored> candidates, int max) {
+        List<Scored> selected = new ArrayList<>(max);
+        List<Scored> skipped = new ArrayList<>();
+        for (Scored candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            boolean diverse = true;
+            for (Scored chosen : selected) {
+                if (distance(vectors, candidate.node() * dimensions, chosen.node()) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? selected : skipped).add(candidate);
+        }
+        for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+            selected.add(skipped.get(i));
+        }
+        return selected;
+    }
+
+    /**
+     * 为 node 添加邻居 neighbor，超出上限时保留最近的 max 个
+     * <p>
+     * 反向连接不再走启发式选择：每次溢出都要做 O(max²) 次距离计算，在 1024 维下是建图的主要开销
+     */
+    private void connect(int node, int neighbor, int level) {
+        int[] nodeLinks = links[node][level];
+        int max = level == 0 ? maxM0 : m;
+        if (nodeLinks[0] < max) {
+            nodeLinks[++nodeLinks[0]] = neighbor;
+            return;
+        }
+        List<Scored> candidates = new ArrayList<>(max + 1);
+        int offset = node * dimensions;
+        for (int i = 1; i <= nodeLinks[0]; i++) {
+            candidates.add(new Scored(nodeLinks[i], distance(vectors, offset, nodeLinks[i])));
+        }
+        candidates.add(new Scored(neighbor, distance(vectors, offset, neighbor)));
+        candidates.sort(Comparator.comparingDouble(Scored::distance));
+        for (int i = 0; i < max; i++) {
+            nodeLinks[i + 1] = candidates.get(i).node();
+        }
+    }
+
+    /**
+     * 余弦距离，向量已归一化，只需计算内积；四路累加以打破浮点加法的依赖链
+     */
+    private float distance(float[] query, int offset, int node) {
+        int base = node * dimensions;
+        float dot0 = 0;
+        float dot1 = 0;
+        float dot2 = 0;
+        float dot3 = 0;
+        int i = 0;
+        for (int bound = dimensions & ~3; i < bound; i += 4) {
+            dot0 += query[offset + i] * vectors[base + i];
+            dot1 += query[offset + i + 1] * vectors[base + i + 1];
+            dot2 += query[offset + i + 2] * vectors[base + i + 2];
+            dot3 += query[offset + i + 3] * vectors[base + i + 3];
+        }
+        for (; i < dimensions; i++) {
+            dot0 += query[offset + i] * vectors[base + i];
+        }
+        return 1 - (dot0 + dot1 + dot2 + dot3);
+    }
+
+    private float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = vector.clone();
+        if (norm > 0) {
+            float inv = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= inv;
+            }
+        }
+        return normalized;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= kbIds.length) {
+            return;
+        }
+        int capacity = Math.max(required, kbIds.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimensions);
+        kbIds = Arrays.copyOf(kbIds, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        links = Arrays.copyOf(links, capacity);
+    }
+
+    // ==================== 快照 ====================
+
+    /**
+     * 序列化后的字节数
+     */
+    public long serializedSize() {
+        long size = 8L * Integer.BYTES;
+        for (int node = 0; node < count; node++) {
+            size += Integer.BYTES + 1 + Long.BYTES + (long) dimensions * Float.BYTES;
+            for (int[] levelLinks : links[node]) {
+                size += (long) (levelLinks[0] + 1) * Integer.BYTES;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 写入缓冲区（通常为内存映射文件）
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(dimensions).putInt(m).putInt(efConstruction)
+            .putInt(count).putInt(entryPoint).putInt(maxLevel);
+        for (int node = 0; node < count; node++) {
+            buffer.putInt(levels[node]).put((byte) (deleted.get(node) ? 1 : 0)).putLong(kbIds[node]);
+            buffer.asFloatBuffer().put(vectors, node * dimensions, dimensions);
+            buffer.position(buffer.position() + dimensions * Float.BYTES);
+            for (int[] levelLinks : links[node]) {
+                buffer.asIntBuffer().put(levelLinks, 0, levelLinks[0] + 1);
+                buffer.position(buffer.position() + (levelLinks[0] + 1) * Integer.BYTES);
+            }
+        }
+    }
+
+    /**
+     * 从缓冲区读取
+     *
+     * @param seed 后续插入使用的随机数种子
+     */
+    public static HnswIndex readFrom(ByteBuffer buffer, long seed) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("不是 HNSW 索引快照");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalStateException("不支持的 HNSW 快照版本: " + version);
+        }
+        HnswIndex index = new HnswIndex(buffer.getInt(), buffer.getInt(), buffer.getInt(), seed);
+        int count = buffer.getInt();
+        index.entryPoint = buffer.getInt();
+        index.maxLevel = buffer.getInt();
+        index.ensureCapacity(Math.max(count, 1));
+        int dimensions = index.dimensions;
+        for (int node = 0; node < count; node++) {
+            int level = buffer.getInt();
+            boolean deleted = buffer.get() == 1;
+            long kbId = buffer.getLong();
+            index.levels[node] = level;
+            index.kbIds[node] = kbId;
+            buffer.asFloatBuffer().get(index.vectors, node * dimensions, dimensions);
+            buffer.position(buffer.position() + dimensions * Float.BYTES);
+            index.links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                int[] levelLinks = new int[(l == 0 ? index.maxM0 : index.m) + 1];
+                int size = buffer.getInt();
+                levelLinks[0] = size;
+                buffer.asIntBuffer().get(levelLinks, 1, size);
+                buffer.position(buffer.position() + size * Integer.BYTES);
+                index.links[node][l] = levelLinks;
+            }
+            if (deleted) {
+                index.deleted.set(node);
+                index.deletedCount++;
+            } else {
+                index.liveCountByKb.merge(kbId, 1, Integer::sum);
+            }
+        }
+        index.count = count;
+        return index;
+    }
+
+    /**
+     * 检索结果
+     *
+     * @param node     节点编号
+     * @param distance 余弦距离
+     */
+    public record Scored(int node, float distance) {}
+}
@@ -0,0 +1,474 @@
+package interview.guide.infrastructure.vector;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内 HNSW 向量库
+ * <p>
+ * 基于 {@link HnswIndex} 实现 Spring AI 的 {@link VectorStore}，检索不经过网络，
+ * 可作为 pgvector 的本地检索副本，也可在没有数据库的测试和基准测试中直接使用。
+ * 过滤条件只支持按 metadata 中的 kb_id 做 ==、IN 以及它们的 OR 组合，旧数据的 kb_id_long 视同 kb_id。
+ * 索引可以快照到内存映射文件，重启后从快照恢复，无需重新构建图。
+ * <p>
+ * 读写锁保护：检索并发执行，写入互斥。
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore {
+
+    /**
+     * 知识库ID的 metadata 字段
+     */
+    public static final String KB_ID_KEY = "kb_id";
+
+    /**
+     * 旧数据使用的知识库ID键，kb_id 缺失或无效时回退读取，与 vector_store_kb_id() 一致
+     */
+    public static final String LEGACY_KB_ID_KEY = "kb_id_long";
+
+    private static final int SNAPSHOT_MAGIC = 0x48565331;
+    private static final long SEED = 42L;
+
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final Options options;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 第一次写入时按向量维度创建
+     */
+    private HnswIndex index;
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    /**
+     * @param embeddingModel 用于 {@link #add(List)} 和按文本检索，只使用预先计算的向量时可以为 null
+     * @param objectMapper   快照中 metadata 的序列化
+     * @param options        索引参数
+     */
+    public HnswVectorStore(EmbeddingModel embeddingModel, ObjectMapper objectMapper, Options options) {
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.options = options;
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    // ==================== 写入 ====================
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = requireEmbeddingModel().embed(documents.stream().map(Document::getText).toList());
+        for (int i = 0; i < documents.size(); i++) {
+            add(documents.get(i), embeddings.get(i));
+        }
+    }
+
+    /**
+     * 写入已有向量的文档，相同ID的旧文档会被替换
+     *
+     * @param document  文档
+     * @param embedding 文档向量
+     */
+    public void add(Document document, float[] embedding) {
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                index = new HnswIndex(embedding.length, options.m(), options.efConstruction(), SEED);
+            }
+            Integer previous = nodeById.get(document.getId());
+            if (previous != null) {
+                index.delete(previous);
+            }
+            int node = index.add(embedding, kbIdOf(document.getMetadata()));
+            documents.add(Document.builder()
+                .id(document.getId())
+                .text(document.getText())
+                .metadata(new HashMap<>(document.getMetadata()))
+                .build());
+            nodeById.put(document.getId(), node);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 在一次写锁内删除旧文档并写入新文档，检索不会看到只完成一半的变更（例如同一知识库新旧两代并存）
+     *
+     * @param deleteIds  要删除的文档ID
+     * @param documents  要写入的文档
+     * @param embeddings 与 documents 一一对应的向量
+     */
+    public void replace(Collection<String> deleteIds, List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("文档数与向量数不一致");
+        }
+        lock.writeLock().lock();
+        try {
+            delete(List.copyOf(deleteIds));
+            for (int i = 0; i < documents.size(); i++) {
+                add(documents.get(i), embeddings.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    index.delete(node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        deleteByKnowledgeBaseIds(parseKbFilter(filterExpression));
+    }
+
+    /**
+     * 删除指定知识库的全部文档
+     *
+     * @return 删除的文档数
+     */
+    public int deleteByKnowledgeBaseIds(Collection<Long> knowledgeBaseIds) {
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                return 0;
+            }
+            List<String> ids = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : nodeById.entrySet()) {
+                if (knowledgeBaseIds.contains(index.kbId(entry.getValue()))) {
+                    ids.add(entry.getKey());
+                }
+            }
+            delete(ids);
+            return ids.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ==================== 检索 ====================
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] embedding = requireEmbeddingModel().embed(request.getQuery());
+        Set<Long> kbIds = request.hasFilterExpression() ? parseKbFilter(request.getFilterExpression()) : null;
+        return similaritySearch(embedding, kbIds, request.getTopK(), request.getSimilarityThreshold());
+    }
+
+    /**
+     * 按向量检索
+     *
+     * @param embedding           查询向量
+     * @param knowledgeBaseIds    知识库ID，为 null 或空时检索全部
+     * @param topK                返回条数
+     * @param similarityThreshold 相似度阈值（0~1），0 表示不过滤
+     * @return 按相似度降序排列的文档，score 为相似度，metadata 中附带 distance
+     */
+    public List<Document> similaritySearch(float[] embedding, Collection<Long> knowledgeBaseIds, int topK,
+                                           double similarityThreshold) {
+        Set<Long> kbFilter = knowledgeBaseIds == null || knowledgeBaseIds.isEmpty()
+            ? null : new HashSet<>(knowledgeBaseIds);
+        lock.readLock().lock();
+        try {
+            if (index == null) {
+                return List.of();
+            }
+            List<Document> results = new ArrayList<>();
+            for (HnswIndex.Scored scored : index.search(embedding, topK, options.efSearch(), kbFilter,
+                    options.exactScanThreshold())) {
+                double similarity = 1 - scored.distance();
+                if (similarityThreshold > 0 && similarity < similarityThreshold) {
+                    continue;
+                }
+                Document doc = documents.get(scored.node());
+                Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+                metadata.put("distance", (double) scored.distance());
+                results.add(Document.builder()
+                    .id(doc.getId())
+                    .text(doc.getText())
+                    .metadata(metadata)
+                    .score(similarity)
+                    .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 指定知识库当前的文档ID
+     */
+    public Set<String> documentIds(long knowledgeBaseId) {
+        lock.readLock().lock();
+        try {
+            Set<String> ids = new HashSet<>();
+            nodeById.forEach((id, node) -> {
+                if (index.kbId(node) == knowledgeBaseId) {
+                    ids.add(id);
+                }
+            });
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前文档数（不含已删除）
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已删除节点占比，过高时可以重建索引
+     */
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return index == null || index.size() == 0 ? 0 : 1 - (double) index.liveSize() / index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 丢弃已删除的节点，用剩余文档重建索引
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            if (index == null || index.liveSize() == index.size()) {
+                return;
+            }
+            HnswIndex rebuilt = new HnswIndex(index.dimensions(), options.m(), options.efConstruction(), SEED);
+            List<Document> liveDocuments = new ArrayList<>(index.liveSize());
+            Map<String, Integer> liveNodes = new HashMap<>();
+            for (int node = 0; node < index.size(); node++) {
+                if (!index.isDeleted(node)) {
+                    int newNode = rebuilt.add(index.vector(node), index.kbId(node));
+                    Document doc = documents.get(node);
+                    liveDocuments.add(doc);
+                    liveNodes.put(doc.getId(), newNode);
+                }
+            }
+            log.info("HNSW 索引已重建: before={}, after={}", index.size(), rebuilt.size());
+            index = rebuilt;
+            documents.clear();
+            documents.addAll(liveDocuments);
+            nodeById.clear();
+            nodeById.putAll(liveNodes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ==================== 快照 ====================
+
+    /**
+     * 将索引和文档写入内存映射文件
+     * 先写临时文件再原子替换，写入过程中进程退出不会破坏已有快照
+     *
+     * @param path 快照文件路径
+     */
+    public void snapshot(Path path) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (index == null) {
+                Files.deleteIfExists(path);
+                return;
+            }
+            List<byte[]> strings = new ArrayList<>(documents.size() * 3);
+            long size = Integer.BYTES + index.serializedSize();
+            for (Document doc : documents) {
+                byte[][] fields = {
+                    doc.getId().getBytes(StandardCharsets.UTF_8),
+                    (doc.getText() == null ? "" : doc.getText()).getBytes(StandardCharsets.UTF_8),
+                    objectMapper.writeValueAsBytes(doc.getMetadata())
+                };
+                for (byte[] field : fields) {
+                    strings.add(field);
+                    size += Integer.BYTES + field.length;
+                }
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("快照超过 2GB，不适合使用进程内索引: " + size + " bytes");
+            }
+
+            Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(SNAPSHOT_MAGIC);
+                index.writeTo(buffer);
+                for (byte[] field : strings) {
+                    buffer.putInt(field.length).put(field);
+                }
+                buffer.force();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("HNSW 索引快照已写入: path={}, documents={}, bytes={}", path, documents.size(), size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从内存映射文件恢复
+     * 已删除的文档不会保留在快照中对应的 ID 映射里；节点的知识库ID按文档 metadata 重新计算，
+     * 修正旧快照中只读取 kb_id 时未识别的 kb_id_long 数据
+     *
+     * @param path 快照文件路径
+     */
+    @SuppressWarnings("unchecked")
+    public static HnswVectorStore restore(Path path, EmbeddingModel embeddingModel, ObjectMapper objectMapper,
+                                          Options options) throws IOException {
+        HnswVectorStore store = new HnswVectorStore(embeddingModel, objectMapper, options);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("不是 HNSW 向量库快照: " + path);
+            }
+            store.index = HnswIndex.readFrom(buffer, SEED);
+            for (int node = 0; node < store.index.size(); node++) {
+                String id = readString(buffer);
+                String text = readString(buffer);
+                Map<String, Object> metadata = objectMapper.readValue(readString(buffer), Map.class);
+                store.documents.add(Document.builder().id(id).text(text).metadata(new HashMap<>(metadata)).build());
+                long kbId = kbIdOf(metadata);
+                if (store.index.kbId(node) != kbId) {
+                    store.index.setKbId(node, kbId);
+                }
+                if (!store.index.isDeleted(node)) {
+                    store.nodeById.put(id, node);
+                }
+            }
+        }
+        log.info("HNSW 索引已从快照恢复: path={}, documents={}", path, store.nodeById.size());
+        return store;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private EmbeddingModel requireEmbeddingModel() {
+        if (embeddingModel == null) {
+            throw new IllegalStateException("未配置 EmbeddingModel，只能使用预先计算的向量");
+        }
+        return embeddingModel;
+    }
+
+    /**
+     * 读取文档所属的知识库ID：先取 kb_id，缺失或不是数字时回退到旧格式的 kb_id_long
+     */
+    static long kbIdOf(Map<String, Object> metadata) {
+        long kbId = kbIdOf(metadata.get(KB_ID_KEY));
+        return kbId != HnswIndex.NO_KB_ID ? kbId : kbIdOf(metadata.get(LEGACY_KB_ID_KEY));
+    }
+
+    private static long kbIdOf(Object value) {
+        if (value == null) {
+            return HnswIndex.NO_KB_ID;
+        }
+        try {
+            return value instanceof Number number ? number.longValue() : Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return HnswIndex.NO_KB_ID;
+        }
+    }
+
+    /**
+     * 将过滤表达式解析为知识库ID集合，只支持 kb_id ==、IN 以及 OR 组合
+     */
+    static Set<Long> parseKbFilter(Filter.Expression expression) {
+        Set<Long> kbIds = new HashSet<>();
+        switch (expression.type()) {
+            case OR -> {
+                kbIds.addAll(parseKbFilter((Filter.Expression) expression.left()));
+                kbIds.addAll(parseKbFilter((Filter.Expression) expression.right()));
+            }
+            case EQ, IN -> {
+                if (!(expression.left() instanceof Filter.Key key) || !KB_ID_KEY.equals(key.key())
+                        || !(expression.right() instanceof Filter.Value value)) {
+                    throw new IllegalArgumentException("HnswVectorStore 只支持按 kb_id 过滤: " + expression);
+                }
+                if (value.value() instanceof Collection<?> values) {
+                    values.forEach(v -> kbIds.add(kbIdOf(v)));
+                } else {
+                    kbIds.add(kbIdOf(value.value()));
+                }
+            }
+            default -> throw new IllegalArgumentException("HnswVectorStore 只支持按 kb_id 过滤: " + expression);
+        }
+        return kbIds;
+    }
+
+    /**
+     * 索引参数
+     *
+     * @param m                  每层邻居数
+     * @param efConstruction     构建时的候选集大小
+     * @param efSearch           检索时的候选集大小，越大召回越高、越慢
+     * @param exactScanThreshold 过滤后匹配的文档数不超过该值时精确扫描
+     */
+    public record Options(int m, int efConstruction, int efSearch, int exactScanThreshold) {
+
+        public static Options defaults() {
+            return new Options(16, 200, 64, 2000);
+        }
+    }
+}
@@ -11,12 +11,16 @@ import interview.guide.modules.knowledgebase.service.KnowledgeBaseDeleteService;
 import interview.guide.modules.knowledgebase.service.KnowledgeBaseListService;
 import interview.guide.modules.knowledgebase.service.KnowledgeBaseQueryService;
 import interview.guide.modules.knowledgebase.service.KnowledgeBaseUploadService;
+import interview.guide.modules.knowledgebase.service.RagStreamScheduler;
+import interview.guide.modules.knowledgebase.service.ResumableSseRelay;
+import interview.guide.modules.knowledgebase.service.SseFrameCoalescer;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Flux;
@@ -38,6 +42,9 @@ public class KnowledgeBaseController {
     private final KnowledgeBaseQueryService queryService;
     private final KnowledgeBaseListService listService;
     private final KnowledgeBaseDeleteService deleteService;
+    private final SseFrameCoalescer frameCoalescer;
+    private final ResumableSseRelay sseRelay;
+    private final RagStreamScheduler streamScheduler;
 
     /**
      * 获取所有知识库列表
@@ -89,12 +96,28 @@ public class KnowledgeBaseController {
 
     /**
      * 基于知识库回答问题（流式SSE，支持多知识库）
+     * 片段按字符数和时间窗口合并成帧，换行符转义，带事件ID写入 Redis 回放缓冲，并定期发送心跳
      */
     @PostMapping(value = "/api/knowledgebase/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     @RateLimit(dimensions = {RateLimit.Dimension.GLOBAL, RateLimit.Dimension.IP}, count = 5)
-    public Flux<String> queryKnowledgeBaseStream(@Valid @RequestBody QueryRequest request) {
+    public Flux<ServerSentEvent<String>> queryKnowledgeBaseStream(@Valid @RequestBody QueryRequest request) {
         log.debug("收到知识库流式查询请求: kbIds={}, question={}", request.knowledgeBaseIds(), request.question());
-        return queryService.answerQuestionStream(request.knowledgeBaseIds(), request.question());
+        return sseRelay.publish(ResumableSseRelay.newQueryStreamId(),
+            queryService.answerQuestionStream(request.knowledgeBaseIds(), request.question()));
+    }
+
+    /**
+     * 断线重连后回放知识库流式回答
+     * 凭 Last-Event-ID 从 Redis 回放之后的帧并继续推送新帧，不重新生成回答
+     */
+    @GetMapping(value = "/api/knowledgebase/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> resumeQueryStream(
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        log.debug("收到知识库流式查询重连请求: lastEventId={}", lastEventId);
+        return streamScheduler.defer(() -> sseRelay.canReplay(null, lastEventId))
+            .flatMapMany(replayable -> replayable
+                ? sseRelay.replay(lastEventId)
+                : frameCoalescer.toEvents(Flux.just("【错误】回答已过期或不存在，请重新提问")));
     }
 
     // ========== 分类管理 API ==========
@@ -3,6 +3,10 @@ package interview.guide.modules.knowledgebase;
 import interview.guide.common.result.Result;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.*;
 import interview.guide.modules.knowledgebase.service.RagChatSessionService;
+import interview.guide.modules.knowledgebase.service.RagStreamScheduler;
+import interview.guide.modules.knowledgebase.service.ResumableSseRelay;
+import interview.guide.modules.knowledgebase.service.SseFrameCoalescer;
+import interview.guide.modules.knowledgebase.service.StreamMessageWriter;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -22,6 +26,10 @@ import java.util.List;
 public class RagChatController {
 
     private final RagChatSessionService sessionService;
+    private final RagStreamScheduler streamScheduler;
+    private final SseFrameCoalescer frameCoalescer;
+    private final StreamMessageWriter messageWriter;
+    private final ResumableSseRelay sseRelay;
 
     /**
      * 创建新会话
@@ -40,7 +48,18 @@ public class RagChatController {
     }
 
     /**
-     * 获取会话详情（包含消息历史）
+     * 分页获取会话列表
+     * GET /api/rag-chat/sessions/page?cursor=&limit=20
+     */
+    @GetMapping("/api/rag-chat/sessions/page")
+    public Result<SessionPageDTO> listSessionPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int limit) {
+        return Result.success(sessionService.listSessionPage(cursor, limit));
+    }
+
+    /**
+     * 获取会话详情（包含最新一页消息）
      * GET /api/rag-chat/sessions/{sessionId}
      */
     @GetMapping("/api/rag-chat/sessions/{sessionId}")
@@ -48,6 +67,18 @@ public class RagChatController {
         return Result.success(sessionService.getSessionDetail(sessionId));
     }
 
+    /**
+     * 分页获取会话消息（加载更早的历史）
+     * GET /api/rag-chat/sessions/{sessionId}/messages?before=&limit=20
+     */
+    @GetMapping("/api/rag-chat/sessions/{sessionId}/messages")
+    public Result<MessagePageDTO> listMessages(
+            @PathVariable Long sessionId,
+            @RequestParam(required = false) Integer before,
+            @RequestParam(defaultValue = "20") int limit) {
+        return Result.success(sessionService.listMessages(sessionId, before, limit));
+    }
+
     /**
      * 更新会话标题
      */
@@ -93,9 +124,11 @@ public class RagChatController {
     /**
      * 发送消息（流式SSE）
      * 流式响应设计：
-     * 1. 先同步保存用户消息和创建 AI 消息占位
-     * 2. 返回流式响应
-     * 3. 流式完成后通过回调更新消息
+     * 1. 立即返回 Flux，订阅后在流式调度器上保存用户消息和创建 AI 消息占位，不占用请求线程
+     * 2. 接上知识库流式回答，提问时带上对话历史（滚动摘要 + 最近几轮），检索同样在流式调度器上执行
+     * 3. 回答分批追加写入 AI 消息并在结束时标记完成（出错时标记失败），客户端断开后生成和写入继续
+     * 4. 片段按字符数和时间窗口合并成 SSE 帧，带事件ID写入 Redis 回放缓冲，并定期发送心跳；
+     *    回答出错时在这里转成错误提示帧
      */
     @PostMapping(value = "/api/rag-chat/sessions/{sessionId}/messages/stream",
                  produces = MediaType.TEXT_EVENT_STREAM_VALUE)
@@ -106,29 +139,45 @@ public class RagChatController {
         log.info("收到 RAG 聊天流式请求: sessionId={}, question={}", sessionId, request.question());
 
         // 1. 准备消息（保存用户消息，创建 AI 消息占位）
-        Long messageId = sessionService.prepareStreamMessage(sessionId, request.question());
-
-        // 2. 获取流式响应
-        StringBuilder fullContent = new StringBuilder();
-
-        return sessionService.getStreamAnswer(sessionId, request.question())
-            .doOnNext(fullContent::append)
-            // 使用 ServerSentEvent 包装，转义换行符避免破坏 SSE 格式
-            .map(chunk -> ServerSentEvent.<String>builder()
-                .data(chunk.replace("\n", "\\n").replace("\r", "\\r"))
-                .build())
-            .doOnComplete(() -> {
-                // 3. 流式完成后更新消息内容
-                sessionService.completeStreamMessage(messageId, fullContent.toString());
-                log.info("RAG 聊天流式完成: sessionId={}, messageId={}", sessionId, messageId);
+        return streamScheduler.defer(() -> sessionService.prepareStreamMessage(sessionId, request.question()))
+            .flatMapMany(message -> {
+                // 2~3. 获取流式响应，分批写入消息
+                Flux<String> answer = messageWriter.write(message.messageId(),
+                    sessionService.getStreamAnswer(message, request.question()));
+                // 4. 合并成帧推送，同时写入回放缓冲
+                return sseRelay.publish(ResumableSseRelay.chatStreamId(message.messageId()), answer);
             })
-            .doOnError(e -> {
-                // 错误时也保存已接收的内容
-                String content = !fullContent.isEmpty()
-                    ? fullContent.toString()
-                    : "【错误】回答生成失败：" + e.getMessage();
-                sessionService.completeStreamMessage(messageId, content);
-                log.error("RAG 聊天流式错误: sessionId={}", sessionId, e);
+            .onErrorResume(e -> {
+                log.error("RAG 聊天流式请求失败: sessionId={}, error={}", sessionId, e.getMessage());
+                return frameCoalescer.toEvents(Flux.just("【错误】" + e.getMessage()));
+            });
+    }
+
+    /**
+     * 断线重连后续传流式回答
+     * GET /api/rag-chat/sessions/{sessionId}/messages/{messageId}/stream?offset=0
+     * 带 Last-Event-ID 且回放缓冲仍在时，从 Redis 回放之后的帧并继续推送新帧；
+     * 否则从已写入消息的第 offset 个字符（Unicode 码点）之后开始返回，回答仍在生成时持续推送直到完成
+     */
+    @GetMapping(value = "/api/rag-chat/sessions/{sessionId}/messages/{messageId}/stream",
+                produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> resumeMessageStream(
+            @PathVariable Long sessionId,
+            @PathVariable Long messageId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            @RequestParam(defaultValue = "0") int offset) {
+
+        log.info("续传 RAG 聊天流式回答: sessionId={}, messageId={}, lastEventId={}, offset={}",
+            sessionId, messageId, lastEventId, offset);
+
+        return streamScheduler.defer(() -> lastEventId != null
+                && sseRelay.canReplay(ResumableSseRelay.chatStreamId(messageId), lastEventId))
+            .flatMapMany(replayable -> replayable
+                ? sseRelay.replay(lastEventId)
+                : frameCoalescer.toEvents(messageWriter.resume(sessionId, messageId, offset)))
+            .onErrorResume(e -> {
+                log.error("续传失败: sessionId={}, messageId={}, error={}", sessionId, messageId, e.getMessage());
+                return frameCoalescer.toEvents(Flux.just("【错误】" + e.getMessage()));
             });
     }
 }
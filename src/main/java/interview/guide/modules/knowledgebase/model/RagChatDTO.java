@@ -71,6 +71,15 @@ public class RagChatDTO {
         Boolean isPinned
     ) {}
 
+    /**
+     * 会话列表分页
+     */
+    public record SessionPageDTO(
+        List<SessionListItemDTO> items,
+        String nextCursor,  // 下一页游标，没有更多时为 null
+        boolean hasMore
+    ) {}
+
     /**
      * 会话详情（含消息）
      */
@@ -78,9 +87,20 @@ public class RagChatDTO {
         Long id,
         String title,
         List<KnowledgeBaseListItemDTO> knowledgeBases,
-        List<MessageDTO> messages,
+        List<MessageDTO> messages,  // 最新的一页消息，按顺序正序
         LocalDateTime createdAt,
-        LocalDateTime updatedAt
+        LocalDateTime updatedAt,
+        boolean hasMoreMessages,
+        Integer messageCursor  // 加载更早消息的游标（本页最早一条的顺序），没有更多时为 null
+    ) {}
+
+    /**
+     * 消息分页（按顺序正序）
+     */
+    public record MessagePageDTO(
+        List<MessageDTO> messages,
+        boolean hasMore,
+        Integer nextCursor  // 加载更早消息的游标，没有更多时为 null
     ) {}
 
     /**
@@ -90,6 +110,7 @@ public class RagChatDTO {
         Long id,
         String type,  // "user" | "assistant"
         String content,
+        Boolean completed,  // 流式回答是否已完成，未完成时可按已收到的字符数续传
         LocalDateTime createdAt
     ) {}
 }
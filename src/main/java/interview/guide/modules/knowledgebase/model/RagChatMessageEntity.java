@@ -67,6 +67,12 @@ public class RagChatMessageEntity {
      */
     private Boolean completed = true;
 
+    /**
+     * 是否生成失败（流式回答出错时标记，失败的回答不计入对话历史）
+     */
+    @Column(columnDefinition = "boolean default false")
+    private Boolean failed = false;
+
     public enum MessageType {
         USER,      // 用户消息
         ASSISTANT  // AI 回答
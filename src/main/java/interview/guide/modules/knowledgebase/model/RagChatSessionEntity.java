@@ -17,7 +17,9 @@ import java.util.Set;
  */
 @Entity
 @Table(name = "rag_chat_sessions", indexes = {
-    @Index(name = "idx_rag_session_updated", columnList = "updatedAt")
+    @Index(name = "idx_rag_session_updated", columnList = "updatedAt"),
+    // 会话列表键集分页：置顶在前，按 (updatedAt, id) 倒序
+    @Index(name = "idx_rag_session_pinned_updated", columnList = "isPinned DESC, updatedAt DESC, id DESC")
 })
 @Getter
 @Setter
@@ -76,11 +78,23 @@ public class RagChatSessionEntity {
     private Integer messageCount = 0;
 
     /**
-     * 是否置顶
+     * 是否置顶（旧数据的 NULL 在启动时回填，见 RagChatSessionSchemaRepository）
      */
-    @Column(columnDefinition = "boolean default false")
+    @Column(nullable = false, columnDefinition = "boolean default false")
     private Boolean isPinned = false;
 
+    /**
+     * 滚动摘要：最近几轮之前的对话，回答完成后异步更新
+     */
+    @Column(columnDefinition = "TEXT")
+    private String summary;
+
+    /**
+     * 摘要已覆盖的消息顺序上界（不含），之前的消息都已折叠进摘要
+     */
+    @Column(columnDefinition = "integer default 0")
+    private Integer summarizedUpTo = 0;
+
     public enum SessionStatus {
         ACTIVE,    // 活跃会话
         ARCHIVED   // 已归档
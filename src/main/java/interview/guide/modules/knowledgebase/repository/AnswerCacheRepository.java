@@ -0,0 +1,162 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 语义答案缓存Repository
+ * 按 (知识库集合, 知识库向量代数) 分区存储历史问题的向量和答案，在分区内按余弦相似度查找最接近的问题
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class AnswerCacheRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 初始化答案缓存表
+     * embedding 列不限定维度，切换模型时无需迁移；每个分区内条目很少，不建向量索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initTable() {
+        String sql = """
+            CREATE TABLE IF NOT EXISTS rag_answer_cache (
+                id             bigserial    PRIMARY KEY,
+                kb_ids         bigint[]     NOT NULL,
+                kb_key         varchar(500) NOT NULL,
+                generation_key varchar(500) NOT NULL,
+                question       text         NOT NULL,
+                embedding      vector       NOT NULL,
+                answer         text         NOT NULL,
+                created_at     timestamp    NOT NULL DEFAULT now()
+            );
+            CREATE INDEX IF NOT EXISTS idx_rag_answer_cache_key ON rag_answer_cache (kb_key, generation_key);
+            CREATE INDEX IF NOT EXISTS idx_rag_answer_cache_kb_ids ON rag_answer_cache USING gin (kb_ids);
+            CREATE INDEX IF NOT EXISTS idx_rag_answer_cache_created ON rag_answer_cache (created_at);
+            """;
+        try {
+            jdbcTemplate.execute(sql);
+            log.info("语义答案缓存表已就绪: rag_answer_cache");
+        } catch (Exception e) {
+            log.warn("创建语义答案缓存表失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 在同一分区内查找与问题向量最相似的缓存答案
+     *
+     * @param kbKey         知识库集合键
+     * @param generationKey 知识库向量代数键
+     * @param embedding     问题向量
+     * @param maxAge        缓存最长有效期
+     * @return 最相似的缓存答案（不做阈值判断）
+     */
+    public Optional<CachedAnswer> findMostSimilar(String kbKey, String generationKey, float[] embedding,
+                                                  Duration maxAge) {
+        String sql = """
+            SELECT question, answer, 1 - (embedding <=> ?) AS similarity
+            FROM rag_answer_cache
+            WHERE kb_key = ? AND generation_key = ?
+              AND created_at > now() - make_interval(secs => ?::double precision)
+            ORDER BY embedding <=> ?
+            LIMIT 1
+            """;
+        PGvector vector = new PGvector(embedding);
+        List<CachedAnswer> answers = jdbcTemplate.query(sql,
+            (rs, rowNum) -> new CachedAnswer(rs.getString("question"), rs.getString("answer"),
+                rs.getDouble("similarity")),
+            vector, kbKey, generationKey, maxAge.toSeconds(), vector);
+        return answers.stream().findFirst();
+    }
+
+    /**
+     * 保存问题答案
+     */
+    public void save(List<Long> knowledgeBaseIds, String kbKey, String generationKey, String question,
+                     float[] embedding, String answer) {
+        jdbcTemplate.update(con -> {
+            var ps = con.prepareStatement("""
+                INSERT INTO rag_answer_cache (kb_ids, kb_key, generation_key, question, embedding, answer)
+                VALUES (?, ?, ?, ?, ?, ?)
+                """);
+            ps.setArray(1, con.createArrayOf("bigint", knowledgeBaseIds.toArray()));
+            ps.setString(2, kbKey);
+            ps.setString(3, generationKey);
+            ps.setString(4, question);
+            ps.setObject(5, new PGvector(embedding));
+            ps.setString(6, answer);
+            return ps;
+        });
+    }
+
+    /**
+     * 删除同一知识库集合下属于旧向量代数的缓存答案，这些答案不会再命中
+     *
+     * @param kbKey         知识库集合键
+     * @param generationKey 当前的知识库向量代数键
+     * @return 删除的行数
+     */
+    public int deleteSuperseded(String kbKey, String generationKey) {
+        return jdbcTemplate.update("DELETE FROM rag_answer_cache WHERE kb_key = ? AND generation_key <> ?",
+            kbKey, generationKey);
+    }
+
+    /**
+     * 删除所有已过期的缓存答案
+     *
+     * @param maxAge 缓存最长有效期
+     * @return 删除的行数
+     */
+    public int deleteExpired(Duration maxAge) {
+        return jdbcTemplate.update(
+            "DELETE FROM rag_answer_cache WHERE created_at <= now() - make_interval(secs => ?::double precision)",
+            maxAge.toSeconds());
+    }
+
+    /**
+     * 只保留最新写入的 maxEntries 条缓存答案，按自增ID判断先后，沿主键索引定位边界
+     *
+     * @param maxEntries 最大条目数
+     * @return 删除的行数
+     */
+    public int trimToSize(int maxEntries) {
+        return jdbcTemplate.update("""
+            DELETE FROM rag_answer_cache
+            WHERE id <= (SELECT id FROM rag_answer_cache ORDER BY id DESC OFFSET ? LIMIT 1)
+            """, maxEntries);
+    }
+
+    /**
+     * 删除涉及指定知识库的所有缓存答案
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @return 删除的行数
+     */
+    public int deleteByKnowledgeBaseId(Long knowledgeBaseId) {
+        int deletedRows = jdbcTemplate.update(
+            "DELETE FROM rag_answer_cache WHERE kb_ids @> ARRAY[?]::bigint[]", knowledgeBaseId);
+        if (deletedRows > 0) {
+            log.info("已清除知识库相关的缓存答案: kbId={}, deleted={}", knowledgeBaseId, deletedRows);
+        }
+        return deletedRows;
+    }
+
+    /**
+     * 缓存的答案
+     *
+     * @param question   原始问题
+     * @param answer     答案
+     * @param similarity 与当前问题的余弦相似度
+     */
+    public record CachedAnswer(String question, String answer, double similarity) {}
+}
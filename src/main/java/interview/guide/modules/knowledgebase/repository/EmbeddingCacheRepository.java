@@ -0,0 +1,101 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Embedding 缓存Repository
+ * 按 (embedding 模型, 文本 SHA-256) 持久化 chunk 的向量，重复文本无需再次调用 Embedding API
+ * <p>
+ * 缓存表与 vector_store 在同一数据库中，写入和命中时都在库内直接复制向量，不经过应用层传输。
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class EmbeddingCacheRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 初始化缓存表
+     * embedding 列不限定维度，切换模型时无需迁移
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initTable() {
+        String sql = """
+            CREATE TABLE IF NOT EXISTS embedding_cache (
+                model        varchar(100) NOT NULL,
+                content_hash char(64)     NOT NULL,
+                embedding    vector       NOT NULL,
+                created_at   timestamp    NOT NULL DEFAULT now(),
+                PRIMARY KEY (model, content_hash)
+            )
+            """;
+        try {
+            jdbcTemplate.execute(sql);
+            log.info("Embedding 缓存表已就绪: embedding_cache");
+        } catch (Exception e) {
+            log.warn("创建 Embedding 缓存表失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 查询已缓存的文本哈希
+     *
+     * @param model  embedding 模型
+     * @param hashes 文本哈希集合
+     * @return 已存在缓存的哈希
+     */
+    public Set<String> findCachedHashes(String model, Collection<String> hashes) {
+        if (hashes.isEmpty()) {
+            return Set.of();
+        }
+        String sql = "SELECT content_hash FROM embedding_cache WHERE model = ? AND content_hash = ANY (?)";
+        List<String> cached = jdbcTemplate.query(
+            con -> {
+                var ps = con.prepareStatement(sql);
+                ps.setString(1, model);
+                ps.setArray(2, con.createArrayOf("bpchar", hashes.toArray()));
+                return ps;
+            },
+            (rs, rowNum) -> rs.getString(1)
+        );
+        return new HashSet<>(cached);
+    }
+
+    /**
+     * 将刚写入 vector_store 的向量复制到缓存
+     * 哈希取自 metadata 中的 chunk_hash 字段
+     *
+     * @param model       embedding 模型
+     * @param documentIds vector_store 中的文档ID
+     * @return 新增的缓存条数
+     */
+    public int saveFromVectorStore(String model, List<String> documentIds) {
+        if (documentIds.isEmpty()) {
+            return 0;
+        }
+        String sql = """
+            INSERT INTO embedding_cache (model, content_hash, embedding)
+            SELECT ?, metadata->>'chunk_hash', embedding
+            FROM vector_store
+            WHERE id = ANY (?) AND metadata->>'chunk_hash' IS NOT NULL
+            ON CONFLICT (model, content_hash) DO NOTHING
+            """;
+        return jdbcTemplate.update(con -> {
+            var ps = con.prepareStatement(sql);
+            ps.setString(1, model);
+            ps.setArray(2, con.createArrayOf("uuid", documentIds.toArray()));
+            return ps;
+        });
+    }
+}
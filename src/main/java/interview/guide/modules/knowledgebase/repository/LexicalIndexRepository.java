@@ -0,0 +1,128 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 关键词索引Repository
+ * <p>
+ * vector_store_lexical 与 vector_store 按 id 一一对应，保存 chunk 文本的词元（tsvector + GIN 索引）。
+ * 词元由应用侧分词后通过 array_to_tsvector 直接写入，不经过数据库的分词配置。
+ * 随 vector_store 行级联删除；检索时关联 vector_store.kb_id，可见性与向量检索一致。
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class LexicalIndexRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 初始化关键词索引表
+     * 需要在 vector_store 建表之后执行
+     */
+    public void initTable() {
+        String sql = """
+            CREATE TABLE IF NOT EXISTS vector_store_lexical (
+                id     uuid     PRIMARY KEY REFERENCES vector_store (id) ON DELETE CASCADE,
+                tokens tsvector NOT NULL
+            );
+            CREATE INDEX IF NOT EXISTS idx_vector_store_lexical_tokens ON vector_store_lexical USING gin (tokens);
+            """;
+        jdbcTemplate.execute(sql);
+        log.info("关键词索引表已就绪: vector_store_lexical");
+    }
+
+    /**
+     * 写入 chunk 词元
+     * 只为 vector_store 中已存在的行写入，已存在的索引保持不变
+     *
+     * @param tokensById 文档ID -> 词元
+     */
+    public void saveTokens(Map<String, List<String>> tokensById) {
+        if (tokensById.isEmpty()) {
+            return;
+        }
+        String sql = """
+            INSERT INTO vector_store_lexical (id, tokens)
+            SELECT v.id, array_to_tsvector(?) FROM vector_store v WHERE v.id = ?::uuid
+            ON CONFLICT (id) DO NOTHING
+            """;
+        List<Map.Entry<String, List<String>>> entries = List.copyOf(tokensById.entrySet());
+        jdbcTemplate.batchUpdate(sql, entries, entries.size(), (ps, entry) -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("text", entry.getValue().toArray()));
+            ps.setString(2, entry.getKey());
+        });
+    }
+
+    /**
+     * 查询尚未建立关键词索引的 chunk，用于回填旧数据
+     *
+     * @param afterId 游标，只返回 id 大于该值的行
+     * @param limit   最大行数
+     * @return 文档ID -> 文本，按 id 升序
+     */
+    public Map<String, String> findUnindexed(String afterId, int limit) {
+        String sql = """
+            SELECT v.id::text AS id, v.content
+            FROM vector_store v
+            WHERE v.id > ?::uuid
+              AND NOT EXISTS (SELECT 1 FROM vector_store_lexical l WHERE l.id = v.id)
+            ORDER BY v.id
+            LIMIT ?
+            """;
+        Map<String, String> texts = new LinkedHashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            texts.put(rs.getString("id"), rs.getString("content"));
+        }, afterId, limit);
+        return texts;
+    }
+
+    /**
+     * 关键词检索
+     * 按命中词元数量排序（ts_rank 归一化方式 1：除以 1 + log(文档词元数)，避免长 chunk 占优）
+     *
+     * @param tsQuery          tsquery 文本
+     * @param knowledgeBaseIds 知识库ID列表，为空时检索所有知识库
+     * @param topK             返回条数
+     * @return 按相关度降序排列的文档，score 为 ts_rank 分数
+     */
+    @SuppressWarnings("unchecked")
+    public List<Document> search(String tsQuery, List<Long> knowledgeBaseIds, int topK) {
+        boolean filterByKb = knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty();
+        String sql = """
+            SELECT v.id::text AS id, v.content, v.metadata::text AS metadata, ts_rank(l.tokens, query.q, 1) AS rank
+            FROM vector_store_lexical l
+            JOIN vector_store v ON v.id = l.id
+            CROSS JOIN (SELECT ?::tsquery AS q) AS query
+            WHERE l.tokens @@ query.q AND %s
+            ORDER BY rank DESC
+            LIMIT ?
+            """.formatted(filterByKb ? "v.kb_id = ANY (?)" : "v.kb_id IS NOT NULL");
+        return jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(sql);
+            int index = 1;
+            ps.setString(index++, tsQuery);
+            if (filterByKb) {
+                ps.setArray(index++, con.createArrayOf("bigint", knowledgeBaseIds.stream().distinct().toArray()));
+            }
+            ps.setInt(index, topK);
+            return ps;
+        }, (rs, rowNum) -> Document.builder()
+            .id(rs.getString("id"))
+            .text(rs.getString("content"))
+            .metadata(new HashMap<String, Object>(objectMapper.readValue(rs.getString("metadata"), Map.class)))
+            .score(rs.getDouble("rank"))
+            .build());
+    }
+}
@@ -2,11 +2,14 @@ package interview.guide.modules.knowledgebase.repository;
 
 import interview.guide.modules.knowledgebase.model.RagChatMessageEntity;
 import interview.guide.modules.knowledgebase.model.RagChatMessageEntity.MessageType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +24,26 @@ public interface RagChatMessageRepository extends JpaRepository<RagChatMessageEn
      */
     List<RagChatMessageEntity> findBySessionIdOrderByMessageOrderAsc(Long sessionId);
 
+    /**
+     * 获取会话最新的一页消息（按顺序倒序），走 idx_rag_message_order 索引
+     */
+    List<RagChatMessageEntity> findBySessionIdOrderByMessageOrderDesc(Long sessionId, Pageable pageable);
+
+    /**
+     * 获取会话中 messageOrder 之前最新的一页消息（按顺序倒序），走 idx_rag_message_order 索引
+     */
+    List<RagChatMessageEntity> findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(
+        Long sessionId, Integer messageOrder, Pageable pageable);
+
+    /**
+     * 获取会话中 messageOrder 在 [fromOrder, toOrder) 范围内的消息（按顺序正序），用于折叠进滚动摘要
+     */
+    @Query("SELECT m FROM RagChatMessageEntity m WHERE m.session.id = :sessionId "
+        + "AND m.messageOrder >= :fromOrder AND m.messageOrder < :toOrder ORDER BY m.messageOrder ASC")
+    List<RagChatMessageEntity> findOrderRange(@Param("sessionId") Long sessionId,
+                                              @Param("fromOrder") int fromOrder,
+                                              @Param("toOrder") int toOrder);
+
     /**
      * 获取会话的最后一条消息
      */
@@ -37,6 +60,44 @@ public interface RagChatMessageRepository extends JpaRepository<RagChatMessageEn
      */
     List<RagChatMessageEntity> findBySessionIdAndCompletedFalse(Long sessionId);
 
+    /**
+     * 在消息末尾追加内容（流式回答分批写入），不读取已有内容
+     *
+     * @return 更新的行数
+     */
+    @Modifying
+    @Query("UPDATE RagChatMessageEntity m SET m.content = CONCAT(m.content, :delta), m.updatedAt = :now "
+        + "WHERE m.id = :id")
+    int appendContent(@Param("id") Long id, @Param("delta") String delta, @Param("now") LocalDateTime now);
+
+    /**
+     * 追加最后一批内容并标记消息完成
+     *
+     * @return 更新的行数
+     */
+    @Modifying
+    @Query("UPDATE RagChatMessageEntity m SET m.content = CONCAT(m.content, :delta), m.completed = true, "
+        + "m.updatedAt = :now WHERE m.id = :id")
+    int completeContent(@Param("id") Long id, @Param("delta") String delta, @Param("now") LocalDateTime now);
+
+    /**
+     * 追加最后一批内容并将消息标记为生成失败（同时结束流式状态）
+     *
+     * @return 更新的行数
+     */
+    @Modifying
+    @Query("UPDATE RagChatMessageEntity m SET m.content = CONCAT(m.content, :delta), m.completed = true, "
+        + "m.failed = true, m.updatedAt = :now WHERE m.id = :id")
+    int failContent(@Param("id") Long id, @Param("delta") String delta, @Param("now") LocalDateTime now);
+
+    /**
+     * 读取消息从第 start 个字符（从 1 开始）起的内容和完成状态，断线续传时只取新增部分
+     */
+    @Query("SELECT SUBSTRING(m.content, :start) AS content, m.completed AS completed, m.failed AS failed, "
+        + "m.updatedAt AS updatedAt FROM RagChatMessageEntity m WHERE m.id = :id AND m.session.id = :sessionId")
+    Optional<StreamProgress> findStreamProgress(@Param("sessionId") Long sessionId, @Param("id") Long id,
+                                                @Param("start") int start);
+
     /**
      * 删除会话的所有消息
      */
@@ -46,4 +107,24 @@ public interface RagChatMessageRepository extends JpaRepository<RagChatMessageEn
      * 统计所有用户消息数（即总提问次数）
      */
     long countByType(MessageType type);
+
+    /**
+     * 流式消息的写入进度
+     */
+    interface StreamProgress {
+
+        /**
+         * 从请求位置起的内容
+         */
+        String getContent();
+
+        Boolean getCompleted();
+
+        /**
+         * 是否生成失败，旧数据为 null
+         */
+        Boolean getFailed();
+
+        LocalDateTime getUpdatedAt();
+    }
 }
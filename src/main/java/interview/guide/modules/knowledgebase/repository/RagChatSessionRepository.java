@@ -2,11 +2,16 @@ package interview.guide.modules.knowledgebase.repository;
 
 import interview.guide.modules.knowledgebase.model.RagChatSessionEntity;
 import interview.guide.modules.knowledgebase.model.RagChatSessionEntity.SessionStatus;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -32,6 +37,62 @@ public interface RagChatSessionRepository extends JpaRepository<RagChatSessionEn
     @Query("SELECT s FROM RagChatSessionEntity s ORDER BY s.isPinned DESC, s.updatedAt DESC")
     List<RagChatSessionEntity> findAllOrderByPinnedAndUpdatedAtDesc();
 
+    /**
+     * 按更新时间倒序获取置顶或非置顶会话列表的第一页，只取列表字段
+     *
+     * @param pinned   是否置顶
+     * @param pageable 只使用其中的条数
+     */
+    @Query("SELECT s.id AS id, s.title AS title, s.messageCount AS messageCount, s.updatedAt AS updatedAt, "
+        + "s.isPinned AS isPinned FROM RagChatSessionEntity s WHERE s.isPinned = :pinned "
+        + "ORDER BY s.updatedAt DESC, s.id DESC")
+    List<SessionListRow> findListFirstPage(@Param("pinned") boolean pinned, Pageable pageable);
+
+    /**
+     * 获取 (updatedAt, id) 之后的一页（键集分页）
+     * 只在 (isPinned, updatedAt, id) 复合索引上做一段范围扫描，翻页耗时与会话总数无关
+     *
+     * @param pinned    是否置顶
+     * @param updatedAt 上一页最后一条的更新时间
+     * @param id        上一页最后一条的ID
+     * @param pageable  只使用其中的条数
+     */
+    @Query("SELECT s.id AS id, s.title AS title, s.messageCount AS messageCount, s.updatedAt AS updatedAt, "
+        + "s.isPinned AS isPinned FROM RagChatSessionEntity s WHERE s.isPinned = :pinned "
+        + "AND (s.updatedAt < :updatedAt OR (s.updatedAt = :updatedAt AND s.id < :id)) "
+        + "ORDER BY s.updatedAt DESC, s.id DESC")
+    List<SessionListRow> findListPageAfter(@Param("pinned") boolean pinned,
+                                           @Param("updatedAt") LocalDateTime updatedAt,
+                                           @Param("id") Long id,
+                                           Pageable pageable);
+
+    /**
+     * 批量获取会话关联的知识库名称
+     */
+    @Query("SELECT s.id AS sessionId, kb.name AS name FROM RagChatSessionEntity s JOIN s.knowledgeBases kb "
+        + "WHERE s.id IN :sessionIds ORDER BY kb.id")
+    List<SessionKnowledgeBaseName> findKnowledgeBaseNames(@Param("sessionIds") Collection<Long> sessionIds);
+
+    /**
+     * 读取会话的滚动摘要状态
+     */
+    @Query("SELECT s.summary AS summary, s.summarizedUpTo AS summarizedUpTo, s.messageCount AS messageCount "
+        + "FROM RagChatSessionEntity s WHERE s.id = :id")
+    Optional<SessionMemory> findMemoryById(@Param("id") Long id);
+
+    /**
+     * 更新滚动摘要，摘要覆盖范围仍为 expectedUpTo 时才更新，并发刷新时只有一次生效
+     * 不修改 updatedAt，摘要刷新不影响会话列表排序
+     *
+     * @return 更新的行数
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE RagChatSessionEntity s SET s.summary = :summary, s.summarizedUpTo = :upTo "
+        + "WHERE s.id = :id AND COALESCE(s.summarizedUpTo, 0) = :expectedUpTo")
+    int updateSummary(@Param("id") Long id, @Param("summary") String summary,
+                      @Param("expectedUpTo") int expectedUpTo, @Param("upTo") int upTo);
+
     /**
      * 根据知识库ID查找相关会话
      */
@@ -50,4 +111,45 @@ public interface RagChatSessionRepository extends JpaRepository<RagChatSessionEn
      */
     @Query("SELECT s FROM RagChatSessionEntity s LEFT JOIN FETCH s.knowledgeBases WHERE s.id = :id")
     Optional<RagChatSessionEntity> findByIdWithKnowledgeBases(@Param("id") Long id);
+
+    /**
+     * 会话列表只需要的字段，不加载关联
+     */
+    interface SessionListRow {
+
+        Long getId();
+
+        String getTitle();
+
+        Integer getMessageCount();
+
+        LocalDateTime getUpdatedAt();
+
+        Boolean getIsPinned();
+    }
+
+    /**
+     * 会话关联的知识库名称
+     */
+    interface SessionKnowledgeBaseName {
+
+        Long getSessionId();
+
+        String getName();
+    }
+
+    /**
+     * 会话的滚动摘要状态
+     */
+    interface SessionMemory {
+
+        String getSummary();
+
+        /**
+         * 摘要已覆盖的消息顺序上界（不含），旧数据为 null
+         */
+        Integer getSummarizedUpTo();
+
+        Integer getMessageCount();
+    }
 }
@@ -0,0 +1,42 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * RAG 聊天会话表结构维护Repository
+ * 处理 JPA 自动建表（ddl-auto: update）不会迁移的旧数据和列约束
+ */
+@Slf4j
+@Repository
+@RequiredArgsConstructor
+public class RagChatSessionSchemaRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 回填旧会话的 is_pinned 并加上 NOT NULL 约束
+     * <p>
+     * 置顶字段新增前创建的会话 is_pinned 为 NULL，会话列表按 {@code is_pinned = ?} 分段键集分页，
+     * NULL 行两段都不命中。回填为 false 后加 NOT NULL，列表查询保持等值条件，继续使用
+     * (is_pinned, updated_at, id) 复合索引。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initPinnedColumn() {
+        String sql = """
+            UPDATE rag_chat_sessions SET is_pinned = false WHERE is_pinned IS NULL;
+            ALTER TABLE rag_chat_sessions ALTER COLUMN is_pinned SET DEFAULT false;
+            ALTER TABLE rag_chat_sessions ALTER COLUMN is_pinned SET NOT NULL;
+            """;
+        try {
+            jdbcTemplate.execute(sql);
+            log.info("会话置顶字段已就绪: rag_chat_sessions.is_pinned");
+        } catch (Exception e) {
+            log.warn("回填会话置顶字段失败: {}", e.getMessage());
+        }
+    }
+}
@@ -1,24 +1,457 @@
 package interview.guide.modules.knowledgebase.repository;
 
+import com.pgvector.PGvector;
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.config.RagConfigProperties.VectorQuantization;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * 向量存储Repository
  * 负责向量数据的增删改查操作
+ * <p>
+ * 知识库向量按"代"（generation）写入：新数据先以 pending_kb_id 标记写入，对查询不可见；
+ * 全部写入后在一个短事务中切换为 kb_id，同时将被替换的旧数据改为 retired_kb_id，
+ * 查询始终只看到最近一次完整切换后的数据。retired 数据由后台任务分批删除。
  */
 @Slf4j
 @Repository
 @RequiredArgsConstructor
 public class VectorRepository {
-    
+
+    /**
+     * 旧数据回填 kb_id 时每批的行数
+     */
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    /**
+     * 删除知识库当前可见的数据
+     */
+    static final String DELETE_BY_KB_ID_SQL = "DELETE FROM vector_store WHERE kb_id = ?";
+
+    /**
+     * 删除知识库未切换的 pending 数据和待回收的 retired 数据
+     */
+    static final String DELETE_INACTIVE_BY_KB_ID_SQL =
+        "DELETE FROM vector_store WHERE metadata::jsonb @> ?::jsonb OR metadata::jsonb @> ?::jsonb";
+
+    /**
+     * PgVectorStore 在原始向量上建立的索引
+     */
+    public static final String FULL_PRECISION_INDEX_NAME = "spring_ai_vector_index";
+
+    /**
+     * 二进制 COPY 写入向量的语句，列顺序与 {@link #writeCopyRow} 一致
+     */
+    static final String COPY_IN_SQL =
+        "COPY vector_store (id, content, metadata, embedding) FROM STDIN (FORMAT binary)";
+
+    /**
+     * PostgreSQL 二进制 COPY 文件头签名
+     */
+    static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    /**
+     * COPY 数据发送缓冲区大小，约 16 行 1024 维向量
+     */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
     private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final RagConfigProperties ragConfig;
+
+    /**
+     * metadata 列是否为 jsonb（PgVectorStore 建表为 json），首次 COPY 时查询
+     */
+    private volatile Boolean metadataJsonb;
+
+    /**
+     * 初始化 metadata 包含查询所需的索引
+     * <p>
+     * pending / retired 数据按 {@code metadata::jsonb @> ...} 定位，
+     * 在同一表达式上建立 jsonb_path_ops GIN 索引后无需全表扫描。
+     * 在应用启动完成后执行，确保 PgVectorStore 已完成建表。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initIndexes() {
+        String sql = """
+            CREATE INDEX IF NOT EXISTS idx_vector_store_metadata_path
+            ON vector_store USING gin ((metadata::jsonb) jsonb_path_ops)
+            """;
+        try {
+            jdbcTemplate.execute(sql);
+            log.info("向量表 metadata 索引已就绪: idx_vector_store_metadata_path");
+        } catch (Exception e) {
+            // 索引创建失败不影响功能，只影响过滤性能
+            log.warn("创建向量表 metadata 索引失败: {}", e.getMessage());
+        }
+    }
     
     /**
-     * 删除指定知识库的所有向量数据
+     * 初始化量化向量索引
+     * <p>
+     * quantization 不为 NONE 时，在 embedding 的量化表达式上建立 HNSW 索引。表达式索引由已有数据直接计算，
+     * 已有知识库无需重新向量化；使用 CONCURRENTLY 创建，不阻塞写入，上次创建中断留下的无效索引先删除再重建。
+     * 开启 drop-full-precision-index 时，量化索引就绪后删除原始向量索引，释放其占用的 shared_buffers。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initQuantizedIndex() {
+        RagConfigProperties.VectorIndex config = ragConfig.getVectorIndex();
+        VectorQuantization quantization = config.getQuantization();
+        if (quantization == VectorQuantization.NONE) {
+            return;
+        }
+        String indexName = quantizedIndexName(quantization);
+        try {
+            List<Boolean> valid = jdbcTemplate.queryForList(
+                "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)", Boolean.class, indexName);
+            if (valid.contains(Boolean.FALSE)) {
+                log.warn("量化向量索引上次创建未完成，重新创建: {}", indexName);
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+            }
+            long startNanos = System.nanoTime();
+            jdbcTemplate.execute(buildQuantizedIndexSql(quantization, config.getDimensions()));
+            log.info("量化向量索引已就绪: {}, elapsed={}ms", indexName, (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (Exception e) {
+            // 索引不可用时量化检索退化为全表扫描，结果仍然正确
+            log.warn("创建量化向量索引失败: index={}, error={}", indexName, e.getMessage());
+            return;
+        }
+        if (config.isDropFullPrecisionIndex()) {
+            try {
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + FULL_PRECISION_INDEX_NAME);
+                log.info("已删除原始向量索引: {}", FULL_PRECISION_INDEX_NAME);
+            } catch (Exception e) {
+                log.warn("删除原始向量索引失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    public static String quantizedIndexName(VectorQuantization quantization) {
+        return "idx_vector_store_embedding_" + quantization.name().toLowerCase();
+    }
+
+    /**
+     * 构建量化表达式索引 SQL，表达式必须与 {@link #quantizedDistance} 中的一致才能命中索引
+     */
+    static String buildQuantizedIndexSql(VectorQuantization quantization, int dimensions) {
+        String expression = switch (quantization) {
+            case HALFVEC -> "(embedding::halfvec(%d)) halfvec_cosine_ops".formatted(dimensions);
+            case BINARY -> "(binary_quantize(embedding)::bit(%d)) bit_hamming_ops".formatted(dimensions);
+            case NONE -> throw new IllegalArgumentException("未启用量化");
+        };
+        return "CREATE INDEX CONCURRENTLY IF NOT EXISTS " + quantizedIndexName(quantization)
+            + " ON vector_store USING hnsw (" + expression + ")";
+    }
+
+    /**
+     * 初始化 kb_id 列
+     * <p>
+     * 在 vector_store 上增加 bigint 类型的 kb_id 列和 B-tree 索引，由触发器在插入和 metadata 变更时
+     * 从 kb_id / kb_id_long 同步，按知识库删除和检索都走索引而不是逐行解析 json。
+     * 已有数据按批回填，每批一个短事务。pending / retired 数据的 metadata 中没有 kb_id，该列为 NULL，查询天然不可见。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initKbIdColumn() {
+        String sql = """
+            ALTER TABLE vector_store ADD COLUMN IF NOT EXISTS kb_id bigint;
+            CREATE OR REPLACE FUNCTION vector_store_kb_id(meta json) RETURNS bigint AS $$
+                SELECT COALESCE(
+                    CASE WHEN meta->>'kb_id' ~ '^[0-9]+$' THEN (meta->>'kb_id')::bigint END,
+                    CASE WHEN meta->>'kb_id_long' ~ '^[0-9]+$' THEN (meta->>'kb_id_long')::bigint END)
+            $$ LANGUAGE sql IMMUTABLE;
+            CREATE OR REPLACE FUNCTION vector_store_sync_kb_id() RETURNS trigger AS $$
+            BEGIN
+                NEW.kb_id := vector_store_kb_id(NEW.metadata);
+                RETURN NEW;
+            END
+            $$ LANGUAGE plpgsql;
+            CREATE OR REPLACE TRIGGER trg_vector_store_kb_id
+                BEFORE INSERT OR UPDATE OF metadata ON vector_store
+                FOR EACH ROW EXECUTE FUNCTION vector_store_sync_kb_id();
+            CREATE INDEX IF NOT EXISTS idx_vector_store_kb_id ON vector_store (kb_id);
+            """;
+        try {
+            jdbcTemplate.execute(sql);
+            log.info("向量表 kb_id 列和索引已就绪: idx_vector_store_kb_id");
+        } catch (Exception e) {
+            log.warn("初始化向量表 kb_id 列失败: {}", e.getMessage());
+            return;
+        }
+        try {
+            backfillKbId(BACKFILL_BATCH_SIZE);
+        } catch (Exception e) {
+            log.warn("回填向量表 kb_id 列失败，下次启动时继续: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 按主键顺序分批回填旧数据的 kb_id 列
+     * 按 id 游标推进，metadata 中 kb_id 格式异常（回填后仍为 NULL）的行不会被反复扫描
+     *
+     * @param batchSize 每批行数
+     * @return 回填的行数
+     */
+    public int backfillKbId(int batchSize) {
+        String sql = """
+            WITH batch AS (
+                SELECT id FROM vector_store
+                WHERE kb_id IS NULL
+                  AND (metadata->>'kb_id' IS NOT NULL OR metadata->>'kb_id_long' IS NOT NULL)
+                  AND id > ?::uuid
+                ORDER BY id
+                LIMIT ?
+            )
+            UPDATE vector_store v SET kb_id = vector_store_kb_id(v.metadata)
+            FROM batch WHERE v.id = batch.id
+            RETURNING v.id::text
+            """;
+        String cursor = "00000000-0000-0000-0000-000000000000";
+        int total = 0;
+        while (true) {
+            List<String> ids = jdbcTemplate.queryForList(sql, String.class, cursor, batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            total += ids.size();
+            // uuid 在 PostgreSQL 中按字节序比较，与小写十六进制字符串的字典序一致
+            cursor = ids.stream().max(Comparator.naturalOrder()).orElseThrow();
+            if (ids.size() < batchSize) {
+                break;
+            }
+        }
+        if (total > 0) {
+            log.info("向量表 kb_id 列回填完成: rows={}", total);
+        }
+        return total;
+    }
+
+    /**
+     * 初始化知识库向量代数表和代数序列
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initGenerationTable() {
+        String sql = """
+            CREATE SEQUENCE IF NOT EXISTS kb_vector_generation_seq;
+            CREATE TABLE IF NOT EXISTS kb_vector_generation (
+                kb_id             bigint    PRIMARY KEY,
+                active_generation bigint    NOT NULL,
+                switched_at       timestamp NOT NULL DEFAULT now()
+            )
+            """;
+        try {
+            jdbcTemplate.execute(sql);
+            log.info("知识库向量代数表已就绪: kb_vector_generation");
+        } catch (Exception e) {
+            log.warn("创建知识库向量代数表失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 分配新的向量代数
+     */
+    public long nextGeneration() {
+        Long generation = jdbcTemplate.queryForObject("SELECT nextval('kb_vector_generation_seq')", Long.class);
+        return generation == null ? 0L : generation;
+    }
+
+    /**
+     * 查询知识库当前生效的向量代数
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @return 生效代数，尚未切换过时返回 0
+     */
+    public long findActiveGeneration(Long knowledgeBaseId) {
+        List<Long> generations = jdbcTemplate.queryForList(
+            "SELECT active_generation FROM kb_vector_generation WHERE kb_id = ?", Long.class, knowledgeBaseId);
+        return generations.isEmpty() ? 0L : generations.getFirst();
+    }
+
+    /**
+     * 批量查询知识库当前生效的向量代数
+     *
+     * @param knowledgeBaseIds 知识库ID列表
+     * @return 知识库ID -> 生效代数，尚未切换过的知识库不在结果中
+     */
+    public Map<Long, Long> findActiveGenerations(Collection<Long> knowledgeBaseIds) {
+        if (knowledgeBaseIds.isEmpty()) {
+            return Map.of();
+        }
+        Map<Long, Long> generations = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(
+                "SELECT kb_id, active_generation FROM kb_vector_generation WHERE kb_id = ANY (?)");
+            ps.setArray(1, con.createArrayOf("bigint", knowledgeBaseIds.toArray()));
+            return ps;
+        }, rs -> {
+            generations.put(rs.getLong("kb_id"), rs.getLong("active_generation"));
+        });
+        return generations;
+    }
+
+    /**
+     * 查询所有有可见数据的知识库及其生效代数
+     * 早于代数机制写入的知识库没有代数记录，代数为 0
+     *
+     * @return 知识库ID -> 生效代数
+     */
+    public Map<Long, Long> findVisibleGenerations() {
+        String sql = """
+            SELECT v.kb_id, COALESCE(g.active_generation, 0) AS active_generation
+            FROM (SELECT DISTINCT kb_id FROM vector_store WHERE kb_id IS NOT NULL) v
+            LEFT JOIN kb_vector_generation g ON g.kb_id = v.kb_id
+            """;
+        Map<Long, Long> generations = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            generations.put(rs.getLong("kb_id"), rs.getLong("active_generation"));
+        });
+        return generations;
+    }
+
+    /**
+     * 原子切换知识库的生效代数
+     * <p>
+     * 以 expectedGeneration 做乐观校验：期间已有其他任务完成切换时放弃本次切换并返回 false。
+     * 切换成功时，在同一事务中将新代的 pending 数据设为可见，并将被替换的旧数据标记为 retired。
+     *
+     * @param knowledgeBaseId    知识库ID
+     * @param expectedGeneration 开始写入前读取到的生效代数（0 表示尚无）
+     * @param newGeneration      新代数
+     * @param retiredIds         需要淘汰的旧文档ID
+     * @return 是否切换成功
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public boolean activateGeneration(Long knowledgeBaseId, long expectedGeneration, long newGeneration,
+                                      List<String> retiredIds) {
+        int switched = expectedGeneration == 0
+            ? jdbcTemplate.update("""
+                INSERT INTO kb_vector_generation (kb_id, active_generation) VALUES (?, ?)
+                ON CONFLICT (kb_id) DO NOTHING
+                """, knowledgeBaseId, newGeneration)
+            : jdbcTemplate.update("""
+                UPDATE kb_vector_generation SET active_generation = ?, switched_at = now()
+                WHERE kb_id = ? AND active_generation = ?
+                """, newGeneration, knowledgeBaseId, expectedGeneration);
+        if (switched == 0) {
+            log.warn("知识库向量代数已被其他任务更新，放弃切换: kbId={}, expected={}, new={}",
+                    knowledgeBaseId, expectedGeneration, newGeneration);
+            return false;
+        }
+
+        int promoted = jdbcTemplate.update("""
+            UPDATE vector_store
+            SET metadata = ((metadata::jsonb - 'pending_kb_id') || jsonb_build_object('kb_id', ?::text))::json
+            WHERE metadata::jsonb @> ?::jsonb
+            """, knowledgeBaseId.toString(), pendingSelector(knowledgeBaseId, newGeneration));
+
+        int retired = 0;
+        if (!retiredIds.isEmpty()) {
+            retired = jdbcTemplate.update(con -> {
+                var ps = con.prepareStatement("""
+                    UPDATE vector_store
+                    SET metadata = ((metadata::jsonb - 'kb_id' - 'kb_id_long')
+                                    || jsonb_build_object('retired_kb_id', ?::text))::json
+                    WHERE id = ANY (?)
+                    """);
+                ps.setString(1, knowledgeBaseId.toString());
+                ps.setArray(2, con.createArrayOf("uuid", retiredIds.toArray()));
+                return ps;
+            });
+        }
+        log.info("知识库向量代数已切换: kbId={}, generation={} -> {}, promoted={}, retired={}",
+                knowledgeBaseId, expectedGeneration, newGeneration, promoted, retired);
+        return true;
+    }
+
+    /**
+     * 删除某一代尚未切换的 pending 数据，用于向量化失败或切换冲突后的清理
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @param generation      代数
+     * @return 删除的行数
+     */
+    public int deletePendingGeneration(Long knowledgeBaseId, long generation) {
+        int deletedRows = jdbcTemplate.update("DELETE FROM vector_store WHERE metadata::jsonb @> ?::jsonb",
+            pendingSelector(knowledgeBaseId, generation));
+        log.info("清理未切换的向量数据: kbId={}, generation={}, deleted={}", knowledgeBaseId, generation, deletedRows);
+        return deletedRows;
+    }
+
+    /**
+     * 分批删除知识库中已失效的向量数据：已淘汰的 retired 数据，以及代数不高于生效代数的残留 pending 数据
+     * 每批在独立的短事务中执行，避免长时间持有行锁
+     *
+     * @param knowledgeBaseId 知识库ID，为 null 时清理所有知识库的 retired 数据
+     * @param batchSize       每批删除的行数
+     * @return 删除的总行数
+     */
+    public int purgeInactiveRows(Long knowledgeBaseId, int batchSize) {
+        String sql;
+        Object[] args;
+        if (knowledgeBaseId == null) {
+            sql = """
+                DELETE FROM vector_store WHERE id IN (
+                    SELECT id FROM vector_store WHERE metadata->>'retired_kb_id' IS NOT NULL LIMIT ?
+                )
+                """;
+            args = new Object[]{batchSize};
+        } else {
+            sql = """
+                DELETE FROM vector_store WHERE id IN (
+                    SELECT id FROM vector_store
+                    WHERE metadata::jsonb @> jsonb_build_object('retired_kb_id', ?::text)
+                       OR (metadata::jsonb @> jsonb_build_object('pending_kb_id', ?::text)
+                           AND (metadata->>'kb_generation')::bigint
+                               <= (SELECT active_generation FROM kb_vector_generation WHERE kb_id = ?))
+                    LIMIT ?
+                )
+                """;
+            args = new Object[]{knowledgeBaseId.toString(), knowledgeBaseId.toString(), knowledgeBaseId, batchSize};
+        }
+
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(sql, args);
+            total += deleted;
+        } while (deleted >= batchSize);
+        if (total > 0) {
+            log.info("已回收失效向量数据: kbId={}, deleted={}", knowledgeBaseId, total);
+        }
+        return total;
+    }
+
+    private String pendingSelector(Long knowledgeBaseId, long generation) {
+        return objectMapper.writeValueAsString(
+            Map.of("pending_kb_id", knowledgeBaseId.toString(), "kb_generation", generation));
+    }
+
+    /**
+     * 删除指定知识库的所有向量数据（包括未切换的 pending 数据、待回收的 retired 数据和代数记录）
      * 使用 SQL 直接删除，利用数据库索引和删除能力
      * <p>
      * Spring AI PgVectorStore 默认表名为 vector_store，元数据存储在 metadata 字段（JSONB类型）
@@ -30,21 +463,14 @@ public class VectorRepository {
     public int deleteByKnowledgeBaseId(Long knowledgeBaseId) {
         log.info("开始删除知识库向量数据: kbId={}", knowledgeBaseId);
         
-        /* 
-         * 注意：
-         * 1. metadata 字段是 json 类型，不支持 jsonb_exists 函数。
-         * 2. 使用 metadata->>'key' IS NOT NULL 来替代键存在性检查，这在 json/jsonb 下都有效。
-         * 3. 这种写法完全避开了 PostgreSQL 的 '?' 操作符，不会引起 JDBC 占位符冲突。
-         */
-        String sql = """
-            DELETE FROM vector_store
-            WHERE metadata->>'kb_id' = ?
-               OR (metadata->>'kb_id_long' IS NOT NULL AND (metadata->>'kb_id_long')::bigint = ?)
-            """;
-        
         try {
-            // 第一个参数转为 String 匹配 kb_id，第二个参数保持 Long 匹配 kb_id_long
-            int deletedRows = jdbcTemplate.update(sql, knowledgeBaseId.toString(), knowledgeBaseId);
+            // 当前可见数据走 kb_id 列索引，pending / retired 数据走 metadata GIN 索引
+            int deletedRows = jdbcTemplate.update(DELETE_BY_KB_ID_SQL, knowledgeBaseId);
+            String kbId = knowledgeBaseId.toString();
+            deletedRows += jdbcTemplate.update(DELETE_INACTIVE_BY_KB_ID_SQL,
+                objectMapper.writeValueAsString(Map.of("pending_kb_id", kbId)),
+                objectMapper.writeValueAsString(Map.of("retired_kb_id", kbId)));
+            jdbcTemplate.update("DELETE FROM kb_vector_generation WHERE kb_id = ?", knowledgeBaseId);
             
             if (deletedRows > 0) {
                 log.info("成功删除知识库向量数据: kbId={}, 删除行数={}", knowledgeBaseId, deletedRows);
@@ -59,6 +485,546 @@ public class VectorRepository {
             // 抛出异常以触发事务回滚
             throw new RuntimeException("删除向量数据失败", e);
         }
-    }    
-}
+    }
 
+    /**
+     * 使用 Embedding 缓存中的向量写入文档，不调用 Embedding API
+     * 向量在库内从 embedding_cache 复制，缓存缺失的文档不会被写入
+     *
+     * @param model     embedding 模型
+     * @param documents 待写入文档（metadata 中需包含 chunk_hash）
+     * @return 写入的行数
+     */
+    public int insertFromEmbeddingCache(String model, List<Document> documents) {
+        if (documents.isEmpty()) {
+            return 0;
+        }
+        String sql = """
+            INSERT INTO vector_store (id, content, metadata, embedding)
+            SELECT ?::uuid, ?, ?::jsonb, c.embedding
+            FROM embedding_cache c
+            WHERE c.model = ? AND c.content_hash = ?
+            """;
+        int[][] results = jdbcTemplate.batchUpdate(sql, documents, documents.size(), (ps, doc) -> {
+            ps.setString(1, doc.getId());
+            ps.setString(2, doc.getText());
+            ps.setString(3, objectMapper.writeValueAsString(doc.getMetadata()));
+            ps.setString(4, model);
+            ps.setString(5, String.valueOf(doc.getMetadata().get("chunk_hash")));
+        });
+        int inserted = Arrays.stream(results).flatMapToInt(Arrays::stream).sum();
+        log.debug("从 Embedding 缓存写入向量: requested={}, inserted={}", documents.size(), inserted);
+        return inserted;
+    }
+
+    /**
+     * 以二进制 COPY 批量写入文档及其向量
+     * <p>
+     * 所有行在一条 {@code COPY ... FROM STDIN (FORMAT binary)} 中流式发送，省去逐行 INSERT 的语句执行开销和向量的文本格式化，
+     * 适合知识库导入、重新向量化和数据迁移等大批量写入。单条 COPY 要么全部写入要么全部失败；
+     * 行级触发器照常执行，kb_id 列同步不受影响。文档 ID 必须是 UUID，且不能与已有数据重复。
+     *
+     * @param documents  待写入文档
+     * @param embeddings 与文档一一对应的向量
+     * @return 写入的行数
+     */
+    public long copyIn(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException(
+                "文档数与向量数不一致: documents=" + documents.size() + ", embeddings=" + embeddings.size());
+        }
+        if (documents.isEmpty()) {
+            return 0;
+        }
+        boolean jsonb = isMetadataJsonb();
+        Long rows = jdbcTemplate.execute((ConnectionCallback<Long>) con -> {
+            PGCopyOutputStream copy = new PGCopyOutputStream(con.unwrap(PGConnection.class), COPY_IN_SQL,
+                COPY_BUFFER_SIZE);
+            try {
+                DataOutputStream out = new DataOutputStream(copy);
+                writeCopyHeader(out);
+                for (int i = 0; i < documents.size(); i++) {
+                    Document doc = documents.get(i);
+                    writeCopyRow(out, UUID.fromString(doc.getId()), doc.getText(),
+                        objectMapper.writeValueAsString(doc.getMetadata()), jsonb, embeddings.get(i));
+                }
+                writeCopyTrailer(out);
+                out.flush();
+                return copy.endCopy();
+            } catch (IOException e) {
+                cancelCopyQuietly(copy);
+                throw new SQLException("COPY 写入向量失败: " + e.getMessage(), e);
+            } catch (RuntimeException | SQLException e) {
+                cancelCopyQuietly(copy);
+                throw e;
+            }
+        });
+        long inserted = rows == null ? 0 : rows;
+        log.debug("COPY 写入向量: rows={}", inserted);
+        return inserted;
+    }
+
+    private boolean isMetadataJsonb() {
+        Boolean jsonb = metadataJsonb;
+        if (jsonb == null) {
+            String type = jdbcTemplate.queryForObject("""
+                SELECT format_type(atttypid, atttypmod) FROM pg_attribute
+                WHERE attrelid = 'vector_store'::regclass AND attname = 'metadata'
+                """, String.class);
+            jsonb = "jsonb".equals(type);
+            metadataJsonb = jsonb;
+        }
+        return jsonb;
+    }
+
+    private static void cancelCopyQuietly(PGCopyOutputStream copy) {
+        try {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+        } catch (SQLException e) {
+            log.warn("取消 COPY 失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 写入二进制 COPY 文件头：签名、标志位、扩展区长度
+     */
+    static void writeCopyHeader(DataOutputStream out) throws IOException {
+        out.write(COPY_SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    /**
+     * 写入一行二进制 COPY 数据，每个字段为 4 字节长度 + 类型的二进制接收格式（网络字节序）
+     * <ul>
+     *   <li>uuid：16 字节</li>
+     *   <li>text / json：UTF-8 文本；jsonb 在文本前加 1 字节版本号</li>
+     *   <li>vector：2 字节维度 + 2 字节保留位 + 每维 4 字节 float</li>
+     * </ul>
+     */
+    static void writeCopyRow(DataOutputStream out, UUID id, String content, String metadata, boolean jsonb,
+                             float[] embedding) throws IOException {
+        out.writeShort(4);
+
+        out.writeInt(16);
+        out.writeLong(id.getMostSignificantBits());
+        out.writeLong(id.getLeastSignificantBits());
+
+        if (content == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] text = content.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+
+        byte[] json = metadata.getBytes(StandardCharsets.UTF_8);
+        if (jsonb) {
+            out.writeInt(json.length + 1);
+            out.writeByte(1);
+        } else {
+            out.writeInt(json.length);
+        }
+        out.write(json);
+
+        out.writeInt(4 + 4 * embedding.length);
+        out.writeShort(embedding.length);
+        out.writeShort(0);
+        for (float value : embedding) {
+            out.writeFloat(value);
+        }
+    }
+
+    /**
+     * 写入二进制 COPY 结束标记
+     */
+    static void writeCopyTrailer(DataOutputStream out) throws IOException {
+        out.writeShort(-1);
+    }
+
+    /**
+     * 查询指定知识库当前可见的 chunk（ID 和文本哈希）
+     * 旧数据没有 chunk_hash 字段时哈希为 null
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @return 已存储的 chunk 列表
+     */
+    public List<StoredChunk> findStoredChunks(Long knowledgeBaseId) {
+        String sql = "SELECT id::text AS id, metadata->>'chunk_hash' AS chunk_hash FROM vector_store WHERE kb_id = ?";
+        return jdbcTemplate.query(sql,
+            (rs, rowNum) -> new StoredChunk(rs.getString("id"), rs.getString("chunk_hash")),
+            knowledgeBaseId);
+    }
+
+    /**
+     * 向量相似度检索
+     * <p>
+     * 使用余弦距离（与 PgVectorStore 的 COSINE_DISTANCE 配置一致），知识库过滤走 kb_id 列索引。
+     * 只返回当前可见的数据（kb_id 非空），未切换的 pending 数据和已淘汰的 retired 数据不会被检索到。
+     * 启用量化时先按量化向量取 topK × rescoreFactor 个候选，再按原始向量的距离重排，返回的 distance 始终是原始向量的距离。
+     *
+     * @param queryEmbedding      查询向量
+     * @param knowledgeBaseIds    知识库ID列表，为空时检索所有知识库
+     * @param topK                返回条数
+     * @param similarityThreshold 相似度阈值（0~1），0 表示不过滤
+     * @return 按相似度降序排列的文档，score 为相似度，metadata 中附带 distance
+     */
+    @Transactional(readOnly = true)
+    public List<Document> similaritySearch(float[] queryEmbedding, List<Long> knowledgeBaseIds, int topK,
+                                           double similarityThreshold) {
+        return similaritySearch(queryEmbedding, knowledgeBaseIds, topK, similarityThreshold, SearchPlan.DEFAULT);
+    }
+
+    /**
+     * 按指定执行方式进行向量相似度检索
+     * <p>
+     * 精确扫描时先按 kb_id 索引取出知识库的全部行再逐行计算距离，不经过 HNSW 索引，结果与暴力检索一致；
+     * ANN 检索时 ef_search 和 iterative_scan 以 set_config 设置，只对当前事务生效；语句超时同样只对当前事务生效。
+     *
+     * @param queryEmbedding      查询向量
+     * @param knowledgeBaseIds    知识库ID列表，为空时检索所有知识库（此时忽略精确扫描）
+     * @param topK                返回条数
+     * @param similarityThreshold 相似度阈值（0~1），0 表示不过滤
+     * @param plan                执行方式
+     * @return 按相似度降序排列的文档，score 为相似度，metadata 中附带 distance
+     * @see #similaritySearch(float[], List, int, double)
+     */
+    @Transactional(readOnly = true)
+    public List<Document> similaritySearch(float[] queryEmbedding, List<Long> knowledgeBaseIds, int topK,
+                                           double similarityThreshold, SearchPlan plan) {
+        RagConfigProperties.VectorIndex config = ragConfig.getVectorIndex();
+        VectorQuantization quantization = config.getQuantization();
+        boolean filterByKb = knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty();
+        boolean filterByThreshold = similarityThreshold > 0;
+        PGvector vector = new PGvector(queryEmbedding);
+        if (plan.statementTimeoutMillis() > 0) {
+            jdbcTemplate.queryForObject("SELECT set_config('statement_timeout', ?, true)", String.class,
+                String.valueOf(plan.statementTimeoutMillis()));
+        }
+        if (plan.exactScan() && filterByKb) {
+            return exactSearch(vector, knowledgeBaseIds, topK, similarityThreshold);
+        }
+
+        boolean quantized = quantization != VectorQuantization.NONE;
+        int candidates = topK * Math.max(1, config.getRescoreFactor());
+        String sql = quantized
+            ? buildQuantizedSearchSql(quantization, config.getDimensions(), filterByKb, filterByThreshold)
+            : buildSearchSql(filterByKb, filterByThreshold);
+        // pgvector 的 HNSW 扫描最多返回 ef_search 个结果，量化检索时需不小于候选数
+        int efSearch = quantized
+            ? Math.max(Math.max(candidates, config.getEfSearch()), plan.efSearch())
+            : plan.efSearch();
+        if (efSearch > 0) {
+            jdbcTemplate.queryForObject("SELECT set_config('hnsw.ef_search', ?, true)", String.class,
+                String.valueOf(efSearch));
+        }
+        if (plan.iterativeScan()) {
+            jdbcTemplate.queryForObject("SELECT set_config('hnsw.iterative_scan', 'strict_order', true)",
+                String.class);
+        }
+        return jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(sql);
+            int index = 1;
+            ps.setObject(index++, vector);
+            if (filterByKb) {
+                ps.setArray(index++, con.createArrayOf("bigint", knowledgeBaseIds.stream().distinct().toArray()));
+            }
+            if (quantized) {
+                ps.setInt(index++, candidates);
+                ps.setObject(index++, vector);
+            }
+            if (filterByThreshold) {
+                ps.setObject(index++, vector);
+                ps.setDouble(index++, 1 - similarityThreshold);
+            }
+            if (!quantized) {
+                ps.setObject(index++, vector);
+            }
+            ps.setInt(index, topK);
+            return ps;
+        }, (rs, rowNum) -> toDocument(rs));
+    }
+
+    /**
+     * 精确扫描：物化 CTE 阻止规划器把 ORDER BY 下推到 HNSW 索引，过滤后的行全部参与排序
+     */
+    private List<Document> exactSearch(PGvector vector, List<Long> knowledgeBaseIds, int topK,
+                                       double similarityThreshold) {
+        boolean filterByThreshold = similarityThreshold > 0;
+        String sql = buildExactSearchSql(filterByThreshold);
+        return jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(sql);
+            int index = 1;
+            ps.setArray(index++, con.createArrayOf("bigint", knowledgeBaseIds.stream().distinct().toArray()));
+            ps.setObject(index++, vector);
+            if (filterByThreshold) {
+                ps.setObject(index++, vector);
+                ps.setDouble(index++, 1 - similarityThreshold);
+            }
+            ps.setInt(index, topK);
+            return ps;
+        }, (rs, rowNum) -> toDocument(rs));
+    }
+
+    /**
+     * 构建精确扫描 SQL
+     * <p>
+     * 参数顺序：知识库ID、查询向量、[查询向量、距离阈值]、topK
+     */
+    static String buildExactSearchSql(boolean filterByThreshold) {
+        StringBuilder sql = new StringBuilder("""
+            WITH filtered AS MATERIALIZED (
+                SELECT id, content, metadata, embedding
+                FROM vector_store
+                WHERE kb_id = ANY (?)
+            )
+            SELECT id::text AS id, content, metadata::text AS metadata, embedding <=> ? AS distance
+            FROM filtered
+            """);
+        if (filterByThreshold) {
+            sql.append("WHERE embedding <=> ? <= ?\n");
+        }
+        sql.append("ORDER BY distance\nLIMIT ?");
+        return sql.toString();
+    }
+
+    /**
+     * 统计知识库当前可见的 chunk 数，走 kb_id 列索引
+     *
+     * @param knowledgeBaseIds 知识库ID列表
+     * @return 知识库ID -> chunk 数，没有可见数据的知识库不在结果中
+     */
+    public Map<Long, Long> countChunks(Collection<Long> knowledgeBaseIds) {
+        if (knowledgeBaseIds.isEmpty()) {
+            return Map.of();
+        }
+        Map<Long, Long> counts = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(
+                "SELECT kb_id, count(*) AS chunks FROM vector_store WHERE kb_id = ANY (?) GROUP BY kb_id");
+            ps.setArray(1, con.createArrayOf("bigint", knowledgeBaseIds.toArray()));
+            return ps;
+        }, rs -> {
+            counts.put(rs.getLong("kb_id"), rs.getLong("chunks"));
+        });
+        return counts;
+    }
+
+    /**
+     * 估算向量表总行数，取自表统计信息（pg_class.reltuples），不扫描数据
+     *
+     * @return 估算行数，表尚未分析过时返回 0
+     */
+    public long estimateTotalRows() {
+        Long rows = jdbcTemplate.queryForObject(
+            "SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE oid = 'vector_store'::regclass", Long.class);
+        return rows == null ? 0L : rows;
+    }
+
+    /**
+     * 构建检索 SQL
+     */
+    static String buildSearchSql(boolean filterByKb, boolean filterByThreshold) {
+        StringBuilder sql = new StringBuilder("""
+            SELECT id::text AS id, content, metadata::text AS metadata, embedding <=> ? AS distance
+            FROM vector_store
+            """);
+        sql.append(filterByKb ? "WHERE kb_id = ANY (?)\n" : "WHERE kb_id IS NOT NULL\n");
+        if (filterByThreshold) {
+            sql.append("  AND embedding <=> ? <= ?\n");
+        }
+        sql.append("ORDER BY embedding <=> ?\nLIMIT ?");
+        return sql.toString();
+    }
+
+    /**
+     * 构建量化检索 SQL：子查询按量化距离走量化索引取候选，外层按原始向量重排
+     * <p>
+     * 参数顺序：查询向量、[知识库ID]、候选数、查询向量、[查询向量、距离阈值]、topK
+     */
+    static String buildQuantizedSearchSql(VectorQuantization quantization, int dimensions,
+                                          boolean filterByKb, boolean filterByThreshold) {
+        StringBuilder sql = new StringBuilder("""
+            WITH candidates AS (
+                SELECT id, content, metadata, embedding
+                FROM vector_store
+            """);
+        sql.append(filterByKb ? "    WHERE kb_id = ANY (?)\n" : "    WHERE kb_id IS NOT NULL\n");
+        sql.append("    ORDER BY ").append(quantizedDistance(quantization, dimensions)).append("\n");
+        sql.append("    LIMIT ?\n)\n");
+        sql.append("""
+            SELECT id::text AS id, content, metadata::text AS metadata, embedding <=> ? AS distance
+            FROM candidates
+            """);
+        if (filterByThreshold) {
+            sql.append("WHERE embedding <=> ? <= ?\n");
+        }
+        sql.append("ORDER BY distance\nLIMIT ?");
+        return sql.toString();
+    }
+
+    /**
+     * 量化距离表达式，左侧与 {@link #buildQuantizedIndexSql} 的索引表达式一致
+     */
+    private static String quantizedDistance(VectorQuantization quantization, int dimensions) {
+        return switch (quantization) {
+            case HALFVEC -> "embedding::halfvec(%d) <=> ?::halfvec(%d)".formatted(dimensions, dimensions);
+            case BINARY -> "binary_quantize(embedding)::bit(%d) <~> binary_quantize(?::vector)".formatted(dimensions);
+            case NONE -> throw new IllegalArgumentException("未启用量化");
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Document toDocument(ResultSet rs) throws SQLException {
+        Map<String, Object> metadata = new HashMap<>(objectMapper.readValue(rs.getString("metadata"), Map.class));
+        double distance = rs.getDouble("distance");
+        metadata.put("distance", distance);
+        return Document.builder()
+            .id(rs.getString("id"))
+            .text(rs.getString("content"))
+            .metadata(metadata)
+            .score(1 - distance)
+            .build();
+    }
+
+    /**
+     * 按文档ID查询 chunk 及其向量，用于构建进程内索引
+     *
+     * @param ids 文档ID
+     * @return 文档和向量，不存在的ID被忽略
+     */
+    @SuppressWarnings("unchecked")
+    public List<StoredEmbedding> findEmbeddingsByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        String sql = """
+            SELECT id::text AS id, content, metadata::text AS metadata, embedding::text AS embedding
+            FROM vector_store
+            WHERE id = ANY (?::uuid[])
+            """;
+        return jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("text", ids.toArray()));
+            return ps;
+        }, (rs, rowNum) -> new StoredEmbedding(
+            Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(new HashMap<String, Object>(objectMapper.readValue(rs.getString("metadata"), Map.class)))
+                .build(),
+            parseVector(rs.getString("embedding"))));
+    }
+
+    /**
+     * 按文档ID查询当前可见的 chunk（不含向量），用于从缓存的检索结果还原文档
+     *
+     * @param ids 文档ID
+     * @return 文档ID -> 文档，不存在或已不可见的ID不在结果中
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Document> findVisibleChunksByIds(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        String sql = """
+            SELECT id::text AS id, content, metadata::text AS metadata
+            FROM vector_store
+            WHERE id = ANY (?::uuid[]) AND kb_id IS NOT NULL
+            """;
+        Map<String, Document> chunks = new HashMap<>();
+        jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement(sql);
+            ps.setArray(1, con.createArrayOf("text", ids.toArray()));
+            return ps;
+        }, rs -> {
+            Document chunk = Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(new HashMap<String, Object>(objectMapper.readValue(rs.getString("metadata"), Map.class)))
+                .build();
+            chunks.put(chunk.getId(), chunk);
+        });
+        return chunks;
+    }
+
+    /**
+     * 解析 pgvector 文本格式，如 [0.1,0.2,0.3]
+     */
+    static float[] parseVector(String text) {
+        String body = text.substring(1, text.length() - 1);
+        if (body.isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i]);
+        }
+        return vector;
+    }
+
+
+    /**
+     * 已存储的 chunk
+     *
+     * @param id        vector_store 中的文档ID
+     * @param chunkHash chunk 文本哈希（旧数据为 null）
+     */
+    public record StoredChunk(String id, String chunkHash) {}
+
+    /**
+     * 向量检索的执行方式
+     *
+     * @param exactScan     是否对限定知识库的行精确扫描，不使用 HNSW 索引
+     * @param efSearch      HNSW 检索的 hnsw.ef_search，0 表示使用数据库默认值
+     * @param iterativeScan 是否开启 hnsw.iterative_scan（strict_order）
+     * @param statementTimeoutMillis 检索语句的 statement_timeout（毫秒），0 表示使用数据库默认值
+     */
+    public record SearchPlan(boolean exactScan, int efSearch, boolean iterativeScan, long statementTimeoutMillis) {
+
+        /**
+         * 使用 HNSW 索引和数据库默认参数
+         */
+        public static final SearchPlan DEFAULT = new SearchPlan(false, 0, false);
+
+        public SearchPlan(boolean exactScan, int efSearch, boolean iterativeScan) {
+            this(exactScan, efSearch, iterativeScan, 0);
+        }
+
+        /**
+         * 限定检索语句的执行时间，超时后数据库取消语句并释放连接
+         */
+        public SearchPlan withStatementTimeout(Duration timeout) {
+            return new SearchPlan(exactScan, efSearch, iterativeScan, Math.max(1, timeout.toMillis()));
+        }
+
+        public static SearchPlan exact() {
+            return new SearchPlan(true, 0, false);
+        }
+
+        public static SearchPlan ann(int efSearch, boolean iterativeScan) {
+            return new SearchPlan(false, efSearch, iterativeScan);
+        }
+
+        /**
+         * 用于日志和指标的执行方式名称
+         */
+        public String label() {
+            if (exactScan) {
+                return "exact";
+            }
+            return iterativeScan ? "ann-iterative" : "ann";
+        }
+    }
+
+    /**
+     * 已存储的 chunk 及其向量
+     *
+     * @param document  文档（ID、文本、metadata）
+     * @param embedding 向量
+     */
+    public record StoredEmbedding(Document document, float[] embedding) {}
+}
@@ -0,0 +1,162 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * RAG 上下文组装
+ * <p>
+ * 检索结果之间常有重叠（相邻 chunk、同一内容出现在多个知识库），原样拼接会把重复文本发给大模型。
+ * 这里先用最大边际相关性（MMR）重排并丢弃近似重复的 chunk，再按当前对话模型的 token 预算装入上下文。
+ * chunk 之间的相似度使用 {@link LexicalTokenizer} 词元的重叠系数（|A∩B| / min(|A|, |B|)），
+ * 较小的 chunk 被较大的 chunk 包含时也能识别为重复，且无需再次查询向量。
+ */
+@Slf4j
+@Component
+public class ContextAssembler {
+
+    /**
+     * chunk 之间的分隔符
+     */
+    static final String SEPARATOR = "\n\n---\n\n";
+
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+    private final TokenCountEstimator tokenCountEstimator;
+
+    public ContextAssembler(RagConfigProperties ragConfig, MeterRegistry meterRegistry) {
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+        this.tokenCountEstimator = new JTokkitTokenCountEstimator();
+    }
+
+    /**
+     * 组装上下文
+     *
+     * @param documents 按相关度降序排列的检索结果
+     * @return 组装结果
+     */
+    public AssembledContext assemble(List<Document> documents) {
+        RagConfigProperties.Context config = ragConfig.getContext();
+        int budget = config.resolveMaxTokens();
+        int separatorTokens = tokenCountEstimator.estimate(SEPARATOR);
+
+        List<Candidate> candidates = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            Document doc = documents.get(i);
+            String text = doc.getText() == null ? "" : doc.getText();
+            // 检索结果已按相关度排序，各路检索分数量纲不同，统一按名次换算相关性
+            double relevance = 1.0 - (double) i / documents.size();
+            candidates.add(new Candidate(doc, text, new HashSet<>(LexicalTokenizer.tokenize(text)),
+                tokenCountEstimator.estimate(text), relevance));
+        }
+        int rawTokens = candidates.stream().mapToInt(Candidate::tokens).sum()
+            + Math.max(0, candidates.size() - 1) * separatorTokens;
+
+        // 1. MMR 重排，丢弃近似重复的 chunk
+        List<Candidate> ranked = new ArrayList<>();
+        List<Candidate> remaining = new ArrayList<>(candidates);
+        int duplicates = 0;
+        while (!remaining.isEmpty()) {
+            Candidate best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            double bestRedundancy = 0;
+            for (Candidate candidate : remaining) {
+                double redundancy = ranked.stream()
+                    .mapToDouble(selected -> overlap(candidate.tokenSet(), selected.tokenSet()))
+                    .max().orElse(0);
+                double score = config.getMmrLambda() * candidate.relevance() - (1 - config.getMmrLambda()) * redundancy;
+                if (score > bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                    bestRedundancy = redundancy;
+                }
+            }
+            remaining.remove(best);
+            if (bestRedundancy >= config.getDuplicateThreshold()) {
+                duplicates++;
+                continue;
+            }
+            ranked.add(best);
+        }
+
+        // 2. 按 MMR 顺序装入预算，放不下的跳过，继续尝试后面较短的 chunk
+        List<Document> selected = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        int usedTokens = 0;
+        for (Candidate candidate : ranked) {
+            int cost = candidate.tokens() + (texts.isEmpty() ? 0 : separatorTokens);
+            if (usedTokens + cost <= budget) {
+                selected.add(candidate.document());
+                texts.add(candidate.text());
+                usedTokens += cost;
+            } else if (texts.isEmpty()) {
+                // 最相关的 chunk 单独就超出预算时截断装入，保证上下文不为空
+                String truncated = truncate(candidate.text(), budget);
+                selected.add(candidate.document());
+                texts.add(truncated);
+                usedTokens += tokenCountEstimator.estimate(truncated);
+            }
+        }
+
+        String context = String.join(SEPARATOR, texts);
+        int savedTokens = Math.max(0, rawTokens - usedTokens);
+        meterRegistry.counter("rag.context.tokens.saved").increment(savedTokens);
+        meterRegistry.counter("rag.context.chunks.deduplicated").increment(duplicates);
+        meterRegistry.summary("rag.context.prompt.tokens").record(usedTokens);
+        log.info("上下文组装完成: 候选 {} 个, 去重 {} 个, 装入 {} 个, tokens={}/{}, 节省 {} tokens",
+                documents.size(), duplicates, selected.size(), usedTokens, budget, savedTokens);
+        return new AssembledContext(context, selected, usedTokens, savedTokens);
+    }
+
+    /**
+     * 词元重叠系数
+     */
+    static double overlap(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        long common = smaller.stream().filter(larger::contains).count();
+        return (double) common / smaller.size();
+    }
+
+    /**
+     * 按 token 预算截断文本，按比例估算后逐步收缩，不在代理对中间截断
+     */
+    private String truncate(String text, int budget) {
+        String truncated = text;
+        while (!truncated.isEmpty() && tokenCountEstimator.estimate(truncated) > budget) {
+            int tokens = tokenCountEstimator.estimate(truncated);
+            int length = (int) (truncated.length() * Math.min(0.9, (double) budget / tokens));
+            if (length > 0 && Character.isHighSurrogate(truncated.charAt(length - 1))) {
+                length--;
+            }
+            truncated = truncated.substring(0, length);
+        }
+        return truncated;
+    }
+
+    private record Candidate(Document document, String text, Set<String> tokenSet, int tokens, double relevance) {}
+
+    /**
+     * 组装结果
+     *
+     * @param context      拼接后的上下文
+     * @param documents    装入上下文的文档，按装入顺序
+     * @param promptTokens 上下文 token 数
+     * @param savedTokens  与直接拼接全部检索结果相比节省的 token 数
+     */
+    public record AssembledContext(String context, List<Document> documents, int promptTokens, int savedTokens) {}
+}
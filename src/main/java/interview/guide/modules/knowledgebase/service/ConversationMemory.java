@@ -0,0 +1,273 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.model.RagChatMessageEntity;
+import interview.guide.modules.knowledgebase.model.RagChatMessageEntity.MessageType;
+import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository.SessionMemory;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * RAG 聊天的多轮对话记忆
+ * <p>
+ * 提问时带上对话历史：会话的滚动摘要 + 最近 recentTurns 轮原样对话，整体按 maxTokens 预算装入，
+ * 预算不足时先截断摘要、再丢弃较早的对话，会话再长提示词也不会增长。
+ * 回答完成后在独立的虚拟线程上异步刷新摘要（模型调用耗时长，不占用流式调度器的有界线程）：
+ * 把已移出最近对话窗口、尚未摘要的消息分批交给模型，与已有摘要合并后写回会话，
+ * 写回时校验摘要覆盖范围，并发刷新只有一次生效；同时刷新的会话数有上限，超出时跳过，下次回答完成后补上。
+ */
+@Slf4j
+@Component
+public class ConversationMemory {
+
+    /**
+     * 每次折叠进摘要的最大消息数
+     */
+    private static final int SUMMARY_BATCH_MESSAGES = 20;
+
+    private static final String USER_LABEL = "用户：";
+    private static final String ASSISTANT_LABEL = "助手：";
+    private static final String ERROR_PREFIX = "【错误】";
+
+    private final ChatClient chatClient;
+    private final RagChatSessionRepository sessionRepository;
+    private final RagChatMessageRepository messageRepository;
+    private final ExecutorService summaryExecutor;
+    private final Semaphore summaryPermits;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+    private final PromptTemplate summarySystemTemplate;
+    private final PromptTemplate summaryUserTemplate;
+    private final TokenCountEstimator tokenCountEstimator;
+
+    public ConversationMemory(
+            ChatClient.Builder chatClientBuilder,
+            RagChatSessionRepository sessionRepository,
+            RagChatMessageRepository messageRepository,
+            RagConfigProperties ragConfig,
+            MeterRegistry meterRegistry,
+            @Value("classpath:prompts/rag-chat-summary-system.st") Resource summarySystemResource,
+            @Value("classpath:prompts/rag-chat-summary-user.st") Resource summaryUserResource) throws IOException {
+        this.chatClient = chatClientBuilder.build();
+        this.sessionRepository = sessionRepository;
+        this.messageRepository = messageRepository;
+        this.summaryExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("rag-memory-", 0).factory());
+        this.summaryPermits = new Semaphore(Math.max(1, ragConfig.getMemory().getSummaryConcurrency()));
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+        this.summarySystemTemplate = new PromptTemplate(
+            summarySystemResource.getContentAsString(StandardCharsets.UTF_8));
+        this.summaryUserTemplate = new PromptTemplate(summaryUserResource.getContentAsString(StandardCharsets.UTF_8));
+        this.tokenCountEstimator = new JTokkitTokenCountEstimator();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryExecutor.shutdownNow();
+    }
+
+    /**
+     * 组装提问时的对话历史
+     *
+     * @param sessionId   会话ID
+     * @param beforeOrder 当前问题的消息顺序，只取之前的消息
+     * @return 插入用户提示词的对话历史，没有历史或未启用时为空字符串
+     */
+    public String render(Long sessionId, int beforeOrder) {
+        RagConfigProperties.Memory config = ragConfig.getMemory();
+        if (!config.isEnabled() || beforeOrder <= 0) {
+            return "";
+        }
+        SessionMemory state = sessionRepository.findMemoryById(sessionId).orElse(null);
+        if (state == null) {
+            return "";
+        }
+        int summarizedUpTo = state.getSummarizedUpTo() != null ? state.getSummarizedUpTo() : 0;
+        int budget = config.getMaxTokens();
+
+        // 1. 摘要最多占 summaryMaxTokens
+        String summary = state.getSummary() == null || state.getSummary().isBlank() ? ""
+            : truncate(state.getSummary().strip(), Math.min(config.getSummaryMaxTokens(), budget));
+        budget -= summary.isEmpty() ? 0 : tokenCountEstimator.estimate(summary);
+
+        // 2. 从最新的消息往前装入，装不下时丢弃更早的消息；已折叠进摘要的消息不再重复
+        int recentMessages = Math.max(0, config.getRecentTurns()) * 2;
+        List<RagChatMessageEntity> newestFirst = recentMessages == 0 ? List.of() : messageRepository
+            .findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(sessionId, beforeOrder,
+                PageRequest.of(0, recentMessages));
+        List<String> recent = new ArrayList<>();
+        for (RagChatMessageEntity message : newestFirst) {
+            if (message.getMessageOrder() < summarizedUpTo || budget <= 0) {
+                break;
+            }
+            String line = format(message);
+            if (line == null) {
+                continue;
+            }
+            int tokens = tokenCountEstimator.estimate(line);
+            if (tokens > budget) {
+                // 最近一条放不下时截断保留，否则丢弃更早的消息
+                if (recent.isEmpty()) {
+                    recent.add(truncate(line, budget));
+                }
+                break;
+            }
+            recent.add(line);
+            budget -= tokens;
+        }
+        Collections.reverse(recent);
+
+        if (summary.isEmpty() && recent.isEmpty()) {
+            return "";
+        }
+        StringBuilder history = new StringBuilder("\n## 对话历史\n如果用户的问题指代之前的对话，请结合以下对话历史理解问题。\n");
+        if (!summary.isEmpty()) {
+            history.append("\n### 较早对话摘要\n").append(summary).append('\n');
+        }
+        if (!recent.isEmpty()) {
+            history.append("\n### 最近对话\n").append(String.join("\n", recent)).append('\n');
+        }
+        String rendered = history.toString();
+        meterRegistry.summary("rag.memory.prompt.tokens").record(tokenCountEstimator.estimate(rendered));
+        return rendered;
+    }
+
+    /**
+     * 回答完成后在独立的虚拟线程上异步刷新摘要，并发已满时跳过，失败只记录日志
+     *
+     * @param sessionId 会话ID
+     */
+    public void refreshAsync(Long sessionId) {
+        if (!ragConfig.getMemory().isEnabled()) {
+            return;
+        }
+        if (!summaryPermits.tryAcquire()) {
+            meterRegistry.counter("rag.memory.summary.skipped").increment();
+            log.debug("摘要刷新并发已满，跳过: sessionId={}", sessionId);
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    int folded = refresh(sessionId);
+                    if (folded > 0) {
+                        log.info("会话摘要已更新: sessionId={}, foldedMessages={}", sessionId, folded);
+                    }
+                } catch (Exception e) {
+                    meterRegistry.counter("rag.memory.summary.failures").increment();
+                    log.warn("会话摘要更新失败: sessionId={}, error={}", sessionId, e.getMessage());
+                } finally {
+                    summaryPermits.release();
+                }
+            });
+        } catch (Exception e) {
+            summaryPermits.release();
+            log.warn("提交会话摘要刷新失败: sessionId={}, error={}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 把移出最近对话窗口、尚未摘要的消息分批折叠进摘要
+     *
+     * @return 本次折叠的消息数
+     */
+    int refresh(Long sessionId) {
+        RagConfigProperties.Memory config = ragConfig.getMemory();
+        SessionMemory state = sessionRepository.findMemoryById(sessionId).orElse(null);
+        if (state == null || state.getMessageCount() == null) {
+            return 0;
+        }
+        int upTo = state.getSummarizedUpTo() != null ? state.getSummarizedUpTo() : 0;
+        int cutoff = state.getMessageCount() - Math.max(0, config.getRecentTurns()) * 2;
+        String summary = state.getSummary() != null ? state.getSummary() : "";
+        int folded = 0;
+
+        while (upTo < cutoff) {
+            int to = Math.min(cutoff, upTo + SUMMARY_BATCH_MESSAGES);
+            List<String> lines = messageRepository.findOrderRange(sessionId, upTo, to).stream()
+                .map(this::format)
+                .filter(Objects::nonNull)
+                // 单条消息按整个历史预算截断，避免一次摘要请求过大
+                .map(line -> truncate(line, config.getMaxTokens()))
+                .toList();
+            String merged = lines.isEmpty() ? summary : summarize(summary, String.join("\n", lines));
+            if (sessionRepository.updateSummary(sessionId, merged, upTo, to) == 0) {
+                // 其他刷新已经推进了摘要
+                break;
+            }
+            meterRegistry.counter("rag.memory.summary.refreshes").increment();
+            folded += to - upTo;
+            summary = merged;
+            upTo = to;
+        }
+        return folded;
+    }
+
+    private String summarize(String summary, String conversation) {
+        int maxTokens = ragConfig.getMemory().getSummaryMaxTokens();
+        String result = chatClient.prompt()
+            .system(summarySystemTemplate.render(Map.of("maxTokens", maxTokens)))
+            .user(summaryUserTemplate.render(Map.of(
+                "summary", summary.isBlank() ? "（无）" : summary,
+                "conversation", conversation)))
+            .call()
+            .content();
+        return truncate(result == null ? summary : result.strip(), maxTokens);
+    }
+
+    /**
+     * 格式化一条消息，空消息、生成失败的回答和错误提示不计入历史
+     */
+    private String format(RagChatMessageEntity message) {
+        String content = message.getContent();
+        if (Boolean.TRUE.equals(message.getFailed())
+                || content == null || content.isBlank() || content.startsWith(ERROR_PREFIX)) {
+            return null;
+        }
+        String label = message.getType() == MessageType.USER ? USER_LABEL : ASSISTANT_LABEL;
+        return label + content.strip();
+    }
+
+    /**
+     * 按 token 数截断文本，超出时按比例缩短直到不超过上限（保留开头），不在代理对中间截断
+     */
+    String truncate(String text, int maxTokens) {
+        if (maxTokens <= 0) {
+            return "";
+        }
+        int tokens = tokenCountEstimator.estimate(text);
+        String result = text;
+        while (tokens > maxTokens && !result.isEmpty()) {
+            int length = Math.max(0, Math.min((int) ((long) result.length() * maxTokens / tokens * 9 / 10),
+                result.length() - 1));
+            if (length > 0 && Character.isHighSurrogate(result.charAt(length - 1))) {
+                length--;
+            }
+            result = result.substring(0, length);
+            tokens = tokenCountEstimator.estimate(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,201 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Embedding 批次流水线
+ * <p>
+ * 同时保持最多 N 个批次在途（N 由 app.rag.embedding.concurrency 配置），每个批次完成后立即写库。
+ * 批次可以由迭代器惰性提供，此时只在有空闲并发时才生成下一个批次。
+ * 遇到 429 限流时，所有工作线程共享同一个暂停窗口并按指数退避重试，避免集体重试加剧限流。
+ */
+@Slf4j
+@Component
+public class EmbeddingBatchPipeline {
+
+    private final RagConfigProperties ragConfig;
+    private final ExecutorService executor;
+
+    /**
+     * 限流暂停截止时间（毫秒时间戳），所有批次在发起调用前等待到该时间
+     */
+    private final AtomicLong pausedUntil = new AtomicLong();
+
+    public EmbeddingBatchPipeline(RagConfigProperties ragConfig) {
+        this.ragConfig = ragConfig;
+        this.executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("embedding-batch-", 0).factory());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 批次处理动作
+     */
+    @FunctionalInterface
+    public interface BatchAction<T> {
+        void execute(List<T> batch);
+    }
+
+    /**
+     * 执行所有批次，阻塞直到全部完成
+     * 任一批次最终失败时停止提交新批次，并抛出第一个失败的异常
+     *
+     * @param batches 批次列表
+     * @param action  每个批次的处理动作（向量化并写库）
+     */
+    public <T> void execute(List<List<T>> batches, BatchAction<T> action) {
+        // 只有一个批次时在调用线程上执行
+        if (batches.size() <= 1) {
+            batches.forEach(batch -> executeWithBackoff(batch, action));
+            return;
+        }
+        execute(batches.iterator(), action);
+    }
+
+    /**
+     * 从迭代器中逐个取出批次执行，阻塞直到全部完成
+     * 只有在途批次数低于并发上限时才向迭代器请求下一个批次，惰性生成的批次最多同时存在 N 个；
+     * 迭代器本身（分块、查缓存等）在调用线程上执行，其抛出的异常与批次失败同样处理
+     *
+     * @param batches 批次迭代器
+     * @param action  每个批次的处理动作（向量化并写库）
+     */
+    public <T> void execute(Iterator<List<T>> batches, BatchAction<T> action) {
+        int concurrency = Math.max(1, ragConfig.getEmbedding().getConcurrency());
+
+        // 并发为 1 时在调用线程上顺序执行
+        if (concurrency == 1) {
+            batches.forEachRemaining(batch -> executeWithBackoff(batch, action));
+            return;
+        }
+
+        Semaphore permits = new Semaphore(concurrency);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            while (true) {
+                // 在途批次达到上限时在此等待，形成背压
+                permits.acquire();
+                List<T> batch = null;
+                try {
+                    if (failure.get() == null && batches.hasNext()) {
+                        batch = batches.next();
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                if (batch == null) {
+                    permits.release();
+                    break;
+                }
+                List<T> submitted = batch;
+                futures.add(executor.submit(() -> {
+                    try {
+                        executeWithBackoff(submitted, action);
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            throw new RuntimeException("向量化批次执行被中断", e);
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, new RuntimeException(e.getCause()));
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 执行单个批次，限流时按指数退避重试
+     */
+    private <T> void executeWithBackoff(List<T> batch, BatchAction<T> action) {
+        RagConfigProperties.Embedding config = ragConfig.getEmbedding();
+        int attempt = 0;
+        while (true) {
+            waitIfPaused();
+            try {
+                action.execute(batch);
+                return;
+            } catch (RuntimeException e) {
+                if (!isRateLimited(e) || attempt >= config.getMaxRetries()) {
+                    throw e;
+                }
+                long backoff = Math.min(config.getBackoffMaxMs(), config.getBackoffInitialMs() << attempt);
+                long delay = backoff + ThreadLocalRandom.current().nextLong(backoff / 4 + 1);
+                pausedUntil.accumulateAndGet(System.currentTimeMillis() + delay, Math::max);
+                attempt++;
+                log.warn("Embedding API 限流，{}ms 后重试: attempt={}/{}, batchSize={}",
+                        delay, attempt, config.getMaxRetries(), batch.size());
+            }
+        }
+    }
+
+    private void waitIfPaused() {
+        long waitMs = pausedUntil.get() - System.currentTimeMillis();
+        if (waitMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待限流恢复时被中断", e);
+        }
+    }
+
+    /**
+     * 判断异常是否由限流（HTTP 429）引起
+     * Spring AI 会将 4xx 包装为 NonTransientAiException，只能从异常链和消息中识别
+     */
+    static boolean isRateLimited(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            if (t instanceof HttpClientErrorException httpError
+                    && httpError.getStatusCode().isSameCodeAs(HttpStatus.TOO_MANY_REQUESTS)) {
+                return true;
+            }
+            String message = t.getMessage();
+            if (message != null) {
+                String lower = message.toLowerCase();
+                if (lower.contains("429") || lower.contains("too many requests")
+                        || lower.contains("throttling") || lower.contains("rate limit")) {
+                    return true;
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,80 @@
+package interview.guide.modules.knowledgebase.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 多路检索结果的公平 topK 合并
+ * <p>
+ * 各路结果的分数可以直接比较（同一查询向量下的相似度），但单纯按分数取 topK 时，
+ * 与问题措辞更接近的知识库会占满全部名额。合并分两步：
+ * <ol>
+ *   <li>每一路先保底取前 max(1, topK / 路数) 条；路数多于 topK 时，只保留各路头部中分数最高的 topK 条</li>
+ *   <li>剩余名额由各路其余结果按分数竞争</li>
+ * </ol>
+ * 两步都使用容量为 topK 的小顶堆，与各路结果总数无关。
+ */
+public final class FairTopKMerge {
+
+    private static final Comparator<Document> BY_SCORE = Comparator.comparingDouble(FairTopKMerge::score);
+
+    private FairTopKMerge() {
+    }
+
+    /**
+     * 合并多路检索结果
+     *
+     * @param rankings 各路结果，每一路按分数降序排列
+     * @param topK     返回条数
+     * @return 按分数降序排列的文档
+     */
+    public static List<Document> merge(List<List<Document>> rankings, int topK) {
+        if (topK <= 0 || rankings.isEmpty()) {
+            return List.of();
+        }
+        int quota = Math.max(1, topK / rankings.size());
+
+        PriorityQueue<Document> guaranteed = new PriorityQueue<>(BY_SCORE);
+        for (List<Document> ranking : rankings) {
+            for (int i = 0; i < Math.min(quota, ranking.size()); i++) {
+                offer(guaranteed, ranking.get(i), topK);
+            }
+        }
+
+        int remaining = topK - guaranteed.size();
+        PriorityQueue<Document> contested = new PriorityQueue<>(BY_SCORE);
+        if (remaining > 0) {
+            for (List<Document> ranking : rankings) {
+                for (int i = quota; i < ranking.size(); i++) {
+                    offer(contested, ranking.get(i), remaining);
+                }
+            }
+        }
+
+        List<Document> merged = new ArrayList<>(guaranteed.size() + contested.size());
+        merged.addAll(guaranteed);
+        merged.addAll(contested);
+        merged.sort(BY_SCORE.reversed());
+        return merged;
+    }
+
+    /**
+     * 加入容量为 capacity 的小顶堆，超出时淘汰分数最低的
+     */
+    private static void offer(PriorityQueue<Document> heap, Document doc, int capacity) {
+        if (heap.size() < capacity) {
+            heap.add(doc);
+        } else if (score(doc) > score(heap.peek())) {
+            heap.poll();
+            heap.add(doc);
+        }
+    }
+
+    private static double score(Document doc) {
+        return doc.getScore() != null ? doc.getScore() : 0.0;
+    }
+}
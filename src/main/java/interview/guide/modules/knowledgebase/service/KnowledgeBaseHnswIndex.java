@@ -0,0 +1,285 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.vector.HnswVectorStore;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.ObjectMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 知识库进程内 HNSW 索引
+ * <p>
+ * app.rag.vector-index.type=hnsw 时启用：pgvector 仍是向量数据的唯一来源，写入和代数切换流程不变，
+ * 这里按知识库维护一份当前可见数据的 {@link HnswVectorStore} 副本，检索不再经过网络。
+ * 本实例完成切换或删除后立即同步对应知识库，其他实例的变更由定时任务按代数对比后同步。
+ * 启动时从快照恢复，只同步代数发生变化的知识库；首次加载完成前检索仍走 pgvector。
+ */
+@Slf4j
+@Component
+public class KnowledgeBaseHnswIndex {
+
+    /**
+     * 已删除节点占比超过该值时重建索引
+     */
+    private static final double COMPACT_THRESHOLD = 0.3;
+
+    private final VectorRepository vectorRepository;
+    private final ObjectMapper objectMapper;
+    private final RagConfigProperties ragConfig;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 已加载的知识库代数
+     */
+    private final Map<Long, Long> loadedGenerations = new ConcurrentHashMap<>();
+    private final Object syncLock = new Object();
+    private volatile HnswVectorStore store;
+    private volatile boolean dirty;
+
+    public KnowledgeBaseHnswIndex(VectorRepository vectorRepository, ObjectMapper objectMapper,
+                                  RagConfigProperties ragConfig) {
+        this.vectorRepository = vectorRepository;
+        this.objectMapper = objectMapper;
+        this.ragConfig = ragConfig;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("vector-index-sync").factory());
+    }
+
+    public boolean isEnabled() {
+        return ragConfig.getVectorIndex().getType() == RagConfigProperties.VectorIndexType.HNSW;
+    }
+
+    /**
+     * 是否可以检索（已启用且完成首次加载）
+     */
+    public boolean isReady() {
+        return isEnabled() && store != null;
+    }
+
+    /**
+     * 启动后在后台加载索引，并定期与数据库同步
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initOnStartup() {
+        if (!isEnabled()) {
+            return;
+        }
+        long intervalMs = ragConfig.getVectorIndex().getSyncInterval().toMillis();
+        scheduler.execute(this::load);
+        scheduler.scheduleWithFixedDelay(this::syncQuietly, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (isReady()) {
+            synchronized (syncLock) {
+                saveSnapshot();
+            }
+        }
+    }
+
+    /**
+     * 检索
+     *
+     * @param embedding           查询向量
+     * @param knowledgeBaseIds    知识库ID列表，为空时检索所有知识库
+     * @param topK                返回条数
+     * @param similarityThreshold 相似度阈值（0~1），0 表示不过滤
+     * @return 按相似度降序排列的文档，与 pgvector 检索结果格式一致
+     */
+    public List<Document> search(float[] embedding, List<Long> knowledgeBaseIds, int topK,
+                                 double similarityThreshold) {
+        return store.similaritySearch(embedding, knowledgeBaseIds, topK, similarityThreshold);
+    }
+
+    /**
+     * 同步指定知识库，在本实例完成代数切换后调用
+     * 失败只记录日志，由定时同步重试
+     *
+     * @param knowledgeBaseId 知识库ID
+     */
+    public void refresh(Long knowledgeBaseId) {
+        if (!isReady()) {
+            return;
+        }
+        try {
+            synchronized (syncLock) {
+                reload(knowledgeBaseId, vectorRepository.findActiveGeneration(knowledgeBaseId));
+            }
+        } catch (Exception e) {
+            log.warn("同步进程内向量索引失败，将在下次定时同步时重试: kbId={}, error={}", knowledgeBaseId, e.getMessage());
+        }
+    }
+
+    /**
+     * 移除指定知识库，在删除知识库向量后调用
+     *
+     * @param knowledgeBaseId 知识库ID
+     */
+    public void remove(Long knowledgeBaseId) {
+        if (!isReady()) {
+            return;
+        }
+        synchronized (syncLock) {
+            store.deleteByKnowledgeBaseIds(Set.of(knowledgeBaseId));
+            loadedGenerations.remove(knowledgeBaseId);
+            dirty = true;
+        }
+    }
+
+    /**
+     * 首次加载：从快照恢复后与数据库同步，快照不可用时全量构建
+     */
+    private void load() {
+        try {
+            synchronized (syncLock) {
+                long startNanos = System.nanoTime();
+                HnswVectorStore loaded = restoreSnapshot();
+                if (loaded == null) {
+                    loaded = new HnswVectorStore(null, objectMapper, options());
+                    loadedGenerations.clear();
+                }
+                store = loaded;
+                sync();
+                log.info("进程内向量索引已就绪: knowledgeBases={}, chunks={}, elapsed={}ms",
+                        loadedGenerations.size(), store.size(), (System.nanoTime() - startNanos) / 1_000_000);
+            }
+        } catch (Exception e) {
+            store = null;
+            log.warn("加载进程内向量索引失败，检索继续使用 pgvector: {}", e.getMessage(), e);
+        }
+    }
+
+    private void syncQuietly() {
+        if (!isReady()) {
+            load();
+            return;
+        }
+        try {
+            synchronized (syncLock) {
+                sync();
+            }
+        } catch (Exception e) {
+            log.warn("同步进程内向量索引失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 按代数对比数据库：代数变化的知识库重新加载，已不存在的知识库移除
+     */
+    private void sync() {
+        Map<Long, Long> visible = vectorRepository.findVisibleGenerations();
+        visible.forEach((kbId, generation) -> {
+            if (!generation.equals(loadedGenerations.get(kbId))) {
+                reload(kbId, generation);
+            }
+        });
+        Set<Long> removed = new HashSet<>(loadedGenerations.keySet());
+        removed.removeAll(visible.keySet());
+        if (!removed.isEmpty()) {
+            store.deleteByKnowledgeBaseIds(removed);
+            removed.forEach(loadedGenerations::remove);
+            dirty = true;
+        }
+        if (store.deletedRatio() > COMPACT_THRESHOLD) {
+            store.compact();
+            dirty = true;
+        }
+        saveSnapshot();
+    }
+
+    /**
+     * 加载知识库当前可见的 chunk：只拉取索引中没有的 chunk 的向量，删除已不可见的 chunk
+     * 先在锁外读完数据库，再一次性替换，检索不会同时看到同一知识库新旧两代的 chunk
+     */
+    private void reload(Long knowledgeBaseId, long generation) {
+        Set<String> visibleIds = new HashSet<>();
+        vectorRepository.findStoredChunks(knowledgeBaseId).forEach(chunk -> visibleIds.add(chunk.id()));
+        Set<String> indexedIds = store.documentIds(knowledgeBaseId);
+
+        Set<String> missing = new HashSet<>(visibleIds);
+        missing.removeAll(indexedIds);
+        List<Document> documents = new ArrayList<>(missing.size());
+        List<float[]> embeddings = new ArrayList<>(missing.size());
+        for (VectorRepository.StoredEmbedding stored : vectorRepository.findEmbeddingsByIds(missing)) {
+            documents.add(stored.document());
+            embeddings.add(stored.embedding());
+        }
+        indexedIds.removeAll(visibleIds);
+        store.replace(indexedIds, documents, embeddings);
+
+        loadedGenerations.put(knowledgeBaseId, generation);
+        dirty = true;
+        log.debug("进程内向量索引已同步: kbId={}, generation={}, added={}, removed={}",
+                knowledgeBaseId, generation, missing.size(), indexedIds.size());
+    }
+
+    // ==================== 快照 ====================
+
+    private Path snapshotPath() {
+        return Path.of(ragConfig.getVectorIndex().getSnapshotPath());
+    }
+
+    private Path generationsPath() {
+        return Path.of(ragConfig.getVectorIndex().getSnapshotPath() + ".generations.json");
+    }
+
+    @SuppressWarnings("unchecked")
+    private HnswVectorStore restoreSnapshot() {
+        Path path = snapshotPath();
+        if (!Files.exists(path) || !Files.exists(generationsPath())) {
+            return null;
+        }
+        try {
+            Map<String, Number> generations = objectMapper.readValue(Files.readString(generationsPath()), Map.class);
+            HnswVectorStore restored = HnswVectorStore.restore(path, null, objectMapper, options());
+            loadedGenerations.clear();
+            generations.forEach((kbId, generation) -> loadedGenerations.put(Long.valueOf(kbId), generation.longValue()));
+            return restored;
+        } catch (Exception e) {
+            log.warn("恢复进程内向量索引快照失败，将全量构建: path={}, error={}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 有变更时写入快照，代数记录写在快照之后，快照写入失败时下次启动会重新同步
+     */
+    private void saveSnapshot() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            store.snapshot(snapshotPath());
+            Files.writeString(generationsPath(), objectMapper.writeValueAsString(new HashMap<>(loadedGenerations)));
+            dirty = false;
+        } catch (Exception e) {
+            log.warn("写入进程内向量索引快照失败: path={}, error={}", snapshotPath(), e.getMessage());
+        }
+    }
+
+    private HnswVectorStore.Options options() {
+        RagConfigProperties.VectorIndex config = ragConfig.getVectorIndex();
+        return new HnswVectorStore.Options(config.getM(), config.getEfConstruction(), config.getEfSearch(),
+            config.getExactScanThreshold());
+    }
+}
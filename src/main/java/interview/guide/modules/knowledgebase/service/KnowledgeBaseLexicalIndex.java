@@ -0,0 +1,99 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.modules.knowledgebase.repository.LexicalIndexRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 知识库关键词索引
+ * <p>
+ * 向量检索容易漏掉配置项、类名、错误码这类精确标识符，这里为每个 chunk 额外维护一份词元索引，
+ * 与向量检索并行召回。分词规则见 {@link LexicalTokenizer}，写入和查询使用同一规则。
+ * 索引写入失败不影响向量化，缺失的索引在下次启动时回填。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class KnowledgeBaseLexicalIndex {
+
+    /**
+     * 启动回填时每批处理的 chunk 数
+     */
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    /**
+     * 小于所有 uuid 的游标起点
+     */
+    private static final String MIN_UUID = "00000000-0000-0000-0000-000000000000";
+
+    private final LexicalIndexRepository lexicalIndexRepository;
+
+    /**
+     * 创建索引表，并为尚未建立索引的已有 chunk 回填词元
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initOnStartup() {
+        try {
+            lexicalIndexRepository.initTable();
+            int total = 0;
+            String cursor = MIN_UUID;
+            Map<String, String> texts;
+            do {
+                texts = lexicalIndexRepository.findUnindexed(cursor, BACKFILL_BATCH_SIZE);
+                Map<String, List<String>> tokensById = new LinkedHashMap<>();
+                texts.forEach((id, text) -> tokensById.put(id, LexicalTokenizer.tokenize(text)));
+                lexicalIndexRepository.saveTokens(tokensById);
+                total += texts.size();
+                for (String id : texts.keySet()) {
+                    cursor = id;
+                }
+            } while (texts.size() == BACKFILL_BATCH_SIZE);
+            if (total > 0) {
+                log.info("关键词索引回填完成: {} 个chunks", total);
+            }
+        } catch (Exception e) {
+            log.warn("初始化关键词索引失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 为已写入 vector_store 的 chunk 建立关键词索引
+     *
+     * @param documents 已写入的文档
+     */
+    public void index(List<Document> documents) {
+        Map<String, List<String>> tokensById = new LinkedHashMap<>();
+        for (Document doc : documents) {
+            tokensById.put(doc.getId(), LexicalTokenizer.tokenize(doc.getText()));
+        }
+        try {
+            lexicalIndexRepository.saveTokens(tokensById);
+        } catch (Exception e) {
+            log.warn("写入关键词索引失败，将在下次启动时回填: chunks={}, error={}", documents.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 关键词检索
+     *
+     * @param query            查询文本
+     * @param knowledgeBaseIds 知识库ID列表（如果为空则搜索所有）
+     * @param topK             返回条数
+     * @return 按命中程度降序排列的文档，查询中没有可用词元时返回空列表
+     */
+    public List<Document> search(String query, List<Long> knowledgeBaseIds, int topK) {
+        List<String> tokens = LexicalTokenizer.tokenize(query);
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+        return lexicalIndexRepository.search(LexicalTokenizer.toTsQuery(tokens), knowledgeBaseIds, topK);
+    }
+}
@@ -1,9 +1,11 @@
 package interview.guide.modules.knowledgebase.service;
 
+import interview.guide.common.config.RagConfigProperties;
 import interview.guide.common.exception.BusinessException;
 import interview.guide.common.exception.ErrorCode;
 import interview.guide.modules.knowledgebase.model.QueryRequest;
 import interview.guide.modules.knowledgebase.model.QueryResponse;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.prompt.PromptTemplate;
@@ -18,7 +20,10 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * 知识库查询服务
@@ -32,6 +37,11 @@ public class KnowledgeBaseQueryService {
     private final KnowledgeBaseVectorService vectorService;
     private final KnowledgeBaseListService listService;
     private final KnowledgeBaseCountService countService;
+    private final SemanticAnswerCache answerCache;
+    private final ContextAssembler contextAssembler;
+    private final RagStreamScheduler streamScheduler;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
     private final PromptTemplate systemPromptTemplate;
     private final PromptTemplate userPromptTemplate;
 
@@ -40,12 +50,22 @@ public class KnowledgeBaseQueryService {
             KnowledgeBaseVectorService vectorService,
             KnowledgeBaseListService listService,
             KnowledgeBaseCountService countService,
+            SemanticAnswerCache answerCache,
+            ContextAssembler contextAssembler,
+            RagStreamScheduler streamScheduler,
+            RagConfigProperties ragConfig,
+            MeterRegistry meterRegistry,
             @Value("classpath:prompts/knowledgebase-query-system.st") Resource systemPromptResource,
             @Value("classpath:prompts/knowledgebase-query-user.st") Resource userPromptResource) throws IOException {
         this.chatClient = chatClientBuilder.build();
         this.vectorService = vectorService;
         this.listService = listService;
         this.countService = countService;
+        this.answerCache = answerCache;
+        this.contextAssembler = contextAssembler;
+        this.streamScheduler = streamScheduler;
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
         this.systemPromptTemplate = new PromptTemplate(systemPromptResource.getContentAsString(StandardCharsets.UTF_8));
         this.userPromptTemplate = new PromptTemplate(userPromptResource.getContentAsString(StandardCharsets.UTF_8));
     }
@@ -70,36 +90,45 @@ public class KnowledgeBaseQueryService {
      */
     public String answerQuestion(List<Long> knowledgeBaseIds, String question) {
         log.info("收到知识库提问: kbIds={}, question={}", knowledgeBaseIds, question);
+        long startNanos = System.nanoTime();
 
         // 1. 验证知识库是否存在并更新问题计数（合并数据库操作）
         countService.updateQuestionCounts(knowledgeBaseIds);
 
-        // 2. 使用向量搜索检索相关文档（RAG）
-        List<Document> relevantDocs = vectorService.similaritySearch(question, knowledgeBaseIds, 5);
+        // 2. 相似问题命中语义答案缓存时直接返回
+        SemanticAnswerCache.Lookup cacheLookup = answerCache.lookup(knowledgeBaseIds, question);
+        if (cacheLookup.hit()) {
+            recordAnswerDuration(startNanos, true);
+            return cacheLookup.answer();
+        }
+
+        // 3. 使用向量搜索检索相关文档（RAG）
+        List<Document> relevantDocs = vectorService.similaritySearch(question, knowledgeBaseIds,
+                ragConfig.getContext().getCandidates());
 
         if (relevantDocs.isEmpty()) {
             return "抱歉，在选定的知识库中没有找到相关信息。请尝试调整问题或选择其他知识库。";
         }
 
-        // 3. 构建上下文（合并检索到的文档）
-        String context = relevantDocs.stream()
-                .map(Document::getText)
-                .collect(Collectors.joining("\n\n---\n\n"));
+        // 4. 构建上下文（去除重复片段，按 token 预算装入）
+        String context = contextAssembler.assemble(relevantDocs).context();
 
         log.debug("检索到 {} 个相关文档片段", relevantDocs.size());
 
-        // 4. 构建提示词
+        // 5. 构建提示词
         String systemPrompt = buildSystemPrompt();
-        String userPrompt = buildUserPrompt(context, question, knowledgeBaseIds);
+        String userPrompt = buildUserPrompt(context, question, "");
 
         try {
-            // 5. 调用AI生成回答
+            // 6. 调用AI生成回答并写入缓存
             String answer = chatClient.prompt()
                     .system(systemPrompt)
                     .user(userPrompt)
                     .call()
                     .content();
 
+            answerCache.store(cacheLookup, question, answer);
+            recordAnswerDuration(startNanos, false);
             log.info("知识库问答完成: kbIds={}", knowledgeBaseIds);
             return answer;
 
@@ -109,6 +138,14 @@ public class KnowledgeBaseQueryService {
         }
     }
 
+    /**
+     * 记录问答耗时，按是否命中语义答案缓存区分
+     */
+    private void recordAnswerDuration(long startNanos, boolean cacheHit) {
+        meterRegistry.timer("rag.answer.duration", "cache", cacheHit ? "hit" : "miss")
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * 构建系统提示词
      */
@@ -118,10 +155,13 @@ public class KnowledgeBaseQueryService {
 
     /**
      * 构建用户提示词
+     *
+     * @param history 多轮对话历史，单轮问答时为空字符串
      */
-    private String buildUserPrompt(String context, String question, List<Long> knowledgeBaseIds) {
+    private String buildUserPrompt(String context, String question, String history) {
         Map<String, Object> variables = new HashMap<>();
         variables.put("context", context);
+        variables.put("history", history);
         variables.put("question", question);
         return userPromptTemplate.render(variables);
     }
@@ -144,56 +184,113 @@ public class KnowledgeBaseQueryService {
 
     /**
      * 流式查询知识库（SSE）
+     * <p>
+     * 调用时只组装 Flux，不访问数据库也不检索：订阅后计数更新、缓存查找、向量检索和提示词构建
+     * 在 {@link RagStreamScheduler} 上执行，随后直接接上模型的流式输出，请求线程不等待检索。
+     * 首个片段发出时记录首字延迟（rag.stream.first-token）。
+     * 失败时以 {@link BusinessException} 结束，不转换成回答内容，错误提示由 SSE 出口生成。
      *
      * @param knowledgeBaseIds 知识库ID列表
      * @param question 用户问题
      * @return 流式响应
      */
     public Flux<String> answerQuestionStream(List<Long> knowledgeBaseIds, String question) {
-        log.info("收到知识库流式提问: kbIds={}, question={}", knowledgeBaseIds, question);
-
-        try {
-            // 1. 验证知识库是否存在并更新问题计数
-            countService.updateQuestionCounts(knowledgeBaseIds);
+        return answerQuestionStream(knowledgeBaseIds, question, () -> "");
+    }
 
-            // 2. 使用向量搜索检索相关文档
-            List<Document> relevantDocs = vectorService.similaritySearch(question, knowledgeBaseIds, 5);
+    /**
+     * 带多轮对话历史的流式查询（RAG 聊天）
+     * <p>
+     * 对话历史在流式调度器上与检索一起获取；有历史时同一问题的含义依赖上下文，不查找也不写入语义答案缓存。
+     * 检索仍只使用当前问题。
+     *
+     * @param knowledgeBaseIds 知识库ID列表
+     * @param question 用户问题
+     * @param history 获取对话历史，返回空字符串表示没有历史
+     * @return 流式响应
+     */
+    public Flux<String> answerQuestionStream(List<Long> knowledgeBaseIds, String question,
+                                             Supplier<String> history) {
+        return Flux.defer(() -> {
+            log.info("收到知识库流式提问: kbIds={}, question={}", knowledgeBaseIds, question);
+            long startNanos = System.nanoTime();
+            return streamScheduler.defer(
+                    () -> prepareAnswerStream(knowledgeBaseIds, question, history.get(), startNanos))
+                .flatMapMany(Function.identity())
+                .doOnError(e -> log.error("知识库流式问答失败: {}", e.getMessage(), e))
+                .onErrorMap(e -> new BusinessException(ErrorCode.KNOWLEDGE_BASE_QUERY_FAILED,
+                    "知识库查询失败：" + e.getMessage()));
+        });
+    }
 
-            if (relevantDocs.isEmpty()) {
-                return Flux.just("抱歉，在选定的知识库中没有找到相关信息。请尝试调整问题或选择其他知识库。");
-            }
+    /**
+     * 执行流式问答中的阻塞步骤，返回尚未订阅的回答流
+     */
+    private Flux<String> prepareAnswerStream(List<Long> knowledgeBaseIds, String question, String history,
+                                             long startNanos) {
+        // 1. 验证知识库是否存在并更新问题计数
+        countService.updateQuestionCounts(knowledgeBaseIds);
 
-            // 3. 构建上下文
-            String context = relevantDocs.stream()
-                    .map(Document::getText)
-                    .collect(Collectors.joining("\n\n---\n\n"));
+        // 2. 相似问题命中语义答案缓存时按流式接口回放历史答案（有对话历史时跳过）
+        SemanticAnswerCache.Lookup cacheLookup = history.isEmpty()
+                ? answerCache.lookup(knowledgeBaseIds, question)
+                : SemanticAnswerCache.Lookup.disabled();
+        if (cacheLookup.hit()) {
+            return recordFirstToken(SemanticAnswerCache.replay(cacheLookup.answer()), startNanos, true)
+                    .doOnComplete(() -> recordAnswerDuration(startNanos, true));
+        }
 
-            log.debug("检索到 {} 个相关文档片段", relevantDocs.size());
+        // 3. 使用向量搜索检索相关文档
+        List<Document> relevantDocs = vectorService.similaritySearch(question, knowledgeBaseIds,
+                ragConfig.getContext().getCandidates());
 
-            // 4. 构建提示词
-            String systemPrompt = buildSystemPrompt();
-            String userPrompt = buildUserPrompt(context, question, knowledgeBaseIds);
+        if (relevantDocs.isEmpty()) {
+            return Flux.just("抱歉，在选定的知识库中没有找到相关信息。请尝试调整问题或选择其他知识库。");
+        }
 
-            // 5. 流式调用AI生成回答
-            Flux<String> responseFlux = chatClient.prompt()
-                    .system(systemPrompt)
-                    .user(userPrompt)
-                    .stream()
-                    .content();
+        // 4. 构建上下文（去除重复片段，按 token 预算装入）
+        String context = contextAssembler.assemble(relevantDocs).context();
 
-            log.info("开始流式输出知识库回答: kbIds={}", knowledgeBaseIds);
+        log.debug("检索到 {} 个相关文档片段", relevantDocs.size());
 
-            return responseFlux
-                    .doOnComplete(() -> log.info("流式输出完成: kbIds={}", knowledgeBaseIds))
-                    .onErrorResume(e -> {
-                        log.error("流式输出失败: kbIds={}, error={}", knowledgeBaseIds, e.getMessage(), e);
-                        return Flux.just("【错误】知识库查询失败：AI服务暂时不可用，请稍后重试。");
-                    });
+        // 5. 构建提示词
+        String systemPrompt = buildSystemPrompt();
+        String userPrompt = buildUserPrompt(context, question, history);
+
+        // 6. 流式调用AI生成回答，正常结束后将完整答案写入缓存
+        Flux<String> responseFlux = chatClient.prompt()
+                .system(systemPrompt)
+                .user(userPrompt)
+                .stream()
+                .content();
+
+        log.info("开始流式输出知识库回答: kbIds={}", knowledgeBaseIds);
+
+        StringBuilder fullAnswer = new StringBuilder();
+        return recordFirstToken(responseFlux, startNanos, false)
+                .doOnNext(fullAnswer::append)
+                .doOnComplete(() -> {
+                    answerCache.store(cacheLookup, question, fullAnswer.toString());
+                    recordAnswerDuration(startNanos, false);
+                    log.info("流式输出完成: kbIds={}", knowledgeBaseIds);
+                })
+                .onErrorMap(e -> {
+                    log.error("流式输出失败: kbIds={}, error={}", knowledgeBaseIds, e.getMessage(), e);
+                    return new BusinessException(ErrorCode.AI_SERVICE_UNAVAILABLE, "AI服务暂时不可用，请稍后重试。");
+                });
+    }
 
-        } catch (Exception e) {
-            log.error("知识库流式问答失败: {}", e.getMessage(), e);
-            return Flux.just("【错误】知识库查询失败：" + e.getMessage());
-        }
+    /**
+     * 首个片段发出时记录从开始处理问题起的首字延迟，按是否命中语义答案缓存区分
+     */
+    private Flux<String> recordFirstToken(Flux<String> flux, long startNanos, boolean cacheHit) {
+        AtomicBoolean first = new AtomicBoolean(true);
+        return flux.doOnNext(chunk -> {
+            if (first.compareAndSet(true, false)) {
+                meterRegistry.timer("rag.stream.first-token", "cache", cacheHit ? "hit" : "miss")
+                        .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        });
     }
 
 }
@@ -1,15 +1,40 @@
 package interview.guide.modules.knowledgebase.service;
 
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.file.FileHashService;
+import interview.guide.modules.knowledgebase.repository.EmbeddingCacheRepository;
 import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.transformer.splitter.TextSplitter;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -24,108 +49,600 @@ public class KnowledgeBaseVectorService {
      * 阿里云 DashScope Embedding API 批量大小限制
      */
     private static final int MAX_BATCH_SIZE = 10;
-    private final VectorStore vectorStore;
-    private final TextSplitter textSplitter;
+
+    /**
+     * 向量 metadata 中的 chunk 文本哈希字段（SHA-256）
+     */
+    static final String CHUNK_HASH_KEY = "chunk_hash";
+
+    /**
+     * 尚未切换生效的 chunk 所属知识库ID字段，切换时改写为 kb_id
+     */
+    static final String PENDING_KB_ID_KEY = "pending_kb_id";
+
+    /**
+     * 向量 metadata 中的代数字段
+     */
+    static final String GENERATION_KEY = "kb_generation";
+
+    /**
+     * 每次查询向量缓存的 chunk 数，同时也是单个任务分块时最多预读的 chunk 数
+     */
+    private static final int CACHE_LOOKUP_WINDOW = 50;
+
+    private final VectorBulkWriter bulkWriter;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final StreamingTextChunker chunker;
     private final VectorRepository vectorRepository;
-    public KnowledgeBaseVectorService(VectorStore vectorStore, VectorRepository vectorRepository) {
-        this.vectorStore = vectorStore;
+    private final EmbeddingCacheRepository embeddingCacheRepository;
+    private final FileHashService fileHashService;
+    private final EmbeddingBatchPipeline batchPipeline;
+    private final VectorGarbageCollector garbageCollector;
+    private final SemanticAnswerCache answerCache;
+    private final RetrievalResultCache retrievalCache;
+    private final KnowledgeBaseLexicalIndex lexicalIndex;
+    private final KnowledgeBaseHnswIndex hnswIndex;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+    private final ExecutorService searchExecutor;
+
+    /**
+     * 分知识库检索同时访问数据库的许可，数量为 app.rag.search.fan-out-max-parallel
+     */
+    private final Semaphore fanOutPermits;
+
+    /**
+     * 检索规划使用的各知识库 chunk 数，按 app.rag.vector-index.plan-stats-ttl 过期
+     */
+    private final Map<Long, PlanStats> chunkStats = new ConcurrentHashMap<>();
+
+    /**
+     * 检索规划使用的向量表估算总行数
+     */
+    private volatile PlanStats totalStats;
+
+    public KnowledgeBaseVectorService(VectorBulkWriter bulkWriter, QueryEmbeddingCache queryEmbeddingCache,
+                                      VectorRepository vectorRepository,
+                                      EmbeddingCacheRepository embeddingCacheRepository,
+                                      FileHashService fileHashService, EmbeddingBatchPipeline batchPipeline,
+                                      VectorGarbageCollector garbageCollector, SemanticAnswerCache answerCache,
+                                      RetrievalResultCache retrievalCache, KnowledgeBaseLexicalIndex lexicalIndex,
+                                      KnowledgeBaseHnswIndex hnswIndex, RagConfigProperties ragConfig,
+                                      MeterRegistry meterRegistry) {
+        this.bulkWriter = bulkWriter;
+        this.queryEmbeddingCache = queryEmbeddingCache;
         this.vectorRepository = vectorRepository;
-        // 使用TokenTextSplitter，每个chunk约500 tokens，重叠50 tokens
-        this.textSplitter = new TokenTextSplitter();
+        this.embeddingCacheRepository = embeddingCacheRepository;
+        this.fileHashService = fileHashService;
+        this.batchPipeline = batchPipeline;
+        this.garbageCollector = garbageCollector;
+        this.answerCache = answerCache;
+        this.retrievalCache = retrievalCache;
+        this.lexicalIndex = lexicalIndex;
+        this.hnswIndex = hnswIndex;
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+        // 与 TokenTextSplitter 默认配置一致的分块规则，按需从流中读取文本
+        this.chunker = new StreamingTextChunker();
+        // 混合检索时关键词检索、分知识库检索时各知识库的检索在虚拟线程上并行执行
+        this.searchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        // 虚拟线程不限数量，但每个数据库检索占用一个连接，按许可数限制同时访问数据库的检索
+        this.fanOutPermits = new Semaphore(Math.max(1, ragConfig.getSearch().getFanOutMaxParallel()));
     }
+
+    @PreDestroy
+    public void shutdown() {
+        searchExecutor.shutdownNow();
+    }
+
     /**
      * 将知识库内容向量化并存储
+     *
      * @param knowledgeBaseId 知识库ID
      * @param content 知识库文本内容
+     * @see #vectorizeAndStore(Long, Reader)
      */
-    @Transactional
     public void vectorizeAndStore(Long knowledgeBaseId, String content) {
         log.info("开始向量化知识库: kbId={}, contentLength={}", knowledgeBaseId, content.length());
+        vectorizeAndStore(knowledgeBaseId, new StringReader(content));
+    }
+
+    /**
+     * 将知识库内容向量化并存储
+     * <p>
+     * 新数据写入新的向量代数（generation），写入期间对查询不可见，全部完成后原子切换，
+     * 查询始终读取最近一次完整的数据；整个过程不持有长事务，被替换的旧数据由 {@link VectorGarbageCollector} 后台回收。
+     * <p>
+     * 文本由 {@link StreamingTextChunker} 从 reader 中边读边分块，只有在 {@link EmbeddingBatchPipeline} 有空闲并发时
+     * 才切出下一批 chunk，单个任务同时驻留内存的只有一个缓存查询窗口和在途批次，与文档长度无关。
+     * <p>
+     * 启用向量缓存时，先按 (模型, chunk 文本哈希) 查询缓存，命中的 chunk 直接在库内复制向量，
+     * 只有未命中的 chunk 才调用 Embedding API；同一文档中重复的 chunk 也只向量化一次。
+     * 增量模式下只处理与已存储数据相比新增和移除的 chunk，未变化的 chunk 原样保留。
+     *
+     * @param knowledgeBaseId 知识库ID
+     * @param content 知识库文本内容，调用方负责关闭
+     */
+    public void vectorizeAndStore(Long knowledgeBaseId, Reader content) {
+        long startNanos = System.nanoTime();
+        Long generation = null;
         try {
-            // 1. 先删除该知识库的旧向量数据
-            deleteByKnowledgeBaseId(knowledgeBaseId);
-            
-            // 2. 将文本分块
-            List<Document> chunks = textSplitter.apply(
-                List.of(new Document(content))
-            );
-            
-            log.info("文本分块完成: {} 个chunks", chunks.size());
-            
-            // 3. 为每个chunk添加metadata（知识库ID）
-            // 统一使用 String 类型存储，确保查询一致性
-            chunks.forEach(chunk -> chunk.getMetadata().put("kb_id", knowledgeBaseId.toString()));
-            // 4. 分批向量化并存储（阿里云 DashScope API 限制 batch size <= 10）
-            int totalChunks = chunks.size();
-            int batchCount = (totalChunks + MAX_BATCH_SIZE - 1) / MAX_BATCH_SIZE; // 向上取整
-            log.info("开始分批向量化: 总共 {} 个chunks，分 {} 批处理，每批最多 {} 个",
-                    totalChunks, batchCount, MAX_BATCH_SIZE);
-            for (int i = 0; i < batchCount; i++) {
-                int start = i * MAX_BATCH_SIZE;
-                int end = Math.min(start + MAX_BATCH_SIZE, totalChunks);
-                List<Document> batch = chunks.subList(start, end);
-                log.debug("处理第 {}/{} 批: chunks {}-{}", i + 1, batchCount, start + 1, end);
-                vectorStore.add(batch);
-            }
-            log.info("知识库向量化完成: kbId={}, chunks={}, batches={}",
-                    knowledgeBaseId, totalChunks, batchCount);
+            // 1. 记录当前生效代数（切换时用于乐观校验），并分配新代数
+            long baseGeneration = vectorRepository.findActiveGeneration(knowledgeBaseId);
+            generation = vectorRepository.nextGeneration();
+
+            // 2. 加载已存储的 chunk 哈希：增量模式下未变化的保留，全量模式下全部替换
+            boolean incremental = ragConfig.getEmbedding().isIncremental();
+            Map<String, Deque<String>> storedByHash = new HashMap<>();
+            List<String> retiredIds = new ArrayList<>();
+            List<VectorRepository.StoredChunk> storedChunks = vectorRepository.findStoredChunks(knowledgeBaseId);
+            for (VectorRepository.StoredChunk stored : storedChunks) {
+                if (!incremental || stored.chunkHash() == null) {
+                    retiredIds.add(stored.id());
+                } else {
+                    storedByHash.computeIfAbsent(stored.chunkHash(), k -> new ArrayDeque<>()).add(stored.id());
+                }
+            }
+
+            // 3. 边分块边对比、查缓存，未命中的 chunk 分批向量化并存储（阿里云 DashScope API 限制 batch size <= 10）
+            // 多个批次并发在途，每批向量化完成后立即以二进制 COPY 写入向量库
+            boolean cacheEnabled = ragConfig.getEmbedding().isCacheEnabled();
+            String model = ragConfig.getEmbedding().getModel();
+            ChunkBatchIterator batches = new ChunkBatchIterator(
+                chunker.split(content), knowledgeBaseId.toString(), generation, storedByHash, cacheEnabled, model);
+            log.info("开始流式分块并向量化: kbId={}, generation={}, 已存储 {} 个, 每批最多 {} 个，并发 {}",
+                    knowledgeBaseId, generation, storedChunks.size(), MAX_BATCH_SIZE,
+                    ragConfig.getEmbedding().getConcurrency());
+            batchPipeline.execute(batches, batch -> {
+                bulkWriter.write(batch);
+                if (cacheEnabled) {
+                    embeddingCacheRepository.saveFromVectorStore(model, batch.stream().map(Document::getId).toList());
+                }
+                lexicalIndex.index(batch);
+            });
+
+            // 4. 与本次任务中其他 chunk 文本相同的 chunk，在其向量写入缓存后再从库内复制
+            if (!batches.duplicates.isEmpty()) {
+                vectorRepository.insertFromEmbeddingCache(model, batches.duplicates);
+                lexicalIndex.index(batches.duplicates);
+            }
+
+            // 5. 未被新分块配对的已存储 chunk 视为已移除
+            storedByHash.values().forEach(retiredIds::addAll);
+            int totalChunks = batches.addedCount;
+            log.info("分块对比完成: kbId={}, 保留 {} 个, 新增 {} 个, 替换 {} 个, 缓存命中 {} 个, 调用API {} 个",
+                    knowledgeBaseId, batches.reusedCount, totalChunks, retiredIds.size(),
+                    totalChunks - batches.embedCount, batches.embedCount);
+
+            // 6. 原子切换到新代数，被替换的旧数据交给后台回收
+            if (!vectorRepository.activateGeneration(knowledgeBaseId, baseGeneration, generation, retiredIds)) {
+                throw new IllegalStateException("知识库向量已被其他任务更新，放弃本次写入");
+            }
+            garbageCollector.collectAsync(knowledgeBaseId);
+            answerCache.invalidate(knowledgeBaseId);
+            retrievalCache.invalidate(knowledgeBaseId);
+            chunkStats.remove(knowledgeBaseId);
+            hnswIndex.refresh(knowledgeBaseId);
+
+            meterRegistry.counter("rag.vectorize.chunks.reused").increment(batches.reusedCount);
+            recordCacheMetrics(knowledgeBaseId, totalChunks, batches.embedCount, batches.batchCount);
+            meterRegistry.timer("rag.vectorize.duration").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            log.info("知识库向量化完成: kbId={}, generation={}, chunks={}, batches={}, elapsed={}ms",
+                    knowledgeBaseId, generation, totalChunks, batches.batchCount, (System.nanoTime() - startNanos) / 1_000_000);
         } catch (Exception e) {
             log.error("向量化知识库失败: kbId={}, error={}", knowledgeBaseId, e.getMessage(), e);
+            if (generation != null) {
+                discardPendingGeneration(knowledgeBaseId, generation);
+            }
             throw new RuntimeException("向量化知识库失败: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * 清理未切换成功的新代数据，失败不影响原异常的抛出
+     */
+    private void discardPendingGeneration(Long knowledgeBaseId, long generation) {
+        try {
+            vectorRepository.deletePendingGeneration(knowledgeBaseId, generation);
+        } catch (Exception e) {
+            log.warn("清理未切换的向量数据失败，将在下次回收时删除: kbId={}, generation={}, error={}",
+                    knowledgeBaseId, generation, e.getMessage());
+        }
+    }
+
+    /**
+     * 惰性产生待向量化批次的迭代器
+     * <p>
+     * 每次取批次时才从分块器读取 chunk，按文本哈希与已存储的 chunk 逐一配对（相同哈希按出现次数配对），
+     * 配对成功的 chunk 保留旧数据不再处理；其余 chunk 每攒够 {@link #CACHE_LOOKUP_WINDOW} 个查询一次向量缓存，
+     * 命中的直接在库内复制向量，未命中的按 {@link #MAX_BATCH_SIZE} 组成批次返回。
+     * 只在调用线程上使用，统计字段在流水线结束后读取。
+     */
+    private class ChunkBatchIterator implements Iterator<List<Document>> {
+
+        private final Iterator<String> chunks;
+        private final String kbId;
+        private final long generation;
+        private final Map<String, Deque<String>> storedByHash;
+        private final boolean cacheEnabled;
+        private final String model;
+
+        private final Deque<Document> pending = new ArrayDeque<>();
+        private final Set<String> scheduled = new HashSet<>();
+        private final List<Document> duplicates = new ArrayList<>();
+
+        private int reusedCount;
+        private int addedCount;
+        private int embedCount;
+        private int batchCount;
+
+        ChunkBatchIterator(Iterator<String> chunks, String kbId, long generation,
+                           Map<String, Deque<String>> storedByHash, boolean cacheEnabled, String model) {
+            this.chunks = chunks;
+            this.kbId = kbId;
+            this.generation = generation;
+            this.storedByHash = storedByHash;
+            this.cacheEnabled = cacheEnabled;
+            this.model = model;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.size() < MAX_BATCH_SIZE && chunks.hasNext()) {
+                readWindow();
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public List<Document> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<Document> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            while (batch.size() < MAX_BATCH_SIZE && !pending.isEmpty()) {
+                batch.add(pending.poll());
+            }
+            embedCount += batch.size();
+            batchCount++;
+            return batch;
+        }
+
+        /**
+         * 读取下一个窗口的 chunk，跳过未变化的 chunk，查询缓存后将未命中的放入待向量化队列
+         */
+        private void readWindow() {
+            List<Document> window = new ArrayList<>();
+            while (window.size() < CACHE_LOOKUP_WINDOW && chunks.hasNext()) {
+                String text = chunks.next();
+                String hash = hashChunk(text);
+                Deque<String> storedIds = storedByHash.get(hash);
+                if (storedIds != null && storedIds.poll() != null) {
+                    reusedCount++;
+                    continue;
+                }
+                // 统一使用 String 类型存储，确保查询一致性；切换时 pending_kb_id 会改写为 kb_id
+                Document chunk = new Document(text);
+                chunk.getMetadata().put(PENDING_KB_ID_KEY, kbId);
+                chunk.getMetadata().put(GENERATION_KEY, generation);
+                chunk.getMetadata().put(CHUNK_HASH_KEY, hash);
+                window.add(chunk);
+            }
+            addedCount += window.size();
+            if (!cacheEnabled) {
+                pending.addAll(window);
+                return;
+            }
+            if (window.isEmpty()) {
+                return;
+            }
+
+            Set<String> cachedHashes = embeddingCacheRepository.findCachedHashes(model,
+                window.stream().map(KnowledgeBaseVectorService::chunkHash).collect(Collectors.toSet()));
+            List<Document> fromCache = new ArrayList<>();
+            for (Document chunk : window) {
+                String hash = chunkHash(chunk);
+                if (cachedHashes.contains(hash)) {
+                    fromCache.add(chunk);
+                } else if (!scheduled.add(hash)) {
+                    // 本次任务中已有相同文本在待向量化队列中
+                    duplicates.add(chunk);
+                } else {
+                    pending.add(chunk);
+                }
+            }
+            if (!fromCache.isEmpty()) {
+                vectorRepository.insertFromEmbeddingCache(model, fromCache);
+                lexicalIndex.index(fromCache);
+            }
+        }
+    }
+
+    /**
+     * 记录单次向量化任务的缓存指标
+     *
+     * @param totalChunks 总 chunk 数
+     * @param embedCount  实际调用 API 向量化的 chunk 数
+     * @param batchCount  实际调用 API 的批次数
+     */
+    private void recordCacheMetrics(Long knowledgeBaseId, int totalChunks, int embedCount, int batchCount) {
+        if (totalChunks == 0) {
+            return;
+        }
+        int hits = totalChunks - embedCount;
+        int callsWithoutCache = (totalChunks + MAX_BATCH_SIZE - 1) / MAX_BATCH_SIZE;
+        int callsSaved = callsWithoutCache - batchCount;
+        double hitRatio = (double) hits / totalChunks;
+
+        meterRegistry.counter("rag.embedding.cache.hits").increment(hits);
+        meterRegistry.counter("rag.embedding.cache.misses").increment(embedCount);
+        meterRegistry.counter("rag.embedding.calls.saved").increment(callsSaved);
+        meterRegistry.summary("rag.embedding.cache.hit.ratio").record(hitRatio);
+
+        log.info("向量缓存统计: kbId={}, hits={}, misses={}, hitRatio={}, callsSaved={}",
+                knowledgeBaseId, hits, embedCount, String.format("%.2f", hitRatio), callsSaved);
+    }
+
+    /**
+     * 计算 chunk 文本的 SHA-256
+     */
+    private String hashChunk(String text) {
+        return fileHashService.calculateHash(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String chunkHash(Document chunk) {
+        return (String) chunk.getMetadata().get(CHUNK_HASH_KEY);
+    }
     
     /**
      * 基于多个知识库进行相似度搜索
-     * 
+     * <p>
+     * 查询文本经 {@link QueryEmbeddingCache} 向量化（重复问题命中缓存）后，知识库过滤、topK 和相似度阈值一并下推到数据库，
+     * 知识库过滤走 vector_store.kb_id 列索引，避免逐行解析 metadata；启用进程内 HNSW 索引后在本地检索。
+     * 在 pgvector 中检索时按所选知识库的 chunk 数由 {@link VectorSearchPlanner} 选择精确扫描或调整 ef_search 的索引检索。
+     * 选择多个知识库且开启 app.rag.search.fan-out 时，每个知识库并行检索后按 {@link FairTopKMerge} 公平合并。
+     * <p>
+     * 检索模式由 app.rag.search.mode 决定：混合模式下关键词检索与向量检索并行执行，
+     * 两路各召回若干候选后按 {@link ReciprocalRankFusion} 融合；关键词检索失败时退化为仅向量检索。
+     * 同一问题在同一知识库集合和向量代数下的检索结果由 {@link RetrievalResultCache} 缓存。
+     *
      * @param query 查询文本
      * @param knowledgeBaseIds 知识库ID列表（如果为空则搜索所有）
      * @param topK 返回top K个结果
      * @return 相关文档列表
      */
     public List<Document> similaritySearch(String query, List<Long> knowledgeBaseIds, int topK) {
-        log.info("向量相似度搜索: query={}, kbIds={}, topK={}", query, knowledgeBaseIds, topK);
-        
+        RagConfigProperties.Search search = ragConfig.getSearch();
+        log.info("相似度搜索: query={}, kbIds={}, topK={}, mode={}", query, knowledgeBaseIds, topK, search.getMode());
+
+        if (topK <= 0) {
+            return List.of();
+        }
+
         try {
-            // 使用VectorStore的similaritySearch方法（只接受查询字符串）
-            List<Document> allResults = vectorStore.similaritySearch(query);
-            
-            // 如果指定了知识库ID，进行过滤
-            if (knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty()) {
-                allResults = allResults.stream()
-                    .filter(doc -> {
-                        Object kbId = doc.getMetadata().get("kb_id");
-                        if (kbId == null) return false;
-                        // 支持 String 和 Long 两种格式（向后兼容）
-                        try {
-                            Long kbIdLong = kbId instanceof Long 
-                                ? (Long) kbId 
-                                : Long.parseLong(kbId.toString());
-                            return knowledgeBaseIds.contains(kbIdLong);
-                        } catch (NumberFormatException e) {
-                            return false;
-                        }
-                    })
-                    .collect(Collectors.toList());
-                log.debug("使用metadata过滤，找到 {} 个相关文档", allResults.size());
-            }
-            
-            // 限制返回数量
-            List<Document> results = allResults.stream()
-                .limit(topK)
-                .collect(Collectors.toList());
-            
+            RetrievalResultCache.Lookup cached = retrievalCache.lookup(query, knowledgeBaseIds, topK);
+            if (cached.hit()) {
+                log.info("命中检索结果缓存: kbIds={}, 文档数={}", knowledgeBaseIds, cached.documents().size());
+                return cached.documents();
+            }
+
+            List<Document> results = switch (search.getMode()) {
+                case VECTOR -> vectorSearch(query, knowledgeBaseIds, topK);
+                case LEXICAL -> lexicalIndex.search(query, knowledgeBaseIds, topK);
+                case HYBRID -> hybridSearch(query, knowledgeBaseIds, topK);
+            };
+            retrievalCache.store(cached, results);
+
             log.info("搜索完成: 找到 {} 个相关文档", results.size());
             return results;
-            
+
         } catch (Exception e) {
             log.error("向量搜索失败: {}", e.getMessage(), e);
             throw new RuntimeException("向量搜索失败: " + e.getMessage(), e);
         }
     }
-    
+
+    private List<Document> vectorSearch(String query, List<Long> knowledgeBaseIds, int topK) {
+        float[] queryEmbedding = queryEmbeddingCache.embed(query);
+        if (ragConfig.getSearch().isFanOut() && knowledgeBaseIds != null
+                && knowledgeBaseIds.stream().distinct().count() > 1) {
+            return fanOutSearch(queryEmbedding, knowledgeBaseIds, topK);
+        }
+        return searchVectors(queryEmbedding, knowledgeBaseIds, topK);
+    }
+
+    private List<Document> searchVectors(float[] queryEmbedding, List<Long> knowledgeBaseIds, int topK) {
+        return searchVectors(queryEmbedding, knowledgeBaseIds, topK, null);
+    }
+
+    /**
+     * 向量检索，可限定数据库检索语句的执行时间
+     *
+     * @param statementTimeout 数据库检索语句的超时，为 null 时使用数据库默认值
+     */
+    private List<Document> searchVectors(float[] queryEmbedding, List<Long> knowledgeBaseIds, int topK,
+                                         Duration statementTimeout) {
+        double threshold = ragConfig.getSearch().getSimilarityThreshold();
+        if (hnswIndex.isReady()) {
+            return hnswIndex.search(queryEmbedding, knowledgeBaseIds, topK, threshold);
+        }
+        VectorRepository.SearchPlan plan = planSearch(knowledgeBaseIds, topK);
+        if (statementTimeout != null) {
+            plan = plan.withStatementTimeout(statementTimeout);
+        }
+        return vectorRepository.similaritySearch(queryEmbedding, knowledgeBaseIds, topK, threshold, plan);
+    }
+
+    /**
+     * 按所选知识库的规模选择 pgvector 检索的执行方式，并计入 rag.search.plan 指标；统计失败时使用默认方式
+     */
+    private VectorRepository.SearchPlan planSearch(List<Long> knowledgeBaseIds, int topK) {
+        boolean filtered = knowledgeBaseIds != null && !knowledgeBaseIds.isEmpty();
+        VectorRepository.SearchPlan plan;
+        long matchingRows = -1;
+        try {
+            long totalRows = estimateTotalRows();
+            matchingRows = filtered ? countChunks(knowledgeBaseIds) : totalRows;
+            plan = VectorSearchPlanner.plan(matchingRows, totalRows, filtered, topK, ragConfig.getVectorIndex());
+        } catch (Exception e) {
+            log.warn("统计知识库 chunk 数失败，使用默认检索方式: kbIds={}, error={}", knowledgeBaseIds, e.getMessage());
+            plan = VectorRepository.SearchPlan.DEFAULT;
+        }
+        meterRegistry.counter("rag.search.plan", "plan", plan.label()).increment();
+        log.debug("检索执行方式: kbIds={}, chunks={}, plan={}, efSearch={}",
+            knowledgeBaseIds, matchingRows, plan.label(), plan.efSearch());
+        return plan;
+    }
+
+    /**
+     * 所选知识库的 chunk 总数，过期或缺失的知识库一次查询补齐
+     */
+    private long countChunks(List<Long> knowledgeBaseIds) {
+        long now = System.nanoTime();
+        Map<Long, Long> counts = new HashMap<>();
+        List<Long> stale = new ArrayList<>();
+        for (Long kbId : new LinkedHashSet<>(knowledgeBaseIds)) {
+            PlanStats stats = chunkStats.get(kbId);
+            if (stats != null && stats.isFresh(now)) {
+                counts.put(kbId, stats.count());
+            } else {
+                stale.add(kbId);
+            }
+        }
+        if (!stale.isEmpty()) {
+            Map<Long, Long> fetched = vectorRepository.countChunks(stale);
+            long expiresAt = now + ragConfig.getVectorIndex().getPlanStatsTtl().toNanos();
+            for (Long kbId : stale) {
+                long count = fetched.getOrDefault(kbId, 0L);
+                chunkStats.put(kbId, new PlanStats(count, expiresAt));
+                counts.put(kbId, count);
+            }
+        }
+        return counts.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private long estimateTotalRows() {
+        long now = System.nanoTime();
+        PlanStats stats = totalStats;
+        if (stats == null || !stats.isFresh(now)) {
+            stats = new PlanStats(vectorRepository.estimateTotalRows(),
+                now + ragConfig.getVectorIndex().getPlanStatsTtl().toNanos());
+            totalStats = stats;
+        }
+        return stats.count();
+    }
+
+    /**
+     * 检索规划使用的行数统计
+     *
+     * @param count          行数
+     * @param expiresAtNanos 过期时间（System.nanoTime）
+     */
+    private record PlanStats(long count, long expiresAtNanos) {
+
+        boolean isFresh(long nowNanos) {
+            return nowNanos - expiresAtNanos < 0;
+        }
+    }
+
+    /**
+     * 分知识库并行检索：每个知识库在虚拟线程上各自执行一次过滤检索，总耗时取决于最慢的一个而不是知识库数量
+     * <p>
+     * 所有检索共享 app.rag.search.fan-out-timeout 截止时间，超时或失败的知识库跳过，
+     * 其余结果按 {@link FairTopKMerge} 合并，保证每个知识库都有名额；全部失败时抛出异常。
+     * 访问数据库的检索最多同时执行 fan-out-max-parallel 个，避免占满连接池。
+     */
+    private List<Document> fanOutSearch(float[] queryEmbedding, List<Long> knowledgeBaseIds, int topK) {
+        long deadline = System.nanoTime() + ragConfig.getSearch().getFanOutTimeout().toNanos();
+        Map<Long, CompletableFuture<List<Document>>> futures = new LinkedHashMap<>();
+        for (Long kbId : knowledgeBaseIds) {
+            futures.computeIfAbsent(kbId, id -> CompletableFuture.supplyAsync(
+                () -> searchKnowledgeBase(queryEmbedding, id, topK, deadline), searchExecutor));
+        }
+
+        List<List<Document>> rankings = new ArrayList<>(futures.size());
+        List<Long> skipped = new ArrayList<>();
+        for (Map.Entry<Long, CompletableFuture<List<Document>>> entry : futures.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                rankings.add(entry.getValue().get(remaining, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                // cancel 不会中断 supplyAsync 中的任务，由许可等待的截止时间和语句超时保证任务及时释放连接
+                entry.getValue().cancel(true);
+                skipped.add(entry.getKey());
+                log.warn("知识库检索超时，跳过: kbId={}", entry.getKey());
+            } catch (ExecutionException e) {
+                skipped.add(entry.getKey());
+                log.warn("知识库检索失败，跳过: kbId={}, error={}", entry.getKey(), e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(future -> future.cancel(true));
+                throw new RuntimeException("分知识库检索被中断", e);
+            }
+        }
+
+        if (!skipped.isEmpty()) {
+            meterRegistry.counter("rag.search.fanout.skipped").increment(skipped.size());
+            if (rankings.isEmpty()) {
+                throw new IllegalStateException("所有知识库检索均超时或失败: kbIds=" + skipped);
+            }
+        }
+        log.debug("分知识库检索完成: kbIds={}, skipped={}", futures.keySet(), skipped);
+        return FairTopKMerge.merge(rankings, topK);
+    }
+
+    /**
+     * 分知识库检索中的单个知识库
+     * <p>
+     * 进程内索引就绪时直接检索；访问数据库时先取得许可，截止时间前取不到许可则放弃，
+     * 检索语句的超时设为距截止时间的剩余时间，超时后数据库取消语句、连接归还连接池。
+     */
+    private List<Document> searchKnowledgeBase(float[] queryEmbedding, Long kbId, int topK, long deadline) {
+        if (hnswIndex.isReady()) {
+            return searchVectors(queryEmbedding, List.of(kbId), topK);
+        }
+        try {
+            if (!fanOutPermits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                throw new IllegalStateException("等待检索许可超时: kbId=" + kbId);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待检索许可被中断: kbId=" + kbId, e);
+        }
+        try {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new IllegalStateException("已超过分知识库检索截止时间: kbId=" + kbId);
+            }
+            return searchVectors(queryEmbedding, List.of(kbId), topK, Duration.ofNanos(remaining));
+        } finally {
+            fanOutPermits.release();
+        }
+    }
+
+    /**
+     * 混合检索：关键词检索提交到虚拟线程，向量检索在当前线程执行，两路都返回后融合
+     */
+    private List<Document> hybridSearch(String query, List<Long> knowledgeBaseIds, int topK) {
+        int candidates = Math.max(topK, ragConfig.getSearch().getCandidates());
+        CompletableFuture<List<Document>> lexicalFuture = CompletableFuture.supplyAsync(
+            () -> lexicalIndex.search(query, knowledgeBaseIds, candidates), searchExecutor);
+
+        List<Document> vectorResults = vectorSearch(query, knowledgeBaseIds, candidates);
+        List<Document> lexicalResults;
+        try {
+            lexicalResults = lexicalFuture.join();
+        } catch (Exception e) {
+            log.warn("关键词检索失败，仅使用向量检索结果: kbIds={}, error={}", knowledgeBaseIds, e.getMessage());
+            lexicalResults = List.of();
+        }
+        log.debug("混合检索候选: vector={}, lexical={}", vectorResults.size(), lexicalResults.size());
+        return ReciprocalRankFusion.fuse(List.of(vectorResults, lexicalResults),
+            ragConfig.getSearch().getRrfK(), topK);
+    }
+
     /**
-     * 删除指定知识库的所有向量数据
+     * 删除指定知识库的所有向量数据，并清除相关的缓存答案
      * 委托给 VectorRepository 处理
      * 
      * @param knowledgeBaseId 知识库ID
@@ -140,6 +657,10 @@ public class KnowledgeBaseVectorService {
             // 如果确实需要严格保证，可以取消下面的注释
             // throw new RuntimeException("删除向量数据失败: " + e.getMessage(), e);
         }
+        answerCache.invalidate(knowledgeBaseId);
+        retrievalCache.invalidate(knowledgeBaseId);
+        chunkStats.remove(knowledgeBaseId);
+        hnswIndex.remove(knowledgeBaseId);
     }
 }
 
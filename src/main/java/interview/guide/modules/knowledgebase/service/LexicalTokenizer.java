@@ -0,0 +1,100 @@
+package interview.guide.modules.knowledgebase.service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 关键词检索分词器
+ * <p>
+ * 不依赖数据库中文分词扩展，在应用侧完成分词：
+ * <ul>
+ *   <li>中文按字二元组（bigram）切分，单字片段保留单字</li>
+ *   <li>英文、数字和标识符整体保留（如 spring.ai.openai.api-key、kb_id_long、ERR_1001），
+ *       同时按分隔符和驼峰拆出子词，查询完整标识符或其中一段都能命中</li>
+ * </ul>
+ * 写入和查询使用同一分词规则，结果直接作为 tsvector / tsquery 的词元。
+ */
+public final class LexicalTokenizer {
+
+    /**
+     * 标识符：字母数字下划线，中间可以用 . - : / 连接
+     */
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\p{Alnum}_]+(?:[.\\-:/][\\p{Alnum}_]+)*");
+
+    private static final Pattern CJK_RUN = Pattern.compile("[\\p{IsHan}]+");
+
+    private static final Pattern SUBWORD_SEPARATOR = Pattern.compile("[._\\-:/]+");
+
+    private static final Pattern CAMEL_BOUNDARY = Pattern.compile("(?<=[a-z0-9])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])");
+
+    /**
+     * 单个词元最大长度，超长片段（如 base64）不参与检索
+     */
+    private static final int MAX_TOKEN_LENGTH = 100;
+
+    private LexicalTokenizer() {
+    }
+
+    /**
+     * 分词并去重，保持首次出现的顺序
+     *
+     * @param text 原始文本
+     * @return 词元列表
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        Set<String> tokens = new LinkedHashSet<>();
+
+        Matcher identifiers = IDENTIFIER.matcher(normalized);
+        while (identifiers.find()) {
+            String identifier = identifiers.group();
+            // \p{Alnum} 不匹配汉字，标识符中不会混入中文
+            addToken(tokens, identifier);
+            for (String part : SUBWORD_SEPARATOR.split(identifier)) {
+                addToken(tokens, part);
+                for (String word : CAMEL_BOUNDARY.split(part)) {
+                    addToken(tokens, word);
+                }
+            }
+        }
+
+        Matcher cjkRuns = CJK_RUN.matcher(normalized);
+        while (cjkRuns.find()) {
+            String run = cjkRuns.group();
+            if (run.length() == 1) {
+                tokens.add(run);
+                continue;
+            }
+            for (int i = 0; i + 1 < run.length(); i++) {
+                tokens.add(run.substring(i, i + 2));
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    private static void addToken(Set<String> tokens, String token) {
+        if (!token.isEmpty() && token.length() <= MAX_TOKEN_LENGTH) {
+            tokens.add(token.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * 构建 tsquery 文本：任一词元命中即匹配，排序由命中词元数量决定
+     * 词元只包含字母数字、汉字和 . _ - : /，用单引号包裹即可，无需转义
+     *
+     * @param tokens 查询词元
+     * @return tsquery 文本，如 {@code 'kb_id' | '向量'}
+     */
+    public static String toTsQuery(List<String> tokens) {
+        return String.join(" | ", tokens.stream().map(token -> "'" + token + "'").toList());
+    }
+}
@@ -0,0 +1,144 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.file.FileHashService;
+import interview.guide.infrastructure.redis.RedisService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 查询向量缓存
+ * <p>
+ * 两级缓存：进程内 LRU + Redis 共享缓存，键为 (embedding 模型, 规范化后的问题文本哈希)。
+ * 重复提问时省去一次 Embedding API 往返（通常 100~300ms）。规范化只用于缓存键，调用 Embedding API 时使用原始问题文本，
+ * 关闭缓存时向量与不使用缓存时完全一致。
+ * Redis 不可用时退化为只用进程内缓存，不影响查询。
+ */
+@Slf4j
+@Component
+public class QueryEmbeddingCache {
+
+    private static final String KEY_PREFIX = "rag:query-embedding:";
+
+    private final EmbeddingModel embeddingModel;
+    private final RedisService redisService;
+    private final FileHashService fileHashService;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, float[]> localCache;
+
+    public QueryEmbeddingCache(EmbeddingModel embeddingModel, RedisService redisService,
+                               FileHashService fileHashService, RagConfigProperties ragConfig,
+                               MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.redisService = redisService;
+        this.fileHashService = fileHashService;
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+        int maxSize = Math.max(1, ragConfig.getQueryCache().getLocalMaxSize());
+        this.localCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 获取问题文本的向量，依次查询进程内缓存、Redis，都未命中时用原始问题文本调用 Embedding API 并写回两级缓存
+     *
+     * @param query 问题文本
+     * @return 查询向量，每次返回副本，调用方原地修改不会影响缓存
+     */
+    public float[] embed(String query) {
+        if (!ragConfig.getQueryCache().isEnabled()) {
+            return embeddingModel.embed(query);
+        }
+
+        String key = cacheKey(normalize(query));
+        float[] embedding;
+        synchronized (localCache) {
+            embedding = localCache.get(key);
+        }
+        if (embedding != null) {
+            recordHit("local");
+            return embedding.clone();
+        }
+
+        embedding = getFromRedis(key);
+        if (embedding != null) {
+            recordHit("redis");
+            putLocal(key, embedding);
+            return embedding.clone();
+        }
+
+        meterRegistry.counter("rag.query.embedding.cache.misses").increment();
+        embedding = embeddingModel.embed(query);
+        putLocal(key, embedding);
+        putRedis(key, embedding);
+        return embedding.clone();
+    }
+
+    /**
+     * 规范化问题文本（仅用于缓存键）：全角转半角、去除首尾空白、合并连续空白、英文转小写
+     */
+    static String normalize(String query) {
+        String text = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        return text.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private String cacheKey(String normalized) {
+        String hash = fileHashService.calculateHash(normalized.getBytes(StandardCharsets.UTF_8));
+        return KEY_PREFIX + ragConfig.getEmbedding().getModel() + ":" + hash;
+    }
+
+    private void putLocal(String key, float[] embedding) {
+        synchronized (localCache) {
+            localCache.put(key, embedding);
+        }
+    }
+
+    private float[] getFromRedis(String key) {
+        try {
+            byte[] bytes = redisService.getBytes(key);
+            return bytes == null ? null : fromBytes(bytes);
+        } catch (Exception e) {
+            log.warn("读取查询向量缓存失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void putRedis(String key, float[] embedding) {
+        try {
+            redisService.setBytes(key, toBytes(embedding), ragConfig.getQueryCache().getRedisTtl());
+        } catch (Exception e) {
+            log.warn("写入查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private void recordHit(String tier) {
+        meterRegistry.counter("rag.query.embedding.cache.hits", "tier", tier).increment();
+    }
+
+    static byte[] toBytes(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    static float[] fromBytes(byte[] bytes) {
+        float[] embedding = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
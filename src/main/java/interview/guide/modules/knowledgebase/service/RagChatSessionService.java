@@ -7,22 +7,35 @@ import interview.guide.infrastructure.mapper.RagChatMapper;
 import interview.guide.modules.knowledgebase.model.KnowledgeBaseEntity;
 import interview.guide.modules.knowledgebase.model.KnowledgeBaseListItemDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.CreateSessionRequest;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.MessagePageDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionDetailDTO;
 import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionListItemDTO;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionPageDTO;
 import interview.guide.modules.knowledgebase.model.RagChatMessageEntity;
 import interview.guide.modules.knowledgebase.model.RagChatSessionEntity;
 import interview.guide.modules.knowledgebase.repository.KnowledgeBaseRepository;
 import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository.StreamProgress;
 import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository.SessionKnowledgeBaseName;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository.SessionListRow;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * RAG 聊天会话服务
@@ -33,10 +46,26 @@ import java.util.List;
 @RequiredArgsConstructor
 public class RagChatSessionService {
 
+    /**
+     * 会话列表每页最大条数
+     */
+    private static final int MAX_SESSION_PAGE_SIZE = 100;
+
+    /**
+     * 会话详情默认返回的消息条数
+     */
+    private static final int DEFAULT_MESSAGE_PAGE_SIZE = 20;
+
+    /**
+     * 消息分页每页最大条数
+     */
+    private static final int MAX_MESSAGE_PAGE_SIZE = 100;
+
     private final RagChatSessionRepository sessionRepository;
     private final RagChatMessageRepository messageRepository;
     private final KnowledgeBaseRepository knowledgeBaseRepository;
     private final KnowledgeBaseQueryService queryService;
+    private final ConversationMemory conversationMemory;
     private final RagChatMapper ragChatMapper;
     private final KnowledgeBaseMapper knowledgeBaseMapper;
 
@@ -78,8 +107,51 @@ public class RagChatSessionService {
     }
 
     /**
-     * 获取会话详情（包含消息）
-     * 分两次查询避免笛卡尔积问题
+     * 分页获取会话列表（键集分页）
+     * 置顶会话在前，各自按 (updatedAt, id) 倒序；先只查列表字段，再一次批量查出本页会话的知识库名称
+     *
+     * @param cursor 上一页返回的游标，为空时从第一页开始
+     * @param limit  每页条数
+     */
+    public SessionPageDTO listSessionPage(String cursor, int limit) {
+        int size = Math.clamp(limit, 1, MAX_SESSION_PAGE_SIZE);
+        SessionCursor after = SessionCursor.decode(cursor);
+
+        // 多取一条判断是否还有下一页
+        List<SessionListRow> rows = new ArrayList<>(fetchSessionRows(after, size + 1));
+        if (rows.size() <= size && (after == null || after.pinned())) {
+            // 置顶会话不足一页时接着取非置顶会话
+            rows.addAll(sessionRepository.findListFirstPage(false, PageRequest.of(0, size + 1 - rows.size())));
+        }
+
+        boolean hasMore = rows.size() > size;
+        List<SessionListRow> page = hasMore ? rows.subList(0, size) : rows;
+        Map<Long, List<String>> kbNames = page.isEmpty() ? Map.of() : sessionRepository
+            .findKnowledgeBaseNames(page.stream().map(SessionListRow::getId).toList())
+            .stream()
+            .collect(Collectors.groupingBy(SessionKnowledgeBaseName::getSessionId,
+                Collectors.mapping(SessionKnowledgeBaseName::getName, Collectors.toList())));
+
+        List<SessionListItemDTO> items = page.stream()
+            .map(row -> new SessionListItemDTO(row.getId(), row.getTitle(), row.getMessageCount(),
+                kbNames.getOrDefault(row.getId(), List.of()), row.getUpdatedAt(),
+                Boolean.TRUE.equals(row.getIsPinned())))
+            .toList();
+        String nextCursor = hasMore ? SessionCursor.of(page.getLast()).encode() : null;
+        return new SessionPageDTO(items, nextCursor, hasMore);
+    }
+
+    private List<SessionListRow> fetchSessionRows(SessionCursor after, int count) {
+        if (after == null) {
+            return sessionRepository.findListFirstPage(true, PageRequest.of(0, count));
+        }
+        return sessionRepository.findListPageAfter(after.pinned(), after.updatedAt(), after.id(),
+            PageRequest.of(0, count));
+    }
+
+    /**
+     * 获取会话详情（包含最新一页消息）
+     * 分两次查询避免笛卡尔积问题，更早的消息通过 listMessages 按游标加载
      */
     public SessionDetailDTO getSessionDetail(Long sessionId) {
         // 先加载会话和知识库
@@ -87,25 +159,53 @@ public class RagChatSessionService {
             .findByIdWithKnowledgeBases(sessionId)
             .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
 
-        // 再单独加载消息（避免笛卡尔积）
-        List<RagChatMessageEntity> messages = messageRepository
-            .findBySessionIdOrderByMessageOrderAsc(sessionId);
+        // 再单独加载最新一页消息（避免笛卡尔积）
+        MessagePageDTO messagePage = loadMessagePage(sessionId, null, DEFAULT_MESSAGE_PAGE_SIZE);
 
         // 转换知识库列表
         List<KnowledgeBaseListItemDTO> kbDTOs = knowledgeBaseMapper.toListItemDTOList(
             new java.util.ArrayList<>(session.getKnowledgeBases())
         );
 
-        return ragChatMapper.toSessionDetailDTO(session, messages, kbDTOs);
+        return ragChatMapper.toSessionDetailDTO(session, messagePage, kbDTOs);
+    }
+
+    /**
+     * 分页获取会话消息：messageOrder 在 before 之前最新的 limit 条，按顺序正序返回
+     *
+     * @param sessionId 会话ID
+     * @param before    上一页返回的游标，为 null 时取最新一页
+     * @param limit     每页条数
+     */
+    public MessagePageDTO listMessages(Long sessionId, Integer before, int limit) {
+        if (!sessionRepository.existsById(sessionId)) {
+            throw new BusinessException(ErrorCode.NOT_FOUND, "会话不存在");
+        }
+        return loadMessagePage(sessionId, before, Math.clamp(limit, 1, MAX_MESSAGE_PAGE_SIZE));
+    }
+
+    private MessagePageDTO loadMessagePage(Long sessionId, Integer before, int size) {
+        // 多取一条判断是否还有更早的消息
+        PageRequest pageRequest = PageRequest.of(0, size + 1);
+        List<RagChatMessageEntity> newestFirst = before == null
+            ? messageRepository.findBySessionIdOrderByMessageOrderDesc(sessionId, pageRequest)
+            : messageRepository.findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(
+                sessionId, before, pageRequest);
+
+        boolean hasMore = newestFirst.size() > size;
+        List<RagChatMessageEntity> page = new ArrayList<>(hasMore ? newestFirst.subList(0, size) : newestFirst);
+        Collections.reverse(page);
+        Integer nextCursor = hasMore ? page.getFirst().getMessageOrder() : null;
+        return new MessagePageDTO(ragChatMapper.toMessageDTOList(page), hasMore, nextCursor);
     }
 
     /**
      * 准备流式消息（保存用户消息，创建 AI 消息占位）
      *
-     * @return AI 消息的 ID
+     * @return AI 消息的 ID 和会话关联的知识库ID
      */
     @Transactional
-    public Long prepareStreamMessage(Long sessionId, String question) {
+    public StreamMessage prepareStreamMessage(Long sessionId, String question) {
         RagChatSessionEntity session = sessionRepository.findByIdWithKnowledgeBases(sessionId)
             .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
 
@@ -136,34 +236,63 @@ public class RagChatSessionService {
 
         log.info("准备流式消息: sessionId={}, messageId={}", sessionId, assistantMessage.getId());
 
-        return assistantMessage.getId();
+        return new StreamMessage(assistantMessage.getId(), sessionId, nextOrder, session.getKnowledgeBaseIds());
     }
 
     /**
-     * 流式响应完成后更新消息
+     * 流式回答分批追加内容，只执行一条 UPDATE，不加载消息实体
      */
     @Transactional
-    public void completeStreamMessage(Long messageId, String content) {
-        RagChatMessageEntity message = messageRepository.findById(messageId)
-            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "消息不存在"));
+    public void appendStreamMessage(Long messageId, String delta) {
+        if (messageRepository.appendContent(messageId, delta, LocalDateTime.now()) == 0) {
+            throw new BusinessException(ErrorCode.NOT_FOUND, "消息不存在");
+        }
+    }
 
-        message.setContent(content);
-        message.setCompleted(true);
-        messageRepository.save(message);
+    /**
+     * 流式响应完成后追加剩余内容并标记消息完成
+     */
+    @Transactional
+    public void completeStreamMessage(Long messageId, String remaining) {
+        if (messageRepository.completeContent(messageId, remaining, LocalDateTime.now()) == 0) {
+            throw new BusinessException(ErrorCode.NOT_FOUND, "消息不存在");
+        }
 
-        log.info("完成流式消息: messageId={}, contentLength={}", messageId, content.length());
+        log.info("完成流式消息: messageId={}", messageId);
     }
 
     /**
-     * 获取流式回答
+     * 流式响应出错后追加剩余内容并标记消息生成失败
      */
-    public Flux<String> getStreamAnswer(Long sessionId, String question) {
-        RagChatSessionEntity session = sessionRepository.findByIdWithKnowledgeBases(sessionId)
-            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "会话不存在"));
+    @Transactional
+    public void failStreamMessage(Long messageId, String remaining) {
+        if (messageRepository.failContent(messageId, remaining, LocalDateTime.now()) == 0) {
+            throw new BusinessException(ErrorCode.NOT_FOUND, "消息不存在");
+        }
 
-        List<Long> kbIds = session.getKnowledgeBaseIds();
+        log.warn("流式消息生成失败: messageId={}", messageId);
+    }
 
-        return queryService.answerQuestionStream(kbIds, question);
+    /**
+     * 读取流式消息从 offset 个字符之后的内容，用于断线重连后续传
+     *
+     * @param offset 客户端已收到的字符数（按 Unicode 码点计）
+     */
+    public StreamProgress getStreamProgress(Long sessionId, Long messageId, int offset) {
+        return messageRepository.findStreamProgress(sessionId, messageId, Math.max(0, offset) + 1)
+            .orElseThrow(() -> new BusinessException(ErrorCode.NOT_FOUND, "消息不存在"));
+    }
+
+    /**
+     * 获取流式回答，提问时带上会话的对话历史（滚动摘要 + 最近几轮）
+     *
+     * @param message 准备消息时取得的会话信息，不再重复查询会话
+     */
+    public Flux<String> getStreamAnswer(StreamMessage message, String question) {
+        return queryService.answerQuestionStream(message.knowledgeBaseIds(), question,
+                () -> conversationMemory.render(message.sessionId(), message.questionOrder()))
+            // 回答正常结束后异步把移出最近对话窗口的消息折叠进摘要，出错时错误原样传给调用方
+            .doOnComplete(() -> conversationMemory.refreshAsync(message.sessionId()));
     }
 
     /**
@@ -226,6 +355,16 @@ public class RagChatSessionService {
         log.info("删除会话: sessionId={}", sessionId);
     }
 
+    /**
+     * 已准备的流式消息
+     *
+     * @param messageId        AI 消息占位的ID
+     * @param sessionId        会话ID
+     * @param questionOrder    用户问题的消息顺序，对话历史只取之前的消息
+     * @param knowledgeBaseIds 会话关联的知识库ID
+     */
+    public record StreamMessage(Long messageId, Long sessionId, int questionOrder, List<Long> knowledgeBaseIds) {}
+
     // ========== 私有方法 ==========
 
     private String generateTitle(List<KnowledgeBaseEntity> knowledgeBases) {
@@ -237,4 +376,33 @@ public class RagChatSessionService {
         }
         return knowledgeBases.size() + " 个知识库对话";
     }
+
+    /**
+     * 会话列表游标：上一页最后一条的置顶状态、更新时间和ID，Base64 编码后返回给前端
+     */
+    private record SessionCursor(boolean pinned, LocalDateTime updatedAt, Long id) {
+
+        static SessionCursor of(SessionListRow row) {
+            return new SessionCursor(Boolean.TRUE.equals(row.getIsPinned()), row.getUpdatedAt(), row.getId());
+        }
+
+        static SessionCursor decode(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split("\\|");
+                return new SessionCursor(Boolean.parseBoolean(parts[0]), LocalDateTime.parse(parts[1]),
+                    Long.parseLong(parts[2]));
+            } catch (RuntimeException e) {
+                throw new BusinessException(ErrorCode.BAD_REQUEST, "无效的分页游标");
+            }
+        }
+
+        String encode() {
+            String raw = pinned + "|" + updatedAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 流式问答的阻塞步骤调度器
+ * <p>
+ * 流式接口在返回 Flux 之前不做任何数据库或检索调用，这些步骤在订阅后切换到这里的有界线程池执行，
+ * 请求线程立即返回。线程数和排队数都有上限，突发流量下排队超限的请求直接失败，而不是无限堆积线程。
+ */
+@Component
+public class RagStreamScheduler {
+
+    private final Scheduler scheduler;
+
+    public RagStreamScheduler(RagConfigProperties ragConfig) {
+        RagConfigProperties.Stream config = ragConfig.getStream();
+        this.scheduler = Schedulers.newBoundedElastic(Math.max(1, config.getSchedulerThreads()),
+            Math.max(1, config.getSchedulerQueueSize()), "rag-stream");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.dispose();
+    }
+
+    /**
+     * 订阅时在调度器上执行阻塞调用
+     *
+     * @param callable 阻塞调用，返回 null 时 Mono 为空
+     * @return 延迟执行的 Mono
+     */
+    public <T> Mono<T> defer(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(scheduler);
+    }
+
+    public Scheduler scheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,47 @@
+package interview.guide.modules.knowledgebase.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 倒数排名融合（Reciprocal Rank Fusion）
+ * <p>
+ * 只使用各路结果的排名，不比较分数，向量距离和关键词得分量纲不同也可以直接融合：
+ * 文档融合分数 = Σ 1 / (k + rank)，rank 从 1 开始，未出现在某一路结果中的文档该路不计分。
+ */
+public final class ReciprocalRankFusion {
+
+    private ReciprocalRankFusion() {
+    }
+
+    /**
+     * 融合多路排序结果
+     * 同一文档（按ID）出现在多路结果中时保留最先出现的那一路的文档对象，score 替换为融合分数
+     *
+     * @param rankings 各路排序结果，每一路按相关度降序排列
+     * @param k        平滑常数，越大排名靠后的文档权重衰减越慢
+     * @param topK     返回条数
+     * @return 按融合分数降序排列的文档，分数相同时先出现的在前
+     */
+    public static List<Document> fuse(List<List<Document>> rankings, int k, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                Document doc = ranking.get(i);
+                documents.putIfAbsent(doc.getId(), doc);
+                scores.merge(doc.getId(), 1.0 / (k + i + 1), Double::sum);
+            }
+        }
+        // LinkedHashMap 保持首次出现顺序，稳定排序保证同分时先出现的在前
+        return scores.entrySet().stream()
+            .sorted(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()))
+            .limit(topK)
+            .map(entry -> documents.get(entry.getKey()).mutate().score(entry.getValue()).build())
+            .toList();
+    }
+}
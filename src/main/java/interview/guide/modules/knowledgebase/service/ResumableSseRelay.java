@@ -0,0 +1,263 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.exception.BusinessException;
+import interview.guide.common.exception.ErrorCode;
+import interview.guide.infrastructure.redis.RedisService;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.stream.StreamMessageId;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可断线重连的 SSE 转发
+ * <p>
+ * 片段合并成帧后从 1 开始编号，实时推送给当前客户端，同时按顺序写入短期保留的 Redis Stream（消息ID 为 0-序号），
+ * 每次写入都刷新过期时间并按最大帧数裁剪，生成中断时缓冲也会过期；正常结束时追加结束标记；回答流出错时在这里转成错误提示帧，作为最后一帧写入（类型为 error），不写结束标记。
+ * SSE 事件ID 为 "流ID:序号"，浏览器断线重连时通过 Last-Event-ID 带回，
+ * 任意实例都能从 Redis 回放之后的帧，追上后轮询新帧直到结束标记或错误帧，不必重新生成回答。
+ * 转发在独立订阅上运行，客户端断开后继续写入；Redis 写入失败（包括调度器拒绝写入任务）只记录日志，不影响实时推送。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ResumableSseRelay {
+
+    private static final String KEY_PREFIX = "rag:sse:";
+    private static final String FIELD_TYPE = "type";
+    private static final String FIELD_DATA = "data";
+    private static final String TYPE_DATA = "data";
+    private static final String TYPE_END = "end";
+    private static final String TYPE_ERROR = "error";
+    private static final String ERROR_PREFIX = "【错误】";
+
+    /**
+     * 每次从 Redis 读取的最大帧数
+     */
+    private static final int REPLAY_BATCH_SIZE = 500;
+
+    private final RedisService redisService;
+    private final SseFrameCoalescer frameCoalescer;
+    private final RagStreamScheduler streamScheduler;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * RAG 聊天回答的流ID
+     */
+    public static String chatStreamId(Long messageId) {
+        return "chat-" + messageId;
+    }
+
+    /**
+     * 知识库流式查询的流ID，每次查询生成一个
+     */
+    public static String newQueryStreamId() {
+        return "query-" + UUID.randomUUID();
+    }
+
+    /**
+     * 开始转发：合并成帧、编号、实时推送并写入回放缓冲
+     *
+     * @param streamId 流ID
+     * @param tokens   回答片段流，调用后立即订阅；出错时推送错误提示帧后正常结束
+     * @return 推送给当前客户端的事件流（带事件ID和心跳），取消订阅不影响写入回放缓冲
+     */
+    public Flux<ServerSentEvent<String>> publish(String streamId, Flux<String> tokens) {
+        String key = KEY_PREFIX + streamId;
+        Sinks.Many<Frame> live = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicLong sequence = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean();
+
+        frameCoalescer.coalesce(tokens)
+            .map(text -> new Frame(sequence.incrementAndGet(), text, false))
+            // SSE 出口：出错时以错误提示帧结束，客户端和回放看到的都是同一帧
+            .onErrorResume(e -> {
+                failed.set(true);
+                meterRegistry.counter("rag.stream.failures").increment();
+                log.warn("SSE 转发的回答流出错: streamId={}, error={}", streamId, e.getMessage());
+                return Flux.just(new Frame(sequence.incrementAndGet(), ERROR_PREFIX + e.getMessage(), true));
+            })
+            .doOnNext(live::tryEmitNext)
+            .doOnComplete(live::tryEmitComplete)
+            // Redis 写入慢时帧在这里排队，不拖慢实时推送
+            .onBackpressureBuffer()
+            .concatMap(frame -> mirrorAsync(key, frame.sequence(),
+                Map.of(FIELD_TYPE, frame.error() ? TYPE_ERROR : TYPE_DATA, FIELD_DATA, frame.text())))
+            .then(Mono.defer(() -> failed.get()
+                ? Mono.just(true) : mirrorAsync(key, sequence.get() + 1, Map.of(FIELD_TYPE, TYPE_END))))
+            .subscribe(
+                mirrored -> {},
+                e -> {
+                    // 兜底：转发链意外出错时结束实时流，避免客户端只收到心跳
+                    live.tryEmitError(e);
+                    log.error("SSE 转发失败: streamId={}", streamId, e);
+                });
+
+        return frameCoalescer.withHeartbeat(live.asFlux().map(frame -> toEvent(streamId, frame)));
+    }
+
+    /**
+     * 判断能否凭 Last-Event-ID 回放：ID 格式正确、属于指定的流，且回放缓冲仍在、之后的帧没有被裁剪
+     *
+     * @param streamId    期望的流ID，为 null 时不校验
+     * @param lastEventId 客户端带回的 Last-Event-ID
+     */
+    public boolean canReplay(String streamId, String lastEventId) {
+        ReplayPosition position = ReplayPosition.parse(lastEventId);
+        if (position == null || (streamId != null && !streamId.equals(position.streamId()))) {
+            return false;
+        }
+        try {
+            Map<StreamMessageId, Map<String, String>> oldest =
+                redisService.streamRange(KEY_PREFIX + position.streamId(), new StreamMessageId(0, 0), 1);
+            return !oldest.isEmpty() && oldest.keySet().iterator().next().getId1() <= position.sequence() + 1;
+        } catch (Exception e) {
+            log.warn("查询 SSE 回放缓冲失败: streamId={}, error={}", position.streamId(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 从 Last-Event-ID 之后回放，追上后继续推送新帧，直到结束标记、错误帧、缓冲过期或长时间没有新帧
+     *
+     * @param lastEventId 客户端带回的 Last-Event-ID
+     * @return 回放的事件流（带事件ID和心跳）
+     */
+    public Flux<ServerSentEvent<String>> replay(String lastEventId) {
+        ReplayPosition position = ReplayPosition.parse(lastEventId);
+        if (position == null) {
+            return Flux.error(new BusinessException(ErrorCode.BAD_REQUEST, "无效的 Last-Event-ID"));
+        }
+        String key = KEY_PREFIX + position.streamId();
+        RagConfigProperties.Stream config = ragConfig.getStream();
+        long staleNanos = config.getResumeStaleAfter().toNanos();
+
+        Flux<ServerSentEvent<String>> events = Flux.defer(() -> {
+            AtomicLong last = new AtomicLong(position.sequence());
+            AtomicLong lastProgressNanos = new AtomicLong(System.nanoTime());
+            return Flux.interval(Duration.ZERO, config.getReplayPollInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> streamScheduler.defer(() -> read(key, last.get())))
+                .doOnNext(batch -> {
+                    if (!batch.frames().isEmpty()) {
+                        last.set(batch.frames().getLast().sequence());
+                        lastProgressNanos.set(System.nanoTime());
+                    }
+                })
+                .takeUntil(batch -> batch.finished() || System.nanoTime() - lastProgressNanos.get() > staleNanos)
+                .concatMapIterable(ReplayBatch::frames)
+                .map(frame -> toEvent(position.streamId(), frame));
+        });
+        meterRegistry.counter("rag.stream.replays").increment();
+        return frameCoalescer.withHeartbeat(events);
+    }
+
+    /**
+     * 读取指定序号之后的帧，遇到结束标记、错误帧、缓冲已过期或之后的帧已被裁剪时标记为结束
+     */
+    private ReplayBatch read(String key, long afterSequence) {
+        Map<StreamMessageId, Map<String, String>> entries =
+            redisService.streamRange(key, new StreamMessageId(0, afterSequence + 1), REPLAY_BATCH_SIZE);
+        if (entries.isEmpty()) {
+            return new ReplayBatch(List.of(), !redisService.exists(key));
+        }
+        if (entries.keySet().iterator().next().getId1() > afterSequence + 1) {
+            // 回放落后太多，中间的帧已被裁剪，结束回放，客户端重连时不再走回放
+            log.warn("SSE 回放缓冲已被裁剪: key={}, afterSequence={}", key, afterSequence);
+            return new ReplayBatch(List.of(), true);
+        }
+        List<Frame> frames = new ArrayList<>(entries.size());
+        for (Map.Entry<StreamMessageId, Map<String, String>> entry : entries.entrySet()) {
+            String type = entry.getValue().get(FIELD_TYPE);
+            if (TYPE_END.equals(type)) {
+                return new ReplayBatch(frames, true);
+            }
+            boolean error = TYPE_ERROR.equals(type);
+            frames.add(new Frame(entry.getKey().getId1(), entry.getValue().get(FIELD_DATA), error));
+            if (error) {
+                return new ReplayBatch(frames, true);
+            }
+        }
+        return new ReplayBatch(frames, false);
+    }
+
+    /**
+     * 在调度器上写入回放缓冲，调度器拒绝任务等失败只计数，不向转发链传播（否则会取消回答流）
+     */
+    private Mono<Boolean> mirrorAsync(String key, long sequence, Map<String, String> entry) {
+        return streamScheduler.defer(() -> mirror(key, sequence, entry))
+            .onErrorResume(e -> {
+                meterRegistry.counter("rag.stream.replay.write.failures").increment();
+                log.warn("调度 SSE 回放缓冲写入失败: key={}, sequence={}, error={}", key, sequence, e.getMessage());
+                return Mono.just(false);
+            });
+    }
+
+    /**
+     * 写入回放缓冲，每次写入都刷新过期时间并按最大帧数裁剪
+     */
+    private boolean mirror(String key, long sequence, Map<String, String> entry) {
+        RagConfigProperties.Stream config = ragConfig.getStream();
+        try {
+            redisService.streamAdd(key, new StreamMessageId(0, sequence), entry,
+                config.getReplayMaxFrames(), config.getReplayTtl());
+            return true;
+        } catch (Exception e) {
+            meterRegistry.counter("rag.stream.replay.write.failures").increment();
+            log.warn("写入 SSE 回放缓冲失败: key={}, sequence={}, error={}", key, sequence, e.getMessage());
+            return false;
+        }
+    }
+
+    private static ServerSentEvent<String> toEvent(String streamId, Frame frame) {
+        return SseFrameCoalescer.toEvent(streamId + ":" + frame.sequence(), frame.text());
+    }
+
+    /**
+     * 编号后的帧
+     *
+     * @param error 是否为回答流出错时的错误提示帧（最后一帧）
+     */
+    private record Frame(long sequence, String text, boolean error) {}
+
+    /**
+     * 一次读取的结果
+     */
+    private record ReplayBatch(List<Frame> frames, boolean finished) {}
+
+    /**
+     * Last-Event-ID 解析结果，格式为 "流ID:序号"
+     */
+    private record ReplayPosition(String streamId, long sequence) {
+
+        static ReplayPosition parse(String lastEventId) {
+            if (lastEventId == null) {
+                return null;
+            }
+            int separator = lastEventId.lastIndexOf(':');
+            if (separator <= 0) {
+                return null;
+            }
+            try {
+                long sequence = Long.parseLong(lastEventId.substring(separator + 1));
+                return sequence < 0 ? null : new ReplayPosition(lastEventId.substring(0, separator), sequence);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.file.FileHashService;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 检索结果缓存
+ * <p>
+ * 同一问题在同一知识库集合上反复检索时（例如多个会话问同一个问题），直接复用上一次的排序结果，省去向量检索。
+ * 键为 (规范化问题, 排序后的知识库ID, 各知识库的向量代数, 检索参数)，值只保存排序后的 chunk ID 和分数；
+ * chunk 文本从进程内热点 chunk 缓存还原，缓存中没有的 chunk 按 ID 一次查库补齐。
+ * 知识库重新向量化后代数变化，旧结果不再命中，并在向量化和删除时主动清除。
+ * 缓存读写失败只记录日志，不影响检索。
+ */
+@Slf4j
+@Component
+public class RetrievalResultCache {
+
+    /**
+     * chunk metadata 中与单次查询相关的字段，不进入热点 chunk 缓存
+     */
+    private static final String DISTANCE_KEY = "distance";
+
+    private static final String KB_ID_KEY = "kb_id";
+
+    private final VectorRepository vectorRepository;
+    private final FileHashService fileHashService;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, CachedResult> results;
+    private final Map<String, Document> hotChunks;
+
+    public RetrievalResultCache(VectorRepository vectorRepository, FileHashService fileHashService,
+                                RagConfigProperties ragConfig, MeterRegistry meterRegistry) {
+        this.vectorRepository = vectorRepository;
+        this.fileHashService = fileHashService;
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+        int maxEntries = Math.max(1, ragConfig.getRetrievalCache().getMaxEntries());
+        int maxChunks = Math.max(1, ragConfig.getRetrievalCache().getMaxChunks());
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.hotChunks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Document> eldest) {
+                return size() > maxChunks;
+            }
+        };
+    }
+
+    /**
+     * 查找缓存的检索结果
+     * 返回的 Lookup 记录了查找时的知识库代数，写回时使用同一个键，避免把旧数据的检索结果写到新代数下
+     *
+     * @param question         用户问题
+     * @param knowledgeBaseIds 知识库ID列表，为空时（检索所有知识库）不缓存
+     * @param topK             返回条数
+     * @return 查找结果，未启用缓存、未指定知识库或查找失败时返回 {@link Lookup#disabled()}
+     */
+    public Lookup lookup(String question, List<Long> knowledgeBaseIds, int topK) {
+        if (!ragConfig.getRetrievalCache().isEnabled() || knowledgeBaseIds == null || knowledgeBaseIds.isEmpty()) {
+            return Lookup.disabled();
+        }
+        try {
+            List<Long> kbIds = knowledgeBaseIds.stream().distinct().sorted().toList();
+            String key = cacheKey(question, kbIds, topK);
+            List<Document> documents = hydrate(key);
+            meterRegistry.counter(documents != null ? "rag.retrieval.cache.hits" : "rag.retrieval.cache.misses")
+                .increment();
+            return new Lookup(kbIds, key, documents);
+        } catch (Exception e) {
+            log.warn("查询检索结果缓存失败: kbIds={}, error={}", knowledgeBaseIds, e.getMessage());
+            return Lookup.disabled();
+        }
+    }
+
+    /**
+     * 保存检索结果
+     *
+     * @param lookup    查找时返回的结果
+     * @param documents 按相关性排序的检索结果
+     */
+    public void store(Lookup lookup, List<Document> documents) {
+        if (!lookup.enabled() || lookup.hit()) {
+            return;
+        }
+        List<RankedChunk> ranked = new ArrayList<>(documents.size());
+        synchronized (hotChunks) {
+            for (Document doc : documents) {
+                ranked.add(new RankedChunk(doc.getId(), doc.getScore()));
+                hotChunks.put(doc.getId(), withoutQueryFields(doc));
+            }
+        }
+        long expiresAt = System.nanoTime() + ragConfig.getRetrievalCache().getTtl().toNanos();
+        synchronized (results) {
+            results.put(lookup.key(), new CachedResult(lookup.knowledgeBaseIds(), ranked, expiresAt));
+        }
+    }
+
+    /**
+     * 清除涉及指定知识库的检索结果和热点 chunk，在知识库重新向量化或删除时调用
+     *
+     * @param knowledgeBaseId 知识库ID
+     */
+    public void invalidate(Long knowledgeBaseId) {
+        int removed;
+        synchronized (results) {
+            int before = results.size();
+            results.values().removeIf(cached -> cached.knowledgeBaseIds().contains(knowledgeBaseId));
+            removed = before - results.size();
+        }
+        String kbId = knowledgeBaseId.toString();
+        synchronized (hotChunks) {
+            hotChunks.values().removeIf(doc -> kbId.equals(String.valueOf(doc.getMetadata().get(KB_ID_KEY))));
+        }
+        log.debug("清除检索结果缓存: kbId={}, entries={}", knowledgeBaseId, removed);
+    }
+
+    /**
+     * 取出缓存的排序结果并还原为文档；过期、或有 chunk 已不可见时视为未命中
+     */
+    private List<Document> hydrate(String key) {
+        CachedResult cached;
+        synchronized (results) {
+            cached = results.get(key);
+            if (cached != null && System.nanoTime() - cached.expiresAtNanos() >= 0) {
+                results.remove(key);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            return null;
+        }
+
+        Map<String, Document> chunks = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (hotChunks) {
+            for (RankedChunk chunk : cached.chunks()) {
+                Document doc = hotChunks.get(chunk.id());
+                if (doc != null) {
+                    chunks.put(chunk.id(), doc);
+                } else {
+                    missing.add(chunk.id());
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Document> loaded = vectorRepository.findVisibleChunksByIds(missing);
+            if (loaded.size() < missing.size()) {
+                synchronized (results) {
+                    results.remove(key);
+                }
+                return null;
+            }
+            synchronized (hotChunks) {
+                hotChunks.putAll(loaded);
+            }
+            chunks.putAll(loaded);
+            meterRegistry.counter("rag.retrieval.cache.chunk.loads").increment(missing.size());
+        }
+        return cached.chunks().stream()
+            .map(chunk -> chunks.get(chunk.id()).mutate().score(chunk.score()).build())
+            .toList();
+    }
+
+    /**
+     * 缓存键：embedding 模型、检索参数、知识库集合及其代数、规范化问题的哈希
+     */
+    private String cacheKey(String question, List<Long> kbIds, int topK) {
+        Map<Long, Long> generations = vectorRepository.findActiveGenerations(kbIds);
+        String kbKey = kbIds.stream()
+            .map(id -> id + "@" + generations.getOrDefault(id, 0L))
+            .collect(Collectors.joining(","));
+        RagConfigProperties.Search search = ragConfig.getSearch();
+        String normalized = QueryEmbeddingCache.normalize(question);
+        String hash = fileHashService.calculateHash(normalized.getBytes(StandardCharsets.UTF_8));
+        return String.join("|", ragConfig.getEmbedding().getModel(), search.getMode().name(),
+            String.valueOf(topK), String.valueOf(search.getSimilarityThreshold()), String.valueOf(search.isFanOut()),
+            kbKey, hash);
+    }
+
+    private static Document withoutQueryFields(Document doc) {
+        Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+        metadata.remove(DISTANCE_KEY);
+        return Document.builder().id(doc.getId()).text(doc.getText()).metadata(metadata).build();
+    }
+
+    /**
+     * 缓存查找结果
+     *
+     * @param knowledgeBaseIds 去重排序后的知识库ID
+     * @param key              缓存键，包含查找时的知识库向量代数
+     * @param documents        命中时还原的检索结果，未命中时为 null
+     */
+    public record Lookup(List<Long> knowledgeBaseIds, String key, List<Document> documents) {
+
+        static Lookup disabled() {
+            return new Lookup(List.of(), null, null);
+        }
+
+        public boolean enabled() {
+            return key != null;
+        }
+
+        public boolean hit() {
+            return documents != null;
+        }
+    }
+
+    /**
+     * 缓存的排序结果
+     */
+    private record CachedResult(List<Long> knowledgeBaseIds, List<RankedChunk> chunks, long expiresAtNanos) {}
+
+    /**
+     * 排序结果中的一条 chunk
+     */
+    private record RankedChunk(String id, Double score) {}
+}
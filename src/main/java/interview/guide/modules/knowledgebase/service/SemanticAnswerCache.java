@@ -0,0 +1,218 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.repository.AnswerCacheRepository;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 语义答案缓存
+ * <p>
+ * 针对同一知识库集合、同一知识库向量代数下的近似重复问题，直接返回历史答案，省去检索和大模型调用。
+ * 知识库重新向量化会产生新的代数，旧答案自然不再命中，并在切换和删除时主动清除。
+ * 查找时按有效期过滤，过期答案和旧代数的答案在写入新答案时删除，条目数超过 max-entries 时删除最早写入的答案，
+ * 启动时也清理一次。缓存读写失败只记录日志，不影响正常问答。
+ */
+@Slf4j
+@Component
+public class SemanticAnswerCache {
+
+    /**
+     * 流式回放时每段的字符数
+     */
+    private static final int REPLAY_CHUNK_SIZE = 20;
+
+    private final AnswerCacheRepository answerCacheRepository;
+    private final VectorRepository vectorRepository;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+
+    public SemanticAnswerCache(AnswerCacheRepository answerCacheRepository, VectorRepository vectorRepository,
+                               QueryEmbeddingCache queryEmbeddingCache, RagConfigProperties ragConfig,
+                               MeterRegistry meterRegistry) {
+        this.answerCacheRepository = answerCacheRepository;
+        this.vectorRepository = vectorRepository;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 查找缓存答案
+     * 返回的 Lookup 记录了查找时的知识库代数，写回时使用同一代数，避免把旧数据生成的答案写入新代数
+     *
+     * @param knowledgeBaseIds 知识库ID列表
+     * @param question         用户问题
+     * @return 查找结果，未启用缓存或查找失败时返回 {@link Lookup#disabled()}
+     */
+    public Lookup lookup(List<Long> knowledgeBaseIds, String question) {
+        if (!ragConfig.getAnswerCache().isEnabled()) {
+            return Lookup.disabled();
+        }
+        long startNanos = System.nanoTime();
+        try {
+            List<Long> kbIds = knowledgeBaseIds.stream().distinct().sorted().toList();
+            String kbKey = kbIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+            String generationKey = generationKey(kbIds);
+            float[] embedding = queryEmbeddingCache.embed(question);
+
+            String answer = answerCacheRepository.findMostSimilar(kbKey, generationKey, embedding,
+                    ragConfig.getAnswerCache().getTtl())
+                .filter(cached -> cached.similarity() >= ragConfig.getAnswerCache().getSimilarityThreshold())
+                .map(cached -> {
+                    log.info("命中语义答案缓存: kbIds={}, similarity={}, cachedQuestion={}",
+                            kbIds, String.format("%.4f", cached.similarity()), cached.question());
+                    return cached.answer();
+                })
+                .orElse(null);
+
+            meterRegistry.counter(answer != null ? "rag.answer.cache.hits" : "rag.answer.cache.misses").increment();
+            return new Lookup(kbIds, kbKey, generationKey, embedding, answer);
+        } catch (Exception e) {
+            log.warn("查询语义答案缓存失败: kbIds={}, error={}", knowledgeBaseIds, e.getMessage());
+            return Lookup.disabled();
+        } finally {
+            meterRegistry.timer("rag.answer.cache.lookup").record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 保存答案
+     * <p>
+     * 生成期间知识库切换了代数时不写入（答案基于旧数据，不会再命中）；写入后删除该知识库集合下旧代数的答案和过期答案，
+     * 并按最大条目数裁剪。
+     *
+     * @param lookup   查找时返回的结果
+     * @param question 用户问题
+     * @param answer   大模型生成的完整答案
+     */
+    public void store(Lookup lookup, String question, String answer) {
+        if (!lookup.enabled() || answer == null || answer.isBlank()) {
+            return;
+        }
+        String currentGenerationKey;
+        try {
+            currentGenerationKey = generationKey(lookup.knowledgeBaseIds());
+            if (currentGenerationKey.equals(lookup.generationKey())) {
+                answerCacheRepository.save(lookup.knowledgeBaseIds(), lookup.kbKey(), lookup.generationKey(),
+                    question, lookup.embedding(), answer);
+            } else {
+                log.info("生成期间知识库向量代数已变化，不写入语义答案缓存: kbIds={}", lookup.knowledgeBaseIds());
+            }
+        } catch (Exception e) {
+            log.warn("写入语义答案缓存失败: kbIds={}, error={}", lookup.knowledgeBaseIds(), e.getMessage());
+            return;
+        }
+        try {
+            int deleted = answerCacheRepository.deleteSuperseded(lookup.kbKey(), currentGenerationKey) + evict();
+            if (deleted > 0) {
+                meterRegistry.counter("rag.answer.cache.evictions").increment(deleted);
+            }
+        } catch (Exception e) {
+            log.warn("清理语义答案缓存失败: kbIds={}, error={}", lookup.knowledgeBaseIds(), e.getMessage());
+        }
+    }
+
+    /**
+     * 按知识库顺序拼接当前的向量代数，尚未切换过代数的知识库按 0 代处理
+     */
+    private String generationKey(List<Long> kbIds) {
+        Map<Long, Long> generations = vectorRepository.findActiveGenerations(kbIds);
+        return kbIds.stream()
+            .map(id -> String.valueOf(generations.getOrDefault(id, 0L)))
+            .collect(Collectors.joining(","));
+    }
+
+    /**
+     * 启动时删除过期答案并按最大条目数裁剪
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void cleanUp() {
+        if (!ragConfig.getAnswerCache().isEnabled()) {
+            return;
+        }
+        try {
+            int deleted = evict();
+            if (deleted > 0) {
+                log.info("已清理语义答案缓存: deleted={}", deleted);
+            }
+        } catch (Exception e) {
+            log.warn("清理语义答案缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 删除过期答案，再只保留最新的 max-entries 条
+     *
+     * @return 删除的行数
+     */
+    private int evict() {
+        RagConfigProperties.AnswerCache config = ragConfig.getAnswerCache();
+        return answerCacheRepository.deleteExpired(config.getTtl())
+            + answerCacheRepository.trimToSize(Math.max(1, config.getMaxEntries()));
+    }
+
+    /**
+     * 清除涉及指定知识库的缓存答案，在知识库重新向量化或删除时调用
+     *
+     * @param knowledgeBaseId 知识库ID
+     */
+    public void invalidate(Long knowledgeBaseId) {
+        try {
+            answerCacheRepository.deleteByKnowledgeBaseId(knowledgeBaseId);
+        } catch (Exception e) {
+            // 代数已变化，旧答案不会再命中，清除失败只影响存储空间
+            log.warn("清除语义答案缓存失败: kbId={}, error={}", knowledgeBaseId, e.getMessage());
+        }
+    }
+
+    /**
+     * 将缓存答案按流式接口的形式分段回放
+     */
+    static Flux<String> replay(String answer) {
+        List<String> chunks = new ArrayList<>();
+        int[] codePoints = answer.codePoints().toArray();
+        for (int start = 0; start < codePoints.length; start += REPLAY_CHUNK_SIZE) {
+            int count = Math.min(REPLAY_CHUNK_SIZE, codePoints.length - start);
+            chunks.add(new String(codePoints, start, count));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    /**
+     * 缓存查找结果
+     *
+     * @param knowledgeBaseIds 去重排序后的知识库ID
+     * @param kbKey            知识库集合键
+     * @param generationKey    查找时的知识库向量代数键
+     * @param embedding        问题向量
+     * @param answer           命中的答案，未命中时为 null
+     */
+    public record Lookup(List<Long> knowledgeBaseIds, String kbKey, String generationKey, float[] embedding,
+                         String answer) {
+
+        static Lookup disabled() {
+            return new Lookup(List.of(), null, null, null, null);
+        }
+
+        public boolean enabled() {
+            return kbKey != null;
+        }
+
+        public boolean hit() {
+            return answer != null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式问答的 SSE 帧合并与心跳
+ * <p>
+ * 模型每次只输出 1~3 个字符，逐个片段写出会产生大量细小的写入和 flush。这里把片段合并成帧：
+ * 首个片段立即发出，不影响首字延迟；之后的片段累计达到 frameMaxChars 或等待 frameWindow 后一起发出。
+ * 同时按 heartbeatInterval 发送 SSE 注释作为心跳，前端解析时忽略注释，避免空闲连接被代理断开。
+ */
+@Component
+public class SseFrameCoalescer {
+
+    private static final String HEARTBEAT_COMMENT = "heartbeat";
+
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+
+    public SseFrameCoalescer(RagConfigProperties ragConfig, MeterRegistry meterRegistry) {
+        this.ragConfig = ragConfig;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 将文本片段流转换为合并后的 SSE 事件流，并穿插心跳
+     *
+     * @param tokens 模型输出的文本片段
+     * @return SSE 事件流，换行符已转义
+     */
+    public Flux<ServerSentEvent<String>> toEvents(Flux<String> tokens) {
+        return withHeartbeat(coalesce(tokens).map(frame -> toEvent(null, frame)));
+    }
+
+    /**
+     * 按配置的字符数和时间窗口合并文本片段
+     *
+     * @param tokens 模型输出的文本片段
+     * @return 合并后的帧
+     */
+    public Flux<String> coalesce(Flux<String> tokens) {
+        RagConfigProperties.Stream config = ragConfig.getStream();
+        return coalesce(tokens, config.getFrameMaxChars(), config.getFrameWindow(), Schedulers.parallel())
+            .doOnNext(frame -> {
+                meterRegistry.counter("rag.stream.frames").increment();
+                meterRegistry.summary("rag.stream.frame.chars").record(frame.length());
+            });
+    }
+
+    /**
+     * 在事件流中按配置间隔穿插心跳注释，事件流结束后心跳停止
+     *
+     * @param events SSE 事件流
+     * @return 穿插心跳的事件流
+     */
+    public Flux<ServerSentEvent<String>> withHeartbeat(Flux<ServerSentEvent<String>> events) {
+        Duration heartbeat = ragConfig.getStream().getHeartbeatInterval();
+        if (heartbeat == null || heartbeat.isZero() || heartbeat.isNegative()) {
+            return events;
+        }
+        ServerSentEvent<String> heartbeatEvent = ServerSentEvent.<String>builder().comment(HEARTBEAT_COMMENT).build();
+        return events.publish(shared -> Flux.merge(shared,
+            Flux.interval(heartbeat, heartbeat)
+                .map(tick -> heartbeatEvent)
+                .takeUntilOther(shared.then(Mono.just(true)))));
+    }
+
+    /**
+     * 按字符数和时间窗口合并文本片段
+     *
+     * @param tokens   文本片段
+     * @param maxChars 累计达到该字符数时立即发出，不超过 1 时不合并
+     * @param window   片段最长等待时间，为 0 时不合并
+     * @param timer    执行等待的调度器
+     * @return 合并后的帧，拼接后与原文一致
+     */
+    static Flux<String> coalesce(Flux<String> tokens, int maxChars, Duration window, Scheduler timer) {
+        if (maxChars <= 1 || window == null || window.isZero() || window.isNegative()) {
+            return tokens;
+        }
+        return Flux.create(sink -> {
+            FrameBuffer buffer = new FrameBuffer(sink, maxChars, window.toNanos(), timer);
+            Disposable upstream = tokens.subscribe(buffer::append, buffer::error, buffer::complete);
+            sink.onDispose(() -> {
+                upstream.dispose();
+                buffer.cancelTimer();
+            });
+        });
+    }
+
+    /**
+     * 使用 ServerSentEvent 包装，转义换行符避免破坏 SSE 格式
+     *
+     * @param id    事件ID，客户端重连时通过 Last-Event-ID 带回，为 null 时不设置
+     * @param frame 帧文本
+     */
+    static ServerSentEvent<String> toEvent(String id, String frame) {
+        return ServerSentEvent.<String>builder()
+            .id(id)
+            .data(frame.replace("\n", "\\n").replace("\r", "\\r"))
+            .build();
+    }
+
+    /**
+     * 单个流的待发送片段，上游回调和定时器回调之间加锁
+     */
+    private static final class FrameBuffer {
+
+        private final FluxSink<String> sink;
+        private final int maxChars;
+        private final long windowNanos;
+        private final Scheduler timer;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean firstSent;
+        private Disposable scheduledFlush;
+
+        FrameBuffer(FluxSink<String> sink, int maxChars, long windowNanos, Scheduler timer) {
+            this.sink = sink;
+            this.maxChars = maxChars;
+            this.windowNanos = windowNanos;
+            this.timer = timer;
+        }
+
+        synchronized void append(String token) {
+            if (token == null || token.isEmpty()) {
+                return;
+            }
+            pending.append(token);
+            if (!firstSent || pending.length() >= maxChars) {
+                firstSent = true;
+                flush();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::flushOnTimer, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        synchronized void complete() {
+            flush();
+            sink.complete();
+        }
+
+        synchronized void error(Throwable e) {
+            flush();
+            sink.error(e);
+        }
+
+        synchronized void cancelTimer() {
+            if (scheduledFlush != null) {
+                scheduledFlush.dispose();
+                scheduledFlush = null;
+            }
+        }
+
+        private synchronized void flushOnTimer() {
+            scheduledFlush = null;
+            flush();
+        }
+
+        private void flush() {
+            cancelTimer();
+            if (!pending.isEmpty()) {
+                sink.next(pending.toString());
+                pending.setLength(0);
+            }
+        }
+    }
+}
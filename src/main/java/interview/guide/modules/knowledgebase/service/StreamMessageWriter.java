@@ -0,0 +1,141 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.exception.BusinessException;
+import interview.guide.common.exception.ErrorCode;
+import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository.StreamProgress;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 流式回答的分批写入与断线续传
+ * <p>
+ * 回答生成与客户端连接解耦：生成在独立订阅上运行，片段每累计 persistTokens 个或每隔 persistInterval
+ * 追加写入一次 AI 消息，内存中只保留尚未写入的一批；客户端断开后生成继续、照常写入。
+ * 客户端重连后按已收到的字符数续传：先返回已写入的后续内容，回答仍在生成时按写入间隔轮询新增内容，直到完成。
+ * 回答流出错时消息标记为生成失败（不作为完成的回答保存），错误原样传给实时流和续传流，由 SSE 出口生成错误提示。
+ * 某一批写入失败时只计数，内容留到下一批（或结束时）一起写入，数据库故障不会中断实时推送和生成。
+ * 节点宕机时消息中保留最后一次写入的内容。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StreamMessageWriter {
+
+    private final RagChatSessionService sessionService;
+    private final RagStreamScheduler streamScheduler;
+    private final RagConfigProperties ragConfig;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 开始生成并分批写入 AI 消息
+     *
+     * @param messageId AI 消息占位的ID
+     * @param answer    回答片段流，调用后立即订阅
+     * @return 供当前客户端实时接收的片段流，回答流出错时以同一错误结束，取消订阅不影响生成和写入
+     */
+    public Flux<String> write(Long messageId, Flux<String> answer) {
+        RagConfigProperties.Stream config = ragConfig.getStream();
+        Sinks.Many<String> live = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean written = new AtomicBoolean();
+        // 写入失败、尚未落库的内容，并入下一次写入
+        AtomicReference<String> unwritten = new AtomicReference<>("");
+
+        answer
+            .doOnNext(live::tryEmitNext)
+            .doOnComplete(live::tryEmitComplete)
+            .doOnError(live::tryEmitError)
+            // 出错时先写入已累计的片段，再标记失败
+            .onErrorResume(e -> {
+                failure.set(e);
+                return Flux.empty();
+            })
+            // 数据库写入慢时片段在这里排队，不拖慢实时推送
+            .onBackpressureBuffer()
+            .bufferTimeout(Math.max(1, config.getPersistTokens()), config.getPersistInterval(), true)
+            .map(batch -> String.join("", batch))
+            .concatMap(delta -> Mono.defer(() -> {
+                String pending = unwritten.get() + delta;
+                return streamScheduler.defer(() -> {
+                        sessionService.appendStreamMessage(messageId, pending);
+                        return pending;
+                    })
+                    .doOnNext(text -> {
+                        unwritten.set("");
+                        written.set(true);
+                        meterRegistry.counter("rag.stream.persist.batches").increment();
+                    })
+                    // 单批写入失败（含调度器拒绝）不能向上游传播，否则会取消回答流、实时流永远不结束
+                    .onErrorResume(e -> {
+                        unwritten.set(pending);
+                        meterRegistry.counter("rag.stream.persist.append.failures").increment();
+                        log.warn("流式回答分批写入失败，并入下一批: messageId={}, error={}", messageId, e.getMessage());
+                        return Mono.empty();
+                    });
+            }))
+            .then(streamScheduler.defer(() -> {
+                Throwable error = failure.get();
+                String remaining = unwritten.get();
+                if (error == null) {
+                    sessionService.completeStreamMessage(messageId, remaining);
+                    return true;
+                }
+                // 没有任何内容时留下错误说明，会话历史中可见；失败的消息不计入对话记忆
+                meterRegistry.counter("rag.stream.persist.failures").increment();
+                sessionService.failStreamMessage(messageId, written.get() || !remaining.isEmpty()
+                    ? remaining : "【错误】回答生成失败：" + error.getMessage());
+                return false;
+            }))
+            .subscribe(
+                completed -> log.info("流式回答写入结束: messageId={}, completed={}", messageId, completed),
+                e -> log.error("流式回答写入失败: messageId={}", messageId, e));
+
+        return live.asFlux();
+    }
+
+    /**
+     * 断线重连后续传
+     *
+     * @param sessionId 会话ID
+     * @param messageId AI 消息ID
+     * @param offset    客户端已收到的字符数（按 Unicode 码点计）
+     * @return 已写入的后续内容，回答未完成时持续轮询直到完成或生成中断；回答生成失败时输出已写入内容后以错误结束
+     */
+    public Flux<String> resume(Long sessionId, Long messageId, int offset) {
+        RagConfigProperties.Stream config = ragConfig.getStream();
+        Duration staleAfter = config.getResumeStaleAfter();
+        return Flux.defer(() -> {
+            AtomicInteger position = new AtomicInteger(Math.max(0, offset));
+            return Flux.interval(Duration.ZERO, config.getPersistInterval())
+                .onBackpressureDrop()
+                .concatMap(tick -> streamScheduler.defer(
+                    () -> sessionService.getStreamProgress(sessionId, messageId, position.get())))
+                .takeUntil(progress -> Boolean.TRUE.equals(progress.getCompleted()) || isStale(progress, staleAfter))
+                .concatMap(progress -> {
+                    String delta = progress.getContent() != null ? progress.getContent() : "";
+                    position.addAndGet(delta.codePointCount(0, delta.length()));
+                    Flux<String> content = delta.isEmpty() ? Flux.empty() : Flux.just(delta);
+                    return Boolean.TRUE.equals(progress.getFailed())
+                        ? content.concatWith(Flux.error(new BusinessException(ErrorCode.AI_SERVICE_ERROR, "回答生成失败")))
+                        : content;
+                });
+        });
+    }
+
+    private static boolean isStale(StreamProgress progress, Duration staleAfter) {
+        LocalDateTime updatedAt = progress.getUpdatedAt();
+        return updatedAt != null && updatedAt.plus(staleAfter).isBefore(LocalDateTime.now());
+    }
+}
@@ -0,0 +1,175 @@
+package interview.guide.modules.knowledgebase.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.IntArrayList;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 流式文本分块器
+ * <p>
+ * 分块规则与 Spring AI {@code TokenTextSplitter} 默认配置一致（cl100k_base 编码，每块最多 800 tokens，
+ * 超过 350 字符后在最后一个 . ? ! 换行处截断），保证同一文档切出的 chunk 哈希不变，增量向量化可以继续复用旧数据。
+ * <p>
+ * 区别在于不要求整篇文档常驻内存：从 {@link Reader} 按需读取一个窗口的字符，只对窗口编码，
+ * 每次调用 {@link Iterator#next()} 才切出下一个 chunk，内存占用与文档长度无关，只有几个 chunk 的大小。
+ * 返回的迭代器非线程安全，读取失败时抛出 {@link UncheckedIOException}。
+ */
+public class StreamingTextChunker {
+
+    private static final int DEFAULT_CHUNK_SIZE = 800;
+    private static final int DEFAULT_MIN_CHUNK_SIZE_CHARS = 350;
+    private static final int DEFAULT_MIN_CHUNK_LENGTH_TO_EMBED = 5;
+
+    /**
+     * 初始读取窗口按每 token 4 个字符估算，窗口内 token 不足一个 chunk 时翻倍
+     */
+    private static final int CHARS_PER_TOKEN_ESTIMATE = 4;
+
+    /**
+     * 窗口末尾被截断的单词编码结果可能与完整文本不同，窗口内 token 数需超出 chunk 大小该余量才切分
+     */
+    private static final int WINDOW_MARGIN_TOKENS = 64;
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    private final int chunkSize;
+    private final int minChunkSizeChars;
+    private final int minChunkLengthToEmbed;
+
+    public StreamingTextChunker() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_MIN_CHUNK_SIZE_CHARS, DEFAULT_MIN_CHUNK_LENGTH_TO_EMBED);
+    }
+
+    /**
+     * @param chunkSize             每个 chunk 的最大 token 数
+     * @param minChunkSizeChars     截断到标点处时 chunk 的最小字符数
+     * @param minChunkLengthToEmbed 去除首尾空白后不超过该长度的 chunk 直接丢弃
+     */
+    public StreamingTextChunker(int chunkSize, int minChunkSizeChars, int minChunkLengthToEmbed) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize 必须大于 0");
+        }
+        this.chunkSize = chunkSize;
+        this.minChunkSizeChars = minChunkSizeChars;
+        this.minChunkLengthToEmbed = minChunkLengthToEmbed;
+    }
+
+    /**
+     * 按需从 reader 中切出 chunk，调用方负责关闭 reader
+     *
+     * @param reader 文本来源
+     * @return 惰性产生 chunk 文本的迭代器
+     */
+    public Iterator<String> split(Reader reader) {
+        return new ChunkIterator(reader);
+    }
+
+    private class ChunkIterator implements Iterator<String> {
+
+        private final Reader reader;
+        private final StringBuilder buffer = new StringBuilder();
+        private final char[] readBuffer = new char[8192];
+        private final int initialWindow = chunkSize * CHARS_PER_TOKEN_ESTIMATE;
+        private boolean eof;
+        private String next;
+
+        ChunkIterator(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = computeNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String chunk = next;
+            next = null;
+            return chunk;
+        }
+
+        private String computeNext() {
+            int window = initialWindow;
+            while (true) {
+                fill(window);
+                if (buffer.isEmpty()) {
+                    return null;
+                }
+                IntArrayList tokens = encoding.encode(buffer.toString());
+                // 窗口内必须多于一个 chunk（加余量）才能确定 chunk 边界，否则扩大窗口继续读取
+                if (!eof && tokens.size() <= chunkSize + WINDOW_MARGIN_TOKENS) {
+                    window *= 2;
+                    continue;
+                }
+
+                String chunkText = takeChunk(tokens);
+                buffer.delete(0, chunkText.length());
+                String trimmed = chunkText.trim();
+                if (trimmed.length() > minChunkLengthToEmbed) {
+                    return trimmed;
+                }
+                window = initialWindow;
+            }
+        }
+
+        /**
+         * 取前 chunkSize 个 token 对应的文本，并尽量截断到最后一个标点处
+         */
+        private String takeChunk(IntArrayList tokens) {
+            int count = Math.min(chunkSize, tokens.size());
+            IntArrayList head = new IntArrayList(count);
+            for (int i = 0; i < count; i++) {
+                head.add(tokens.get(i));
+            }
+            String decoded = encoding.decode(head);
+
+            // 多字节字符可能被拆在两个 token 中，解码结果末尾会出现替换字符，去掉后才是缓冲区的真实前缀
+            int length = Math.min(decoded.length(), buffer.length());
+            while (length > 1 && decoded.charAt(length - 1) == REPLACEMENT_CHAR
+                    && buffer.charAt(length - 1) != REPLACEMENT_CHAR) {
+                length--;
+            }
+            String chunkText = buffer.substring(0, Math.max(1, length));
+
+            int lastPunctuation = Math.max(chunkText.lastIndexOf('.'), Math.max(chunkText.lastIndexOf('?'),
+                Math.max(chunkText.lastIndexOf('!'), chunkText.lastIndexOf('\n'))));
+            if (lastPunctuation != -1 && lastPunctuation > minChunkSizeChars) {
+                chunkText = chunkText.substring(0, lastPunctuation + 1);
+            }
+            return chunkText;
+        }
+
+        /**
+         * 读取字符直到缓冲区达到 window 或读到末尾
+         */
+        private void fill(int window) {
+            try {
+                while (!eof && buffer.length() < window) {
+                    int read = reader.read(readBuffer, 0, Math.min(readBuffer.length, window - buffer.length()));
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        buffer.append(readBuffer, 0, read);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("读取待分块文本失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 向量批量写入
+ * <p>
+ * 替代 PgVectorStore.add 的逐批 INSERT：先调用 Embedding 模型生成向量，再经 {@link VectorRepository#copyIn}
+ * 以二进制 COPY 写入 vector_store。向量化任务每个批次调用一次 {@link #write}；
+ * 重新向量化、数据迁移等已有向量的批量任务直接调用 {@link #copy}，一次可写入任意多行。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VectorBulkWriter {
+
+    /**
+     * 阿里云 DashScope Embedding API 批量大小限制
+     */
+    private static final int EMBED_BATCH_SIZE = 10;
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorRepository vectorRepository;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 向量化文档并写入向量库
+     *
+     * @param documents 待写入文档，超过 Embedding API 批量限制时分多次调用 API，最后一次 COPY 写入
+     */
+    public void write(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for (int from = 0; from < documents.size(); from += EMBED_BATCH_SIZE) {
+            List<Document> slice = documents.subList(from, Math.min(from + EMBED_BATCH_SIZE, documents.size()));
+            embeddings.addAll(embeddingModel.embed(slice.stream().map(Document::getText).toList()));
+        }
+        copy(documents, embeddings);
+    }
+
+    /**
+     * 写入已有向量的文档，不调用 Embedding API
+     *
+     * @param documents  待写入文档
+     * @param embeddings 与文档一一对应的向量
+     * @return 写入的行数
+     */
+    public long copy(List<Document> documents, List<float[]> embeddings) {
+        long startNanos = System.nanoTime();
+        long rows = vectorRepository.copyIn(documents, embeddings);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        meterRegistry.counter("rag.vector.copy.rows").increment(rows);
+        meterRegistry.timer("rag.vector.copy.duration").record(elapsedNanos, TimeUnit.NANOSECONDS);
+        log.debug("批量写入向量: rows={}, elapsed={}ms", rows, elapsedNanos / 1_000_000);
+        return rows;
+    }
+}
@@ -0,0 +1,69 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 失效向量回收器
+ * <p>
+ * 知识库切换到新的向量代数后，被替换的旧数据只是标记为 retired，由这里在后台分批删除，
+ * 向量化任务和查询都不必等待删除完成。应用启动时会清理上次未回收完的数据。
+ */
+@Slf4j
+@Component
+public class VectorGarbageCollector {
+
+    /**
+     * 每批删除的行数
+     */
+    private static final int PURGE_BATCH_SIZE = 1000;
+
+    private final VectorRepository vectorRepository;
+    private final ExecutorService executor;
+
+    public VectorGarbageCollector(VectorRepository vectorRepository) {
+        this.vectorRepository = vectorRepository;
+        // 单线程顺序回收，避免多个删除任务争抢同一批行
+        this.executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("vector-gc").factory());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 应用启动后回收所有知识库残留的 retired 数据
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void collectOnStartup() {
+        submit(null);
+    }
+
+    /**
+     * 异步回收指定知识库的失效数据
+     *
+     * @param knowledgeBaseId 知识库ID
+     */
+    public void collectAsync(Long knowledgeBaseId) {
+        submit(knowledgeBaseId);
+    }
+
+    private void submit(Long knowledgeBaseId) {
+        executor.execute(() -> {
+            try {
+                vectorRepository.purgeInactiveRows(knowledgeBaseId, PURGE_BATCH_SIZE);
+            } catch (Exception e) {
+                // 回收失败只影响存储空间，下次切换或重启时会再次回收
+                log.warn("回收失效向量数据失败: kbId={}, error={}", knowledgeBaseId, e.getMessage());
+            }
+        });
+    }
+}
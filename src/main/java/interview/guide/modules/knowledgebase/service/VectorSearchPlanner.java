@@ -0,0 +1,61 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.repository.VectorRepository.SearchPlan;
+
+/**
+ * pgvector 检索的执行方式选择
+ * <p>
+ * 根据限定知识库的 chunk 数和它们在全表中的占比选择：
+ * <ol>
+ *   <li>chunk 数不超过 exactScanThreshold：精确扫描。行数少时逐行计算距离比遍历 HNSW 图更快，且召回率为 1；
+ *       而 HNSW 先按 ef_search 取近邻再过滤，小知识库往往凑不满 topK</li>
+ *   <li>否则走 HNSW 索引，ef_search 从配置值起随知识库规模增长，每超过精确扫描阈值 10 倍翻一番</li>
+ *   <li>过滤检索未开启 iterative_scan 时，ef_search 再按选择率放大，保证过滤后仍有约 topK 条；
+ *       放大后超过 maxEfSearch 且行数不超过精确扫描阈值 10 倍时，改为精确扫描</li>
+ * </ol>
+ */
+public final class VectorSearchPlanner {
+
+    /**
+     * 放大后的 ef_search 超过上限时，仍允许精确扫描的行数倍数（相对 exactScanThreshold）
+     */
+    private static final int EXACT_FALLBACK_FACTOR = 10;
+
+    private VectorSearchPlanner() {
+    }
+
+    /**
+     * 选择执行方式
+     *
+     * @param matchingRows 限定知识库的 chunk 数；不限定知识库时为全表行数
+     * @param totalRows    全表估算行数，未知时为 0
+     * @param filtered     是否限定了知识库
+     * @param topK         返回条数
+     * @param config       向量检索配置
+     * @return 执行方式
+     */
+    public static SearchPlan plan(long matchingRows, long totalRows, boolean filtered, int topK,
+                                  RagConfigProperties.VectorIndex config) {
+        long exactThreshold = Math.max(0, config.getExactScanThreshold());
+        if (filtered && matchingRows <= exactThreshold) {
+            return SearchPlan.exact();
+        }
+
+        int maxEf = Math.max(config.getMaxEfSearch(), topK);
+        long ef = Math.max(config.getEfSearch(), topK);
+        for (long scale = matchingRows / Math.max(1, exactThreshold); scale >= 10 && ef < maxEf; scale /= 10) {
+            ef *= 2;
+        }
+
+        boolean iterative = filtered && config.isIterativeScan();
+        if (filtered && !iterative && totalRows > matchingRows) {
+            double selectivity = (double) matchingRows / totalRows;
+            ef = (long) Math.ceil(ef / selectivity);
+            if (ef > maxEf && matchingRows <= exactThreshold * EXACT_FALLBACK_FACTOR) {
+                return SearchPlan.exact();
+            }
+        }
+        return SearchPlan.ann((int) Math.min(ef, maxEf), iterative);
+    }
+}
@@ -0,0 +1,236 @@
+package interview.guide.infrastructure.vector;
+
+import interview.guide.modules.knowledgebase.benchmark.HashingEmbeddingModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("进程内 HNSW 向量库测试")
+class HnswVectorStoreTest {
+
+    private static final int DIMENSIONS = 32;
+    private static final int KB_COUNT = 5;
+    private static final int DOCS = 2000;
+
+    private final Random random = new Random(7);
+    private HnswVectorStore store;
+    private List<float[]> vectors;
+    private List<Document> docs;
+
+    @BeforeEach
+    void setUp() {
+        // 精确扫描阈值设为 0，强制走 HNSW 图检索
+        store = new HnswVectorStore(null, JsonMapper.builder().build(), new HnswVectorStore.Options(16, 100, 64, 0));
+        vectors = new ArrayList<>();
+        docs = new ArrayList<>();
+        for (int i = 0; i < DOCS; i++) {
+            float[] vector = randomVector();
+            Document doc = new Document("chunk-" + i, Map.of("kb_id", String.valueOf(i % KB_COUNT)));
+            vectors.add(vector);
+            docs.add(doc);
+            store.add(doc, vector);
+        }
+    }
+
+    @Nested
+    @DisplayName("检索")
+    class SearchTests {
+
+        @Test
+        @DisplayName("召回率接近精确检索")
+        void testRecallAgainstExactSearch() {
+            double recall = 0;
+            int queries = 50;
+            for (int q = 0; q < queries; q++) {
+                float[] query = randomVector();
+                Set<String> truth = exactTopK(query, 10, null);
+                Set<String> found = ids(store.similaritySearch(query, null, 10, 0));
+                found.retainAll(truth);
+                recall += (double) found.size() / truth.size();
+            }
+            assertTrue(recall / queries >= 0.95, "recall@10=" + recall / queries);
+        }
+
+        @Test
+        @DisplayName("按知识库过滤 - 只返回指定知识库，分数为相似度")
+        void testKnowledgeBaseFilter() {
+            // When
+            List<Document> results = store.similaritySearch(randomVector(), List.of(1L, 3L), 20, 0);
+
+            // Then
+            assertEquals(20, results.size());
+            assertTrue(results.stream().allMatch(doc -> Set.of("1", "3").contains(doc.getMetadata().get("kb_id"))));
+            Document first = results.getFirst();
+            assertEquals(1 - (double) first.getMetadata().get("distance"), first.getScore(), 1e-6);
+        }
+
+        @Test
+        @DisplayName("删除后不再返回，重建后结果不变")
+        void testDeleteAndCompact() {
+            // Given
+            float[] query = vectors.get(42);
+            assertEquals(docs.get(42).getId(), store.similaritySearch(query, null, 1, 0).getFirst().getId());
+
+            // When: 删除该文档和知识库 4
+            store.delete(List.of(docs.get(42).getId()));
+            store.deleteByKnowledgeBaseIds(List.of(4L));
+
+            // Then
+            List<Document> before = store.similaritySearch(query, null, 10, 0);
+            assertFalse(ids(before).contains(docs.get(42).getId()));
+            assertTrue(before.stream().noneMatch(doc -> "4".equals(doc.getMetadata().get("kb_id"))));
+            assertTrue(store.deletedRatio() > 0.19);
+
+            store.compact();
+            assertEquals(0, store.deletedRatio());
+            assertEquals(DOCS - DOCS / KB_COUNT - 1, store.size());
+            assertEquals(ids(before), ids(store.similaritySearch(query, null, 10, 0)));
+        }
+
+        @Test
+        @DisplayName("替换 - 删除旧文档并写入新文档后只返回新文档")
+        void testReplace() {
+            // Given: 知识库 2 重新向量化，旧 chunk 全部换成新 chunk
+            Set<String> oldIds = store.documentIds(2L);
+            List<Document> newDocs = new ArrayList<>();
+            List<float[]> newVectors = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                newDocs.add(new Document("new-" + i, Map.of("kb_id", "2")));
+                newVectors.add(randomVector());
+            }
+
+            // When
+            store.replace(oldIds, newDocs, newVectors);
+
+            // Then
+            assertEquals(ids(newDocs), store.documentIds(2L));
+            List<Document> results = store.similaritySearch(newVectors.get(3), List.of(2L), 20, 0);
+            assertEquals(10, results.size());
+            assertEquals("new-3", results.getFirst().getId());
+            assertThrows(IllegalArgumentException.class, () -> store.replace(Set.of(), newDocs, List.of()));
+        }
+
+        @Test
+        @DisplayName("旧数据 - metadata 只有 kb_id_long 时按该知识库过滤和删除")
+        void testLegacyKbIdLong() {
+            // Given: 旧格式 metadata，与 vector_store_kb_id() 一样在 kb_id 缺失时回退到 kb_id_long
+            float[] vector = randomVector();
+            Document legacy = new Document("legacy chunk", Map.of("kb_id_long", 77L));
+            store.add(legacy, vector);
+            store.add(new Document("legacy string chunk", Map.of("kb_id_long", "77")), randomVector());
+
+            // When
+            List<Document> results = store.similaritySearch(vector, List.of(77L), 10, 0);
+
+            // Then
+            assertEquals(legacy.getId(), results.getFirst().getId());
+            assertEquals(2, results.size());
+            assertEquals(2, store.documentIds(77L).size());
+
+            store.deleteByKnowledgeBaseIds(List.of(77L));
+            assertTrue(store.documentIds(77L).isEmpty());
+            assertTrue(store.similaritySearch(vector, List.of(77L), 10, 0).isEmpty());
+        }
+
+        @Test
+        @DisplayName("按文本检索 - 支持 kb_id 过滤表达式")
+        void testSearchRequestWithFilterExpression() {
+            // Given
+            HnswVectorStore textStore = new HnswVectorStore(new HashingEmbeddingModel(64), JsonMapper.builder().build(),
+                HnswVectorStore.Options.defaults());
+            textStore.add(List.of(
+                new Document("spring boot auto configuration", Map.of("kb_id", "1")),
+                new Document("spring boot auto configuration", Map.of("kb_id", "2")),
+                new Document("redis stream consumer group", Map.of("kb_id", "1"))));
+
+            // When
+            List<Document> results = textStore.similaritySearch(SearchRequest.builder()
+                .query("spring boot configuration")
+                .topK(5)
+                .filterExpression(new FilterExpressionBuilder().in("kb_id", "2").build())
+                .build());
+
+            // Then
+            assertEquals(1, results.size());
+            assertEquals("2", results.getFirst().getMetadata().get("kb_id"));
+        }
+    }
+
+    @Test
+    @DisplayName("快照恢复 - 检索结果与恢复前一致，已删除文档不会恢复")
+    void testSnapshotRestore(@TempDir Path dir) throws Exception {
+        // Given
+        store.delete(List.of(docs.get(0).getId()));
+        Path path = dir.resolve("index.snapshot");
+        float[] query = randomVector();
+        List<Document> expected = store.similaritySearch(query, List.of(2L), 10, 0);
+
+        // When
+        store.snapshot(path);
+        HnswVectorStore restored = HnswVectorStore.restore(path, null, JsonMapper.builder().build(),
+            new HnswVectorStore.Options(16, 100, 64, 0));
+
+        // Then
+        assertEquals(store.size(), restored.size());
+        List<Document> actual = restored.similaritySearch(query, List.of(2L), 10, 0);
+        assertEquals(expected.stream().map(Document::getId).toList(), actual.stream().map(Document::getId).toList());
+        assertEquals(expected.getFirst().getText(), actual.getFirst().getText());
+        assertFalse(restored.documentIds(0L).contains(docs.get(0).getId()));
+
+        // 恢复后可以继续写入
+        restored.add(new Document("new", Map.of("kb_id", "9")), randomVector());
+        assertEquals(1, restored.documentIds(9L).size());
+    }
+
+    private Set<String> exactTopK(float[] query, int k, Set<Long> kbIds) {
+        return IntStream.range(0, DOCS).boxed()
+            .filter(i -> kbIds == null || kbIds.contains((long) (i % KB_COUNT)))
+            .sorted(Comparator.comparingDouble(i -> -cosine(query, vectors.get(i))))
+            .limit(k)
+            .map(i -> docs.get(i).getId())
+            .collect(Collectors.toSet());
+    }
+
+    private Set<String> ids(List<Document> results) {
+        return results.stream().map(Document::getId).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
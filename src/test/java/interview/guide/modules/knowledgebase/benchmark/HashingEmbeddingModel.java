@@ -0,0 +1,75 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于特征哈希的确定性本地 Embedding 模型
+ * <p>
+ * 仅用于测试和基准测试：按空白分词，将每个词哈希到固定维度并做 L2 归一化，
+ * 相同文本总是得到相同向量，无需访问网络。
+ */
+public class HashingEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+
+    public HashingEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>();
+        List<String> texts = request.getInstructions();
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(embedText(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embedText(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * 计算文本的哈希向量
+     */
+    public float[] embedText(String text) {
+        float[] vector = new float[dimensions];
+        if (text == null || text.isBlank()) {
+            return vector;
+        }
+        for (String token : text.toLowerCase().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            int hash = token.hashCode();
+            int index = Math.floorMod(hash, dimensions);
+            // 使用哈希的另一部分决定符号，减少碰撞带来的偏差
+            vector[index] += ((hash >>> 16) & 1) == 0 ? 1f : -1f;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float inv = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= inv;
+            }
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,135 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import interview.guide.infrastructure.vector.HnswVectorStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.ai.document.Document;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 进程内 HNSW 检索基准测试
+ *
+ * <p>在 text-embedding-v3 的维度（1024）下，对比 HNSW 检索与暴力扫描的延迟和 recall@10，
+ * 分为不过滤和限定单个知识库两种情况。真实 embedding 按主题聚簇，这里用高斯混合模拟：
+ * 每个 chunk 是某个主题中心加噪声，查询是某个 chunk 再加噪声。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=HnswSearchBenchmark -Dbenchmark=true
+ * </pre>
+ */
+@DisplayName("进程内 HNSW 检索基准测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HnswSearchBenchmark {
+
+    private static final int DIMENSIONS = 1024;
+    private static final int TOPICS = 200;
+    private static final int KB_COUNT = 20;
+    private static final int QUERY_COUNT = 200;
+    private static final int TOP_K = 10;
+
+    @ParameterizedTest(name = "{0} 个 chunk")
+    @ValueSource(ints = {5_000, 20_000})
+    @DisplayName("HNSW vs 暴力扫描")
+    void compareWithBruteForce(int chunkCount) {
+        Random random = new Random(42);
+        List<float[]> topics = IntStream.range(0, TOPICS).mapToObj(i -> gaussian(random, 1.0)).toList();
+        List<float[]> vectors = new ArrayList<>(chunkCount);
+        HnswVectorStore store = new HnswVectorStore(null, JsonMapper.builder().build(),
+            new HnswVectorStore.Options(16, 100, 64, 2000));
+
+        long buildStart = System.nanoTime();
+        for (int i = 0; i < chunkCount; i++) {
+            float[] vector = perturb(topics.get(random.nextInt(TOPICS)), random, 0.6);
+            vectors.add(vector);
+            store.add(new Document("chunk-" + i, Map.of("kb_id", String.valueOf(i % KB_COUNT))), vector);
+        }
+        double buildSeconds = (System.nanoTime() - buildStart) / 1e9;
+
+        for (List<Long> kbIds : List.of(List.<Long>of(), List.of(3L))) {
+            long[] hnswNanos = new long[QUERY_COUNT];
+            long[] bruteNanos = new long[QUERY_COUNT];
+            double recall = 0;
+            for (int q = 0; q < QUERY_COUNT; q++) {
+                float[] query = perturb(vectors.get(random.nextInt(chunkCount)), random, 0.3);
+                long start = System.nanoTime();
+                List<Document> approximate = store.similaritySearch(query, kbIds, TOP_K, 0);
+                hnswNanos[q] = System.nanoTime() - start;
+                start = System.nanoTime();
+                Set<String> truth = bruteForce(vectors, query, kbIds);
+                bruteNanos[q] = System.nanoTime() - start;
+
+                recall += approximate.stream().filter(doc -> truth.contains(doc.getText())).count() / (double) TOP_K;
+            }
+            System.out.printf("[hnsw-benchmark] chunks=%d filter=%s build=%.1fs | hnsw p50=%.3fms p99=%.3fms"
+                    + " | brute-force p50=%.3fms | recall@%d=%.3f%n",
+                chunkCount, kbIds.isEmpty() ? "none" : "kb", buildSeconds,
+                percentile(hnswNanos, 0.5), percentile(hnswNanos, 0.99), percentile(bruteNanos, 0.5),
+                TOP_K, recall / QUERY_COUNT);
+            assertTrue(recall / QUERY_COUNT > 0.9, "HNSW 召回率过低");
+        }
+    }
+
+    private Set<String> bruteForce(List<float[]> vectors, float[] query, List<Long> kbIds) {
+        PriorityQueue<Map.Entry<Integer, Double>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (int i = 0; i < vectors.size(); i++) {
+            if (!kbIds.isEmpty() && !kbIds.contains((long) (i % KB_COUNT))) {
+                continue;
+            }
+            heap.add(Map.entry(i, cosine(query, vectors.get(i))));
+            if (heap.size() > TOP_K) {
+                heap.poll();
+            }
+        }
+        return heap.stream().map(entry -> "chunk-" + entry.getKey()).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private double percentile(long[] nanos, double p) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+
+    private float[] perturb(float[] base, Random random, double sigma) {
+        float[] vector = gaussian(random, sigma);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] += base[i];
+        }
+        return vector;
+    }
+
+    private float[] gaussian(Random random, double sigma) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextGaussian() * sigma);
+        }
+        return vector;
+    }
+
+    private double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
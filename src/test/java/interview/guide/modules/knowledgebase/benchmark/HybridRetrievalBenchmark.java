@@ -0,0 +1,225 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import interview.guide.modules.knowledgebase.service.LexicalTokenizer;
+import interview.guide.modules.knowledgebase.service.ReciprocalRankFusion;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 混合检索离线召回基准测试
+ *
+ * <p>对比仅向量、仅关键词、混合（RRF 融合）三种检索模式在两类查询上的 recall@K：
+ * <ul>
+ *   <li>标识符查询：错误码、配置项、类名 + 一个主题词和提问用语，稠密向量模型容易漏掉</li>
+ *   <li>语义查询：大部分词换成同义词，关键词检索无法匹配</li>
+ * </ul>
+ *
+ * <p>模拟方式：向量侧在 {@link HashingEmbeddingModel} 之前去掉标识符并把同义词映射为原词，
+ * 模拟"理解同义改写、但对标识符不敏感"的稠密模型；关键词侧使用 {@link LexicalTokenizer}
+ * 和内存倒排索引，排序方式与数据库侧 ts_rank(tokens, query, 1) 一致（命中词元数 / (1 + ln(文档词元数))）。
+ * 每个查询的目标文档是生成它的那个 chunk。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=HybridRetrievalBenchmark -Dbenchmark=true
+ * </pre>
+ */
+@DisplayName("混合检索召回基准测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HybridRetrievalBenchmark {
+
+    private static final int DIMENSIONS = 256;
+    private static final int TOPICS = 50;
+    private static final int CHUNKS_PER_TOPIC = 40;
+    private static final int TOPIC_VOCABULARY = 30;
+    private static final int NOISE_VOCABULARY = 2000;
+    private static final int QUERY_COUNT = 200;
+    private static final int TOP_K = 5;
+    private static final int CANDIDATES = 20;
+    private static final int RRF_K = 60;
+
+    /**
+     * 主题词 t{topic}w{n} 及其同义词 t{topic}s{n}，噪声词 n{n}
+     */
+    private static final Pattern VOCABULARY = Pattern.compile("t(\\d+)[ws](\\d+)|n\\d+");
+
+    private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+
+    @Test
+    @DisplayName("仅向量 vs 仅关键词 vs 混合")
+    void compareSearchModes() {
+        Random random = new Random(42);
+        List<Document> corpus = generateCorpus(random);
+        List<float[]> embeddings = corpus.stream().map(doc -> semanticEmbed(doc.getText())).toList();
+        LexicalIndex lexicalIndex = new LexicalIndex(corpus);
+
+        Map<String, double[]> recalls = new HashMap<>();
+        for (String type : List.of("identifier", "semantic")) {
+            double[] hits = new double[3];
+            for (int q = 0; q < QUERY_COUNT; q++) {
+                int target = random.nextInt(corpus.size());
+                String query = type.equals("identifier")
+                    ? identifierQuery(target, random)
+                    : semanticQuery(corpus.get(target), random);
+                String targetId = corpus.get(target).getId();
+
+                List<Document> vector = vectorSearch(corpus, embeddings, query, CANDIDATES);
+                List<Document> lexical = lexicalIndex.search(query, CANDIDATES);
+                List<Document> hybrid = ReciprocalRankFusion.fuse(List.of(vector, lexical), RRF_K, TOP_K);
+
+                hits[0] += containsInTopK(vector, targetId);
+                hits[1] += containsInTopK(lexical, targetId);
+                hits[2] += containsInTopK(hybrid, targetId);
+            }
+            for (int i = 0; i < hits.length; i++) {
+                hits[i] /= QUERY_COUNT;
+            }
+            recalls.put(type, hits);
+            System.out.printf("[hybrid-benchmark] queries=%s chunks=%d | recall@%d vector=%.3f lexical=%.3f hybrid=%.3f%n",
+                type, corpus.size(), TOP_K, hits[0], hits[1], hits[2]);
+        }
+
+        double[] identifier = recalls.get("identifier");
+        double[] semantic = recalls.get("semantic");
+        assertTrue(identifier[2] >= identifier[0], "标识符查询上混合检索的召回率不应低于仅向量检索");
+        assertTrue(semantic[2] >= semantic[1], "语义查询上混合检索的召回率不应低于仅关键词检索");
+    }
+
+    /**
+     * 生成合成语料：主题词 + 噪声词 + 一个唯一标识符（错误码、配置项或类名）
+     */
+    private List<Document> generateCorpus(Random random) {
+        List<Document> corpus = new ArrayList<>(TOPICS * CHUNKS_PER_TOPIC);
+        for (int topic = 0; topic < TOPICS; topic++) {
+            for (int c = 0; c < CHUNKS_PER_TOPIC; c++) {
+                int index = corpus.size();
+                StringBuilder text = new StringBuilder();
+                for (int w = 0; w < 20; w++) {
+                    text.append('t').append(topic).append('w').append(random.nextInt(TOPIC_VOCABULARY)).append(' ');
+                }
+                for (int w = 0; w < 20; w++) {
+                    text.append('n').append(random.nextInt(NOISE_VOCABULARY)).append(' ');
+                }
+                text.append(identifier(topic, index));
+                corpus.add(new Document(text.toString()));
+            }
+        }
+        return corpus;
+    }
+
+    private String identifier(int topic, int index) {
+        return switch (index % 3) {
+            case 0 -> "ERR_" + (10000 + index);
+            case 1 -> "app.module" + topic + ".key" + index;
+            default -> "PaymentHandler" + index;
+        };
+    }
+
+    /**
+     * 标识符查询：目标 chunk 的标识符 + 一个同主题的词 + 提问用语
+     */
+    private String identifierQuery(int index, Random random) {
+        int topic = index / CHUNKS_PER_TOPIC;
+        return identifier(topic, index) + " t" + topic + "w" + random.nextInt(TOPIC_VOCABULARY) + " 怎么处理";
+    }
+
+    /**
+     * 语义查询：从目标 chunk 抽取 8 个主题词，其中 6 个换成同义词
+     */
+    private String semanticQuery(Document target, Random random) {
+        List<String> topicWords = List.of(target.getText().split(" ")).subList(0, 20);
+        List<String> query = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String word = topicWords.get(random.nextInt(topicWords.size()));
+            query.add(i < 6 ? word.replace('w', 's') : word);
+        }
+        return String.join(" ", query);
+    }
+
+    /**
+     * 模拟稠密模型：丢弃词表外的标识符，同义词映射为原词
+     */
+    private float[] semanticEmbed(String text) {
+        List<String> words = new ArrayList<>();
+        for (String token : text.split("\\s+")) {
+            Matcher matcher = VOCABULARY.matcher(token);
+            if (matcher.matches()) {
+                words.add(matcher.group(1) != null ? "t" + matcher.group(1) + "w" + matcher.group(2) : token);
+            }
+        }
+        return embeddingModel.embedText(String.join(" ", words));
+    }
+
+    private List<Document> vectorSearch(List<Document> corpus, List<float[]> embeddings, String query, int topK) {
+        float[] q = semanticEmbed(query);
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < corpus.size(); i++) {
+            order.add(i);
+        }
+        return order.stream()
+            .sorted(Comparator.comparingDouble((Integer i) -> -dot(q, embeddings.get(i))))
+            .limit(topK)
+            .map(corpus::get)
+            .toList();
+    }
+
+    private int containsInTopK(List<Document> results, String targetId) {
+        return results.stream().limit(TOP_K).anyMatch(doc -> doc.getId().equals(targetId)) ? 1 : 0;
+    }
+
+    private double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 内存倒排索引，代替数据库侧的 GIN 索引
+     */
+    private static class LexicalIndex {
+
+        private final List<Document> corpus;
+        private final Map<String, List<Integer>> postings = new HashMap<>();
+        private final int[] lengths;
+
+        LexicalIndex(List<Document> corpus) {
+            this.corpus = corpus;
+            this.lengths = new int[corpus.size()];
+            for (int i = 0; i < corpus.size(); i++) {
+                List<String> tokens = LexicalTokenizer.tokenize(corpus.get(i).getText());
+                lengths[i] = tokens.size();
+                for (String token : tokens) {
+                    postings.computeIfAbsent(token, k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        List<Document> search(String query, int topK) {
+            Map<Integer, Integer> matched = LexicalTokenizer.tokenize(query).stream()
+                .flatMap(token -> postings.getOrDefault(token, List.of()).stream())
+                .collect(Collectors.toMap(i -> i, i -> 1, Integer::sum));
+            return matched.entrySet().stream()
+                .sorted(Comparator.comparingDouble(
+                    (Map.Entry<Integer, Integer> e) -> -e.getValue() / (1 + Math.log(lengths[e.getKey()]))))
+                .limit(topK)
+                .map(e -> corpus.get(e.getKey()))
+                .toList();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 知识库过滤检索基准测试
+ *
+ * <p>对比两种检索方式在不同知识库数量下的召回率和延迟：
+ * <ul>
+ *   <li>后过滤（旧实现）：全局取默认 topK，再在内存中按 kb_id 过滤并截断</li>
+ *   <li>下推过滤（当前实现）：kb_id 过滤、topK 一并交给向量库（pgvector 侧由 kb_id 列索引完成）</li>
+ * </ul>
+ *
+ * <p>使用 {@link HashingEmbeddingModel} 和 {@link SimpleVectorStore}，无需网络和数据库。
+ * 召回率以选定知识库内精确 topK 为基准。SimpleVectorStore 对每行做 SpEL 过滤求值，
+ * 延迟数据仅用于同一后端内的相对比较。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=KnowledgeBaseFilterBenchmark -Dbenchmark=true
+ * </pre>
+ */
+@DisplayName("知识库过滤检索基准测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class KnowledgeBaseFilterBenchmark {
+
+    private static final int DIMENSIONS = 256;
+    private static final int CHUNKS_PER_KB = 20;
+    private static final int QUERY_COUNT = 50;
+    private static final int TOP_K = 5;
+    private static final int SHARED_VOCABULARY = 2000;
+
+    private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+
+    @ParameterizedTest(name = "{0} 个知识库")
+    @ValueSource(ints = {10, 100, 1000})
+    @DisplayName("后过滤 vs 下推过滤")
+    void compareFilterStrategies(int kbCount) {
+        Random random = new Random(42);
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        List<Document> corpus = generateCorpus(kbCount, random);
+        vectorStore.add(corpus);
+
+        double postRecall = 0;
+        double pushRecall = 0;
+        long postNanos = 0;
+        long pushNanos = 0;
+
+        for (int q = 0; q < QUERY_COUNT; q++) {
+            long kbId = random.nextInt(kbCount);
+            String query = sampleQuery(corpus, kbId, random);
+            Set<String> truth = exactTopK(corpus, query, kbId);
+
+            long start = System.nanoTime();
+            List<Document> post = postFilterSearch(vectorStore, query, kbId);
+            postNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<Document> push = pushDownSearch(vectorStore, query, kbId);
+            pushNanos += System.nanoTime() - start;
+
+            postRecall += recall(post, truth);
+            pushRecall += recall(push, truth);
+        }
+
+        System.out.printf("[filter-benchmark] kbs=%d chunks=%d | post-filter recall@%d=%.3f avg=%.2fms"
+                + " | push-down recall@%d=%.3f avg=%.2fms%n",
+            kbCount, corpus.size(),
+            TOP_K, postRecall / QUERY_COUNT, postNanos / 1e6 / QUERY_COUNT,
+            TOP_K, pushRecall / QUERY_COUNT, pushNanos / 1e6 / QUERY_COUNT);
+
+        assertTrue(pushRecall >= postRecall, "下推过滤的召回率不应低于后过滤");
+    }
+
+    /**
+     * 旧实现：全局默认 topK 检索后在内存中过滤
+     */
+    private List<Document> postFilterSearch(VectorStore vectorStore, String query, long kbId) {
+        return vectorStore.similaritySearch(query).stream()
+            .filter(doc -> String.valueOf(kbId).equals(String.valueOf(doc.getMetadata().get("kb_id"))))
+            .limit(TOP_K)
+            .toList();
+    }
+
+    /**
+     * 当前实现：kb_id 过滤、topK 一并交给向量库
+     */
+    private List<Document> pushDownSearch(VectorStore vectorStore, String query, long kbId) {
+        return vectorStore.similaritySearch(SearchRequest.builder()
+            .query(query)
+            .topK(TOP_K)
+            .filterExpression(new FilterExpressionBuilder().eq("kb_id", String.valueOf(kbId)).build())
+            .build());
+    }
+
+    /**
+     * 生成合成语料：每个 chunk 由共享词汇和知识库专有词汇组成
+     */
+    private List<Document> generateCorpus(int kbCount, Random random) {
+        List<Document> corpus = new ArrayList<>(kbCount * CHUNKS_PER_KB);
+        for (int kb = 0; kb < kbCount; kb++) {
+            for (int c = 0; c < CHUNKS_PER_KB; c++) {
+                StringBuilder text = new StringBuilder();
+                for (int w = 0; w < 40; w++) {
+                    text.append("w").append(random.nextInt(SHARED_VOCABULARY)).append(' ');
+                }
+                for (int w = 0; w < 4; w++) {
+                    text.append("kb").append(kb).append("t").append(random.nextInt(10)).append(' ');
+                }
+                corpus.add(new Document(text.toString().trim(), Map.of("kb_id", String.valueOf(kb))));
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * 从目标知识库的某个 chunk 中抽取若干词作为查询
+     */
+    private String sampleQuery(List<Document> corpus, long kbId, Random random) {
+        Document source = corpus.get((int) kbId * CHUNKS_PER_KB + random.nextInt(CHUNKS_PER_KB));
+        String[] tokens = source.getText().split(" ");
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            query.append(tokens[random.nextInt(tokens.length)]).append(' ');
+        }
+        return query.toString().trim();
+    }
+
+    /**
+     * 目标知识库内的精确 topK（基准答案）
+     */
+    private Set<String> exactTopK(List<Document> corpus, String query, long kbId) {
+        float[] q = embeddingModel.embedText(query);
+        List<Document> kbChunks = corpus.subList((int) kbId * CHUNKS_PER_KB, (int) (kbId + 1) * CHUNKS_PER_KB);
+        return new HashSet<>(kbChunks.stream()
+            .sorted(Comparator.comparingDouble((Document doc) -> -dot(q, embeddingModel.embedText(doc.getText()))))
+            .limit(TOP_K)
+            .map(Document::getId)
+            .toList());
+    }
+
+    private double recall(List<Document> results, Set<String> truth) {
+        if (truth.isEmpty()) {
+            return 1.0;
+        }
+        long hit = results.stream().map(Document::getId).filter(truth::contains).count();
+        return (double) hit / truth.size();
+    }
+
+    private double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,263 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import com.pgvector.PGvector;
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.config.RagConfigProperties.VectorQuantization;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量量化基准测试
+ *
+ * <p>对比原始 float32、halfvec 和二值量化三种布局：
+ * <ul>
+ *   <li>内存中模拟：每个向量的字节数，以及不同重排倍数下量化候选 + 原始向量重排的 recall@10</li>
+ *   <li>PostgreSQL（指定 pg.url 时）：三种 HNSW 索引的体积、recall@10 和检索延迟 p50/p99</li>
+ * </ul>
+ * 向量维度与 text-embedding-v3 一致（1024），用高斯混合模拟按主题聚簇的 embedding。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=QuantizationBenchmark -Dbenchmark=true
+ * mvn test -Dtest=QuantizationBenchmark -Dbenchmark=true \
+ *     -Dpg.url=jdbc:postgresql://localhost:5432/interview_guide -Dpg.user=postgres -Dpg.password=password
+ * </pre>
+ */
+@DisplayName("向量量化基准测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class QuantizationBenchmark {
+
+    private static final int DIMENSIONS = 1024;
+    private static final int TOPICS = 200;
+    private static final int TOP_K = 10;
+    private static final int QUERY_COUNT = 200;
+    private static final int[] RESCORE_FACTORS = {1, 2, 4, 8};
+
+    @Test
+    @DisplayName("内存中模拟：字节数与重排后的召回率")
+    void compareInMemory() {
+        Random random = new Random(42);
+        List<float[]> vectors = generate(20_000, random);
+        // halfvec 按解码后的 float 计算距离，结果与 pgvector 在 halfvec 上计算一致
+        List<float[]> halfVectors = vectors.stream().map(this::roundToHalf).toList();
+        List<long[]> bitVectors = vectors.stream().map(this::toBits).toList();
+
+        double[] halfRecall = new double[RESCORE_FACTORS.length];
+        double[] bitRecall = new double[RESCORE_FACTORS.length];
+        for (int q = 0; q < QUERY_COUNT; q++) {
+            float[] query = perturb(vectors.get(random.nextInt(vectors.size())), random, 0.3);
+            float[] halfQuery = roundToHalf(query);
+            long[] bitQuery = toBits(query);
+            Set<Integer> truth = new HashSet<>(rank(vectors.size(), i -> 1 - cosine(query, vectors.get(i)), TOP_K));
+            List<Integer> halfRanked = rank(vectors.size(), i -> 1 - cosine(halfQuery, halfVectors.get(i)),
+                TOP_K * RESCORE_FACTORS[RESCORE_FACTORS.length - 1]);
+            List<Integer> bitRanked = rank(vectors.size(), i -> hamming(bitQuery, bitVectors.get(i)),
+                TOP_K * RESCORE_FACTORS[RESCORE_FACTORS.length - 1]);
+            for (int f = 0; f < RESCORE_FACTORS.length; f++) {
+                int candidates = TOP_K * RESCORE_FACTORS[f];
+                halfRecall[f] += recall(rescore(halfRanked.subList(0, candidates), query, vectors), truth);
+                bitRecall[f] += recall(rescore(bitRanked.subList(0, candidates), query, vectors), truth);
+            }
+        }
+
+        System.out.printf("[quantization-benchmark] bytes/vector float32=%d halfvec=%d bit=%d%n",
+            DIMENSIONS * 4, DIMENSIONS * 2, DIMENSIONS / 8);
+        for (int f = 0; f < RESCORE_FACTORS.length; f++) {
+            System.out.printf("[quantization-benchmark] rescore-factor=%d | halfvec recall@%d=%.3f | bit recall@%d=%.3f%n",
+                RESCORE_FACTORS[f], TOP_K, halfRecall[f] / QUERY_COUNT, TOP_K, bitRecall[f] / QUERY_COUNT);
+        }
+        assertTrue(halfRecall[0] / QUERY_COUNT > 0.95, "halfvec 召回率过低");
+        assertTrue(bitRecall[RESCORE_FACTORS.length - 1] / QUERY_COUNT > 0.9, "二值量化重排后召回率过低");
+    }
+
+    @Test
+    @DisplayName("PostgreSQL：索引体积、召回率与延迟")
+    @EnabledIfSystemProperty(named = "pg.url", matches = ".+")
+    void compareInPostgres() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(System.getProperty("pg.url"),
+            System.getProperty("pg.user", "postgres"), System.getProperty("pg.password", ""), true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        RagConfigProperties ragConfig = new RagConfigProperties();
+        ragConfig.getVectorIndex().setDimensions(DIMENSIONS);
+        VectorRepository vectorRepository = new VectorRepository(jdbcTemplate, new ObjectMapper(), ragConfig);
+        String schema = "quantization_benchmark";
+        int rows = Integer.getInteger("benchmark.rows", 20_000);
+
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+            jdbcTemplate.execute("CREATE SCHEMA " + schema);
+            jdbcTemplate.execute("SET search_path TO " + schema + ", public");
+            jdbcTemplate.execute("""
+                CREATE TABLE vector_store (
+                    id        uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+                    content   text,
+                    metadata  json,
+                    embedding vector(%d)
+                )
+                """.formatted(DIMENSIONS));
+            vectorRepository.initKbIdColumn();
+
+            Random random = new Random(42);
+            List<float[]> vectors = generate(rows, random);
+            jdbcTemplate.batchUpdate(
+                "INSERT INTO vector_store (content, metadata, embedding) VALUES (?, json_build_object('kb_id', '1'), ?)",
+                IntStream.range(0, rows).mapToObj(i -> new Object[]{String.valueOf(i), new PGvector(vectors.get(i))})
+                    .toList());
+            jdbcTemplate.execute("CREATE INDEX " + VectorRepository.FULL_PRECISION_INDEX_NAME
+                + " ON vector_store USING hnsw (embedding vector_cosine_ops)");
+            for (VectorQuantization quantization : List.of(VectorQuantization.HALFVEC, VectorQuantization.BINARY)) {
+                ragConfig.getVectorIndex().setQuantization(quantization);
+                vectorRepository.initQuantizedIndex();
+            }
+            jdbcTemplate.execute("ANALYZE vector_store");
+
+            for (VectorQuantization quantization : VectorQuantization.values()) {
+                ragConfig.getVectorIndex().setQuantization(quantization);
+                String indexName = quantization == VectorQuantization.NONE
+                    ? VectorRepository.FULL_PRECISION_INDEX_NAME : VectorRepository.quantizedIndexName(quantization);
+                Long indexBytes = jdbcTemplate.queryForObject(
+                    "SELECT pg_relation_size(to_regclass(?))", Long.class, indexName);
+
+                Random queryRandom = new Random(7);
+                long[] nanos = new long[QUERY_COUNT];
+                double recall = 0;
+                for (int q = 0; q < QUERY_COUNT; q++) {
+                    float[] query = perturb(vectors.get(queryRandom.nextInt(rows)), queryRandom, 0.3);
+                    Set<Integer> truth = new HashSet<>(rank(rows, i -> 1 - cosine(query, vectors.get(i)), TOP_K));
+                    long start = System.nanoTime();
+                    List<Document> results = vectorRepository.similaritySearch(query, List.of(), TOP_K, 0);
+                    nanos[q] = System.nanoTime() - start;
+                    recall += recall(results.stream().map(doc -> Integer.valueOf(doc.getText()))
+                        .collect(Collectors.toSet()), truth);
+                }
+                System.out.printf("[quantization-benchmark] pg rows=%d layout=%s index=%.1fMB | p50=%.3fms p99=%.3fms"
+                        + " | recall@%d=%.3f%n",
+                    rows, quantization, indexBytes / 1024.0 / 1024.0, percentile(nanos, 0.5),
+                    percentile(nanos, 0.99), TOP_K, recall / QUERY_COUNT);
+            }
+        } finally {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + schema + " CASCADE");
+            dataSource.destroy();
+        }
+    }
+
+    /**
+     * 取候选后按原始向量的余弦距离重排
+     */
+    private Set<Integer> rescore(List<Integer> candidates, float[] query, List<float[]> vectors) {
+        return candidates.stream()
+            .sorted(Comparator.comparingDouble(i -> 1 - cosine(query, vectors.get(i))))
+            .limit(TOP_K)
+            .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    /**
+     * 按距离升序取前 k 个下标
+     */
+    private List<Integer> rank(int size, IntToDoubleFunction distance, int k) {
+        double[] distances = new double[size];
+        for (int i = 0; i < size; i++) {
+            distances[i] = distance.applyAsDouble(i);
+        }
+        return IntStream.range(0, size).boxed()
+            .sorted(Comparator.comparingDouble(i -> distances[i]))
+            .limit(k)
+            .toList();
+    }
+
+    private double recall(Set<Integer> results, Set<Integer> truth) {
+        return results.stream().filter(truth::contains).count() / (double) truth.size();
+    }
+
+    private List<float[]> generate(int count, Random random) {
+        List<float[]> topics = IntStream.range(0, TOPICS).mapToObj(i -> gaussian(random, 1.0)).toList();
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            vectors.add(perturb(topics.get(random.nextInt(TOPICS)), random, 0.6));
+        }
+        return vectors;
+    }
+
+    private float[] roundToHalf(float[] vector) {
+        float[] rounded = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            rounded[i] = Float.float16ToFloat(Float.floatToFloat16(vector[i]));
+        }
+        return rounded;
+    }
+
+    /**
+     * 与 pgvector 的 binary_quantize 一致：大于 0 的维度为 1
+     */
+    private long[] toBits(float[] vector) {
+        long[] bits = new long[(vector.length + 63) / 64];
+        for (int i = 0; i < vector.length; i++) {
+            if (vector[i] > 0) {
+                bits[i / 64] |= 1L << (i % 64);
+            }
+        }
+        return bits;
+    }
+
+    private double hamming(long[] a, long[] b) {
+        int distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += Long.bitCount(a[i] ^ b[i]);
+        }
+        return distance;
+    }
+
+    private double percentile(long[] nanos, double p) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+
+    private float[] perturb(float[] base, Random random, double sigma) {
+        float[] vector = gaussian(random, sigma);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] += base[i];
+        }
+        return vector;
+    }
+
+    private float[] gaussian(Random random, double sigma) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) (random.nextGaussian() * sigma);
+        }
+        return vector;
+    }
+
+    private double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+}
@@ -0,0 +1,525 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import com.pgvector.PGvector;
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.vector.HnswVectorStore;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import interview.guide.modules.knowledgebase.service.StreamingTextChunker;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 检索基准与回归测试套件
+ *
+ * <p>使用 {@link HashingEmbeddingModel} 生成确定性向量，无需网络，测量：
+ * <ul>
+ *   <li>分块吞吐：{@link StreamingTextChunker} 与 TokenTextSplitter 处理同一合成文档的字符/秒</li>
+ *   <li>索引耗时：每个向量检索后端写入合成语料（含向量化）的耗时</li>
+ *   <li>检索延迟 p50/p99 与 recall@K：每个后端 × 每种过滤方式，以过滤范围内的精确 topK 为基准</li>
+ * </ul>
+ * 后端包括 SimpleVectorStore（精确扫描参照）、进程内 {@link HnswVectorStore}，
+ * 指定 pg.url 时还包括 pgvector（{@link VectorRepository#similaritySearch}，走 kb_id 列索引和 HNSW 索引）。
+ * 过滤方式包括不过滤、单知识库下推、多知识库下推、全局检索后在内存中过滤（旧实现）。
+ *
+ * <p>结果以 JSON 写入 benchmark.output，指定 benchmark.baseline 时与基线逐项对比，
+ * 召回率下降超过 benchmark.recall.tolerance、p99 或吞吐劣化超过 benchmark.latency.tolerance 倍时记为回归，
+ * 回归项同时写入报告并使测试失败，CI 可直接据此判断。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=RetrievalBenchmarkSuite -Dbenchmark=true
+ * mvn test -Dtest=RetrievalBenchmarkSuite -Dbenchmark=true -Dbenchmark.sizes=5000,50000 \
+ *     -Dbenchmark.baseline=benchmark/retrieval-baseline.json \
+ *     -Dpg.url=jdbc:postgresql://localhost:5432/interview_guide -Dpg.user=postgres -Dpg.password=password
+ * </pre>
+ */
+@DisplayName("检索基准与回归测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RetrievalBenchmarkSuite {
+
+    private static final int DIMENSIONS = 256;
+    private static final int TOP_K = 5;
+    private static final int WARMUP_QUERIES = 20;
+    private static final int SHARED_VOCABULARY = 2000;
+    private static final int KBS_PER_QUERY = 3;
+
+    /**
+     * p99 的绝对容差，避免亚毫秒级延迟的抖动被判为回归
+     */
+    private static final double LATENCY_SLACK_MS = 0.5;
+
+    private final List<Integer> corpusSizes = Arrays.stream(System.getProperty("benchmark.sizes", "2000,10000")
+            .split(","))
+        .map(String::trim)
+        .map(Integer::valueOf)
+        .toList();
+    private final int kbCount = Integer.getInteger("benchmark.kbs", 20);
+    private final int queryCount = Integer.getInteger("benchmark.queries", 200);
+    private final int chunkingChars = Integer.getInteger("benchmark.chunking.chars", 2_000_000);
+    private final Path output = Path.of(System.getProperty("benchmark.output", "target/benchmark/retrieval.json"));
+    private final String baseline = System.getProperty("benchmark.baseline");
+    private final double recallTolerance = Double.parseDouble(System.getProperty("benchmark.recall.tolerance", "0.02"));
+    private final double latencyTolerance = Double.parseDouble(System.getProperty("benchmark.latency.tolerance", "1.5"));
+
+    private final HashingEmbeddingModel embeddingModel = new HashingEmbeddingModel(DIMENSIONS);
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+
+    @Test
+    @DisplayName("分块吞吐、索引耗时、检索延迟与召回率")
+    void run() throws IOException {
+        List<ChunkingResult> chunking = measureChunking();
+
+        List<IndexingResult> indexing = new ArrayList<>();
+        List<SearchResult> search = new ArrayList<>();
+        for (int corpusSize : corpusSizes) {
+            Random random = new Random(42);
+            List<Chunk> corpus = generateCorpus(corpusSize, random);
+            List<Query> queries = generateQueries(corpus, random);
+            for (Backend backend : backends()) {
+                try (backend) {
+                    long start = System.nanoTime();
+                    backend.index(corpus);
+                    double millis = (System.nanoTime() - start) / 1e6;
+                    indexing.add(new IndexingResult(backend.name(), corpusSize, millis, corpusSize / (millis / 1000)));
+                    System.out.printf("[retrieval-benchmark] backend=%s chunks=%d index=%.1fms%n",
+                        backend.name(), corpusSize, millis);
+
+                    for (FilterStrategy filter : FilterStrategy.values()) {
+                        SearchResult result = measureSearch(backend, filter, corpus, queries);
+                        search.add(result);
+                        System.out.printf("[retrieval-benchmark] backend=%s chunks=%d filter=%s | p50=%.3fms"
+                                + " p99=%.3fms | recall@%d=%.3f%n",
+                            backend.name(), corpusSize, filter.key, result.p50Ms(), result.p99Ms(),
+                            TOP_K, result.recall());
+                    }
+                }
+            }
+        }
+
+        Report report = new Report(Instant.now().toString(), TOP_K, chunking, indexing, search, List.of());
+        List<String> regressions = baseline == null ? List.of() : compare(report, readReport(Path.of(baseline)));
+        report = new Report(report.generatedAt(), TOP_K, chunking, indexing, search, regressions);
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        Files.writeString(output, objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(report));
+        System.out.printf("[retrieval-benchmark] report=%s regressions=%d%n", output.toAbsolutePath(), regressions.size());
+        regressions.forEach(regression -> System.out.println("[retrieval-benchmark] REGRESSION " + regression));
+
+        assertTrue(regressions.isEmpty(), "检索基准出现回归: " + regressions);
+    }
+
+    // ==================== 分块 ====================
+
+    private List<ChunkingResult> measureChunking() {
+        String text = generateDocument(chunkingChars, new Random(7));
+        List<ChunkingResult> results = new ArrayList<>();
+
+        long start = System.nanoTime();
+        int chunks = 0;
+        for (Iterator<String> it = new StreamingTextChunker().split(new StringReader(text)); it.hasNext(); it.next()) {
+            chunks++;
+        }
+        results.add(chunkingResult("streaming", text.length(), chunks, System.nanoTime() - start));
+
+        start = System.nanoTime();
+        chunks = new TokenTextSplitter().apply(List.of(new Document(text))).size();
+        results.add(chunkingResult("token-text-splitter", text.length(), chunks, System.nanoTime() - start));
+        return results;
+    }
+
+    private ChunkingResult chunkingResult(String chunker, int chars, int chunks, long nanos) {
+        double millis = nanos / 1e6;
+        System.out.printf("[retrieval-benchmark] chunker=%s chars=%d chunks=%d | %.1fms %.0f chars/s%n",
+            chunker, chars, chunks, millis, chars / (millis / 1000));
+        return new ChunkingResult(chunker, chars, chunks, millis, chars / (millis / 1000));
+    }
+
+    /**
+     * 中英文混排的合成文档，句末标点和换行分布接近解析后的真实文本
+     */
+    private String generateDocument(int chars, Random random) {
+        StringBuilder text = new StringBuilder(chars + 256);
+        while (text.length() < chars) {
+            int words = 8 + random.nextInt(16);
+            for (int w = 0; w < words; w++) {
+                text.append(random.nextBoolean() ? "检索" + random.nextInt(100) : "w" + random.nextInt(SHARED_VOCABULARY))
+                    .append(' ');
+            }
+            text.append(random.nextInt(4) == 0 ? "。\n" : ". ");
+        }
+        return text.toString();
+    }
+
+    // ==================== 检索 ====================
+
+    /**
+     * 过滤方式
+     */
+    private enum FilterStrategy {
+        NONE("none"),
+        KB("kb"),
+        KBS("kbs"),
+        POST_FILTER("post-filter");
+
+        private final String key;
+
+        FilterStrategy(String key) {
+            this.key = key;
+        }
+    }
+
+    private SearchResult measureSearch(Backend backend, FilterStrategy filter, List<Chunk> corpus, List<Query> queries) {
+        for (int q = 0; q < Math.min(WARMUP_QUERIES, queries.size()); q++) {
+            search(backend, filter, corpus, queries.get(q));
+        }
+        long[] nanos = new long[queries.size()];
+        double recall = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            Query query = queries.get(q);
+            long start = System.nanoTime();
+            List<Integer> results = search(backend, filter, corpus, query);
+            nanos[q] = System.nanoTime() - start;
+            Set<Integer> truth = exactTopK(corpus, query, filter == FilterStrategy.NONE ? List.of() : scope(query, filter));
+            recall += truth.isEmpty() ? 1.0 : results.stream().filter(truth::contains).count() / (double) truth.size();
+        }
+        return new SearchResult(backend.name(), filter.key, corpus.size(), queries.size(),
+            percentile(nanos, 0.5), percentile(nanos, 0.99), recall / queries.size());
+    }
+
+    private List<Integer> search(Backend backend, FilterStrategy filter, List<Chunk> corpus, Query query) {
+        return switch (filter) {
+            case NONE -> backend.search(query.text(), List.of(), TOP_K);
+            case KB, KBS -> backend.search(query.text(), scope(query, filter), TOP_K);
+            case POST_FILTER -> backend.search(query.text(), List.of(), TOP_K).stream()
+                .filter(position -> corpus.get(position).kbId() == query.kbIds().get(0))
+                .toList();
+        };
+    }
+
+    private List<Long> scope(Query query, FilterStrategy filter) {
+        return filter == FilterStrategy.KBS ? query.kbIds() : query.kbIds().subList(0, 1);
+    }
+
+    /**
+     * 过滤范围内的精确 topK（基准答案）
+     */
+    private Set<Integer> exactTopK(List<Chunk> corpus, Query query, List<Long> kbIds) {
+        return corpus.stream()
+            .filter(chunk -> kbIds.isEmpty() || kbIds.contains(chunk.kbId()))
+            .sorted(Comparator.comparingDouble((Chunk chunk) -> -dot(query.embedding(), chunk.embedding())))
+            .limit(TOP_K)
+            .map(Chunk::position)
+            .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    // ==================== 语料 ====================
+
+    /**
+     * 合成语料中的一个 chunk
+     */
+    private record Chunk(int position, long kbId, String text, float[] embedding) {}
+
+    /**
+     * 查询：第一个知识库是生成查询的 chunk 所在的知识库，其余用于多知识库过滤
+     */
+    private record Query(String text, float[] embedding, List<Long> kbIds) {}
+
+    /**
+     * 生成合成语料：每个 chunk 由共享词汇和知识库专有词汇组成，按 position 轮流分配到各知识库
+     */
+    private List<Chunk> generateCorpus(int size, Random random) {
+        List<Chunk> corpus = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long kbId = i % kbCount;
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 40; w++) {
+                text.append("w").append(random.nextInt(SHARED_VOCABULARY)).append(' ');
+            }
+            for (int w = 0; w < 4; w++) {
+                text.append("kb").append(kbId).append("t").append(random.nextInt(10)).append(' ');
+            }
+            String content = text.toString().trim();
+            corpus.add(new Chunk(i, kbId, content, embeddingModel.embedText(content)));
+        }
+        return corpus;
+    }
+
+    /**
+     * 从随机 chunk 中抽取若干词作为查询，附带另外几个随机知识库
+     */
+    private List<Query> generateQueries(List<Chunk> corpus, Random random) {
+        List<Query> queries = new ArrayList<>(queryCount);
+        for (int q = 0; q < queryCount; q++) {
+            Chunk source = corpus.get(random.nextInt(corpus.size()));
+            String[] tokens = source.text().split(" ");
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                text.append(tokens[random.nextInt(tokens.length)]).append(' ');
+            }
+            List<Long> kbIds = new ArrayList<>(List.of(source.kbId()));
+            while (kbIds.size() < Math.min(KBS_PER_QUERY, kbCount)) {
+                long kbId = random.nextInt(kbCount);
+                if (!kbIds.contains(kbId)) {
+                    kbIds.add(kbId);
+                }
+            }
+            String content = text.toString().trim();
+            queries.add(new Query(content, embeddingModel.embedText(content), List.copyOf(kbIds)));
+        }
+        return queries;
+    }
+
+    // ==================== 后端 ====================
+
+    /**
+     * 被测的向量检索后端，检索结果以语料中的 position 表示
+     */
+    private interface Backend extends AutoCloseable {
+
+        String name();
+
+        void index(List<Chunk> corpus);
+
+        List<Integer> search(String query, List<Long> kbIds, int topK);
+
+        @Override
+        default void close() {
+        }
+    }
+
+    private List<Backend> backends() {
+        List<Backend> backends = new ArrayList<>();
+        backends.add(new SpringVectorStoreBackend("simple", SimpleVectorStore.builder(embeddingModel).build()));
+        backends.add(new SpringVectorStoreBackend("hnsw",
+            new HnswVectorStore(embeddingModel, objectMapper, HnswVectorStore.Options.defaults())));
+        if (System.getProperty("pg.url") != null) {
+            backends.add(new PgVectorBackend());
+        }
+        return backends;
+    }
+
+    /**
+     * 通过 Spring AI VectorStore 接口写入和检索，知识库过滤以 kb_id 过滤表达式下推
+     */
+    private class SpringVectorStoreBackend implements Backend {
+
+        private final String name;
+        private final VectorStore vectorStore;
+        private final Map<String, Integer> positionById = new HashMap<>();
+
+        SpringVectorStoreBackend(String name, VectorStore vectorStore) {
+            this.name = name;
+            this.vectorStore = vectorStore;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void index(List<Chunk> corpus) {
+            List<Document> documents = corpus.stream()
+                .map(chunk -> new Document(chunk.text(), Map.of("kb_id", String.valueOf(chunk.kbId()))))
+                .toList();
+            for (int i = 0; i < documents.size(); i++) {
+                positionById.put(documents.get(i).getId(), corpus.get(i).position());
+            }
+            vectorStore.add(documents);
+        }
+
+        @Override
+        public List<Integer> search(String query, List<Long> kbIds, int topK) {
+            SearchRequest.Builder request = SearchRequest.builder().query(query).topK(topK);
+            if (!kbIds.isEmpty()) {
+                FilterExpressionBuilder b = new FilterExpressionBuilder();
+                request.filterExpression(kbIds.size() == 1
+                    ? b.eq("kb_id", String.valueOf(kbIds.get(0))).build()
+                    : b.in("kb_id", kbIds.stream().map(String::valueOf).toArray()).build());
+            }
+            return vectorStore.similaritySearch(request.build()).stream()
+                .map(doc -> positionById.get(doc.getId()))
+                .toList();
+        }
+    }
+
+    /**
+     * pgvector：在独立 schema 中建表、建 kb_id 列和 HNSW 索引，检索走 {@link VectorRepository}
+     */
+    private class PgVectorBackend implements Backend {
+
+        private static final String SCHEMA = "retrieval_benchmark";
+
+        private final SingleConnectionDataSource dataSource = new SingleConnectionDataSource(
+            System.getProperty("pg.url"), System.getProperty("pg.user", "postgres"),
+            System.getProperty("pg.password", ""), true);
+        private final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        private final VectorRepository vectorRepository;
+
+        PgVectorBackend() {
+            RagConfigProperties ragConfig = new RagConfigProperties();
+            ragConfig.getVectorIndex().setDimensions(DIMENSIONS);
+            vectorRepository = new VectorRepository(jdbcTemplate, objectMapper, ragConfig);
+        }
+
+        @Override
+        public String name() {
+            return "pgvector";
+        }
+
+        @Override
+        public void index(List<Chunk> corpus) {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+            jdbcTemplate.execute("SET search_path TO " + SCHEMA + ", public");
+            jdbcTemplate.execute("""
+                CREATE TABLE vector_store (
+                    id        uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+                    content   text,
+                    metadata  json,
+                    embedding vector(%d)
+                )
+                """.formatted(DIMENSIONS));
+            vectorRepository.initKbIdColumn();
+            // 与应用写入路径一致：逐条向量化后写入，position 存为 content 以便映射结果
+            jdbcTemplate.batchUpdate(
+                "INSERT INTO vector_store (content, metadata, embedding) VALUES (?, json_build_object('kb_id', ?), ?)",
+                corpus.stream()
+                    .map(chunk -> new Object[]{String.valueOf(chunk.position()), String.valueOf(chunk.kbId()),
+                        new PGvector(embeddingModel.embedText(chunk.text()))})
+                    .toList());
+            jdbcTemplate.execute("CREATE INDEX " + VectorRepository.FULL_PRECISION_INDEX_NAME
+                + " ON vector_store USING hnsw (embedding vector_cosine_ops)");
+            jdbcTemplate.execute("ANALYZE vector_store");
+        }
+
+        @Override
+        public List<Integer> search(String query, List<Long> kbIds, int topK) {
+            return vectorRepository.similaritySearch(embeddingModel.embedText(query), kbIds, topK, 0).stream()
+                .map(doc -> Integer.valueOf(doc.getText()))
+                .toList();
+        }
+
+        @Override
+        public void close() {
+            try {
+                jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            } finally {
+                dataSource.destroy();
+            }
+        }
+    }
+
+    // ==================== 报告与回归对比 ====================
+
+    record ChunkingResult(String chunker, int chars, int chunks, double millis, double charsPerSecond) {}
+
+    record IndexingResult(String backend, int corpusSize, double millis, double chunksPerSecond) {}
+
+    record SearchResult(String backend, String filter, int corpusSize, int queries,
+                        double p50Ms, double p99Ms, double recall) {}
+
+    record Report(String generatedAt, int topK, List<ChunkingResult> chunking, List<IndexingResult> indexing,
+                  List<SearchResult> search, List<String> regressions) {}
+
+    private Report readReport(Path path) throws IOException {
+        return objectMapper.readValue(Files.readString(path), Report.class);
+    }
+
+    /**
+     * 与基线逐项对比，基线中不存在的项（新增后端、新的语料规模）跳过
+     */
+    private List<String> compare(Report current, Report base) {
+        List<String> regressions = new ArrayList<>();
+
+        Map<String, ChunkingResult> baseChunking = index(base.chunking(), ChunkingResult::chunker);
+        for (ChunkingResult result : current.chunking()) {
+            ChunkingResult previous = baseChunking.get(result.chunker());
+            if (previous != null && result.charsPerSecond() * latencyTolerance < previous.charsPerSecond()) {
+                regressions.add("chunking %s: %.0f chars/s (baseline %.0f)"
+                    .formatted(result.chunker(), result.charsPerSecond(), previous.charsPerSecond()));
+            }
+        }
+
+        Map<String, IndexingResult> baseIndexing = index(base.indexing(), r -> r.backend() + "/" + r.corpusSize());
+        for (IndexingResult result : current.indexing()) {
+            IndexingResult previous = baseIndexing.get(result.backend() + "/" + result.corpusSize());
+            if (previous != null && result.chunksPerSecond() * latencyTolerance < previous.chunksPerSecond()) {
+                regressions.add("indexing %s/%d: %.0f chunks/s (baseline %.0f)"
+                    .formatted(result.backend(), result.corpusSize(), result.chunksPerSecond(),
+                        previous.chunksPerSecond()));
+            }
+        }
+
+        Function<SearchResult, String> searchKey = r -> r.backend() + "/" + r.filter() + "/" + r.corpusSize();
+        Map<String, SearchResult> baseSearch = index(base.search(), searchKey);
+        for (SearchResult result : current.search()) {
+            SearchResult previous = baseSearch.get(searchKey.apply(result));
+            if (previous == null) {
+                continue;
+            }
+            if (result.recall() < previous.recall() - recallTolerance) {
+                regressions.add("search %s: recall@%d %.3f (baseline %.3f)"
+                    .formatted(searchKey.apply(result), TOP_K, result.recall(), previous.recall()));
+            }
+            if (result.p99Ms() > previous.p99Ms() * latencyTolerance
+                    && result.p99Ms() - previous.p99Ms() > LATENCY_SLACK_MS) {
+                regressions.add("search %s: p99 %.3fms (baseline %.3fms)"
+                    .formatted(searchKey.apply(result), result.p99Ms(), previous.p99Ms()));
+            }
+        }
+        return regressions;
+    }
+
+    private static <T> Map<String, T> index(List<T> results, Function<T, String> key) {
+        return results == null ? Map.of() : results.stream().collect(Collectors.toMap(key, r -> r, (a, b) -> b));
+    }
+
+    // ==================== 工具方法 ====================
+
+    private double percentile(long[] nanos, double p) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+
+    private double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
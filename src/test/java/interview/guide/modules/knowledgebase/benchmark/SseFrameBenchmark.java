@@ -0,0 +1,153 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.service.SseFrameCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SSE 帧合并基准测试
+ *
+ * <p>模拟大量并发流式问答：每个流按固定间隔输出 1~3 个字符的片段，对比两种写出方式：
+ * <ul>
+ *   <li>per-token：每个片段一个 ServerSentEvent（合并前的写法）</li>
+ *   <li>coalesced：{@link SseFrameCoalescer} 按 64 字符 / 20ms 合并成帧，并穿插心跳</li>
+ * </ul>
+ * 每帧编码为 SSE 文本写入缓冲区并计一次 flush，统计 frames/s、每个流的帧数和进程 CPU 时间，
+ * 并校验两种方式还原出的文本一致。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=SseFrameBenchmark -Dbenchmark=true
+ * </pre>
+ */
+@DisplayName("SSE 帧合并基准测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SseFrameBenchmark {
+
+    private static final int TOKEN_INTERVAL_MS = 2;
+
+    @Test
+    @DisplayName("逐片段写出 vs 合并成帧写出")
+    void comparePerTokenWithCoalesced() {
+        int streams = Integer.getInteger("benchmark.streams", 500);
+        int tokensPerStream = Integer.getInteger("benchmark.tokens", 400);
+        List<List<String>> answers = generateAnswers(streams, tokensPerStream);
+
+        RagConfigProperties ragConfig = new RagConfigProperties();
+        SseFrameCoalescer coalescer = new SseFrameCoalescer(ragConfig, new SimpleMeterRegistry());
+
+        Result perToken = run("per-token", answers, tokens -> tokens.map(token -> ServerSentEvent.<String>builder()
+            .data(token.replace("\n", "\\n").replace("\r", "\\r"))
+            .build()));
+        Result coalesced = run("coalesced", answers, coalescer::toEvents);
+
+        System.out.printf("[sse-benchmark] streams=%d tokens/stream=%d | per-token: %.0f frames/s, %.1f frames/stream, "
+                + "%.2f ms CPU/stream | coalesced: %.0f frames/s, %.1f frames/stream, %.2f ms CPU/stream "
+                + "| frames %.1fx fewer, CPU %.2fx%n",
+            streams, tokensPerStream,
+            perToken.framesPerSecond(), perToken.framesPerStream(streams), perToken.cpuMsPerStream(streams),
+            coalesced.framesPerSecond(), coalesced.framesPerStream(streams), coalesced.cpuMsPerStream(streams),
+            (double) perToken.frames() / coalesced.frames(),
+            perToken.cpuMsPerStream(streams) / coalesced.cpuMsPerStream(streams));
+
+        assertEquals(perToken.bytesOfText(), coalesced.bytesOfText(), "合并后还原的文本应与原文一致");
+        assertTrue(coalesced.frames() < perToken.frames(), "合并后的帧数应少于片段数");
+    }
+
+    /**
+     * 并发运行所有流，每帧编码为 SSE 文本写出并计一次 flush
+     */
+    private Result run(String label, List<List<String>> answers,
+                       Function<Flux<String>, Flux<ServerSentEvent<String>>> encoder) {
+        AtomicLong frames = new AtomicLong();
+        AtomicLong textBytes = new AtomicLong();
+        long cpuStart = processCpuNanos();
+        long start = System.nanoTime();
+
+        Flux.fromIterable(answers)
+            .flatMap(answer -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                Flux<String> tokens = Flux.interval(Duration.ofMillis(TOKEN_INTERVAL_MS))
+                    .take(answer.size())
+                    .map(i -> answer.get(i.intValue()));
+                return encoder.apply(tokens)
+                    .doOnNext(event -> {
+                        if (event.data() == null) {
+                            return;
+                        }
+                        byte[] frame = ("data:" + event.data() + "\n\n").getBytes(StandardCharsets.UTF_8);
+                        out.writeBytes(frame);
+                        frames.incrementAndGet();
+                        textBytes.addAndGet(event.data().replace("\\n", "\n").replace("\\r", "\r")
+                            .getBytes(StandardCharsets.UTF_8).length);
+                    })
+                    .then();
+            }, answers.size())
+            .blockLast(Duration.ofMinutes(5));
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long cpuNanos = processCpuNanos() - cpuStart;
+        System.out.printf("[sse-benchmark] %s: %d frames in %.2fs, CPU %.0f ms%n",
+            label, frames.get(), seconds, cpuNanos / 1e6);
+        return new Result(frames.get(), seconds, cpuNanos, textBytes.get());
+    }
+
+    private List<List<String>> generateAnswers(int streams, int tokensPerStream) {
+        Random random = new Random(42);
+        String alphabet = "知识库检索增强生成回答模型片段 abcdefghijklmnopqrstuvwxyz\n";
+        List<List<String>> answers = new ArrayList<>(streams);
+        for (int s = 0; s < streams; s++) {
+            List<String> tokens = new ArrayList<>(tokensPerStream);
+            for (int t = 0; t < tokensPerStream; t++) {
+                StringBuilder token = new StringBuilder();
+                int length = 1 + random.nextInt(3);
+                for (int c = 0; c < length; c++) {
+                    token.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                tokens.add(token.toString());
+            }
+            answers.add(tokens);
+        }
+        return answers;
+    }
+
+    private long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
+    private record Result(long frames, double seconds, long cpuNanos, long bytesOfText) {
+
+        double framesPerSecond() {
+            return frames / seconds;
+        }
+
+        double framesPerStream(int streams) {
+            return (double) frames / streams;
+        }
+
+        double cpuMsPerStream(int streams) {
+            return cpuNanos / 1e6 / streams;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package interview.guide.modules.knowledgebase.benchmark;
+
+import com.pgvector.PGvector;
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 向量写入吞吐基准测试
+ *
+ * <p>对比三种写入 vector_store 的方式（rows/s）：
+ * <ul>
+ *   <li>insert-10：与 PgVectorStore.add 相同的 batchUpdate INSERT，每批 10 行</li>
+ *   <li>copy-10：二进制 COPY，每批 10 行（向量化任务每个 Embedding 批次写入一次）</li>
+ *   <li>copy-1000：二进制 COPY，每批 1000 行（重新向量化、迁移等批量任务）</li>
+ * </ul>
+ * 每种方式写入前清空表，表上保留 HNSW 索引和 kb_id 触发器，与线上一致。
+ * 同时校验 COPY 写入的行与原始文档、向量一致，kb_id 列由触发器正确填充。
+ *
+ * <p>运行方式：
+ * <pre>
+ * mvn test -Dtest=VectorIngestBenchmark -Dbenchmark=true \
+ *     -Dpg.url=jdbc:postgresql://localhost:5432/interview_guide -Dpg.user=postgres -Dpg.password=password
+ * </pre>
+ */
+@DisplayName("向量写入吞吐基准测试")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@EnabledIfSystemProperty(named = "pg.url", matches = ".+")
+class VectorIngestBenchmark {
+
+    private static final int DIMENSIONS = 1024;
+    private static final String SCHEMA = "vector_ingest_benchmark";
+
+    /**
+     * PgVectorStore.add 使用的写入语句
+     */
+    private static final String INSERT_SQL = """
+        INSERT INTO vector_store (id, content, metadata, embedding)
+        VALUES (?, ?, ?::jsonb, ?)
+        ON CONFLICT (id) DO UPDATE SET content = EXCLUDED.content, metadata = EXCLUDED.metadata,
+            embedding = EXCLUDED.embedding
+        """;
+
+    @Test
+    @DisplayName("PostgreSQL：batchUpdate INSERT 与二进制 COPY 的写入吞吐")
+    void compareIngestThroughput() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(System.getProperty("pg.url"),
+            System.getProperty("pg.user", "postgres"), System.getProperty("pg.password", ""), true);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        ObjectMapper objectMapper = new ObjectMapper();
+        VectorRepository vectorRepository = new VectorRepository(jdbcTemplate, objectMapper, new RagConfigProperties());
+        int rows = Integer.getInteger("benchmark.rows", 20_000);
+
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+            jdbcTemplate.execute("SET search_path TO " + SCHEMA + ", public");
+            jdbcTemplate.execute("""
+                CREATE TABLE vector_store (
+                    id        uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+                    content   text,
+                    metadata  json,
+                    embedding vector(%d)
+                )
+                """.formatted(DIMENSIONS));
+            jdbcTemplate.execute("CREATE INDEX " + VectorRepository.FULL_PRECISION_INDEX_NAME
+                + " ON vector_store USING hnsw (embedding vector_cosine_ops)");
+            vectorRepository.initKbIdColumn();
+
+            Random random = new Random(42);
+            List<Document> documents = new ArrayList<>(rows);
+            List<float[]> embeddings = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                documents.add(Document.builder()
+                    .id(UUID.randomUUID().toString())
+                    .text("chunk " + i + " 知识库文本内容，用于测试批量写入吞吐。")
+                    .metadata(Map.of("kb_id", String.valueOf(i % 50), "chunk_hash", Integer.toHexString(i)))
+                    .build());
+                embeddings.add(randomVector(random));
+            }
+
+            double insertRate = measure(jdbcTemplate, rows, "insert-10", () -> {
+                for (int from = 0; from < rows; from += 10) {
+                    List<Integer> slice = range(from, Math.min(from + 10, rows));
+                    jdbcTemplate.batchUpdate(INSERT_SQL, slice, slice.size(), (ps, i) -> {
+                        ps.setObject(1, UUID.fromString(documents.get(i).getId()));
+                        ps.setString(2, documents.get(i).getText());
+                        ps.setString(3, objectMapper.writeValueAsString(documents.get(i).getMetadata()));
+                        ps.setObject(4, new PGvector(embeddings.get(i)));
+                    });
+                }
+            });
+            double copySmallRate = measure(jdbcTemplate, rows, "copy-10", () -> copyInBatches(
+                vectorRepository, documents, embeddings, 10));
+            double copyLargeRate = measure(jdbcTemplate, rows, "copy-1000", () -> copyInBatches(
+                vectorRepository, documents, embeddings, 1000));
+
+            verifyRoundTrip(jdbcTemplate, documents.getFirst(), embeddings.getFirst());
+            System.out.printf("[ingest-benchmark] rows=%d | insert-10=%.0f rows/s | copy-10=%.0f rows/s (%.2fx) "
+                    + "| copy-1000=%.0f rows/s (%.2fx)%n",
+                rows, insertRate, copySmallRate, copySmallRate / insertRate,
+                copyLargeRate, copyLargeRate / insertRate);
+            assertTrue(copyLargeRate > insertRate, "大批量 COPY 的吞吐应高于逐批 INSERT");
+        } finally {
+            jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+            dataSource.destroy();
+        }
+    }
+
+    /**
+     * 清空表后执行一次写入，返回 rows/s
+     */
+    private double measure(JdbcTemplate jdbcTemplate, int rows, String label, Runnable ingest) {
+        jdbcTemplate.execute("TRUNCATE vector_store");
+        long start = System.nanoTime();
+        ingest.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM vector_store", Long.class);
+        assertEquals((long) rows, count, label + " 写入行数不符");
+        double rate = rows / seconds;
+        System.out.printf("[ingest-benchmark] %s: %d rows in %.2fs (%.0f rows/s)%n", label, rows, seconds, rate);
+        return rate;
+    }
+
+    private void copyInBatches(VectorRepository vectorRepository, List<Document> documents,
+                               List<float[]> embeddings, int batchSize) {
+        for (int from = 0; from < documents.size(); from += batchSize) {
+            int to = Math.min(from + batchSize, documents.size());
+            vectorRepository.copyIn(documents.subList(from, to), embeddings.subList(from, to));
+        }
+    }
+
+    /**
+     * 校验 COPY 写入的数据可按文本格式读回，kb_id 列已由触发器填充
+     */
+    private void verifyRoundTrip(JdbcTemplate jdbcTemplate, Document document, float[] embedding) {
+        Map<String, Object> row = jdbcTemplate.queryForMap(
+            "SELECT content, metadata->>'kb_id' AS meta_kb_id, kb_id, embedding::text AS embedding "
+                + "FROM vector_store WHERE id = ?::uuid", document.getId());
+        assertEquals(document.getText(), row.get("content"));
+        assertEquals(document.getMetadata().get("kb_id"), row.get("meta_kb_id"));
+        assertEquals(Long.valueOf((String) document.getMetadata().get("kb_id")), row.get("kb_id"));
+        assertArrayEquals(embedding, new PGvector((String) row.get("embedding")).toArray());
+    }
+
+    private List<Integer> range(int from, int to) {
+        List<Integer> indexes = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            indexes.add(i);
+        }
+        return indexes;
+    }
+
+    private float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,105 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * rag_chat_sessions.is_pinned 回填集成测试
+ *
+ * <p>
+ * 需要 PostgreSQL。测试在独立 schema 中按旧结构建表（is_pinned 可为 NULL），写入置顶字段新增前的旧会话，
+ * 验证启动回填后旧会话出现在非置顶分段的列表查询中，且列不再接受 NULL。
+ *
+ * <p>
+ * 运行方式：
+ *
+ * <pre>
+ * mvn test -Dtest=RagChatSessionSchemaRepositoryTest \
+ *     -Dpg.url=jdbc:postgresql://localhost:5432/interview_guide -Dpg.user=postgres -Dpg.password=password
+ * </pre>
+ */
+@DisplayName("会话置顶字段回填集成测试（需要 PostgreSQL）")
+@EnabledIfSystemProperty(named = "pg.url", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class RagChatSessionSchemaRepositoryTest {
+
+    private static final String SCHEMA = "rag_session_pinned_test";
+
+    /**
+     * 与 RagChatSessionRepository#findListFirstPage 等价的 SQL
+     */
+    private static final String LIST_SQL = """
+        SELECT id FROM rag_chat_sessions WHERE is_pinned = ?
+        ORDER BY updated_at DESC, id DESC LIMIT 20
+        """;
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private RagChatSessionSchemaRepository schemaRepository;
+
+    @BeforeAll
+    void setUp() {
+        dataSource = new SingleConnectionDataSource(System.getProperty("pg.url"),
+            System.getProperty("pg.user", "postgres"), System.getProperty("pg.password", ""), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        schemaRepository = new RagChatSessionSchemaRepository(jdbcTemplate);
+
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + SCHEMA + ", public");
+        jdbcTemplate.execute("""
+            CREATE TABLE rag_chat_sessions (
+                id         bigserial    PRIMARY KEY,
+                title      varchar(255) NOT NULL,
+                updated_at timestamp,
+                is_pinned  boolean
+            )
+            """);
+        // 旧会话：置顶字段新增前创建，is_pinned 为 NULL
+        jdbcTemplate.update("""
+            INSERT INTO rag_chat_sessions (id, title, updated_at, is_pinned) VALUES
+                (1, 'legacy', now() - interval '1 day', NULL),
+                (2, 'pinned', now(), true),
+                (3, 'unpinned', now(), false)
+            """);
+    }
+
+    @AfterAll
+    void tearDown() {
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        dataSource.destroy();
+    }
+
+    @Test
+    @DisplayName("NULL 置顶的旧会话回填后出现在非置顶列表中，列不再接受 NULL")
+    void testLegacyNullPinnedBackfilled() {
+        // Given: 回填前旧会话在两个分段中都查不到
+        assertEquals(List.of(3L), jdbcTemplate.queryForList(LIST_SQL, Long.class, false));
+        assertEquals(List.of(2L), jdbcTemplate.queryForList(LIST_SQL, Long.class, true));
+
+        // When: 重复执行保持幂等
+        schemaRepository.initPinnedColumn();
+        schemaRepository.initPinnedColumn();
+
+        // Then
+        assertEquals(List.of(3L, 1L), jdbcTemplate.queryForList(LIST_SQL, Long.class, false));
+        assertEquals(List.of(2L), jdbcTemplate.queryForList(LIST_SQL, Long.class, true));
+        assertEquals("NO", jdbcTemplate.queryForObject("""
+            SELECT is_nullable FROM information_schema.columns
+            WHERE table_schema = ? AND table_name = 'rag_chat_sessions' AND column_name = 'is_pinned'
+            """, String.class, SCHEMA));
+        jdbcTemplate.update("INSERT INTO rag_chat_sessions (id, title, updated_at) VALUES (4, 'new', now())");
+        assertEquals(Boolean.FALSE, jdbcTemplate.queryForObject(
+            "SELECT is_pinned FROM rag_chat_sessions WHERE id = 4", Boolean.class));
+    }
+}
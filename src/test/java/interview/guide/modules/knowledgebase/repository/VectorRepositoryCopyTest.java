@@ -0,0 +1,109 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 二进制 COPY 编码单元测试
+ *
+ * <p>测试覆盖：文件头与结束标记、uuid / text / json / jsonb / vector 字段的二进制格式、NULL 文本
+ */
+@DisplayName("向量二进制 COPY 编码测试")
+class VectorRepositoryCopyTest {
+
+    private final UUID id = UUID.fromString("0f8fad5b-d9cb-469f-a165-70867728950e");
+
+    private byte[] encode(String content, String metadata, boolean jsonb, float[] embedding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        VectorRepository.writeCopyHeader(out);
+        VectorRepository.writeCopyRow(out, id, content, metadata, jsonb, embedding);
+        VectorRepository.writeCopyTrailer(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private DataInputStream skipHeader(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        byte[] signature = new byte[VectorRepository.COPY_SIGNATURE.length];
+        in.readFully(signature);
+        assertArrayEquals(VectorRepository.COPY_SIGNATURE, signature);
+        assertEquals(0, in.readInt(), "标志位");
+        assertEquals(0, in.readInt(), "扩展区长度");
+        return in;
+    }
+
+    private String readText(DataInputStream in) throws IOException {
+        byte[] text = new byte[in.readInt()];
+        in.readFully(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("一行数据按 id、content、metadata、embedding 顺序编码")
+    void testRowLayout() throws IOException {
+        // When
+        byte[] encoded = encode("知识库 chunk", "{\"kb_id\":\"1\"}", false, new float[]{0.5f, -1.25f, 3f});
+
+        // Then
+        DataInputStream in = skipHeader(encoded);
+        assertEquals(4, in.readShort(), "字段数");
+
+        assertEquals(16, in.readInt());
+        assertEquals(id, new UUID(in.readLong(), in.readLong()));
+
+        assertEquals("知识库 chunk", readText(in));
+        assertEquals("{\"kb_id\":\"1\"}", readText(in));
+
+        assertEquals(4 + 3 * 4, in.readInt());
+        assertEquals(3, in.readShort(), "维度");
+        assertEquals(0, in.readShort(), "保留位");
+        assertEquals(0.5f, in.readFloat());
+        assertEquals(-1.25f, in.readFloat());
+        assertEquals(3f, in.readFloat());
+
+        assertEquals(-1, in.readShort(), "结束标记");
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    @DisplayName("jsonb 列在文本前写入版本号")
+    void testJsonbVersionByte() throws IOException {
+        // When
+        byte[] encoded = encode("c", "{}", true, new float[]{1f});
+
+        // Then
+        DataInputStream in = skipHeader(encoded);
+        in.readShort();
+        in.skipNBytes(4 + 16);
+        in.skipNBytes(4 + 1);
+        assertEquals(3, in.readInt());
+        assertEquals(1, in.readByte(), "jsonb 版本号");
+        assertEquals('{', in.readByte());
+        assertEquals('}', in.readByte());
+    }
+
+    @Test
+    @DisplayName("content 为 null 时写入 NULL 字段")
+    void testNullContent() throws IOException {
+        // When
+        byte[] encoded = encode(null, "{}", false, new float[]{1f});
+
+        // Then
+        DataInputStream in = skipHeader(encoded);
+        in.readShort();
+        in.skipNBytes(4 + 16);
+        assertEquals(-1, in.readInt());
+        assertEquals("{}", readText(in));
+    }
+}
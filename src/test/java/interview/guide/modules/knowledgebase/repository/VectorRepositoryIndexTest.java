@@ -0,0 +1,211 @@
+package interview.guide.modules.knowledgebase.repository;
+
+import com.pgvector.PGvector;
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.config.RagConfigProperties.VectorQuantization;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import tools.jackson.databind.ObjectMapper;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * vector_store.kb_id 列索引集成测试
+ *
+ * <p>
+ * 需要安装了 pgvector 扩展的 PostgreSQL。测试在独立 schema 中建表，不影响业务数据。
+ * 通过 EXPLAIN 验证按知识库删除和检索都使用 idx_vector_store_kb_id，而不是全表扫描，
+ * 以及量化检索的候选阶段使用量化表达式索引。
+ *
+ * <p>
+ * 运行方式：
+ *
+ * <pre>
+ * mvn test -Dtest=VectorRepositoryIndexTest \
+ *     -Dpg.url=jdbc:postgresql://localhost:5432/interview_guide -Dpg.user=postgres -Dpg.password=password
+ * </pre>
+ */
+@DisplayName("向量表 kb_id 索引集成测试（需要 PostgreSQL）")
+@EnabledIfSystemProperty(named = "pg.url", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class VectorRepositoryIndexTest {
+
+    private static final String SCHEMA = "kb_id_index_test";
+    private static final int KB_COUNT = 200;
+    private static final int ROWS = 20000;
+    private static final String INDEX_NAME = "idx_vector_store_kb_id";
+
+    private SingleConnectionDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private RagConfigProperties ragConfig;
+    private VectorRepository vectorRepository;
+
+    @BeforeAll
+    void setUp() {
+        dataSource = new SingleConnectionDataSource(System.getProperty("pg.url"),
+            System.getProperty("pg.user", "postgres"), System.getProperty("pg.password", ""), true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        ragConfig = new RagConfigProperties();
+        vectorRepository = new VectorRepository(jdbcTemplate, new ObjectMapper(), ragConfig);
+
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        jdbcTemplate.execute("CREATE SCHEMA " + SCHEMA);
+        jdbcTemplate.execute("SET search_path TO " + SCHEMA + ", public");
+        jdbcTemplate.execute("""
+            CREATE TABLE vector_store (
+                id        uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+                content   text,
+                metadata  json,
+                embedding vector(3)
+            )
+            """);
+
+        // 旧数据：一半使用 String 类型 kb_id，一半使用旧格式 kb_id_long
+        jdbcTemplate.update("""
+            INSERT INTO vector_store (content, metadata, embedding)
+            SELECT 'chunk ' || i,
+                   CASE WHEN i % 2 = 0
+                        THEN json_build_object('kb_id', (i % ?)::text)
+                        ELSE json_build_object('kb_id_long', i % ?) END,
+                   ('[' || random() || ',' || random() || ',' || random() || ']')::vector
+            FROM generate_series(1, ?) AS i
+            """, KB_COUNT, KB_COUNT, ROWS);
+
+        vectorRepository.initKbIdColumn();
+        jdbcTemplate.execute("ANALYZE vector_store");
+    }
+
+    @AfterAll
+    void tearDown() {
+        jdbcTemplate.execute("DROP SCHEMA IF EXISTS " + SCHEMA + " CASCADE");
+        dataSource.destroy();
+    }
+
+    @Test
+    @DisplayName("旧数据从 kb_id 和 kb_id_long 两种格式回填")
+    void testLegacyRowsBackfilled() {
+        Integer missing = jdbcTemplate.queryForObject(
+            "SELECT count(*) FROM vector_store WHERE kb_id IS NULL AND metadata->>'retired_kb_id' IS NULL",
+            Integer.class);
+        assertEquals(0, missing);
+        assertEquals(ROWS / KB_COUNT, vectorRepository.findStoredChunks(7L).size());
+    }
+
+    @Test
+    @DisplayName("新写入和 metadata 变更时由触发器同步 kb_id")
+    void testTriggerKeepsColumnInSync() {
+        String id = jdbcTemplate.queryForObject("""
+            INSERT INTO vector_store (content, metadata, embedding)
+            VALUES ('new', json_build_object('kb_id', '99999'), '[1,0,0]')
+            RETURNING id::text
+            """, String.class);
+        assertEquals(99999L, jdbcTemplate.queryForObject(
+            "SELECT kb_id FROM vector_store WHERE id = ?::uuid", Long.class, id));
+
+        jdbcTemplate.update("UPDATE vector_store SET metadata = json_build_object('retired_kb_id', '99999') "
+            + "WHERE id = ?::uuid", id);
+        assertNull(jdbcTemplate.queryForObject(
+            "SELECT kb_id FROM vector_store WHERE id = ?::uuid", Long.class, id));
+    }
+
+    @Test
+    @DisplayName("按知识库删除使用 kb_id 索引")
+    void testDeleteUsesIndex() {
+        List<String> plan = jdbcTemplate.queryForList(
+            "EXPLAIN " + VectorRepository.DELETE_BY_KB_ID_SQL, String.class, 7L);
+
+        assertPlanUsesIndex(plan);
+    }
+
+    @Test
+    @DisplayName("按知识库检索使用 kb_id 索引")
+    void testSearchUsesIndex() {
+        PGvector vector = new PGvector(new float[]{0.1f, 0.2f, 0.3f});
+        List<String> plan = jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement("EXPLAIN " + VectorRepository.buildSearchSql(true, false));
+            ps.setObject(1, vector);
+            ps.setArray(2, con.createArrayOf("bigint", new Object[]{7L, 8L}));
+            ps.setObject(3, vector);
+            ps.setInt(4, 5);
+            return ps;
+        }, (rs, rowNum) -> rs.getString(1));
+
+        assertPlanUsesIndex(plan);
+        assertEquals(5, vectorRepository.similaritySearch(
+            new float[]{0.1f, 0.2f, 0.3f}, List.of(7L, 8L), 5, 0.0).size());
+    }
+
+    @Test
+    @DisplayName("精确扫描按 kb_id 索引取行，结果与索引检索一致")
+    void testExactScanUsesKbIdIndex() {
+        PGvector vector = new PGvector(new float[]{0.1f, 0.2f, 0.3f});
+        List<String> plan = jdbcTemplate.query(con -> {
+            var ps = con.prepareStatement("EXPLAIN " + VectorRepository.buildExactSearchSql(false));
+            ps.setArray(1, con.createArrayOf("bigint", new Object[]{7L, 8L}));
+            ps.setObject(2, vector);
+            ps.setInt(3, 5);
+            return ps;
+        }, (rs, rowNum) -> rs.getString(1));
+
+        assertPlanUsesIndex(plan);
+        List<Document> exact = vectorRepository.similaritySearch(new float[]{0.1f, 0.2f, 0.3f}, List.of(7L, 8L), 5,
+            0.0, VectorRepository.SearchPlan.exact());
+        List<Document> ann = vectorRepository.similaritySearch(new float[]{0.1f, 0.2f, 0.3f}, List.of(7L, 8L), 5,
+            0.0, VectorRepository.SearchPlan.ann(100, false));
+        assertEquals(ann.stream().map(Document::getId).toList(), exact.stream().map(Document::getId).toList());
+    }
+
+    @Test
+    @DisplayName("量化检索 - 候选阶段使用量化索引，结果按原始向量重排")
+    void testQuantizedSearchUsesQuantizedIndex() {
+        // Given
+        ragConfig.getVectorIndex().setQuantization(VectorQuantization.HALFVEC);
+        ragConfig.getVectorIndex().setDimensions(3);
+        vectorRepository.initQuantizedIndex();
+        String indexName = VectorRepository.quantizedIndexName(VectorQuantization.HALFVEC);
+        PGvector vector = new PGvector(new float[]{0.1f, 0.2f, 0.3f});
+
+        try {
+            // When
+            List<String> plan = jdbcTemplate.query(con -> {
+                var ps = con.prepareStatement("EXPLAIN " + VectorRepository.buildQuantizedSearchSql(
+                    VectorQuantization.HALFVEC, 3, false, false));
+                ps.setObject(1, vector);
+                ps.setInt(2, 20);
+                ps.setObject(3, vector);
+                ps.setInt(4, 5);
+                return ps;
+            }, (rs, rowNum) -> rs.getString(1));
+            List<Document> quantized = vectorRepository.similaritySearch(
+                new float[]{0.1f, 0.2f, 0.3f}, List.of(7L, 8L), 5, 0.0);
+            ragConfig.getVectorIndex().setQuantization(VectorQuantization.NONE);
+            List<Document> exact = vectorRepository.similaritySearch(
+                new float[]{0.1f, 0.2f, 0.3f}, List.of(7L, 8L), 5, 0.0);
+
+            // Then
+            String text = String.join("\n", plan);
+            assertTrue(text.contains(indexName), "执行计划应使用 " + indexName + "，实际:\n" + text);
+            assertEquals(exact.stream().map(Document::getId).toList(),
+                quantized.stream().map(Document::getId).toList());
+        } finally {
+            ragConfig.getVectorIndex().setQuantization(VectorQuantization.NONE);
+            jdbcTemplate.execute("DROP INDEX IF EXISTS " + indexName);
+        }
+    }
+
+    private void assertPlanUsesIndex(List<String> plan) {
+        String text = String.join("\n", plan);
+        assertTrue(text.contains(INDEX_NAME), "执行计划应使用 " + INDEX_NAME + "，实际:\n" + text);
+        assertFalse(text.contains("Seq Scan on vector_store"), "执行计划不应全表扫描，实际:\n" + text);
+    }
+}
@@ -0,0 +1,113 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("上下文组装测试")
+class ContextAssemblerTest {
+
+    private static final String SPRING = "Spring Boot 通过自动配置和起步依赖简化了应用开发，"
+        + "开发者只需要引入 spring-boot-starter-web 就可以快速构建 Web 应用。";
+    private static final String PGVECTOR = "PostgreSQL 的 pgvector 扩展提供向量类型和 HNSW 索引，"
+        + "可以在数据库内完成相似度检索，避免引入单独的向量数据库。";
+    private static final String REDIS = "Redisson 提供分布式锁、限流器和 Stream 消费者组，"
+        + "适合在多实例部署时协调后台任务。";
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private ContextAssembler assembler;
+
+    @BeforeEach
+    void setUp() {
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        assembler = new ContextAssembler(ragConfig, meterRegistry);
+    }
+
+    @Test
+    @DisplayName("近似重复的 chunk 被丢弃，并记录节省的 token")
+    void testDuplicateChunksDropped() {
+        // Given: 第二个 chunk 只是第一个的片段
+        List<Document> docs = List.of(new Document(SPRING), new Document(SPRING.substring(0, 40)),
+            new Document(PGVECTOR));
+
+        // When
+        ContextAssembler.AssembledContext result = assembler.assemble(docs);
+
+        // Then
+        assertEquals(List.of(docs.get(0), docs.get(2)), result.documents());
+        assertEquals(SPRING + ContextAssembler.SEPARATOR + PGVECTOR, result.context());
+        assertTrue(result.savedTokens() > 0);
+        assertEquals(result.savedTokens(), meterRegistry.counter("rag.context.tokens.saved").count());
+        assertEquals(1, meterRegistry.counter("rag.context.chunks.deduplicated").count());
+    }
+
+    @Test
+    @DisplayName("按对话模型的预算装入，放不下的 chunk 跳过")
+    void testModelBudget() {
+        // Given: 预算只够两个 chunk
+        var estimator = new JTokkitTokenCountEstimator();
+        int budget = estimator.estimate(SPRING) + estimator.estimate(ContextAssembler.SEPARATOR)
+            + estimator.estimate(REDIS);
+        ragConfig.getContext().setChatModel("qwen-turbo");
+        ragConfig.getContext().getModelMaxTokens().put("qwen-turbo", budget);
+
+        // When: PGVECTOR 比 REDIS 长，排在前面但放不下
+        ContextAssembler.AssembledContext result = assembler.assemble(
+            List.of(new Document(SPRING), new Document(PGVECTOR), new Document(REDIS)));
+
+        // Then
+        assertEquals(SPRING + ContextAssembler.SEPARATOR + REDIS, result.context());
+        assertTrue(result.promptTokens() <= budget);
+    }
+
+    @Test
+    @DisplayName("最相关的 chunk 超出预算时截断装入")
+    void testTruncateFirstChunk() {
+        // Given
+        ragConfig.getContext().setMaxTokens(10);
+
+        // When
+        ContextAssembler.AssembledContext result = assembler.assemble(List.of(new Document(SPRING.repeat(5))));
+
+        // Then
+        assertFalse(result.context().isEmpty());
+        assertTrue(SPRING.repeat(5).startsWith(result.context()));
+        assertTrue(result.promptTokens() <= 10);
+    }
+
+    @Test
+    @DisplayName("截断时不把代理对切成两半")
+    void testTruncateKeepsSurrogatePairs() {
+        // Given: 全部由补充平面字符组成，任意奇数位置截断都会切开代理对
+        ragConfig.getContext().setMaxTokens(20);
+        String emoji = "😀🚀📚".repeat(100);
+
+        // When
+        ContextAssembler.AssembledContext result = assembler.assemble(List.of(new Document(emoji)));
+
+        // Then
+        assertFalse(result.context().isEmpty());
+        assertTrue(emoji.startsWith(result.context()));
+        assertTrue(result.context().codePoints()
+            .noneMatch(cp -> cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE));
+    }
+
+    @Test
+    @DisplayName("空检索结果返回空上下文")
+    void testEmpty() {
+        ContextAssembler.AssembledContext result = assembler.assemble(List.of());
+
+        assertEquals("", result.context());
+        assertEquals(0, result.promptTokens());
+    }
+}
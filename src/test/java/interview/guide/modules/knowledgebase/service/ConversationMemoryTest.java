@@ -0,0 +1,315 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.model.RagChatMessageEntity;
+import interview.guide.modules.knowledgebase.model.RagChatMessageEntity.MessageType;
+import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository.SessionMemory;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.domain.PageRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * ConversationMemory 单元测试
+ *
+ * <p>测试覆盖：
+ * <ul>
+ *   <li>组装历史：摘要 + 最近几轮按正序排列、已摘要的消息不重复、token 预算、错误消息不计入</li>
+ *   <li>刷新摘要：只折叠移出最近对话窗口的消息、分批折叠、并发刷新时停止、异步刷新不占用流式调度器</li>
+ * </ul>
+ */
+@DisplayName("多轮对话记忆测试")
+class ConversationMemoryTest {
+
+    @Mock
+    private ChatClient.Builder chatClientBuilder;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ChatClient chatClient;
+
+    @Mock
+    private RagChatSessionRepository sessionRepository;
+
+    @Mock
+    private RagChatMessageRepository messageRepository;
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private ConversationMemory memory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        ragConfig = new RagConfigProperties();
+        ragConfig.getMemory().setRecentTurns(2);
+        ragConfig.getMemory().setSummaryConcurrency(1);
+        meterRegistry = new SimpleMeterRegistry();
+        when(chatClientBuilder.build()).thenReturn(chatClient);
+        memory = new ConversationMemory(chatClientBuilder, sessionRepository, messageRepository,
+            ragConfig, meterRegistry,
+            new ByteArrayResource("摘要不超过 {maxTokens} 个 token".getBytes(StandardCharsets.UTF_8)),
+            new ByteArrayResource("{summary}\n{conversation}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        memory.shutdown();
+    }
+
+    private void givenState(String summary, Integer summarizedUpTo, int messageCount) {
+        SessionMemory state = mock(SessionMemory.class);
+        when(state.getSummary()).thenReturn(summary);
+        when(state.getSummarizedUpTo()).thenReturn(summarizedUpTo);
+        when(state.getMessageCount()).thenReturn(messageCount);
+        when(sessionRepository.findMemoryById(1L)).thenReturn(Optional.of(state));
+    }
+
+    private RagChatMessageEntity message(int order, String content) {
+        RagChatMessageEntity message = new RagChatMessageEntity();
+        message.setMessageOrder(order);
+        message.setType(order % 2 == 0 ? MessageType.USER : MessageType.ASSISTANT);
+        message.setContent(content);
+        return message;
+    }
+
+    /**
+     * 生成 [from, to) 范围内的消息，问答交替
+     */
+    private List<RagChatMessageEntity> messages(int from, int to) {
+        List<RagChatMessageEntity> messages = new ArrayList<>();
+        for (int order = from; order < to; order++) {
+            messages.add(message(order, (order % 2 == 0 ? "问题" : "回答") + order));
+        }
+        return messages;
+    }
+
+    private void givenRecent(int beforeOrder, List<RagChatMessageEntity> newestFirst) {
+        when(messageRepository.findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(
+            1L, beforeOrder, PageRequest.of(0, 4))).thenReturn(newestFirst);
+    }
+
+    @Nested
+    @DisplayName("组装对话历史")
+    class RenderTests {
+
+        @Test
+        @DisplayName("第一轮提问没有历史")
+        void testFirstQuestionHasNoHistory() {
+            assertEquals("", memory.render(1L, 0));
+            verifyNoInteractions(sessionRepository, messageRepository);
+        }
+
+        @Test
+        @DisplayName("摘要在前，最近几轮按正序排列，已摘要的消息不重复")
+        void testSummaryThenRecentTurns() {
+            // Given: 前 4 条已折叠进摘要
+            givenState("用户在学习 Redis 持久化", 4, 8);
+            givenRecent(8, List.of(message(7, "回答7"), message(6, "问题6"), message(5, "回答5"),
+                message(3, "回答3")));
+
+            // When
+            String history = memory.render(1L, 8);
+
+            // Then
+            assertTrue(history.contains("用户在学习 Redis 持久化"));
+            assertTrue(history.indexOf("用户在学习") < history.indexOf("助手：回答5"));
+            assertTrue(history.indexOf("助手：回答5") < history.indexOf("用户：问题6"));
+            assertTrue(history.indexOf("用户：问题6") < history.indexOf("助手：回答7"));
+            assertFalse(history.contains("回答3"));
+        }
+
+        @Test
+        @DisplayName("错误提示、生成失败的回答和空回答不计入历史")
+        void testSkipsErrorsAndBlankMessages() {
+            // Given
+            givenState(null, 0, 6);
+            RagChatMessageEntity failed = message(5, "生成到一半的回答");
+            failed.setFailed(true);
+            givenRecent(6, List.of(failed, message(4, "问题4"), message(3, ""),
+                message(2, "【错误】回答生成失败：timeout")));
+
+            // When
+            String history = memory.render(1L, 6);
+
+            // Then
+            assertTrue(history.endsWith("### 最近对话\n用户：问题4\n"));
+            assertFalse(history.contains("【错误】"));
+            assertFalse(history.contains("生成到一半"));
+            assertFalse(history.contains("较早对话摘要"));
+        }
+
+        @Test
+        @DisplayName("超出 token 预算时截断摘要、丢弃较早的对话，整体不超过预算")
+        void testStaysWithinTokenBudget() {
+            // Given
+            ragConfig.getMemory().setMaxTokens(200);
+            ragConfig.getMemory().setSummaryMaxTokens(50);
+            String longText = "缓存一致性与持久化策略的取舍。".repeat(200);
+            givenState(longText, 0, 4);
+            givenRecent(4, List.of(message(3, "最新的回答"), message(2, longText), message(1, "回答1"),
+                message(0, "问题0")));
+
+            // When
+            String history = memory.render(1L, 4);
+
+            // Then
+            JTokkitTokenCountEstimator estimator = new JTokkitTokenCountEstimator();
+            String header = "\n## 对话历史\n如果用户的问题指代之前的对话，请结合以下对话历史理解问题。\n"
+                + "\n### 较早对话摘要\n\n\n### 最近对话\n\n";
+            assertTrue(estimator.estimate(history) <= 200 + estimator.estimate(header));
+            assertTrue(history.contains("助手：最新的回答"));
+            assertFalse(history.contains("问题0"));
+        }
+
+        @Test
+        @DisplayName("截断时不把代理对切成两半")
+        void testTruncateKeepsSurrogatePairs() {
+            // When
+            String truncated = memory.truncate("😀🚀📚".repeat(100), 20);
+
+            // Then
+            assertFalse(truncated.isEmpty());
+            assertTrue(truncated.codePoints()
+                .noneMatch(cp -> cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE));
+        }
+
+        @Test
+        @DisplayName("未启用时不查询历史")
+        void testDisabled() {
+            ragConfig.getMemory().setEnabled(false);
+            assertEquals("", memory.render(1L, 8));
+            verifyNoInteractions(sessionRepository, messageRepository);
+        }
+    }
+
+    @Nested
+    @DisplayName("刷新滚动摘要")
+    class RefreshTests {
+
+        @Test
+        @DisplayName("只折叠移出最近对话窗口的消息，并与已有摘要合并")
+        void testFoldsMessagesOutsideRecentWindow() {
+            // Given: 共 8 条消息，最近 2 轮（4 条）保留原样，前 2 条已摘要
+            givenState("旧摘要", 2, 8);
+            when(messageRepository.findOrderRange(1L, 2, 4)).thenReturn(messages(2, 4));
+            when(chatClient.prompt().system(anyString()).user(anyString()).call().content()).thenReturn("新摘要");
+            when(sessionRepository.updateSummary(1L, "新摘要", 2, 4)).thenReturn(1);
+
+            // When
+            int folded = memory.refresh(1L);
+
+            // Then
+            assertEquals(2, folded);
+            ArgumentCaptor<String> userPrompt = ArgumentCaptor.forClass(String.class);
+            verify(chatClient.prompt().system(anyString())).user(userPrompt.capture());
+            assertTrue(userPrompt.getValue().contains("旧摘要"));
+            assertTrue(userPrompt.getValue().contains("用户：问题2\n助手：回答3"));
+        }
+
+        @Test
+        @DisplayName("最近对话窗口内的消息不折叠")
+        void testNothingToFold() {
+            // Given
+            givenState(null, 0, 4);
+
+            // When
+            int folded = memory.refresh(1L);
+
+            // Then
+            assertEquals(0, folded);
+            verify(messageRepository, never()).findOrderRange(anyLong(), anyInt(), anyInt());
+            verify(sessionRepository, never()).updateSummary(anyLong(), anyString(), anyInt(), anyInt());
+        }
+
+        @Test
+        @DisplayName("积压的消息分批折叠，每批 20 条")
+        void testFoldsInBatches() {
+            // Given: 旧会话首次启用记忆，44 条消息中前 40 条需要折叠
+            givenState(null, null, 44);
+            when(messageRepository.findOrderRange(1L, 0, 20)).thenReturn(messages(0, 20));
+            when(messageRepository.findOrderRange(1L, 20, 40)).thenReturn(messages(20, 40));
+            when(chatClient.prompt().system(anyString()).user(anyString()).call().content())
+                .thenReturn("摘要1", "摘要2");
+            when(sessionRepository.updateSummary(eq(1L), anyString(), anyInt(), anyInt())).thenReturn(1);
+
+            // When
+            int folded = memory.refresh(1L);
+
+            // Then
+            assertEquals(40, folded);
+            verify(sessionRepository).updateSummary(1L, "摘要1", 0, 20);
+            verify(sessionRepository).updateSummary(1L, "摘要2", 20, 40);
+        }
+
+        @Test
+        @DisplayName("异步刷新在独立的虚拟线程上执行，并发已满时跳过")
+        void testRefreshAsyncOnDedicatedThreads() throws Exception {
+            // Given: 第一次刷新阻塞在读取会话状态上
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicReference<Thread> refreshThread = new AtomicReference<>();
+            when(sessionRepository.findMemoryById(1L)).thenAnswer(invocation -> {
+                refreshThread.set(Thread.currentThread());
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return Optional.empty();
+            });
+
+            // When
+            memory.refreshAsync(1L);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            memory.refreshAsync(2L);
+            release.countDown();
+
+            // Then
+            assertTrue(refreshThread.get().isVirtual());
+            assertTrue(refreshThread.get().getName().startsWith("rag-memory-"));
+            assertEquals(1, meterRegistry.counter("rag.memory.summary.skipped").count());
+            verify(sessionRepository, never()).findMemoryById(2L);
+        }
+
+        @Test
+        @DisplayName("摘要已被其他刷新推进时停止，不覆盖")
+        void testStopsOnConcurrentRefresh() {
+            // Given
+            givenState(null, 0, 44);
+            when(messageRepository.findOrderRange(1L, 0, 20)).thenReturn(messages(0, 20));
+            when(chatClient.prompt().system(anyString()).user(anyString()).call().content()).thenReturn("摘要1");
+            when(sessionRepository.updateSummary(eq(1L), anyString(), anyInt(), anyInt())).thenReturn(0);
+
+            // When
+            int folded = memory.refresh(1L);
+
+            // Then
+            assertEquals(0, folded);
+            verify(messageRepository, never()).findOrderRange(1L, 20, 40);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * EmbeddingBatchPipeline 单元测试
+ *
+ * <p>测试覆盖：并发上限、并发带来的耗时缩短、惰性批次的背压、429 退避重试、失败时停止并抛出异常
+ */
+@DisplayName("Embedding 批次流水线测试")
+class EmbeddingBatchPipelineTest {
+
+    private RagConfigProperties ragConfig;
+    private EmbeddingBatchPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        ragConfig = new RagConfigProperties();
+        ragConfig.getEmbedding().setBackoffInitialMs(10);
+        ragConfig.getEmbedding().setBackoffMaxMs(50);
+        pipeline = new EmbeddingBatchPipeline(ragConfig);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    private List<List<Integer>> batches(int count) {
+        List<List<Integer>> batches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            batches.add(List.of(i));
+        }
+        return batches;
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("在途批次数不超过并发上限")
+    void testConcurrencyCap() {
+        // Given
+        ragConfig.getEmbedding().setConcurrency(3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger processed = new AtomicInteger();
+
+        // When
+        pipeline.execute(batches(12), batch -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(20);
+            inFlight.decrementAndGet();
+            processed.incrementAndGet();
+        });
+
+        // Then
+        assertEquals(12, processed.get(), "所有批次都应被处理");
+        assertTrue(maxInFlight.get() <= 3, "在途批次不应超过并发上限，实际: " + maxInFlight.get());
+        assertTrue(maxInFlight.get() > 1, "应有多个批次并发执行");
+    }
+
+    @Test
+    @DisplayName("总耗时随并发度缩短")
+    void testElapsedScalesWithConcurrency() {
+        // Given: 8 个批次，每批模拟 50ms 往返
+        ragConfig.getEmbedding().setConcurrency(4);
+
+        // When
+        long start = System.nanoTime();
+        pipeline.execute(batches(8), batch -> sleep(50));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Then: 顺序执行需要 400ms，4 并发约 100ms
+        assertTrue(elapsedMs < 300, "并发执行耗时应明显小于顺序执行，实际: " + elapsedMs + "ms");
+    }
+
+    @Test
+    @DisplayName("惰性批次 - 只在有空闲并发时生成下一个批次")
+    void testLazyBatchesBackpressure() {
+        // Given: 已生成但未处理完的批次数
+        ragConfig.getEmbedding().setConcurrency(2);
+        AtomicInteger outstanding = new AtomicInteger();
+        AtomicInteger maxOutstanding = new AtomicInteger();
+        Iterator<List<Integer>> source = batches(10).iterator();
+        Iterator<List<Integer>> lazy = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public List<Integer> next() {
+                maxOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                return source.next();
+            }
+        };
+
+        // When
+        pipeline.execute(lazy, batch -> {
+            sleep(20);
+            outstanding.decrementAndGet();
+        });
+
+        // Then
+        assertEquals(0, outstanding.get(), "所有批次都应被处理");
+        assertTrue(maxOutstanding.get() <= 2, "生成的批次不应超过并发上限，实际: " + maxOutstanding.get());
+    }
+
+    @Test
+    @DisplayName("惰性批次生成失败时抛出异常")
+    void testLazyBatchSourceFailure() {
+        // Given
+        ragConfig.getEmbedding().setConcurrency(2);
+        Iterator<List<Integer>> failing = new Iterator<>() {
+            private int produced;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<Integer> next() {
+                if (++produced > 3) {
+                    throw new IllegalStateException("读取文本失败");
+                }
+                return List.of(produced);
+            }
+        };
+        AtomicInteger processed = new AtomicInteger();
+
+        // When & Then
+        RuntimeException exception = assertThrows(RuntimeException.class,
+            () -> pipeline.execute(failing, batch -> processed.incrementAndGet()));
+        assertEquals("读取文本失败", exception.getMessage());
+        assertEquals(3, processed.get(), "已生成的批次应执行完毕");
+    }
+
+    @Test
+    @DisplayName("429 限流时退避重试后成功")
+    void testRateLimitedBatchRetried() {
+        // Given: 前两次调用返回 429
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When
+        pipeline.execute(batches(1), batch -> {
+            if (attempts.incrementAndGet() <= 2) {
+                throw new NonTransientAiException("HTTP 429 - Too Many Requests");
+            }
+        });
+
+        // Then
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    @DisplayName("超过最大重试次数后抛出异常")
+    void testRateLimitRetriesExhausted() {
+        // Given
+        ragConfig.getEmbedding().setMaxRetries(2);
+        AtomicInteger attempts = new AtomicInteger();
+
+        // When & Then
+        assertThrows(NonTransientAiException.class, () -> pipeline.execute(batches(1), batch -> {
+            attempts.incrementAndGet();
+            throw new NonTransientAiException("429 - Throttling.RateQuota");
+        }));
+        assertEquals(3, attempts.get(), "首次调用 + 2 次重试");
+    }
+
+    @Test
+    @DisplayName("非限流异常不重试，停止提交后续批次")
+    void testNonRateLimitFailureStops() {
+        // Given
+        ragConfig.getEmbedding().setConcurrency(2);
+        AtomicInteger processed = new AtomicInteger();
+
+        // When & Then
+        RuntimeException exception = assertThrows(RuntimeException.class,
+            () -> pipeline.execute(batches(50), batch -> {
+                processed.incrementAndGet();
+                sleep(5);
+                throw new IllegalStateException("401 - Invalid API key");
+            }));
+        assertEquals("401 - Invalid API key", exception.getMessage());
+        assertTrue(processed.get() < 50, "失败后不应继续提交所有批次");
+    }
+
+    @Test
+    @DisplayName("识别限流异常")
+    void testIsRateLimited() {
+        assertTrue(EmbeddingBatchPipeline.isRateLimited(new RuntimeException("wrap",
+            new NonTransientAiException("HTTP 429 - {\"code\":\"Throttling\"}"))));
+        assertFalse(EmbeddingBatchPipeline.isRateLimited(new RuntimeException("HTTP 500 - Internal error")));
+        assertFalse(EmbeddingBatchPipeline.isRateLimited(new RuntimeException((String) null)));
+    }
+}
@@ -0,0 +1,187 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.exception.BusinessException;
+import interview.guide.common.exception.ErrorCode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ByteArrayResource;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * KnowledgeBaseQueryService 流式问答单元测试
+ *
+ * <p>测试覆盖：调用时不访问数据库和检索、订阅后在流式调度器上执行、首字延迟指标、缓存回放、失败时以异常结束而不是输出提示文本
+ */
+@DisplayName("知识库流式问答测试")
+class KnowledgeBaseQueryServiceTest {
+
+    @Mock
+    private ChatClient.Builder chatClientBuilder;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private ChatClient chatClient;
+
+    @Mock
+    private KnowledgeBaseVectorService vectorService;
+
+    @Mock
+    private KnowledgeBaseListService listService;
+
+    @Mock
+    private KnowledgeBaseCountService countService;
+
+    @Mock
+    private SemanticAnswerCache answerCache;
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private RagStreamScheduler streamScheduler;
+    private KnowledgeBaseQueryService queryService;
+
+    private final List<Long> kbIds = List.of(1L);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        streamScheduler = new RagStreamScheduler(ragConfig);
+        when(chatClientBuilder.build()).thenReturn(chatClient);
+        when(answerCache.lookup(anyList(), anyString())).thenReturn(SemanticAnswerCache.Lookup.disabled());
+        when(vectorService.similaritySearch(anyString(), anyList(), anyInt())).thenReturn(List.of(
+            Document.builder().id("c1").text("Spring Boot 是一个框架").metadata(Map.of("kb_id", "1")).build()));
+        when(chatClient.prompt().system(anyString()).user(anyString()).stream().content())
+            .thenReturn(Flux.just("Spring", " Boot"));
+
+        queryService = new KnowledgeBaseQueryService(chatClientBuilder, vectorService, listService, countService,
+            answerCache, new ContextAssembler(ragConfig, meterRegistry), streamScheduler, ragConfig, meterRegistry,
+            new ByteArrayResource("你是知识库助手".getBytes(StandardCharsets.UTF_8)),
+            new ByteArrayResource("{context}\n{history}\n问题：{question}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamScheduler.shutdown();
+    }
+
+    @Test
+    @DisplayName("调用时只返回 Flux，订阅前不更新计数也不检索")
+    void testNothingRunsBeforeSubscribe() {
+        // When
+        queryService.answerQuestionStream(kbIds, "什么是 Spring Boot");
+
+        // Then
+        verifyNoInteractions(countService, answerCache, vectorService);
+    }
+
+    @Test
+    @DisplayName("订阅后在流式调度器上检索，输出模型回答并记录首字延迟")
+    void testRetrievalRunsOnStreamScheduler() {
+        // Given
+        AtomicReference<String> searchThread = new AtomicReference<>();
+        when(vectorService.similaritySearch(anyString(), anyList(), anyInt())).thenAnswer(invocation -> {
+            searchThread.set(Thread.currentThread().getName());
+            return List.of(Document.builder().id("c1").text("Spring Boot 是一个框架").build());
+        });
+
+        // When
+        List<String> chunks = queryService.answerQuestionStream(kbIds, "什么是 Spring Boot").collectList().block();
+
+        // Then
+        assertEquals(List.of("Spring", " Boot"), chunks);
+        assertTrue(searchThread.get().startsWith("rag-stream"), searchThread.get());
+        verify(countService).updateQuestionCounts(kbIds);
+        verify(answerCache).store(any(), eq("什么是 Spring Boot"), eq("Spring Boot"));
+        assertEquals(1, meterRegistry.timer("rag.stream.first-token", "cache", "miss").count());
+    }
+
+    @Test
+    @DisplayName("命中语义答案缓存时回放历史答案，不检索")
+    void testCacheHitReplaysAnswer() {
+        // Given
+        when(answerCache.lookup(anyList(), anyString())).thenReturn(
+            new SemanticAnswerCache.Lookup(kbIds, "1", "1@1", new float[]{0.1f}, "缓存的答案"));
+
+        // When
+        String answer = String.join("",
+            queryService.answerQuestionStream(kbIds, "什么是 Spring Boot").collectList().block());
+
+        // Then
+        assertEquals("缓存的答案", answer);
+        verify(vectorService, never()).similaritySearch(anyString(), anyList(), anyInt());
+        assertEquals(1, meterRegistry.timer("rag.stream.first-token", "cache", "hit").count());
+    }
+
+    @Test
+    @DisplayName("带对话历史时历史写入提示词，不查找也不写入语义答案缓存")
+    void testHistoryBypassesAnswerCache() {
+        // When
+        String answer = String.join("", queryService.answerQuestionStream(kbIds, "第二点详细说说",
+            () -> "\n## 对话历史\n用户：Spring Boot 有哪些特性\n").collectList().block());
+
+        // Then
+        assertEquals("Spring Boot", answer);
+        ArgumentCaptor<String> userPrompt = ArgumentCaptor.forClass(String.class);
+        verify(chatClient.prompt().system(anyString())).user(userPrompt.capture());
+        assertTrue(userPrompt.getValue().contains("用户：Spring Boot 有哪些特性"));
+        verify(answerCache, never()).lookup(anyList(), anyString());
+        verify(answerCache).store(argThat(lookup -> !lookup.enabled()), anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("准备阶段失败时以业务异常结束，不输出回答内容")
+    void testPreparationErrorPropagates() {
+        // Given
+        doThrow(new BusinessException(ErrorCode.NOT_FOUND, "知识库不存在"))
+            .when(countService).updateQuestionCounts(kbIds);
+
+        // When
+        BusinessException error = assertThrows(BusinessException.class,
+            () -> queryService.answerQuestionStream(kbIds, "什么是 Spring Boot").collectList().block());
+
+        // Then
+        assertEquals("知识库查询失败：知识库不存在", error.getMessage());
+        assertEquals(0, meterRegistry.timer("rag.stream.first-token", "cache", "miss").count());
+    }
+
+    @Test
+    @DisplayName("模型回答流出错时错误传给调用方，部分回答不写入语义答案缓存")
+    void testModelErrorPropagates() {
+        // Given
+        when(chatClient.prompt().system(anyString()).user(anyString()).stream().content())
+            .thenReturn(Flux.concat(Flux.just("Spring"), Flux.error(new IllegalStateException("connection reset"))));
+        List<String> chunks = new ArrayList<>();
+
+        // When
+        BusinessException error = assertThrows(BusinessException.class, () -> queryService
+            .answerQuestionStream(kbIds, "什么是 Spring Boot", () -> "").doOnNext(chunks::add).blockLast());
+
+        // Then
+        assertEquals(List.of("Spring"), chunks);
+        assertEquals("知识库查询失败：AI服务暂时不可用，请稍后重试。", error.getMessage());
+        verify(answerCache, never()).store(any(), anyString(), anyString());
+    }
+}
@@ -1,6 +1,10 @@
 package interview.guide.modules.knowledgebase.service;
 
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.file.FileHashService;
+import interview.guide.modules.knowledgebase.repository.EmbeddingCacheRepository;
 import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
@@ -9,16 +13,27 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 /**
@@ -26,14 +41,18 @@ import static org.mockito.Mockito.*;
  *
  * <p>测试覆盖：
  * <ul>
- *   <li>向量化存储（vectorizeAndStore）- 分批处理逻辑、metadata 设置、删除旧数据</li>
- *   <li>相似度搜索（similaritySearch）- 基本搜索、知识库ID过滤、topK限制</li>
+ *   <li>向量化存储（vectorizeAndStore）- 分批处理逻辑、metadata 设置、代数切换与失败清理</li>
+ *   <li>增量向量化 - 按 chunk 哈希对比，未变化的 chunk 不重新向量化</li>
+ *   <li>向量缓存 - 命中的 chunk 不调用 Embedding API、重复 chunk 只向量化一次、缓存指标</li>
+ *   <li>相似度搜索（similaritySearch）- 查询向量化，知识库过滤、topK、相似度阈值下推到数据库</li>
+ *   <li>多知识库并行检索 - 每个知识库单独检索、公平合并、超时跳过</li>
+ *   <li>混合检索 - 向量与关键词两路结果按 RRF 融合，关键词检索失败时退化为向量检索</li>
  *   <li>删除向量数据（deleteByKnowledgeBaseId）</li>
  * </ul>
  *
- * <p>注意：TextSplitter 未被 Mock，测试依赖 TokenTextSplitter 的真实行为。
+ * <p>注意：分块器未被 Mock，测试依赖 StreamingTextChunker 的真实行为。
  * 这是有意为之，因为分词逻辑是向量化的核心部分，应该进行集成测试。
- * 如需完全隔离，可将 TextSplitter 改为构造函数注入。
+ * 如需完全隔离，可将 StreamingTextChunker 改为构造函数注入。
  */
 @DisplayName("知识库向量服务测试")
 @SuppressWarnings("unchecked") // Mockito ArgumentCaptor 泛型警告
@@ -42,22 +61,56 @@ class KnowledgeBaseVectorServiceTest {
     private KnowledgeBaseVectorService vectorService;
 
     @Mock
-    private VectorStore vectorStore;
+    private VectorBulkWriter bulkWriter;
+
+    @Mock
+    private QueryEmbeddingCache queryEmbeddingCache;
 
     @Mock
     private VectorRepository vectorRepository;
 
+    @Mock
+    private EmbeddingCacheRepository embeddingCacheRepository;
+
+    @Mock
+    private VectorGarbageCollector garbageCollector;
+
+    @Mock
+    private SemanticAnswerCache answerCache;
+
+    @Mock
+    private RetrievalResultCache retrievalCache;
+
+    @Mock
+    private KnowledgeBaseLexicalIndex lexicalIndex;
+
+    @Mock
+    private KnowledgeBaseHnswIndex hnswIndex;
+
+    private RagConfigProperties ragConfig;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private static final long NEW_GENERATION = 7L;
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        vectorService = new KnowledgeBaseVectorService(vectorStore, vectorRepository);
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        vectorService = new KnowledgeBaseVectorService(bulkWriter, queryEmbeddingCache, vectorRepository,
+            embeddingCacheRepository, new FileHashService(), new EmbeddingBatchPipeline(ragConfig),
+            garbageCollector, answerCache, retrievalCache, lexicalIndex, hnswIndex, ragConfig, meterRegistry);
+        when(retrievalCache.lookup(any(), any(), anyInt())).thenReturn(RetrievalResultCache.Lookup.disabled());
+        when(vectorRepository.nextGeneration()).thenReturn(NEW_GENERATION);
+        when(vectorRepository.activateGeneration(any(), anyLong(), anyLong(), anyList())).thenReturn(true);
     }
 
     // ==================== 共享辅助方法 ====================
 
     /**
-     * 生成足够长的内容，确保 TokenTextSplitter 产生 chunks
-     * TokenTextSplitter 默认配置下，需要较长的文本才会分块
+     * 生成足够长的内容，确保 StreamingTextChunker 产生 chunks
+     * 默认配置下，需要较长的文本才会分块
      */
     private String generateLongContent(int paragraphs) {
         StringBuilder contentBuilder = new StringBuilder();
@@ -92,30 +145,18 @@ class KnowledgeBaseVectorServiceTest {
     }
 
     /**
-     * 创建模拟文档列表（无 kb_id）
-     */
-    private List<Document> createMockDocuments(int count) {
-        return createMockDocuments(count, null);
-    }
-
-    /**
-     * 创建使用 Long 类型 kb_id 的文档（模拟旧数据格式）
+     * 创建带相似度分数的文档列表，分数按传入顺序排列
      */
-    private Document createDocumentWithLongKbId(Long kbId) {
-        Map<String, Object> metadata = new HashMap<>();
-        metadata.put("kb_id", kbId); // Long 类型
-        return new Document("Long kb_id 文档", metadata);
-    }
-
-    /**
-     * 创建包含无效 kb_id 的文档
-     */
-    private Document createDocumentWithInvalidKbId(String invalidKbId) {
-        Map<String, Object> metadata = new HashMap<>();
-        if (invalidKbId != null) {
-            metadata.put("kb_id", invalidKbId);
+    private List<Document> scoredDocuments(String kbId, double... scores) {
+        List<Document> documents = new ArrayList<>();
+        for (double score : scores) {
+            documents.add(Document.builder()
+                .text("知识库 " + kbId + " 文档 " + score)
+                .metadata(Map.of("kb_id", kbId))
+                .score(score)
+                .build());
         }
-        return new Document("无效 kb_id 文档", metadata);
+        return documents;
     }
 
     // ==================== 测试类 ====================
@@ -134,11 +175,32 @@ class KnowledgeBaseVectorServiceTest {
             // When: 执行向量化
             vectorService.vectorizeAndStore(knowledgeBaseId, content);
 
-            // Then: 验证先删除旧数据
-            verify(vectorRepository, times(1)).deleteByKnowledgeBaseId(knowledgeBaseId);
+            // Then: 验证批量写入被调用（文本足够长时应产生 chunks）
+            verify(bulkWriter, atLeastOnce()).write(anyList());
 
-            // 验证 VectorStore.add 被调用（文本足够长时应产生 chunks）
-            verify(vectorStore, atLeastOnce()).add(anyList());
+            // 验证写入完成后切换到新代数，触发后台回收并清除缓存答案，不再先删除旧数据
+            verify(vectorRepository).activateGeneration(eq(knowledgeBaseId), eq(0L), eq(NEW_GENERATION), anyList());
+            verify(garbageCollector).collectAsync(knowledgeBaseId);
+            verify(answerCache).invalidate(knowledgeBaseId);
+            verify(retrievalCache).invalidate(knowledgeBaseId);
+            verify(hnswIndex).refresh(knowledgeBaseId);
+            verify(vectorRepository, never()).deleteByKnowledgeBaseId(any());
+        }
+
+        @Test
+        @DisplayName("写入的 chunk 同时建立关键词索引")
+        void testChunksIndexedLexically() {
+            // When
+            vectorService.vectorizeAndStore(1L, generateLongContent(5));
+
+            // Then: 每个写入 vector_store 的批次都建立关键词索引
+            ArgumentCaptor<List<Document>> added = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<List<Document>> indexed = ArgumentCaptor.forClass(List.class);
+            verify(bulkWriter, atLeastOnce()).write(added.capture());
+            verify(lexicalIndex, atLeastOnce()).index(indexed.capture());
+            assertEquals(
+                added.getAllValues().stream().flatMap(List::stream).map(Document::getId).collect(Collectors.toSet()),
+                indexed.getAllValues().stream().flatMap(List::stream).map(Document::getId).collect(Collectors.toSet()));
         }
 
         @Test
@@ -156,7 +218,7 @@ class KnowledgeBaseVectorServiceTest {
             vectorService.vectorizeAndStore(knowledgeBaseId, content);
 
             // Then: 捕获所有 add 调用
-            verify(vectorStore, atLeastOnce()).add(captor.capture());
+            verify(bulkWriter, atLeastOnce()).write(captor.capture());
 
             // 验证每批不超过 10 个（MAX_BATCH_SIZE）
             List<List<Document>> allBatches = captor.getAllValues();
@@ -167,7 +229,7 @@ class KnowledgeBaseVectorServiceTest {
         }
 
         @Test
-        @DisplayName("验证 metadata 正确设置 kb_id")
+        @DisplayName("验证 metadata 正确设置待切换的知识库ID和代数")
         void testMetadataContainsKnowledgeBaseId() {
             // Given: 使用足够长的内容确保产生 chunks
             Long knowledgeBaseId = 123L;
@@ -179,33 +241,41 @@ class KnowledgeBaseVectorServiceTest {
             vectorService.vectorizeAndStore(knowledgeBaseId, content);
 
             // Then: 捕获添加的文档，验证 metadata
-            verify(vectorStore, atLeastOnce()).add(captor.capture());
+            verify(bulkWriter, atLeastOnce()).write(captor.capture());
 
             List<List<Document>> allBatches = captor.getAllValues();
             assertFalse(allBatches.isEmpty(), "应该有文档被添加");
 
             for (List<Document> batch : allBatches) {
                 for (Document doc : batch) {
-                    assertEquals(knowledgeBaseId.toString(), doc.getMetadata().get("kb_id"),
-                        "metadata 中的 kb_id 应该等于知识库ID的字符串形式");
+                    assertEquals(knowledgeBaseId.toString(), doc.getMetadata().get("pending_kb_id"),
+                        "metadata 中的 pending_kb_id 应该等于知识库ID的字符串形式");
+                    assertEquals(NEW_GENERATION, doc.getMetadata().get("kb_generation"));
+                    assertNull(doc.getMetadata().get("kb_id"), "切换前新数据对查询不可见");
                 }
             }
         }
 
         @Test
-        @DisplayName("向量化前应先删除旧数据")
-        void testDeleteOldDataBeforeVectorize() {
-            // Given: 使用足够长的内容确保产生 chunks
+        @DisplayName("全量重建模式 - 新数据写入后切换时淘汰全部旧数据")
+        void testRetireOldDataAfterVectorize() {
+            // Given: 已存储的旧数据，使用全量重建模式
             Long knowledgeBaseId = 1L;
             String content = generateLongContent(10);
+            ragConfig.getEmbedding().setIncremental(false);
+            when(vectorRepository.findActiveGeneration(knowledgeBaseId)).thenReturn(3L);
+            when(vectorRepository.findStoredChunks(knowledgeBaseId)).thenReturn(List.of(
+                new VectorRepository.StoredChunk("old-1", "a".repeat(64)),
+                new VectorRepository.StoredChunk("old-2", "b".repeat(64))));
 
             // When
             vectorService.vectorizeAndStore(knowledgeBaseId, content);
 
-            // Then: 验证 delete 在 add 之前执行（通过 inOrder 严格顺序验证）
-            var inOrder = inOrder(vectorRepository, vectorStore);
-            inOrder.verify(vectorRepository).deleteByKnowledgeBaseId(knowledgeBaseId);
-            inOrder.verify(vectorStore, atLeastOnce()).add(anyList());
+            // Then: add 在切换之前执行，切换时以原代数做校验并淘汰全部旧数据
+            var inOrder = inOrder(vectorRepository, bulkWriter);
+            inOrder.verify(bulkWriter, atLeastOnce()).write(anyList());
+            inOrder.verify(vectorRepository).activateGeneration(
+                knowledgeBaseId, 3L, NEW_GENERATION, List.of("old-1", "old-2"));
         }
 
         @Test
@@ -216,7 +286,7 @@ class KnowledgeBaseVectorServiceTest {
             String content = generateLongContent(10);
 
             doThrow(new RuntimeException("VectorStore 连接失败"))
-                .when(vectorStore).add(anyList());
+                .when(bulkWriter).write(anyList());
 
             // When & Then
             RuntimeException exception = assertThrows(
@@ -228,19 +298,217 @@ class KnowledgeBaseVectorServiceTest {
         }
 
         @Test
-        @DisplayName("空内容处理 - 应该删除旧数据但不添加新数据")
+        @DisplayName("并发批次部分失败时清理新代已写入的向量，且不切换")
+        void testPartialFailureCleansUpWrittenBatches() {
+            // Given: 第一批成功，之后的批次失败
+            doNothing().doThrow(new RuntimeException("Embedding API 错误"))
+                .when(bulkWriter).write(anyList());
+            ragConfig.getEmbedding().setConcurrency(1);
+
+            // When
+            assertThrows(RuntimeException.class,
+                () -> vectorService.vectorizeAndStore(1L, generateLongContent(200)));
+
+            // Then: 新代的 pending 数据被清理，旧数据保持可见
+            verify(vectorRepository).deletePendingGeneration(1L, NEW_GENERATION);
+            verify(vectorRepository, never()).activateGeneration(any(), anyLong(), anyLong(), anyList());
+            verify(garbageCollector, never()).collectAsync(any());
+            verify(answerCache, never()).invalidate(any());
+            verify(retrievalCache, never()).invalidate(any());
+        }
+
+        @Test
+        @DisplayName("切换时发现已有其他任务完成切换 - 放弃本次写入并清理")
+        void testConcurrentSwitchConflict() {
+            // Given: 乐观校验失败
+            when(vectorRepository.activateGeneration(any(), anyLong(), anyLong(), anyList())).thenReturn(false);
+
+            // When
+            RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> vectorService.vectorizeAndStore(1L, generateLongContent(10)));
+
+            // Then
+            assertTrue(exception.getMessage().contains("其他任务"));
+            verify(vectorRepository).deletePendingGeneration(1L, NEW_GENERATION);
+            verify(garbageCollector, never()).collectAsync(any());
+        }
+
+        @Test
+        @DisplayName("空内容处理 - 应该淘汰旧数据但不添加新数据")
         void testVectorizeEmptyContent() {
             // Given
             Long knowledgeBaseId = 1L;
             String content = "";
+            when(vectorRepository.findStoredChunks(knowledgeBaseId)).thenReturn(List.of(
+                new VectorRepository.StoredChunk("old-1", "a".repeat(64))));
 
             // When
             vectorService.vectorizeAndStore(knowledgeBaseId, content);
 
-            // Then: 即使是空内容，也应该删除旧数据
-            verify(vectorRepository, times(1)).deleteByKnowledgeBaseId(knowledgeBaseId);
+            // Then: 即使是空内容，也应该淘汰旧数据
+            verify(vectorRepository).activateGeneration(knowledgeBaseId, 0L, NEW_GENERATION, List.of("old-1"));
             // 空内容不会产生 chunks，所以 add 不会被调用
-            verify(vectorStore, never()).add(anyList());
+            verify(bulkWriter, never()).write(anyList());
+        }
+    }
+
+    @Nested
+    @DisplayName("增量向量化测试")
+    class IncrementalVectorizeTests {
+
+        /**
+         * 执行一次向量化并返回写入的 chunk，模拟其已存储在向量库中
+         */
+        private List<VectorRepository.StoredChunk> vectorizeAndCaptureStored(Long knowledgeBaseId, String content) {
+            ArgumentCaptor<List<Document>> captor = ArgumentCaptor.forClass(List.class);
+            vectorService.vectorizeAndStore(knowledgeBaseId, content);
+            verify(bulkWriter, atLeastOnce()).write(captor.capture());
+            List<VectorRepository.StoredChunk> stored = captor.getAllValues().stream()
+                .flatMap(List::stream)
+                .map(doc -> new VectorRepository.StoredChunk(doc.getId(), (String) doc.getMetadata().get("chunk_hash")))
+                .toList();
+            clearInvocations(bulkWriter, vectorRepository, embeddingCacheRepository);
+            return stored;
+        }
+
+        @Test
+        @DisplayName("内容未变化 - 不调用 Embedding API 也不淘汰数据")
+        void testUnchangedContentSkipped() {
+            // Given: 知识库已存储相同内容的 chunk
+            String content = generateLongContent(20);
+            List<VectorRepository.StoredChunk> stored = vectorizeAndCaptureStored(1L, content);
+            when(vectorRepository.findStoredChunks(1L)).thenReturn(stored);
+
+            // When
+            vectorService.vectorizeAndStore(1L, content);
+
+            // Then
+            verify(bulkWriter, never()).write(anyList());
+            verify(vectorRepository).activateGeneration(1L, 0L, NEW_GENERATION, List.of());
+            assertEquals(stored.size(), meterRegistry.counter("rag.vectorize.chunks.reused").count(), 1e-9);
+        }
+
+        @Test
+        @DisplayName("内容部分变化 - 只向量化新增 chunk，切换时淘汰被移除的 chunk")
+        void testChangedChunksDiffed() {
+            // Given: 已存储一个 chunk 已不在新内容中的旧版本
+            String content = generateLongContent(20);
+            List<VectorRepository.StoredChunk> stored = new ArrayList<>(vectorizeAndCaptureStored(1L, content));
+            VectorRepository.StoredChunk obsolete = new VectorRepository.StoredChunk("obsolete-id", "f".repeat(64));
+            stored.remove(0);
+            stored.add(obsolete);
+            when(vectorRepository.findStoredChunks(1L)).thenReturn(stored);
+
+            // When
+            vectorService.vectorizeAndStore(1L, content);
+
+            // Then: 只向量化缺失的一个 chunk，新数据写入后才淘汰旧 chunk
+            ArgumentCaptor<List<Document>> addCaptor = ArgumentCaptor.forClass(List.class);
+            var inOrder = inOrder(bulkWriter, vectorRepository);
+            inOrder.verify(bulkWriter).write(addCaptor.capture());
+            inOrder.verify(vectorRepository).activateGeneration(1L, 0L, NEW_GENERATION, List.of("obsolete-id"));
+            assertEquals(1, addCaptor.getValue().size());
+        }
+
+        @Test
+        @DisplayName("没有 chunk_hash 的旧数据全部淘汰")
+        void testLegacyChunksWithoutHashRemoved() {
+            // Given: 缓存功能上线前写入的数据没有 chunk_hash
+            when(vectorRepository.findStoredChunks(1L)).thenReturn(List.of(
+                new VectorRepository.StoredChunk("legacy-1", null),
+                new VectorRepository.StoredChunk("legacy-2", null)));
+
+            // When
+            vectorService.vectorizeAndStore(1L, generateLongContent(10));
+
+            // Then
+            verify(bulkWriter, atLeastOnce()).write(anyList());
+            verify(vectorRepository).activateGeneration(1L, 0L, NEW_GENERATION, List.of("legacy-1", "legacy-2"));
+        }
+    }
+
+    @Nested
+    @DisplayName("向量缓存测试")
+    class EmbeddingCacheTests {
+
+        @Test
+        @DisplayName("全部命中缓存 - 不调用 Embedding API")
+        void testAllChunksCached() {
+            // Given: 缓存中包含所有查询的哈希
+            when(embeddingCacheRepository.findCachedHashes(anyString(), anyCollection()))
+                .thenAnswer(inv -> new HashSet<>(inv.<Collection<String>>getArgument(1)));
+
+            // When
+            vectorService.vectorizeAndStore(1L, generateLongContent(10));
+
+            // Then: 不调用 Embedding 写入，全部从缓存写入
+            verify(bulkWriter, never()).write(anyList());
+            ArgumentCaptor<List<Document>> captor = ArgumentCaptor.forClass(List.class);
+            verify(vectorRepository).insertFromEmbeddingCache(eq("text-embedding-v3"), captor.capture());
+            assertFalse(captor.getValue().isEmpty());
+            assertEquals(1.0, meterRegistry.summary("rag.embedding.cache.hit.ratio").mean(), 1e-9);
+            assertTrue(meterRegistry.counter("rag.embedding.calls.saved").count() >= 1);
+        }
+
+        @Test
+        @DisplayName("部分命中缓存 - 只向量化未命中的 chunk 并写回缓存")
+        void testPartialCacheHit() {
+            // Given: 只有一个哈希命中
+            ArgumentCaptor<Collection<String>> hashCaptor = ArgumentCaptor.forClass(Collection.class);
+            when(embeddingCacheRepository.findCachedHashes(anyString(), hashCaptor.capture()))
+                .thenAnswer(inv -> Set.of(inv.<Collection<String>>getArgument(1).iterator().next()));
+
+            // When
+            vectorService.vectorizeAndStore(1L, generateLongContent(40));
+
+            // Then
+            ArgumentCaptor<List<Document>> addCaptor = ArgumentCaptor.forClass(List.class);
+            verify(bulkWriter, atLeastOnce()).write(addCaptor.capture());
+            ArgumentCaptor<List<Document>> cacheCaptor = ArgumentCaptor.forClass(List.class);
+            verify(vectorRepository).insertFromEmbeddingCache(anyString(), cacheCaptor.capture());
+
+            int embedded = addCaptor.getAllValues().stream().mapToInt(List::size).sum();
+            int total = hashCaptor.getValue().size();
+            assertEquals(total - 1, embedded, "命中缓存的 chunk 不应调用 Embedding API");
+            assertEquals(1, cacheCaptor.getValue().size());
+            verify(embeddingCacheRepository, times(addCaptor.getAllValues().size()))
+                .saveFromVectorStore(anyString(), anyList());
+        }
+
+        @Test
+        @DisplayName("文档内重复 chunk 只向量化一次")
+        void testDuplicateChunksEmbeddedOnce() {
+            // Given: 同一段落重复多次，产生文本完全相同的 chunk
+            String paragraph = generateLongContent(12);
+            String content = paragraph + paragraph + paragraph;
+
+            // When
+            vectorService.vectorizeAndStore(1L, content);
+
+            // Then: 送去向量化的 chunk 哈希互不相同
+            ArgumentCaptor<List<Document>> captor = ArgumentCaptor.forClass(List.class);
+            verify(bulkWriter, atLeastOnce()).write(captor.capture());
+            List<Object> hashes = captor.getAllValues().stream()
+                .flatMap(List::stream)
+                .map(doc -> doc.getMetadata().get("chunk_hash"))
+                .toList();
+            assertEquals(hashes.size(), new HashSet<>(hashes).size(), "相同文本不应重复调用 Embedding API");
+        }
+
+        @Test
+        @DisplayName("关闭缓存 - 不查询缓存，全部调用 Embedding API")
+        void testCacheDisabled() {
+            // Given
+            ragConfig.getEmbedding().setCacheEnabled(false);
+
+            // When
+            vectorService.vectorizeAndStore(1L, generateLongContent(10));
+
+            // Then
+            verify(embeddingCacheRepository, never()).findCachedHashes(anyString(), anyCollection());
+            verify(embeddingCacheRepository, never()).saveFromVectorStore(anyString(), anyList());
+            verify(vectorRepository, never()).insertFromEmbeddingCache(anyString(), anyList());
+            verify(bulkWriter, atLeastOnce()).write(anyList());
         }
     }
 
@@ -248,6 +516,14 @@ class KnowledgeBaseVectorServiceTest {
     @DisplayName("相似度搜索测试")
     class SimilaritySearchTests {
 
+        private final float[] queryEmbedding = {0.1f, 0.2f, 0.3f};
+
+        @BeforeEach
+        void setUpEmbedding() {
+            ragConfig.getSearch().setMode(RagConfigProperties.SearchMode.VECTOR);
+            when(queryEmbeddingCache.embed(anyString())).thenReturn(queryEmbedding);
+        }
+
         @Test
         @DisplayName("基本搜索 - 无过滤条件")
         void testBasicSearchWithoutFilter() {
@@ -255,84 +531,255 @@ class KnowledgeBaseVectorServiceTest {
             String query = "Java 开发经验";
             int topK = 5;
 
-            List<Document> mockResults = createMockDocuments(10, null);
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
+            List<Document> mockResults = createMockDocuments(5, null);
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(mockResults);
 
             // When
             List<Document> results = vectorService.similaritySearch(query, null, topK);
 
-            // Then
-            assertEquals(topK, results.size(), "应该返回 topK 个结果");
-            verify(vectorStore, times(1)).similaritySearch(query);
+            // Then: 查询向量、topK 下推到数据库，且不带知识库过滤
+            assertEquals(topK, results.size());
+            verify(queryEmbeddingCache).embed(query);
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), isNull(), eq(topK), eq(0.0), any());
         }
 
         @Test
-        @DisplayName("搜索结果按知识库ID过滤 - String类型kb_id")
-        void testSearchWithKnowledgeBaseIdFilterString() {
-            // Given
+        @DisplayName("知识库ID过滤下推到数据库")
+        void testKnowledgeBaseFilterPushedDown() {
+            // Given: 关闭分知识库并行检索，多个知识库在一次检索中过滤
+            ragConfig.getSearch().setFanOut(false);
             String query = "Spring Boot";
             List<Long> knowledgeBaseIds = List.of(1L, 2L);
             int topK = 10;
 
-            // 创建混合的搜索结果（包含不同 kb_id）
-            List<Document> mockResults = new ArrayList<>();
-            mockResults.addAll(createMockDocuments(3, "1"));  // kb_id = "1"
-            mockResults.addAll(createMockDocuments(3, "2"));  // kb_id = "2"
-            mockResults.addAll(createMockDocuments(4, "3"));  // kb_id = "3" (应被过滤)
-
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any()))
+                .thenReturn(createMockDocuments(6, "1"));
 
             // When
             List<Document> results = vectorService.similaritySearch(query, knowledgeBaseIds, topK);
 
-            // Then: 只返回 kb_id 为 1 或 2 的文档
-            assertEquals(6, results.size(), "应该只返回匹配知识库ID的文档");
+            // Then: 结果原样返回，知识库ID和 topK 出现在检索参数中
+            assertEquals(6, results.size());
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), eq(knowledgeBaseIds), eq(topK), eq(0.0), any());
+        }
 
-            for (Document doc : results) {
-                String kbId = (String) doc.getMetadata().get("kb_id");
-                assertTrue(kbId.equals("1") || kbId.equals("2"),
-                    "结果应该只包含指定知识库的文档");
-            }
+        @Test
+        @DisplayName("多知识库并行检索 - 每个知识库单独过滤检索")
+        void testFanOutSearchesEachKnowledgeBase() {
+            // Given
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any()))
+                .thenAnswer(inv -> scoredDocuments(String.valueOf(inv.<List<Long>>getArgument(1).get(0)), 0.9, 0.8));
+
+            // When
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L, 2L, 3L, 2L), 4);
+
+            // Then: 重复的知识库只检索一次，每个知识库都使用完整 topK
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), eq(List.of(1L)), eq(4), eq(0.0), any());
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), eq(List.of(2L)), eq(4), eq(0.0), any());
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), eq(List.of(3L)), eq(4), eq(0.0), any());
+            verify(vectorRepository, times(3)).similaritySearch(any(), any(), anyInt(), anyDouble(), any());
+            assertEquals(4, results.size());
+        }
+
+        @Test
+        @DisplayName("多知识库并行检索 - 分数较低的知识库也保有名额")
+        void testFanOutMergeIsFair() {
+            // Given: 知识库 1 的结果分数全部高于知识库 2
+            when(vectorRepository.similaritySearch(any(), eq(List.of(1L)), anyInt(), anyDouble(), any()))
+                .thenReturn(scoredDocuments("1", 0.95, 0.94, 0.93, 0.92));
+            when(vectorRepository.similaritySearch(any(), eq(List.of(2L)), anyInt(), anyDouble(), any()))
+                .thenReturn(scoredDocuments("2", 0.60, 0.50, 0.40, 0.30));
+
+            // When
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L, 2L), 4);
+
+            // Then: 每个知识库保底 2 条，结果按分数降序
+            assertEquals(List.of(0.95, 0.94, 0.60, 0.50), results.stream().map(Document::getScore).toList());
         }
 
         @Test
-        @DisplayName("搜索结果按知识库ID过滤 - Long类型kb_id（向后兼容）")
-        void testSearchWithKnowledgeBaseIdFilterLong() {
+        @DisplayName("多知识库并行检索 - 超时的知识库被跳过")
+        void testFanOutSkipsSlowKnowledgeBase() {
             // Given
-            String query = "Python 开发";
-            List<Long> knowledgeBaseIds = List.of(100L);
-            int topK = 5;
+            ragConfig.getSearch().setFanOutTimeout(Duration.ofMillis(100));
+            when(vectorRepository.similaritySearch(any(), eq(List.of(1L)), anyInt(), anyDouble(), any()))
+                .thenReturn(scoredDocuments("1", 0.9));
+            when(vectorRepository.similaritySearch(any(), eq(List.of(2L)), anyInt(), anyDouble(), any()))
+                .thenAnswer(inv -> {
+                    Thread.sleep(2000);
+                    return scoredDocuments("2", 0.99);
+                });
+
+            // When
+            long start = System.nanoTime();
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L, 2L), 4);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
 
-            // 创建使用 Long 类型 kb_id 的文档（模拟旧数据）
-            List<Document> mockResults = new ArrayList<>();
-            mockResults.add(createDocumentWithLongKbId(100L));
-            mockResults.add(createDocumentWithLongKbId(100L));
-            mockResults.add(createDocumentWithLongKbId(200L)); // 应被过滤
+            // Then
+            assertEquals(List.of(0.9), results.stream().map(Document::getScore).toList());
+            assertTrue(elapsedMs < 1000, "不应等待超时的知识库，实际: " + elapsedMs + "ms");
+            assertEquals(1.0, meterRegistry.counter("rag.search.fanout.skipped").count(), 1e-9);
+        }
 
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
+        @Test
+        @DisplayName("多知识库并行检索 - 同时访问数据库的检索数不超过上限，语句超时不超过截止时间")
+        void testFanOutBoundsDatabaseConcurrency() {
+            // Given: 8 个知识库，默认最多 4 个同时检索
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any()))
+                .thenAnswer(inv -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(50);
+                    running.decrementAndGet();
+                    return scoredDocuments(String.valueOf(inv.<List<Long>>getArgument(1).get(0)), 0.9);
+                });
+            List<Long> kbIds = List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L);
 
             // When
-            List<Document> results = vectorService.similaritySearch(query, knowledgeBaseIds, topK);
+            List<Document> results = vectorService.similaritySearch("Spring Boot", kbIds, 8);
+
+            // Then
+            assertEquals(8, results.size());
+            assertTrue(maxRunning.get() <= ragConfig.getSearch().getFanOutMaxParallel(), "max=" + maxRunning.get());
+            ArgumentCaptor<VectorRepository.SearchPlan> plans = ArgumentCaptor.forClass(VectorRepository.SearchPlan.class);
+            verify(vectorRepository, times(8)).similaritySearch(any(), any(), anyInt(), anyDouble(), plans.capture());
+            long timeoutMillis = ragConfig.getSearch().getFanOutTimeout().toMillis();
+            assertTrue(plans.getAllValues().stream()
+                .allMatch(plan -> plan.statementTimeoutMillis() > 0 && plan.statementTimeoutMillis() <= timeoutMillis));
+        }
+
+        @Test
+        @DisplayName("多知识库并行检索 - 全部失败时抛出异常")
+        void testFanOutAllFailed() {
+            // Given
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any()))
+                .thenThrow(new RuntimeException("连接池耗尽"));
+
+            // When & Then
+            RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> vectorService.similaritySearch("Spring Boot", List.of(1L, 2L), 4));
+            assertTrue(exception.getMessage().contains("向量搜索失败"));
+        }
+
+        @Test
+        @DisplayName("相似度阈值下推到数据库")
+        void testSimilarityThresholdPushedDown() {
+            // Given
+            ragConfig.getSearch().setSimilarityThreshold(0.5);
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(List.of());
+
+            // When
+            vectorService.similaritySearch("测试查询", List.of(1L), 3);
+
+            // Then
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), eq(List.of(1L)), eq(3), eq(0.5), any());
+        }
+
+        @Test
+        @DisplayName("检索规划 - 小知识库精确扫描，大知识库按规模和选择率调整 ef_search")
+        void testSearchPlanFollowsKnowledgeBaseSize() {
+            // Given: 知识库 1 有 500 个 chunk，知识库 2 有 50 万个，全表 100 万行
+            when(vectorRepository.estimateTotalRows()).thenReturn(1_000_000L);
+            when(vectorRepository.countChunks(anyCollection())).thenReturn(Map.of(1L, 500L, 2L, 500_000L));
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(List.of());
+
+            // When
+            vectorService.similaritySearch("Spring Boot", List.of(1L), 5);
+            vectorService.similaritySearch("Spring Boot", List.of(2L), 5);
+
+            // Then
+            ArgumentCaptor<VectorRepository.SearchPlan> plans = ArgumentCaptor.forClass(VectorRepository.SearchPlan.class);
+            verify(vectorRepository, times(2)).similaritySearch(any(), any(), anyInt(), anyDouble(), plans.capture());
+            assertEquals(VectorRepository.SearchPlan.exact(), plans.getAllValues().get(0));
+            // 64 × 4（规模为精确扫描阈值的 250 倍）÷ 0.5（选择率）= 512，受 max-ef-search 限制为 400
+            assertEquals(VectorRepository.SearchPlan.ann(400, false), plans.getAllValues().get(1));
+            assertEquals(1.0, meterRegistry.counter("rag.search.plan", "plan", "exact").count(), 1e-9);
+            assertEquals(1.0, meterRegistry.counter("rag.search.plan", "plan", "ann").count(), 1e-9);
+        }
+
+        @Test
+        @DisplayName("检索规划 - chunk 数统计被缓存，向量化完成后失效")
+        void testSearchPlanStatsCached() {
+            // Given
+            when(vectorRepository.countChunks(anyCollection())).thenReturn(Map.of(1L, 100L));
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(List.of());
+
+            // When
+            vectorService.similaritySearch("Spring Boot", List.of(1L), 5);
+            vectorService.similaritySearch("Java", List.of(1L), 5);
+            vectorService.deleteByKnowledgeBaseId(1L);
+            vectorService.similaritySearch("Java", List.of(1L), 5);
 
             // Then
-            assertEquals(2, results.size(), "应该只返回 kb_id=100 的文档");
+            verify(vectorRepository, times(2)).countChunks(List.of(1L));
         }
 
         @Test
-        @DisplayName("topK 限制生效")
-        void testTopKLimit() {
+        @DisplayName("检索规划 - 统计失败时使用默认执行方式")
+        void testSearchPlanFallsBackOnStatsFailure() {
             // Given
-            String query = "测试查询";
-            int topK = 3;
+            when(vectorRepository.countChunks(anyCollection())).thenThrow(new RuntimeException("统计失败"));
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any()))
+                .thenReturn(createMockDocuments(2, "1"));
+
+            // When
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L), 2);
 
-            List<Document> mockResults = createMockDocuments(10, "1");
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
+            // Then
+            assertEquals(2, results.size());
+            verify(vectorRepository).similaritySearch(any(), any(), anyInt(), anyDouble(),
+                eq(VectorRepository.SearchPlan.DEFAULT));
+        }
+
+        @Test
+        @DisplayName("命中检索结果缓存 - 不再检索")
+        void testRetrievalCacheHitSkipsSearch() {
+            // Given
+            List<Document> cachedDocs = createMockDocuments(3, "1");
+            when(retrievalCache.lookup("Spring Boot", List.of(1L), 3))
+                .thenReturn(new RetrievalResultCache.Lookup(List.of(1L), "key", cachedDocs));
 
             // When
-            List<Document> results = vectorService.similaritySearch(query, List.of(1L), topK);
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L), 3);
 
             // Then
-            assertEquals(topK, results.size(), "结果数量应该被 topK 限制");
+            assertSame(cachedDocs, results);
+            verify(queryEmbeddingCache, never()).embed(anyString());
+            verify(vectorRepository, never()).similaritySearch(any(), any(), anyInt(), anyDouble(), any());
+            verify(retrievalCache, never()).store(any(), anyList());
+        }
+
+        @Test
+        @DisplayName("未命中检索结果缓存 - 检索后写回")
+        void testRetrievalCacheMissStoresResults() {
+            // Given
+            RetrievalResultCache.Lookup miss = new RetrievalResultCache.Lookup(List.of(1L), "key", null);
+            when(retrievalCache.lookup(any(), any(), anyInt())).thenReturn(miss);
+            List<Document> searched = createMockDocuments(2, "1");
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(searched);
+
+            // When
+            vectorService.similaritySearch("Spring Boot", List.of(1L), 2);
+
+            // Then
+            verify(retrievalCache).store(miss, searched);
+        }
+
+        @Test
+        @DisplayName("进程内 HNSW 索引就绪 - 在本地检索，不访问数据库")
+        void testSearchUsesHnswIndexWhenReady() {
+            // Given
+            when(hnswIndex.isReady()).thenReturn(true);
+            when(hnswIndex.search(any(), any(), anyInt(), anyDouble())).thenReturn(createMockDocuments(2, "1"));
+
+            // When
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L), 2);
+
+            // Then
+            assertEquals(2, results.size());
+            verify(hnswIndex).search(queryEmbedding, List.of(1L), 2, 0.0);
+            verify(vectorRepository, never()).similaritySearch(any(), any(), anyInt(), anyDouble(), any());
         }
 
         @Test
@@ -340,7 +787,7 @@ class KnowledgeBaseVectorServiceTest {
         void testSearchFailureThrowsException() {
             // Given
             String query = "测试";
-            when(vectorStore.similaritySearch(anyString()))
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any()))
                 .thenThrow(new RuntimeException("搜索服务不可用"));
 
             // When & Then
@@ -353,74 +800,98 @@ class KnowledgeBaseVectorServiceTest {
         }
 
         @Test
-        @DisplayName("空知识库ID列表 - 不进行过滤")
-        void testSearchWithEmptyKnowledgeBaseIdList() {
+        @DisplayName("查询向量化失败时抛出异常")
+        void testQueryEmbeddingFailureThrowsException() {
             // Given
-            String query = "查询";
-            List<Long> emptyList = List.of();
-            int topK = 5;
+            when(queryEmbeddingCache.embed(anyString())).thenThrow(new RuntimeException("Embedding API 不可用"));
 
-            List<Document> mockResults = createMockDocuments(10, "1");
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
-
-            // When
-            List<Document> results = vectorService.similaritySearch(query, emptyList, topK);
+            // When & Then
+            RuntimeException exception = assertThrows(
+                RuntimeException.class,
+                () -> vectorService.similaritySearch("测试", List.of(1L), 5)
+            );
 
-            // Then: 空列表应该返回所有结果（受 topK 限制）
-            assertEquals(topK, results.size());
+            assertTrue(exception.getMessage().contains("向量搜索失败"));
+            verify(vectorRepository, never()).similaritySearch(any(), any(), anyInt(), anyDouble(), any());
         }
 
         @Test
         @DisplayName("搜索结果为空")
         void testSearchReturnsEmpty() {
             // Given
-            String query = "不存在的内容";
-            when(vectorStore.similaritySearch(query)).thenReturn(List.of());
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(List.of());
 
             // When
-            List<Document> results = vectorService.similaritySearch(query, null, 10);
+            List<Document> results = vectorService.similaritySearch("不存在的内容", null, 10);
 
             // Then
             assertTrue(results.isEmpty(), "搜索结果应该为空");
         }
+    }
 
-        @Test
-        @DisplayName("过滤后结果为空")
-        void testFilteredResultsEmpty() {
-            // Given
-            String query = "测试";
-            List<Long> knowledgeBaseIds = List.of(999L); // 不存在的 kb_id
+    @Nested
+    @DisplayName("混合检索测试")
+    class HybridSearchTests {
+
+        private final float[] queryEmbedding = {0.1f, 0.2f, 0.3f};
 
-            List<Document> mockResults = createMockDocuments(5, "1");
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
+        @BeforeEach
+        void setUpEmbedding() {
+            ragConfig.getSearch().setMode(RagConfigProperties.SearchMode.HYBRID);
+            when(queryEmbeddingCache.embed(anyString())).thenReturn(queryEmbedding);
+        }
+
+        @Test
+        @DisplayName("两路都命中的文档排在前面，结果截断为 topK")
+        void testFusesBothRankings() {
+            // Given: 向量检索 [v0, v1, shared]，关键词检索 [shared, l1]
+            List<Document> vectorDocs = createMockDocuments(3, "1");
+            Document shared = vectorDocs.get(2);
+            Document lexicalOnly = new Document("ERR_1001 错误码说明");
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(vectorDocs);
+            when(lexicalIndex.search(anyString(), any(), anyInt())).thenReturn(List.of(shared, lexicalOnly));
 
             // When
-            List<Document> results = vectorService.similaritySearch(query, knowledgeBaseIds, 10);
+            List<Document> results = vectorService.similaritySearch("ERR_1001", List.of(1L), 3);
 
-            // Then
-            assertTrue(results.isEmpty(), "没有匹配的知识库ID，结果应为空");
+            // Then: 两路按候选数召回，shared 融合分数最高
+            assertEquals(3, results.size());
+            assertEquals(shared.getId(), results.get(0).getId());
+            verify(vectorRepository).similaritySearch(eq(queryEmbedding), eq(List.of(1L)), eq(20), eq(0.0), any());
+            verify(lexicalIndex).search("ERR_1001", List.of(1L), 20);
         }
 
         @Test
-        @DisplayName("处理无效的 kb_id 格式")
-        void testHandleInvalidKbIdFormat() {
+        @DisplayName("关键词检索失败 - 退化为向量检索结果")
+        void testLexicalFailureFallsBackToVector() {
             // Given
-            String query = "测试";
-            List<Long> knowledgeBaseIds = List.of(1L);
+            List<Document> vectorDocs = createMockDocuments(3, "1");
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(vectorDocs);
+            when(lexicalIndex.search(anyString(), any(), anyInt())).thenThrow(new RuntimeException("数据库错误"));
 
-            // 创建包含无效 kb_id 的文档
-            List<Document> mockResults = new ArrayList<>();
-            mockResults.add(createDocumentWithInvalidKbId("not_a_number"));
-            mockResults.add(createDocumentWithInvalidKbId(null));
-            mockResults.addAll(createMockDocuments(2, "1")); // 有效的文档
+            // When
+            List<Document> results = vectorService.similaritySearch("Spring Boot", List.of(1L), 2);
 
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
+            // Then: 保持向量检索顺序
+            assertEquals(List.of(vectorDocs.get(0).getId(), vectorDocs.get(1).getId()),
+                results.stream().map(Document::getId).toList());
+        }
+
+        @Test
+        @DisplayName("仅关键词模式 - 不调用向量检索")
+        void testLexicalOnlyMode() {
+            // Given
+            ragConfig.getSearch().setMode(RagConfigProperties.SearchMode.LEXICAL);
+            when(lexicalIndex.search(anyString(), any(), anyInt())).thenReturn(createMockDocuments(2, "1"));
 
             // When
-            List<Document> results = vectorService.similaritySearch(query, knowledgeBaseIds, 10);
+            List<Document> results = vectorService.similaritySearch("kb_id", List.of(1L), 5);
 
-            // Then: 无效的 kb_id 应该被过滤掉，只返回有效的
-            assertEquals(2, results.size(), "只应返回有效 kb_id 的文档");
+            // Then
+            assertEquals(2, results.size());
+            verify(lexicalIndex).search("kb_id", List.of(1L), 5);
+            verifyNoInteractions(queryEmbeddingCache);
+            verify(vectorRepository, never()).similaritySearch(any(), any(), anyInt(), anyDouble(), any());
         }
     }
 
@@ -440,6 +911,9 @@ class KnowledgeBaseVectorServiceTest {
 
             // Then
             verify(vectorRepository, times(1)).deleteByKnowledgeBaseId(knowledgeBaseId);
+            verify(answerCache).invalidate(knowledgeBaseId);
+            verify(retrievalCache).invalidate(knowledgeBaseId);
+            verify(hnswIndex).remove(knowledgeBaseId);
         }
 
         @Test
@@ -450,8 +924,9 @@ class KnowledgeBaseVectorServiceTest {
             doThrow(new RuntimeException("数据库错误"))
                 .when(vectorRepository).deleteByKnowledgeBaseId(knowledgeBaseId);
 
-            // When & Then: 不应该抛出异常
+            // When & Then: 不应该抛出异常，缓存答案仍然清除
             assertDoesNotThrow(() -> vectorService.deleteByKnowledgeBaseId(knowledgeBaseId));
+            verify(answerCache).invalidate(knowledgeBaseId);
         }
 
         @Test
@@ -509,11 +984,11 @@ class KnowledgeBaseVectorServiceTest {
         @DisplayName("查询字符串为空")
         void testEmptyQuery() {
             // Given
-            String emptyQuery = "";
-            when(vectorStore.similaritySearch(emptyQuery)).thenReturn(List.of());
+            when(queryEmbeddingCache.embed(anyString())).thenReturn(new float[]{0f});
+            when(vectorRepository.similaritySearch(any(), any(), anyInt(), anyDouble(), any())).thenReturn(List.of());
 
             // When
-            List<Document> results = vectorService.similaritySearch(emptyQuery, null, 5);
+            List<Document> results = vectorService.similaritySearch("", null, 5);
 
             // Then
             assertTrue(results.isEmpty());
@@ -522,32 +997,13 @@ class KnowledgeBaseVectorServiceTest {
         @Test
         @DisplayName("topK 为 0")
         void testTopKZero() {
-            // Given
-            String query = "测试";
-            List<Document> mockResults = createMockDocuments(5);
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
-
             // When
-            List<Document> results = vectorService.similaritySearch(query, null, 0);
+            List<Document> results = vectorService.similaritySearch("测试", null, 0);
 
-            // Then
+            // Then: 不访问向量库，直接返回空结果
             assertTrue(results.isEmpty(), "topK=0 应该返回空结果");
-        }
-
-        @Test
-        @DisplayName("topK 大于实际结果数")
-        void testTopKGreaterThanResults() {
-            // Given
-            String query = "测试";
-            int topK = 100;
-            List<Document> mockResults = createMockDocuments(5);
-            when(vectorStore.similaritySearch(query)).thenReturn(mockResults);
-
-            // When
-            List<Document> results = vectorService.similaritySearch(query, null, topK);
-
-            // Then
-            assertEquals(5, results.size(), "应该返回所有可用结果");
+            verify(queryEmbeddingCache, never()).embed(anyString());
+            verify(vectorRepository, never()).similaritySearch(any(), any(), anyInt(), anyDouble(), any());
         }
     }
 }
@@ -0,0 +1,51 @@
+package interview.guide.modules.knowledgebase.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("关键词分词器测试")
+class LexicalTokenizerTest {
+
+    @Test
+    @DisplayName("配置项 - 保留完整标识符并拆出各段")
+    void testConfigKey() {
+        List<String> tokens = LexicalTokenizer.tokenize("spring.ai.openai.api-key");
+
+        assertEquals("spring.ai.openai.api-key", tokens.get(0));
+        assertTrue(tokens.containsAll(List.of("spring", "ai", "openai", "api", "key")));
+    }
+
+    @Test
+    @DisplayName("类名和错误码 - 按驼峰和下划线拆分，统一小写")
+    void testClassNameAndErrorCode() {
+        List<String> tokens = LexicalTokenizer.tokenize("KnowledgeBaseVectorService 抛出 ERR_1001");
+
+        assertTrue(tokens.containsAll(List.of("knowledgebasevectorservice", "knowledge", "base", "vector", "service")));
+        assertTrue(tokens.containsAll(List.of("err_1001", "err", "1001")));
+    }
+
+    @Test
+    @DisplayName("中文 - 切分为字二元组，单字保留")
+    void testChineseBigrams() {
+        List<String> tokens = LexicalTokenizer.tokenize("向量检索，库");
+
+        assertEquals(List.of("向量", "量检", "检索", "库"), tokens);
+    }
+
+    @Test
+    @DisplayName("全角字符归一化，重复词元去重")
+    void testNormalizeAndDeduplicate() {
+        assertEquals(List.of("kb_id", "kb", "id"), LexicalTokenizer.tokenize("ＫＢ_ＩＤ kb_id"));
+        assertTrue(LexicalTokenizer.tokenize("  ").isEmpty());
+    }
+
+    @Test
+    @DisplayName("构建 tsquery - 词元之间取或")
+    void testToTsQuery() {
+        assertEquals("'kb_id' | '向量'", LexicalTokenizer.toTsQuery(List.of("kb_id", "向量")));
+    }
+}
@@ -0,0 +1,193 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.file.FileHashService;
+import interview.guide.infrastructure.redis.RedisService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@DisplayName("查询向量缓存测试")
+class QueryEmbeddingCacheTest {
+
+    @Mock
+    private EmbeddingModel embeddingModel;
+
+    @Mock
+    private RedisService redisService;
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private QueryEmbeddingCache cache;
+
+    private final float[] embedding = {0.25f, -1.5f, 3.0f};
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        when(embeddingModel.embed(anyString())).thenReturn(embedding);
+        cache = newCache();
+    }
+
+    private QueryEmbeddingCache newCache() {
+        return new QueryEmbeddingCache(embeddingModel, redisService, new FileHashService(), ragConfig, meterRegistry);
+    }
+
+    @Nested
+    @DisplayName("两级缓存命中")
+    class TierTests {
+
+        @Test
+        @DisplayName("未命中 - 用原始问题文本调用 Embedding API 并写入 Redis")
+        void testMissEmbedsAndWritesRedis() {
+            // When
+            float[] result = cache.embed("什么是 Spring Boot？");
+
+            // Then
+            assertArrayEquals(embedding, result);
+            verify(embeddingModel).embed("什么是 Spring Boot？");
+            ArgumentCaptor<byte[]> bytes = ArgumentCaptor.forClass(byte[].class);
+            verify(redisService).setBytes(anyString(), bytes.capture(), eq(Duration.ofDays(7)));
+            assertArrayEquals(embedding, QueryEmbeddingCache.fromBytes(bytes.getValue()));
+            assertEquals(1, meterRegistry.counter("rag.query.embedding.cache.misses").count());
+        }
+
+        @Test
+        @DisplayName("重复提问 - 命中进程内缓存，不访问 Redis 和 Embedding API")
+        void testLocalHit() {
+            // Given
+            cache.embed("什么是 Spring Boot？");
+            clearInvocations(embeddingModel, redisService);
+
+            // When
+            float[] result = cache.embed("  什么是   spring boot? ");
+
+            // Then: 空白、大小写、全角标点不同的问题规范化后命中同一条缓存
+            assertArrayEquals(embedding, result);
+            verifyNoInteractions(embeddingModel, redisService);
+            assertEquals(1, meterRegistry.counter("rag.query.embedding.cache.hits", "tier", "local").count());
+        }
+
+        @Test
+        @DisplayName("返回副本 - 调用方原地修改向量不影响缓存")
+        void testReturnsCopy() {
+            // Given
+            float[] first = cache.embed("问题");
+
+            // When: 调用方原地归一化
+            first[0] = 100f;
+            float[] second = cache.embed("问题");
+
+            // Then
+            assertArrayEquals(embedding, second);
+            assertNotSame(first, second);
+            verify(embeddingModel, times(1)).embed("问题");
+        }
+
+        @Test
+        @DisplayName("其他实例写入的缓存 - 命中 Redis 并回填进程内缓存")
+        void testRedisHit() {
+            // Given
+            when(redisService.getBytes(anyString())).thenReturn(QueryEmbeddingCache.toBytes(embedding));
+
+            // When
+            float[] first = cache.embed("问题");
+            float[] second = cache.embed("问题");
+
+            // Then
+            assertArrayEquals(embedding, first);
+            assertArrayEquals(embedding, second);
+            verify(embeddingModel, never()).embed(anyString());
+            verify(redisService, times(1)).getBytes(anyString());
+            assertEquals(1, meterRegistry.counter("rag.query.embedding.cache.hits", "tier", "redis").count());
+            assertEquals(1, meterRegistry.counter("rag.query.embedding.cache.hits", "tier", "local").count());
+        }
+
+        @Test
+        @DisplayName("Redis 不可用 - 退化为直接调用 Embedding API")
+        void testRedisFailureFallsBack() {
+            // Given
+            when(redisService.getBytes(anyString())).thenThrow(new RuntimeException("连接失败"));
+            doThrow(new RuntimeException("连接失败")).when(redisService).setBytes(anyString(), any(), any());
+
+            // When & Then
+            assertArrayEquals(embedding, cache.embed("问题"));
+            verify(embeddingModel).embed("问题");
+        }
+    }
+
+    @Nested
+    @DisplayName("缓存键与容量")
+    class KeyAndCapacityTests {
+
+        @Test
+        @DisplayName("切换 embedding 模型后不复用旧向量")
+        void testModelIsPartOfKey() {
+            // Given
+            cache.embed("问题");
+            ragConfig.getEmbedding().setModel("text-embedding-v4");
+
+            // When
+            cache.embed("问题");
+
+            // Then
+            verify(embeddingModel, times(2)).embed("问题");
+            ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+            verify(redisService, times(2)).setBytes(keys.capture(), any(), any());
+            assertNotEquals(keys.getAllValues().get(0), keys.getAllValues().get(1));
+            assertTrue(keys.getAllValues().get(1).contains("text-embedding-v4"));
+        }
+
+        @Test
+        @DisplayName("超过容量时淘汰最久未使用的条目")
+        void testLruEviction() {
+            // Given: 容量为 2
+            ragConfig.getQueryCache().setLocalMaxSize(2);
+            cache = newCache();
+            cache.embed("a");
+            cache.embed("b");
+            cache.embed("a");
+            cache.embed("c");
+            clearInvocations(embeddingModel);
+
+            // When: a 最近被访问过仍在缓存中，b 已被淘汰
+            cache.embed("a");
+            cache.embed("b");
+
+            // Then
+            verify(embeddingModel, never()).embed("a");
+            verify(embeddingModel).embed("b");
+        }
+
+        @Test
+        @DisplayName("关闭缓存 - 每次都用原始问题文本调用 Embedding API")
+        void testCacheDisabled() {
+            // Given
+            ragConfig.getQueryCache().setEnabled(false);
+
+            // When
+            cache.embed("什么是 Spring Boot？");
+            cache.embed("什么是 Spring Boot？");
+
+            // Then: 不做规范化，向量与不使用缓存时一致
+            verify(embeddingModel, times(2)).embed("什么是 Spring Boot？");
+            verifyNoInteractions(redisService);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.exception.BusinessException;
+import interview.guide.infrastructure.mapper.KnowledgeBaseMapper;
+import interview.guide.infrastructure.mapper.RagChatMapper;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.MessageDTO;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.MessagePageDTO;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionDetailDTO;
+import interview.guide.modules.knowledgebase.model.RagChatDTO.SessionPageDTO;
+import interview.guide.modules.knowledgebase.model.RagChatMessageEntity;
+import interview.guide.modules.knowledgebase.model.RagChatSessionEntity;
+import interview.guide.modules.knowledgebase.repository.KnowledgeBaseRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository.SessionKnowledgeBaseName;
+import interview.guide.modules.knowledgebase.repository.RagChatSessionRepository.SessionListRow;
+import interview.guide.modules.knowledgebase.service.RagChatSessionService.StreamMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import reactor.core.publisher.Flux;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * RagChatSessionService 分页测试
+ *
+ * <p>测试覆盖：
+ * <ul>
+ *   <li>会话列表：置顶会话不足一页时接着取非置顶会话、游标往返、知识库名称批量查询、无效游标</li>
+ *   <li>消息历史：详情只返回最新一页、按游标加载更早消息、会话不存在</li>
+ *   <li>流式回答：正常结束后刷新摘要，出错时错误原样传出、不刷新摘要</li>
+ * </ul>
+ */
+@DisplayName("RAG 会话分页测试")
+class RagChatSessionServiceTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 1, 1, 12, 0, 0, 123_456_000);
+
+    @Mock
+    private RagChatSessionRepository sessionRepository;
+
+    @Mock
+    private RagChatMessageRepository messageRepository;
+
+    @Mock
+    private KnowledgeBaseRepository knowledgeBaseRepository;
+
+    @Mock
+    private KnowledgeBaseQueryService queryService;
+
+    @Mock
+    private ConversationMemory conversationMemory;
+
+    @Mock
+    private RagChatMapper ragChatMapper;
+
+    @Mock
+    private KnowledgeBaseMapper knowledgeBaseMapper;
+
+    private RagChatSessionService service;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        service = new RagChatSessionService(sessionRepository, messageRepository, knowledgeBaseRepository,
+            queryService, conversationMemory, ragChatMapper, knowledgeBaseMapper);
+        when(sessionRepository.findKnowledgeBaseNames(anyCollection())).thenReturn(List.of());
+        when(ragChatMapper.toMessageDTOList(anyList())).thenAnswer(invocation -> {
+            List<RagChatMessageEntity> messages = invocation.getArgument(0);
+            return messages.stream()
+                .map(m -> new MessageDTO(m.getId(), "user", m.getContent(), true, NOW))
+                .toList();
+        });
+    }
+
+    /**
+     * 按顺序倒序生成 [from, to) 范围内的消息，模拟倒序查询的结果
+     */
+    private List<RagChatMessageEntity> messagesDesc(int from, int to) {
+        List<RagChatMessageEntity> messages = new ArrayList<>();
+        for (int order = to - 1; order >= from; order--) {
+            RagChatMessageEntity message = new RagChatMessageEntity();
+            message.setId((long) order + 100);
+            message.setMessageOrder(order);
+            message.setContent("消息" + order);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private SessionListRow row(long id, boolean pinned, LocalDateTime updatedAt) {
+        SessionListRow row = mock(SessionListRow.class);
+        when(row.getId()).thenReturn(id);
+        when(row.getTitle()).thenReturn("会话" + id);
+        when(row.getMessageCount()).thenReturn(2);
+        when(row.getUpdatedAt()).thenReturn(updatedAt);
+        when(row.getIsPinned()).thenReturn(pinned);
+        return row;
+    }
+
+    private SessionKnowledgeBaseName kbName(long sessionId, String name) {
+        SessionKnowledgeBaseName kbName = mock(SessionKnowledgeBaseName.class);
+        when(kbName.getSessionId()).thenReturn(sessionId);
+        when(kbName.getName()).thenReturn(name);
+        return kbName;
+    }
+
+    @Nested
+    @DisplayName("会话列表分页")
+    class SessionPageTests {
+
+        @Test
+        @DisplayName("置顶会话不足一页时接着取非置顶会话，并批量填充知识库名称")
+        void testFirstPageSpillsIntoUnpinned() {
+            // Given
+            SessionListRow pinned = row(9L, true, NOW);
+            when(sessionRepository.findListFirstPage(true, PageRequest.of(0, 3))).thenReturn(List.of(pinned));
+            List<SessionListRow> unpinned = List.of(row(8L, false, NOW), row(7L, false, NOW.minusMinutes(1)));
+            when(sessionRepository.findListFirstPage(false, PageRequest.of(0, 2))).thenReturn(unpinned);
+            when(sessionRepository.findKnowledgeBaseNames(List.of(9L, 8L)))
+                .thenReturn(List.of(kbName(9L, "Java"), kbName(9L, "Redis"), kbName(8L, "MySQL")));
+
+            // When
+            SessionPageDTO page = service.listSessionPage(null, 2);
+
+            // Then
+            assertEquals(List.of(9L, 8L), page.items().stream().map(item -> item.id()).toList());
+            assertEquals(List.of("Java", "Redis"), page.items().getFirst().knowledgeBaseNames());
+            assertTrue(page.items().getFirst().isPinned());
+            assertTrue(page.hasMore());
+            assertNotNull(page.nextCursor());
+        }
+
+        @Test
+        @DisplayName("游标指向非置顶会话时只按 (updatedAt, id) 继续，不再查置顶会话")
+        void testCursorContinuesAfterLastRow() {
+            // Given: 第一页最后一条是非置顶会话
+            when(sessionRepository.findListFirstPage(eq(true), any(Pageable.class))).thenReturn(List.of());
+            when(sessionRepository.findListFirstPage(eq(false), any(Pageable.class)))
+                .thenReturn(List.of(row(5L, false, NOW), row(4L, false, NOW)));
+            String cursor = service.listSessionPage(null, 1).nextCursor();
+            when(sessionRepository.findListPageAfter(false, NOW, 5L, PageRequest.of(0, 2)))
+                .thenReturn(List.of(row(4L, false, NOW)));
+
+            // When
+            SessionPageDTO page = service.listSessionPage(cursor, 1);
+
+            // Then
+            assertEquals(List.of(4L), page.items().stream().map(item -> item.id()).toList());
+            assertFalse(page.hasMore());
+            assertNull(page.nextCursor());
+            verify(sessionRepository).findListPageAfter(false, NOW, 5L, PageRequest.of(0, 2));
+            verify(sessionRepository, times(1)).findListFirstPage(eq(true), any(Pageable.class));
+        }
+
+        @Test
+        @DisplayName("空列表不查询知识库名称")
+        void testEmptyPage() {
+            // Given
+            when(sessionRepository.findListFirstPage(anyBoolean(), any(Pageable.class))).thenReturn(List.of());
+
+            // When
+            SessionPageDTO page = service.listSessionPage(null, 20);
+
+            // Then
+            assertTrue(page.items().isEmpty());
+            assertFalse(page.hasMore());
+            verify(sessionRepository, never()).findKnowledgeBaseNames(anyCollection());
+        }
+
+        @Test
+        @DisplayName("无效游标返回参数错误")
+        void testInvalidCursor() {
+            assertThrows(BusinessException.class, () -> service.listSessionPage("not-a-cursor", 20));
+        }
+    }
+
+    @Nested
+    @DisplayName("消息历史分页")
+    class MessagePageTests {
+
+        @Test
+        @DisplayName("会话详情只返回最新一页消息（正序）和加载更早消息的游标")
+        void testDetailReturnsNewestPage() {
+            // Given: 会话共 30 条消息
+            RagChatSessionEntity session = new RagChatSessionEntity();
+            session.setId(1L);
+            when(sessionRepository.findByIdWithKnowledgeBases(1L)).thenReturn(Optional.of(session));
+            when(messageRepository.findBySessionIdOrderByMessageOrderDesc(1L, PageRequest.of(0, 21)))
+                .thenReturn(messagesDesc(9, 30));
+            when(ragChatMapper.toSessionDetailDTO(eq(session), any(MessagePageDTO.class), anyList()))
+                .thenCallRealMethod();
+
+            // When
+            SessionDetailDTO detail = service.getSessionDetail(1L);
+
+            // Then
+            assertEquals(20, detail.messages().size());
+            assertEquals("消息10", detail.messages().getFirst().content());
+            assertEquals("消息29", detail.messages().getLast().content());
+            assertTrue(detail.hasMoreMessages());
+            assertEquals(10, detail.messageCursor());
+            verify(messageRepository, never()).findBySessionIdOrderByMessageOrderAsc(anyLong());
+        }
+
+        @Test
+        @DisplayName("按游标加载更早的消息，到开头时没有更多")
+        void testListOlderMessages() {
+            // Given
+            when(sessionRepository.existsById(1L)).thenReturn(true);
+            when(messageRepository.findBySessionIdAndMessageOrderLessThanOrderByMessageOrderDesc(
+                1L, 10, PageRequest.of(0, 21))).thenReturn(messagesDesc(0, 10));
+
+            // When
+            MessagePageDTO page = service.listMessages(1L, 10, 20);
+
+            // Then
+            assertEquals(10, page.messages().size());
+            assertEquals("消息0", page.messages().getFirst().content());
+            assertFalse(page.hasMore());
+            assertNull(page.nextCursor());
+        }
+
+        @Test
+        @DisplayName("会话不存在时返回未找到")
+        void testListMessagesSessionNotFound() {
+            // Given
+            when(sessionRepository.existsById(404L)).thenReturn(false);
+
+            // When & Then
+            assertThrows(BusinessException.class, () -> service.listMessages(404L, null, 20));
+        }
+    }
+
+    @Nested
+    @DisplayName("流式回答")
+    class StreamAnswerTests {
+
+        private final StreamMessage message = new StreamMessage(100L, 1L, 4, List.of(1L));
+
+        @Test
+        @DisplayName("回答正常结束后异步刷新会话摘要")
+        void testRefreshesMemoryOnComplete() {
+            // Given
+            when(queryService.answerQuestionStream(eq(List.of(1L)), eq("问题"), any()))
+                .thenReturn(Flux.just("回", "答"));
+
+            // When
+            List<String> chunks = service.getStreamAnswer(message, "问题").collectList().block();
+
+            // Then
+            assertEquals(List.of("回", "答"), chunks);
+            verify(conversationMemory).refreshAsync(1L);
+        }
+
+        @Test
+        @DisplayName("模型回答流出错时错误原样传出，不把失败的回答折叠进摘要")
+        void testErrorPropagatesWithoutRefresh() {
+            // Given
+            when(queryService.answerQuestionStream(eq(List.of(1L)), eq("问题"), any()))
+                .thenReturn(Flux.concat(Flux.just("回"), Flux.error(new IllegalStateException("boom"))));
+
+            // When & Then
+            assertThrows(IllegalStateException.class, () -> service.getStreamAnswer(message, "问题").blockLast());
+            verify(conversationMemory, never()).refreshAsync(anyLong());
+        }
+    }
+}
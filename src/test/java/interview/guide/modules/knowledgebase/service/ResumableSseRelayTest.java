@@ -0,0 +1,289 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.exception.BusinessException;
+import interview.guide.infrastructure.redis.RedisService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.redisson.api.stream.StreamMessageId;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * ResumableSseRelay 单元测试
+ *
+ * <p>RedisService 由内存中的 Stream 替身实现（按消息ID 排序的 TreeMap），
+ * 测试覆盖：事件ID、写入回放缓冲与结束标记、回答流出错时的错误帧、凭 Last-Event-ID 回放、回放追上后继续推送新帧、
+ * 缓冲过期、帧被裁剪、无效ID
+ */
+@DisplayName("可断线重连的 SSE 转发测试")
+class ResumableSseRelayTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration TTL = Duration.ofMinutes(10);
+    private static final int MAX_FRAMES = 10000;
+    private static final Comparator<StreamMessageId> ID_ORDER =
+        Comparator.comparingLong(StreamMessageId::getId0).thenComparingLong(StreamMessageId::getId1);
+
+    @Mock
+    private RedisService redisService;
+
+    private final Map<String, NavigableMap<StreamMessageId, Map<String, String>>> streams = new ConcurrentHashMap<>();
+
+    private RagConfigProperties ragConfig;
+    private RagStreamScheduler streamScheduler;
+    private ResumableSseRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        stubRedisStreams();
+        ragConfig = new RagConfigProperties();
+        // 关闭合并，每个片段一帧，便于断言
+        ragConfig.getStream().setFrameMaxChars(1);
+        ragConfig.getStream().setReplayPollInterval(Duration.ofMillis(10));
+        streamScheduler = new RagStreamScheduler(ragConfig);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        relay = new ResumableSseRelay(redisService, new SseFrameCoalescer(ragConfig, meterRegistry),
+            streamScheduler, ragConfig, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamScheduler.shutdown();
+    }
+
+    /**
+     * 用内存 Map 模拟 Redis Stream 的 XADD / XRANGE / EXISTS
+     */
+    private void stubRedisStreams() {
+        doAnswer(invocation -> {
+            NavigableMap<StreamMessageId, Map<String, String>> stream =
+                streams.computeIfAbsent(invocation.getArgument(0), key -> new TreeMap<>(ID_ORDER));
+            synchronized (stream) {
+                stream.put(invocation.getArgument(1), invocation.getArgument(2));
+            }
+            return null;
+        }).when(redisService).streamAdd(anyString(), any(StreamMessageId.class), any(), anyInt(), any(Duration.class));
+        when(redisService.streamRange(anyString(), any(StreamMessageId.class), anyInt())).thenAnswer(invocation -> {
+            NavigableMap<StreamMessageId, Map<String, String>> stream = streams.get(invocation.getArgument(0));
+            Map<StreamMessageId, Map<String, String>> result = new LinkedHashMap<>();
+            if (stream != null) {
+                synchronized (stream) {
+                    stream.tailMap(invocation.getArgument(1), true).entrySet().stream()
+                        .limit((int) invocation.getArgument(2))
+                        .forEach(entry -> result.put(entry.getKey(), entry.getValue()));
+                }
+            }
+            return result;
+        });
+        when(redisService.exists(anyString())).thenAnswer(invocation -> streams.containsKey(invocation.getArgument(0)));
+    }
+
+    private static List<String> ids(List<ServerSentEvent<String>> events) {
+        return events.stream().map(ServerSentEvent::id).filter(Objects::nonNull).toList();
+    }
+
+    private static String text(List<ServerSentEvent<String>> events) {
+        return String.join("", events.stream().map(ServerSentEvent::data).filter(Objects::nonNull).toList());
+    }
+
+    @Test
+    @DisplayName("实时推送的帧带递增事件ID，同时写入回放缓冲并追加结束标记，每次写入都设置过期时间和最大帧数")
+    void testPublishMirrorsFrames() {
+        // When
+        List<ServerSentEvent<String>> events =
+            relay.publish("chat-1", Flux.just("a", "b", "c")).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("chat-1:1", "chat-1:2", "chat-1:3"), ids(events));
+        assertEquals("abc", text(events));
+        verify(redisService, timeout(TIMEOUT.toMillis()))
+            .streamAdd("rag:sse:chat-1", new StreamMessageId(0, 4), Map.of("type", "end"), MAX_FRAMES, TTL);
+        verify(redisService).streamAdd("rag:sse:chat-1", new StreamMessageId(0, 1),
+            Map.of("type", "data", "data", "a"), MAX_FRAMES, TTL);
+        verify(redisService, times(4)).streamAdd(eq("rag:sse:chat-1"), any(StreamMessageId.class), any(),
+            eq(MAX_FRAMES), eq(TTL));
+    }
+
+    @Test
+    @DisplayName("回答流出错时推送错误提示帧并作为最后一帧写入回放缓冲，不写结束标记")
+    void testPublishErrorFrame() {
+        // When
+        List<ServerSentEvent<String>> events = relay.publish("chat-3",
+            Flux.concat(Flux.just("a"), Flux.error(new IllegalStateException("boom")))).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("chat-3:1", "chat-3:2"), ids(events));
+        assertEquals("a【错误】boom", text(events));
+        verify(redisService, timeout(TIMEOUT.toMillis()))
+            .streamAdd("rag:sse:chat-3", new StreamMessageId(0, 2), Map.of("type", "error", "data", "【错误】boom"),
+                MAX_FRAMES, TTL);
+        List<ServerSentEvent<String>> replayed = relay.replay("chat-3:1").collectList().block(TIMEOUT);
+        assertEquals(List.of("chat-3:2"), ids(replayed));
+        verify(redisService, never())
+            .streamAdd("rag:sse:chat-3", new StreamMessageId(0, 3), Map.of("type", "end"), MAX_FRAMES, TTL);
+    }
+
+    @Test
+    @DisplayName("凭 Last-Event-ID 只回放之后的帧，遇到结束标记时结束")
+    void testReplayFromLastEventId() {
+        // Given
+        relay.publish("chat-1", Flux.just("a", "b", "c")).blockLast(TIMEOUT);
+        verify(redisService, timeout(TIMEOUT.toMillis()))
+            .streamAdd("rag:sse:chat-1", new StreamMessageId(0, 4), Map.of("type", "end"), MAX_FRAMES, TTL);
+
+        // When
+        List<ServerSentEvent<String>> replayed = relay.replay("chat-1:1").collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("chat-1:2", "chat-1:3"), ids(replayed));
+        assertEquals("bc", text(replayed));
+    }
+
+    @Test
+    @DisplayName("客户端断开后转发继续，重连回放追上后继续推送新帧直到结束")
+    void testReplayFollowsLiveTail() {
+        // Given: 客户端收到第一帧后断开
+        Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+        Flux<ServerSentEvent<String>> live = relay.publish("query-x", tokens.asFlux());
+        tokens.tryEmitNext("a");
+        ServerSentEvent<String> first = live.blockFirst(TIMEOUT);
+        tokens.tryEmitNext("b");
+        verify(redisService, timeout(TIMEOUT.toMillis()))
+            .streamAdd("rag:sse:query-x", new StreamMessageId(0, 2), Map.of("type", "data", "data", "b"),
+                MAX_FRAMES, TTL);
+
+        // When: 重连后生成继续
+        Flux<ServerSentEvent<String>> replay = relay.replay(first.id());
+        Thread.startVirtualThread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            tokens.tryEmitNext("c");
+            tokens.tryEmitComplete();
+        });
+        List<ServerSentEvent<String>> replayed = replay.collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals("query-x:1", first.id());
+        assertEquals(List.of("query-x:2", "query-x:3"), ids(replayed));
+        assertEquals("bc", text(replayed));
+    }
+
+    @Test
+    @DisplayName("回放缓冲不存在或流ID不匹配时不能回放")
+    void testCanReplay() {
+        // Given
+        relay.publish("chat-1", Flux.just("a")).blockLast(TIMEOUT);
+        verify(redisService, timeout(TIMEOUT.toMillis()))
+            .streamAdd("rag:sse:chat-1", new StreamMessageId(0, 2), Map.of("type", "end"), MAX_FRAMES, TTL);
+
+        // Then
+        assertTrue(relay.canReplay("chat-1", "chat-1:1"));
+        assertTrue(relay.canReplay(null, "chat-1:0"));
+        assertFalse(relay.canReplay("chat-2", "chat-1:1"));
+        assertFalse(relay.canReplay(null, "chat-9:1"));
+        assertFalse(relay.canReplay(null, null));
+        assertFalse(relay.canReplay(null, "chat-1"));
+        assertFalse(relay.canReplay(null, "chat-1:x"));
+    }
+
+    @Test
+    @DisplayName("之后的帧已被裁剪时不能回放，回放中发现缺帧时结束")
+    void testTrimmedFramesNotReplayed() {
+        // Given: 按最大帧数裁剪掉了前两帧
+        relay.publish("chat-5", Flux.just("a", "b", "c")).blockLast(TIMEOUT);
+        verify(redisService, timeout(TIMEOUT.toMillis()))
+            .streamAdd("rag:sse:chat-5", new StreamMessageId(0, 4), Map.of("type", "end"), MAX_FRAMES, TTL);
+        NavigableMap<StreamMessageId, Map<String, String>> stream = streams.get("rag:sse:chat-5");
+        stream.remove(new StreamMessageId(0, 1));
+        stream.remove(new StreamMessageId(0, 2));
+
+        // Then
+        assertTrue(relay.canReplay("chat-5", "chat-5:2"));
+        assertFalse(relay.canReplay("chat-5", "chat-5:1"));
+        assertTrue(ids(relay.replay("chat-5:0").collectList().block(TIMEOUT)).isEmpty());
+        assertEquals(List.of("chat-5:3"), ids(relay.replay("chat-5:2").collectList().block(TIMEOUT)));
+    }
+
+    @Test
+    @DisplayName("回放中缓冲过期时结束回放")
+    void testReplayStopsWhenExpired() {
+        // When
+        List<ServerSentEvent<String>> replayed = relay.replay("chat-404:3").collectList().block(TIMEOUT);
+
+        // Then
+        assertTrue(ids(replayed).isEmpty());
+    }
+
+    @Test
+    @DisplayName("无效的 Last-Event-ID 返回参数错误")
+    void testReplayRejectsInvalidId() {
+        assertThrows(BusinessException.class, () -> relay.replay("no-sequence").blockLast(TIMEOUT));
+    }
+
+    @Test
+    @DisplayName("Redis 写入失败不影响实时推送")
+    void testMirrorFailureDoesNotBreakLive() {
+        // Given
+        doThrow(new IllegalStateException("redis down"))
+            .when(redisService).streamAdd(anyString(), any(StreamMessageId.class), any(), anyInt(), any(Duration.class));
+
+        // When
+        List<ServerSentEvent<String>> events =
+            relay.publish("chat-2", Flux.just("a", "b")).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals("ab", text(events));
+        verify(redisService, timeout(TIMEOUT.toMillis()).times(3))
+            .streamAdd(anyString(), any(StreamMessageId.class), any(), anyInt(), any(Duration.class));
+    }
+
+    @Test
+    @DisplayName("调度器拒绝回放缓冲写入时实时推送照常结束")
+    void testMirrorRejectedDoesNotBreakLive() {
+        // Given: 调度器线程和队列都已用满
+        RagStreamScheduler saturated = mock(RagStreamScheduler.class);
+        when(saturated.defer(any())).thenReturn(Mono.error(new RejectedExecutionException("queue full")));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        relay = new ResumableSseRelay(redisService, new SseFrameCoalescer(ragConfig, meterRegistry),
+            saturated, ragConfig, meterRegistry);
+
+        // When
+        List<ServerSentEvent<String>> events =
+            relay.publish("chat-6", Flux.just("a", "b")).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("chat-6:1", "chat-6:2"), ids(events));
+        assertEquals("ab", text(events));
+        assertEquals(3, meterRegistry.counter("rag.stream.replay.write.failures").count());
+    }
+}
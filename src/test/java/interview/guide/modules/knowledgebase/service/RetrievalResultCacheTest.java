@@ -0,0 +1,185 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.infrastructure.file.FileHashService;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.document.Document;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+/**
+ * RetrievalResultCache 单元测试
+ *
+ * <p>测试覆盖：命中与未命中、问题规范化、知识库代数变化、主动清除、过期、热点 chunk 淘汰后查库还原
+ */
+@DisplayName("检索结果缓存测试")
+class RetrievalResultCacheTest {
+
+    @Mock
+    private VectorRepository vectorRepository;
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private RetrievalResultCache cache;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        when(vectorRepository.findActiveGenerations(anyCollection())).thenReturn(Map.of(1L, 3L, 2L, 5L));
+        cache = newCache();
+    }
+
+    private RetrievalResultCache newCache() {
+        return new RetrievalResultCache(vectorRepository, new FileHashService(), ragConfig, meterRegistry);
+    }
+
+    private List<Document> documents(String kbId, int count) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("kb_id", kbId);
+            metadata.put("distance", 0.1 * i);
+            documents.add(Document.builder()
+                .id(kbId + "-" + i)
+                .text("chunk " + i)
+                .metadata(metadata)
+                .score(1 - 0.1 * i)
+                .build());
+        }
+        return documents;
+    }
+
+    private void search(String question, List<Long> kbIds, List<Document> results) {
+        RetrievalResultCache.Lookup lookup = cache.lookup(question, kbIds, 5);
+        assertFalse(lookup.hit());
+        cache.store(lookup, results);
+    }
+
+    @Test
+    @DisplayName("相同问题和知识库集合命中，按原顺序还原文本和分数")
+    void testHitRestoresRankedDocuments() {
+        // Given
+        List<Document> results = documents("1", 3);
+        search("什么是 Spring Boot？", List.of(2L, 1L), results);
+
+        // When: 问题大小写、空白不同，知识库顺序不同
+        RetrievalResultCache.Lookup lookup = cache.lookup("  什么是 spring   boot？", List.of(1L, 2L, 1L), 5);
+
+        // Then
+        assertTrue(lookup.hit());
+        assertEquals(List.of("1-0", "1-1", "1-2"), lookup.documents().stream().map(Document::getId).toList());
+        assertEquals(List.of("chunk 0", "chunk 1", "chunk 2"),
+            lookup.documents().stream().map(Document::getText).toList());
+        assertEquals(results.stream().map(Document::getScore).toList(),
+            lookup.documents().stream().map(Document::getScore).toList());
+        verify(vectorRepository, never()).findVisibleChunksByIds(anyCollection());
+        assertEquals(1.0, meterRegistry.counter("rag.retrieval.cache.hits").count(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("topK 不同或未指定知识库时不命中")
+    void testDifferentParametersMiss() {
+        search("Spring Boot", List.of(1L), documents("1", 2));
+
+        assertFalse(cache.lookup("Spring Boot", List.of(1L), 10).hit());
+        assertFalse(cache.lookup("Spring Boot", null, 5).enabled());
+        assertFalse(cache.lookup("Spring Boot", List.of(), 5).enabled());
+    }
+
+    @Test
+    @DisplayName("知识库向量代数变化后不再命中")
+    void testGenerationChangeMisses() {
+        // Given
+        search("Spring Boot", List.of(1L), documents("1", 2));
+
+        // When: 知识库 1 重新向量化
+        when(vectorRepository.findActiveGenerations(anyCollection())).thenReturn(Map.of(1L, 4L));
+
+        // Then
+        assertFalse(cache.lookup("Spring Boot", List.of(1L), 5).hit());
+    }
+
+    @Test
+    @DisplayName("清除知识库后涉及该知识库的结果不再命中，其他结果保留")
+    void testInvalidate() {
+        // Given
+        search("Spring Boot", List.of(1L), documents("1", 2));
+        search("Spring Boot", List.of(2L), documents("2", 2));
+
+        // When
+        cache.invalidate(1L);
+
+        // Then
+        assertFalse(cache.lookup("Spring Boot", List.of(1L), 5).hit());
+        assertTrue(cache.lookup("Spring Boot", List.of(2L), 5).hit());
+    }
+
+    @Test
+    @DisplayName("过期后不命中")
+    void testExpired() {
+        // Given
+        ragConfig.getRetrievalCache().setTtl(Duration.ZERO);
+        search("Spring Boot", List.of(1L), documents("1", 2));
+
+        // When & Then
+        assertFalse(cache.lookup("Spring Boot", List.of(1L), 5).hit());
+    }
+
+    @Test
+    @DisplayName("热点 chunk 被淘汰后按 ID 查库还原，chunk 已不可见时视为未命中")
+    void testEvictedChunksLoadedFromDatabase() {
+        // Given: 热点 chunk 缓存只能容纳 2 个
+        ragConfig.getRetrievalCache().setMaxChunks(2);
+        cache = newCache();
+        List<Document> first = documents("1", 2);
+        search("Spring Boot", List.of(1L), first);
+        search("Java", List.of(2L), documents("2", 2));
+        Document reloaded = Document.builder().id("1-0").text("chunk 0").metadata(Map.of("kb_id", "1")).build();
+        when(vectorRepository.findVisibleChunksByIds(anyCollection()))
+            .thenReturn(Map.of("1-0", reloaded, "1-1", first.get(1)));
+
+        // When
+        RetrievalResultCache.Lookup lookup = cache.lookup("Spring Boot", List.of(1L), 5);
+
+        // Then
+        assertTrue(lookup.hit());
+        assertEquals(List.of("chunk 0", "chunk 1"), lookup.documents().stream().map(Document::getText).toList());
+        assertEquals(first.get(0).getScore(), lookup.documents().get(0).getScore());
+        verify(vectorRepository).findVisibleChunksByIds(List.of("1-0", "1-1"));
+
+        // When: chunk 已被回收，知识库 1 的 chunk 再次被挤出热点缓存
+        when(vectorRepository.findVisibleChunksByIds(anyCollection())).thenReturn(Map.of());
+        search("Java", List.of(2L), documents("2", 2));
+
+        // Then
+        assertFalse(cache.lookup("Spring Boot", List.of(1L), 5).hit());
+    }
+
+    @Test
+    @DisplayName("关闭缓存时不查找也不写入")
+    void testDisabled() {
+        ragConfig.getRetrievalCache().setEnabled(false);
+
+        RetrievalResultCache.Lookup lookup = cache.lookup("Spring Boot", List.of(1L), 5);
+        cache.store(lookup, documents("1", 2));
+
+        assertFalse(lookup.enabled());
+        verifyNoInteractions(vectorRepository);
+    }
+}
@@ -0,0 +1,229 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.repository.AnswerCacheRepository;
+import interview.guide.modules.knowledgebase.repository.AnswerCacheRepository.CachedAnswer;
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@DisplayName("语义答案缓存测试")
+class SemanticAnswerCacheTest {
+
+    @Mock
+    private AnswerCacheRepository answerCacheRepository;
+
+    @Mock
+    private VectorRepository vectorRepository;
+
+    @Mock
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private SemanticAnswerCache cache;
+
+    private final float[] embedding = {0.1f, 0.2f};
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new SemanticAnswerCache(answerCacheRepository, vectorRepository, queryEmbeddingCache,
+            ragConfig, meterRegistry);
+        when(queryEmbeddingCache.embed(anyString())).thenReturn(embedding);
+        when(vectorRepository.findActiveGenerations(any())).thenReturn(Map.of(1L, 11L, 2L, 22L));
+    }
+
+    @Nested
+    @DisplayName("查找")
+    class LookupTests {
+
+        @Test
+        @DisplayName("相似度达到阈值 - 命中")
+        void testHitAboveThreshold() {
+            // Given
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenReturn(Optional.of(new CachedAnswer("什么是 IOC", "控制反转", 0.97)));
+
+            // When
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(2L, 1L, 2L), "IOC 是什么");
+
+            // Then: 知识库ID去重排序，代数按知识库顺序拼接
+            assertTrue(lookup.hit());
+            assertEquals("控制反转", lookup.answer());
+            verify(answerCacheRepository).findMostSimilar(eq("1,2"), eq("11,22"), eq(embedding), any());
+            assertEquals(1, meterRegistry.counter("rag.answer.cache.hits").count());
+            assertEquals(1, meterRegistry.timer("rag.answer.cache.lookup").count());
+        }
+
+        @Test
+        @DisplayName("相似度低于阈值 - 未命中")
+        void testMissBelowThreshold() {
+            // Given
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenReturn(Optional.of(new CachedAnswer("什么是 AOP", "面向切面", 0.80)));
+
+            // When
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(1L), "IOC 是什么");
+
+            // Then
+            assertFalse(lookup.hit());
+            assertTrue(lookup.enabled());
+            assertEquals(1, meterRegistry.counter("rag.answer.cache.misses").count());
+        }
+
+        @Test
+        @DisplayName("尚未切换过代数的知识库按 0 代处理")
+        void testKnowledgeBaseWithoutGeneration() {
+            // Given
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenReturn(Optional.empty());
+
+            // When
+            cache.lookup(List.of(3L, 1L), "问题");
+
+            // Then
+            verify(answerCacheRepository).findMostSimilar(eq("1,3"), eq("11,0"), any(), any());
+        }
+
+        @Test
+        @DisplayName("查找失败 - 降级为未命中且不写入")
+        void testLookupFailureDegrades() {
+            // Given
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenThrow(new RuntimeException("数据库错误"));
+
+            // When
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(1L), "问题");
+            cache.store(lookup, "问题", "答案");
+
+            // Then
+            assertFalse(lookup.hit());
+            verify(answerCacheRepository, never()).save(any(), any(), any(), any(), any(), any());
+        }
+
+        @Test
+        @DisplayName("关闭缓存 - 不查询也不写入")
+        void testDisabled() {
+            // Given
+            ragConfig.getAnswerCache().setEnabled(false);
+
+            // When
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(1L), "问题");
+            cache.store(lookup, "问题", "答案");
+
+            // Then
+            assertFalse(lookup.hit());
+            verifyNoInteractions(answerCacheRepository, queryEmbeddingCache);
+        }
+    }
+
+    @Nested
+    @DisplayName("写入与失效")
+    class StoreAndInvalidateTests {
+
+        @Test
+        @DisplayName("写入时使用查找时的代数，写入后删除旧代数和过期的答案并按条目数裁剪")
+        void testStoreUsesLookupGeneration() {
+            // Given
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenReturn(Optional.empty());
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(1L), "问题");
+            when(answerCacheRepository.deleteSuperseded("1", "11")).thenReturn(3);
+            when(answerCacheRepository.deleteExpired(ragConfig.getAnswerCache().getTtl())).thenReturn(2);
+
+            // When
+            cache.store(lookup, "问题", "答案");
+
+            // Then
+            verify(answerCacheRepository).save(List.of(1L), "1", "11", "问题", embedding, "答案");
+            verify(answerCacheRepository).trimToSize(ragConfig.getAnswerCache().getMaxEntries());
+            assertEquals(5, meterRegistry.counter("rag.answer.cache.evictions").count());
+        }
+
+        @Test
+        @DisplayName("生成期间知识库切换了代数 - 不写入旧代数的答案，并删除旧代数的答案")
+        void testStoreSkipsSupersededGeneration() {
+            // Given: 查找之后知识库切换了代数
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenReturn(Optional.empty());
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(1L), "问题");
+            when(vectorRepository.findActiveGenerations(any())).thenReturn(Map.of(1L, 12L));
+
+            // When
+            cache.store(lookup, "问题", "答案");
+
+            // Then
+            verify(answerCacheRepository, never()).save(any(), any(), any(), any(), any(), any());
+            verify(answerCacheRepository).deleteSuperseded("1", "12");
+        }
+
+        @Test
+        @DisplayName("启动时删除过期答案并按条目数裁剪")
+        void testCleanUpOnStartup() {
+            // Given
+            ragConfig.getAnswerCache().setMaxEntries(100);
+
+            // When
+            cache.cleanUp();
+
+            // Then
+            verify(answerCacheRepository).deleteExpired(ragConfig.getAnswerCache().getTtl());
+            verify(answerCacheRepository).trimToSize(100);
+        }
+
+        @Test
+        @DisplayName("空答案不写入")
+        void testBlankAnswerNotStored() {
+            // Given
+            when(answerCacheRepository.findMostSimilar(anyString(), anyString(), any(), any()))
+                .thenReturn(Optional.empty());
+            SemanticAnswerCache.Lookup lookup = cache.lookup(List.of(1L), "问题");
+
+            // When
+            cache.store(lookup, "问题", " ");
+
+            // Then
+            verify(answerCacheRepository, never()).save(any(), any(), any(), any(), any(), any());
+        }
+
+        @Test
+        @DisplayName("清除失败不抛出异常")
+        void testInvalidateFailureSilentlyHandled() {
+            // Given
+            when(answerCacheRepository.deleteByKnowledgeBaseId(1L)).thenThrow(new RuntimeException("数据库错误"));
+
+            // When & Then
+            assertDoesNotThrow(() -> cache.invalidate(1L));
+        }
+    }
+
+    @Test
+    @DisplayName("流式回放 - 分段输出且拼接后与原答案一致")
+    void testReplay() {
+        String answer = "Spring 的 IOC 容器负责创建和管理 Bean 的生命周期，依赖注入是其核心实现方式。".repeat(2);
+
+        List<String> chunks = SemanticAnswerCache.replay(answer).collectList().block();
+
+        assertNotNull(chunks);
+        assertTrue(chunks.size() > 1);
+        assertEquals(answer, String.join("", chunks));
+    }
+}
@@ -0,0 +1,118 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SseFrameCoalescer 单元测试
+ *
+ * <p>测试覆盖：首个片段立即发出、按字符数合并、按时间窗口发出、关闭合并、出错前发出剩余片段、换行转义与心跳
+ */
+@DisplayName("SSE 帧合并测试")
+class SseFrameCoalescerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private RagConfigProperties ragConfig;
+    private SimpleMeterRegistry meterRegistry;
+    private SseFrameCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        ragConfig = new RagConfigProperties();
+        meterRegistry = new SimpleMeterRegistry();
+        coalescer = new SseFrameCoalescer(ragConfig, meterRegistry);
+    }
+
+    private List<String> coalesce(Flux<String> tokens, int maxChars, Duration window) {
+        return SseFrameCoalescer.coalesce(tokens, maxChars, window, Schedulers.parallel())
+            .collectList()
+            .block(TIMEOUT);
+    }
+
+    @Test
+    @DisplayName("首个片段立即发出，之后累计达到字符数时合并发出，结束时发出剩余片段")
+    void testCoalesceBySize() {
+        // Given
+        Flux<String> tokens = Flux.just("a", "bc", "de", "fgh", "i", "j");
+
+        // When
+        List<String> frames = coalesce(tokens, 4, Duration.ofSeconds(1));
+
+        // Then
+        assertEquals(List.of("a", "bcde", "fghi", "j"), frames);
+    }
+
+    @Test
+    @DisplayName("片段等待超过时间窗口后单独发出")
+    void testCoalesceByTime() {
+        // Given: "c" 在 "b" 之后 300ms 才到达
+        Flux<String> tokens = Flux.concat(Flux.just("a", "b"),
+            Mono.delay(Duration.ofMillis(300)).thenMany(Flux.just("c")));
+
+        // When
+        List<String> frames = coalesce(tokens, 64, Duration.ofMillis(20));
+
+        // Then
+        assertEquals(List.of("a", "b", "c"), frames);
+    }
+
+    @Test
+    @DisplayName("字符数不超过 1 或时间窗口为 0 时不合并")
+    void testDisabled() {
+        Flux<String> tokens = Flux.just("a", "b", "c");
+
+        assertEquals(List.of("a", "b", "c"), coalesce(tokens, 1, Duration.ofMillis(20)));
+        assertEquals(List.of("a", "b", "c"), coalesce(tokens, 64, Duration.ZERO));
+    }
+
+    @Test
+    @DisplayName("上游出错时先发出已累计的片段再传递错误")
+    void testErrorFlushesPending() {
+        // Given
+        Flux<String> tokens = Flux.concat(Flux.just("a", "b", "c"), Flux.error(new IllegalStateException("boom")));
+        List<String> frames = new ArrayList<>();
+
+        // When
+        IllegalStateException error = assertThrows(IllegalStateException.class, () ->
+            SseFrameCoalescer.coalesce(tokens, 64, Duration.ofSeconds(1), Schedulers.parallel())
+                .doOnNext(frames::add)
+                .blockLast(TIMEOUT));
+
+        // Then
+        assertEquals("boom", error.getMessage());
+        assertEquals(List.of("a", "bc"), frames);
+    }
+
+    @Test
+    @DisplayName("转换为 SSE 事件时转义换行符，空闲时发送心跳注释，流结束后心跳停止")
+    void testToEventsEscapesAndSendsHeartbeat() {
+        // Given
+        ragConfig.getStream().setHeartbeatInterval(Duration.ofMillis(50));
+        Flux<String> tokens = Mono.delay(Duration.ofMillis(300)).thenMany(Flux.just("第一行\n第二行"));
+
+        // When
+        List<ServerSentEvent<String>> events = coalescer.toEvents(tokens).collectList().block(TIMEOUT);
+
+        // Then
+        assertNotNull(events);
+        List<String> data = events.stream().map(ServerSentEvent::data).filter(d -> d != null).toList();
+        long heartbeats = events.stream().filter(e -> "heartbeat".equals(e.comment())).count();
+        assertEquals(List.of("第一行\\n第二行"), data);
+        assertTrue(heartbeats >= 2, "空闲期间应发送心跳: " + heartbeats);
+        assertEquals(1.0, meterRegistry.counter("rag.stream.frames").count(), 1e-9);
+    }
+}
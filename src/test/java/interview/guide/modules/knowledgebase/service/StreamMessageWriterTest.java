@@ -0,0 +1,204 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.common.exception.BusinessException;
+import interview.guide.modules.knowledgebase.repository.RagChatMessageRepository.StreamProgress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * StreamMessageWriter 单元测试
+ *
+ * <p>测试覆盖：按片段数分批写入、客户端断开后继续写入、单批写入失败不中断实时推送、出错时标记失败而不是完成、
+ * 续传轮询、失败与中断判断
+ */
+@DisplayName("流式回答分批写入测试")
+class StreamMessageWriterTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Mock
+    private RagChatSessionService sessionService;
+
+    private RagConfigProperties ragConfig;
+    private RagStreamScheduler streamScheduler;
+    private StreamMessageWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        ragConfig = new RagConfigProperties();
+        ragConfig.getStream().setPersistTokens(2);
+        ragConfig.getStream().setPersistInterval(Duration.ofSeconds(1));
+        streamScheduler = new RagStreamScheduler(ragConfig);
+        writer = new StreamMessageWriter(sessionService, streamScheduler, ragConfig, new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamScheduler.shutdown();
+    }
+
+    private StreamProgress progress(String content, boolean completed, LocalDateTime updatedAt) {
+        return progress(content, completed, false, updatedAt);
+    }
+
+    private StreamProgress progress(String content, boolean completed, boolean failed, LocalDateTime updatedAt) {
+        StreamProgress progress = mock(StreamProgress.class);
+        when(progress.getContent()).thenReturn(content);
+        when(progress.getCompleted()).thenReturn(completed);
+        when(progress.getFailed()).thenReturn(failed);
+        when(progress.getUpdatedAt()).thenReturn(updatedAt);
+        return progress;
+    }
+
+    @Test
+    @DisplayName("按片段数分批追加写入，结束时标记完成")
+    void testWritesInBatches() {
+        // When
+        List<String> received = writer.write(1L, Flux.just("a", "b", "c", "d", "e")).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("a", "b", "c", "d", "e"), received);
+        verify(sessionService, timeout(TIMEOUT.toMillis())).completeStreamMessage(1L, "");
+        InOrder inOrder = inOrder(sessionService);
+        inOrder.verify(sessionService).appendStreamMessage(1L, "ab");
+        inOrder.verify(sessionService).appendStreamMessage(1L, "cd");
+        inOrder.verify(sessionService).appendStreamMessage(1L, "e");
+        inOrder.verify(sessionService).completeStreamMessage(1L, "");
+    }
+
+    @Test
+    @DisplayName("客户端断开后继续生成并写入完整回答")
+    void testContinuesAfterClientCancels() {
+        // Given
+        Flux<String> answer = Flux.just("a", "b", "c").delayElements(Duration.ofMillis(20));
+
+        // When: 客户端只收到第一个片段就断开
+        String first = writer.write(1L, answer).blockFirst(TIMEOUT);
+
+        // Then
+        assertEquals("a", first);
+        verify(sessionService, timeout(TIMEOUT.toMillis())).completeStreamMessage(1L, "");
+        verify(sessionService).appendStreamMessage(1L, "ab");
+        verify(sessionService).appendStreamMessage(1L, "c");
+    }
+
+    @Test
+    @DisplayName("模型回答流出错时错误传给实时流，消息标记失败而不是作为完成的回答保存")
+    void testModelErrorMarksMessageFailed() {
+        // When: 一条没有任何内容就出错，一条输出部分内容后出错
+        assertThrows(IllegalStateException.class, () ->
+            writer.write(1L, Flux.error(new IllegalStateException("boom"))).blockLast(TIMEOUT));
+        assertThrows(IllegalStateException.class, () ->
+            writer.write(2L, Flux.concat(Flux.just("a"), Flux.error(new IllegalStateException("boom"))))
+                .blockLast(TIMEOUT));
+
+        // Then
+        verify(sessionService, timeout(TIMEOUT.toMillis())).failStreamMessage(1L, "【错误】回答生成失败：boom");
+        verify(sessionService, timeout(TIMEOUT.toMillis())).failStreamMessage(2L, "");
+        verify(sessionService).appendStreamMessage(2L, "a");
+        verify(sessionService, never()).appendStreamMessage(eq(1L), anyString());
+        verify(sessionService, never()).completeStreamMessage(anyLong(), anyString());
+    }
+
+    @Test
+    @DisplayName("某一批写入失败时实时推送不中断，内容并入下一批写入")
+    void testAppendFailureDoesNotBreakLive() {
+        // Given: 第一批写入失败
+        doThrow(new IllegalStateException("db down")).doNothing()
+            .when(sessionService).appendStreamMessage(anyLong(), anyString());
+
+        // When
+        List<String> received = writer.write(1L, Flux.just("a", "b", "c", "d", "e")).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("a", "b", "c", "d", "e"), received);
+        verify(sessionService, timeout(TIMEOUT.toMillis())).completeStreamMessage(1L, "");
+        InOrder inOrder = inOrder(sessionService);
+        inOrder.verify(sessionService).appendStreamMessage(1L, "ab");
+        inOrder.verify(sessionService).appendStreamMessage(1L, "abcd");
+        inOrder.verify(sessionService).appendStreamMessage(1L, "e");
+    }
+
+    @Test
+    @DisplayName("最后一批写入失败时结束时一并写入")
+    void testLastAppendFailureWrittenOnComplete() {
+        // Given
+        doThrow(new IllegalStateException("db down")).when(sessionService).appendStreamMessage(anyLong(), anyString());
+
+        // When
+        List<String> received = writer.write(1L, Flux.just("a")).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("a"), received);
+        verify(sessionService, timeout(TIMEOUT.toMillis())).completeStreamMessage(1L, "a");
+    }
+
+    @Test
+    @DisplayName("续传时从已收到的位置轮询新增内容，直到回答完成")
+    void testResumePollsUntilCompleted() {
+        // Given: 客户端已收到 2 个字符
+        ragConfig.getStream().setPersistInterval(Duration.ofMillis(10));
+        LocalDateTime now = LocalDateTime.now();
+        StreamProgress partial = progress("回答", false, now);
+        StreamProgress empty = progress("", false, now);
+        StreamProgress last = progress("完成", true, now);
+        when(sessionService.getStreamProgress(10L, 1L, 2)).thenReturn(partial);
+        when(sessionService.getStreamProgress(10L, 1L, 4)).thenReturn(empty, last);
+
+        // When
+        List<String> resumed = writer.resume(10L, 1L, 2).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("回答", "完成"), resumed);
+        verify(sessionService, times(2)).getStreamProgress(10L, 1L, 4);
+    }
+
+    @Test
+    @DisplayName("续传时回答已生成失败，输出已写入内容后以错误结束")
+    void testResumeFailedMessage() {
+        // Given
+        ragConfig.getStream().setPersistInterval(Duration.ofMillis(10));
+        StreamProgress failed = progress("部分回答", true, true, LocalDateTime.now());
+        when(sessionService.getStreamProgress(10L, 1L, 0)).thenReturn(failed);
+        List<String> received = new ArrayList<>();
+
+        // When & Then
+        assertThrows(BusinessException.class,
+            () -> writer.resume(10L, 1L, 0).doOnNext(received::add).blockLast(TIMEOUT));
+        assertEquals(List.of("部分回答"), received);
+    }
+
+    @Test
+    @DisplayName("未完成的回答长时间没有写入时视为生成中断，结束续传")
+    void testResumeStopsWhenStale() {
+        // Given
+        ragConfig.getStream().setPersistInterval(Duration.ofMillis(10));
+        StreamProgress stale = progress("部分回答", false, LocalDateTime.now().minusMinutes(5));
+        when(sessionService.getStreamProgress(anyLong(), anyLong(), anyInt())).thenReturn(stale);
+
+        // When
+        List<String> resumed = writer.resume(10L, 1L, 0).collectList().block(TIMEOUT);
+
+        // Then
+        assertEquals(List.of("部分回答"), resumed);
+    }
+}
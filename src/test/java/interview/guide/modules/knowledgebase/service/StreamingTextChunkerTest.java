@@ -0,0 +1,143 @@
+package interview.guide.modules.knowledgebase.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StreamingTextChunker 单元测试
+ *
+ * <p>测试覆盖：空文本、短文本、chunk token 上限、与 TokenTextSplitter 分块结果一致、按需读取
+ */
+@DisplayName("流式文本分块器测试")
+class StreamingTextChunkerTest {
+
+    private final StreamingTextChunker chunker = new StreamingTextChunker();
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private List<String> split(String content) {
+        List<String> chunks = new ArrayList<>();
+        chunker.split(new StringReader(content)).forEachRemaining(chunks::add);
+        return chunks;
+    }
+
+    private String englishContent(int sentences) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            builder.append("Sentence ").append(i)
+                .append(" explains how the knowledge base splits documents into chunks before embedding them. ");
+            if (i % 7 == 6) {
+                builder.append("\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    private String chineseContent(int paragraphs) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < paragraphs; i++) {
+            builder.append("这是第 ").append(i).append(" 段内容。")
+                .append("知识库系统可以将文档内容向量化，然后进行语义搜索，提高检索的准确性。")
+                .append("通过 pgvector 扩展，可以实现高效的向量索引和检索功能。")
+                .append("\n\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 记录已读取字符数的 Reader
+     */
+    private static class CountingReader extends FilterReader {
+
+        private long charsRead;
+
+        CountingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int read = super.read(cbuf, off, len);
+            if (read > 0) {
+                charsRead += read;
+            }
+            return read;
+        }
+    }
+
+    @Test
+    @DisplayName("空文本和空白文本不产生 chunk")
+    void testEmptyContent() {
+        assertTrue(split("").isEmpty());
+        assertTrue(split("   \n\n  ").isEmpty());
+    }
+
+    @Test
+    @DisplayName("短文本产生一个去除首尾空白的 chunk")
+    void testShortContent() {
+        assertEquals(List.of("Spring AI 知识库。"), split("  Spring AI 知识库。\n"));
+    }
+
+    @Test
+    @DisplayName("每个 chunk 不超过 token 上限，且不丢失正文")
+    void testChunksWithinTokenLimit() {
+        // Given
+        String content = chineseContent(300);
+
+        // When
+        List<String> chunks = split(content);
+
+        // Then
+        assertTrue(chunks.size() > 1, "长文本应被切分为多个 chunk");
+        for (String chunk : chunks) {
+            assertTrue(encoding.countTokens(chunk) <= 800, "chunk 超过 token 上限: " + encoding.countTokens(chunk));
+        }
+        assertEquals(content.replaceAll("\\s", ""), String.join("", chunks).replaceAll("\\s", ""));
+    }
+
+    @Test
+    @DisplayName("分块结果与 TokenTextSplitter 默认配置一致")
+    void testMatchesTokenTextSplitter() {
+        // Given
+        String content = englishContent(400);
+
+        // When
+        List<String> expected = new TokenTextSplitter().apply(List.of(new Document(content))).stream()
+            .map(Document::getText)
+            .toList();
+
+        // Then: chunk 文本一致，已存储 chunk 的哈希在切换分块器后仍可复用
+        assertEquals(expected, split(content));
+    }
+
+    @Test
+    @DisplayName("按需读取 - 取第一个 chunk 时只读取少量文本")
+    void testReadsLazily() {
+        // Given: 约 2MB 文本
+        String content = chineseContent(20000);
+        CountingReader reader = new CountingReader(new StringReader(content));
+
+        // When
+        Iterator<String> chunks = chunker.split(reader);
+        chunks.next();
+
+        // Then
+        assertTrue(reader.charsRead < 64 * 1024, "不应预读整篇文档，实际读取: " + reader.charsRead);
+        assertTrue(content.length() > 1024 * 1024);
+    }
+}
@@ -0,0 +1,100 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.modules.knowledgebase.repository.VectorRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * VectorBulkWriter 单元测试
+ *
+ * <p>测试覆盖：按 Embedding API 批量限制分次调用、向量与文档顺序对应、一次 COPY 写入、写入指标
+ */
+@DisplayName("向量批量写入测试")
+class VectorBulkWriterTest {
+
+    @Mock
+    private EmbeddingModel embeddingModel;
+
+    @Mock
+    private VectorRepository vectorRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private VectorBulkWriter writer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        // 向量第一维为文本中的序号，便于校验顺序
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> ((List<String>) invocation.getArgument(0))
+            .stream()
+            .map(text -> new float[]{Float.parseFloat(text)})
+            .toList());
+        when(vectorRepository.copyIn(anyList(), anyList()))
+            .thenAnswer(invocation -> (long) ((List<?>) invocation.getArgument(0)).size());
+        writer = new VectorBulkWriter(embeddingModel, vectorRepository, meterRegistry);
+    }
+
+    private List<Document> documents(int count) {
+        return IntStream.range(0, count).mapToObj(i -> new Document(String.valueOf(i))).toList();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    @DisplayName("超过批量限制时分次向量化，一次 COPY 写入全部文档")
+    void testSlicesEmbeddingCallsAndCopiesOnce() {
+        // Given
+        List<Document> documents = documents(23);
+
+        // When
+        writer.write(documents);
+
+        // Then: 10 + 10 + 3 三次 API 调用
+        ArgumentCaptor<List<String>> texts = ArgumentCaptor.forClass(List.class);
+        verify(embeddingModel, times(3)).embed(texts.capture());
+        assertEquals(List.of(10, 10, 3), texts.getAllValues().stream().map(List::size).toList());
+
+        ArgumentCaptor<List<float[]>> embeddings = ArgumentCaptor.forClass(List.class);
+        verify(vectorRepository).copyIn(eq(documents), embeddings.capture());
+        for (int i = 0; i < documents.size(); i++) {
+            assertEquals(i, embeddings.getValue().get(i)[0], "向量应与文档顺序对应");
+        }
+        assertEquals(23, meterRegistry.counter("rag.vector.copy.rows").count());
+    }
+
+    @Test
+    @DisplayName("空列表不调用 API 也不写库")
+    void testEmptyDocuments() {
+        // When
+        writer.write(List.of());
+
+        // Then
+        verifyNoInteractions(embeddingModel, vectorRepository);
+    }
+
+    @Test
+    @DisplayName("写入失败时异常向上抛出")
+    void testCopyFailurePropagates() {
+        // Given
+        when(vectorRepository.copyIn(anyList(), anyList())).thenThrow(new IllegalStateException("COPY 失败"));
+
+        // When & Then
+        assertThrows(IllegalStateException.class, () -> writer.write(documents(3)));
+        assertEquals(0, meterRegistry.counter("rag.vector.copy.rows").count());
+    }
+}
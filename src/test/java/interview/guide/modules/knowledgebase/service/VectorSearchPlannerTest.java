@@ -0,0 +1,85 @@
+package interview.guide.modules.knowledgebase.service;
+
+import interview.guide.common.config.RagConfigProperties;
+import interview.guide.modules.knowledgebase.repository.VectorRepository.SearchPlan;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * VectorSearchPlanner 单元测试
+ *
+ * <p>测试覆盖：小知识库精确扫描、ef_search 随规模增长、按选择率放大、上限与精确扫描兜底、iterative_scan、不限定知识库
+ */
+@DisplayName("向量检索规划测试")
+class VectorSearchPlannerTest {
+
+    private RagConfigProperties.VectorIndex config;
+
+    @BeforeEach
+    void setUp() {
+        config = new RagConfigProperties().getVectorIndex();
+        config.setEfSearch(64);
+        config.setExactScanThreshold(2000);
+        config.setMaxEfSearch(400);
+    }
+
+    @Test
+    @DisplayName("chunk 数不超过阈值时精确扫描")
+    void testSmallKnowledgeBaseUsesExactScan() {
+        assertEquals(SearchPlan.exact(), VectorSearchPlanner.plan(0, 1_000_000, true, 5, config));
+        assertEquals(SearchPlan.exact(), VectorSearchPlanner.plan(2000, 1_000_000, true, 5, config));
+    }
+
+    @Test
+    @DisplayName("ef_search 随知识库规模增长")
+    void testEfSearchGrowsWithSize() {
+        // 选择率为 1，不放大
+        assertEquals(64, VectorSearchPlanner.plan(10_000, 10_000, true, 5, config).efSearch());
+        assertEquals(128, VectorSearchPlanner.plan(20_000, 20_000, true, 5, config).efSearch());
+        assertEquals(256, VectorSearchPlanner.plan(200_000, 200_000, true, 5, config).efSearch());
+        assertEquals(400, VectorSearchPlanner.plan(20_000_000, 20_000_000, true, 5, config).efSearch());
+    }
+
+    @Test
+    @DisplayName("ef_search 不小于 topK")
+    void testEfSearchAtLeastTopK() {
+        assertEquals(100, VectorSearchPlanner.plan(10_000, 10_000, true, 100, config).efSearch());
+    }
+
+    @Test
+    @DisplayName("过滤检索按选择率放大 ef_search")
+    void testEfSearchScaledBySelectivity() {
+        // 选择率 1/4
+        assertEquals(SearchPlan.ann(256, false), VectorSearchPlanner.plan(10_000, 40_000, true, 5, config));
+    }
+
+    @Test
+    @DisplayName("放大后超过上限且行数不多时改为精确扫描，行数很多时取上限")
+    void testSelectiveFilterFallsBackToExactScan() {
+        // 选择率 1%，需要 ef_search 6400
+        assertEquals(SearchPlan.exact(), VectorSearchPlanner.plan(10_000, 1_000_000, true, 5, config));
+        // 行数超过精确扫描阈值 10 倍
+        assertEquals(SearchPlan.ann(400, false), VectorSearchPlanner.plan(50_000, 5_000_000, true, 5, config));
+    }
+
+    @Test
+    @DisplayName("开启 iterative_scan 时不按选择率放大")
+    void testIterativeScan() {
+        config.setIterativeScan(true);
+
+        assertEquals(SearchPlan.ann(64, true), VectorSearchPlanner.plan(10_000, 1_000_000, true, 5, config));
+        assertEquals(SearchPlan.exact(), VectorSearchPlanner.plan(1000, 1_000_000, true, 5, config));
+    }
+
+    @Test
+    @DisplayName("不限定知识库时走索引，不开启 iterative_scan")
+    void testUnfilteredSearch() {
+        config.setIterativeScan(true);
+
+        assertEquals(SearchPlan.ann(64, false), VectorSearchPlanner.plan(0, 0, false, 5, config));
+        assertEquals(SearchPlan.ann(256, false), VectorSearchPlanner.plan(500_000, 500_000, false, 5, config));
+    }
+}